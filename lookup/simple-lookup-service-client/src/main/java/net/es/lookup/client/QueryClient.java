@@ -1,5 +1,6 @@
 package net.es.lookup.client;
 
+import net.es.lookup.common.ReservedValues;
 import net.es.lookup.common.ResponseCodes;
 import net.es.lookup.common.exception.LSClientException;
 import net.es.lookup.common.exception.ParserException;
@@ -28,6 +29,7 @@ public class QueryClient {
     private String connectionType = "GET";
     private String baseUrl = "lookup/records/";
     private String relativeUrl;
+    private String format = ReservedValues.MEDIA_TYPE_JSON;
 
     private static Logger LOG = LogManager.getLogger(QueryClient.class);
 
@@ -82,6 +84,20 @@ public class QueryClient {
         }
     }
 
+    public String getFormat() {
+
+        return format;
+    }
+
+    /**
+     * Sets the format the results are transferred in: JSON, or application/cbor or
+     * application/x-msgpack, which are smaller and faster to parse for large results.
+     */
+    public synchronized void setFormat(String format) {
+
+        this.format = format;
+    }
+
     public String getRelativeUrl() throws QueryException {
 
         relativeUrl = baseUrl;
@@ -104,9 +120,20 @@ public class QueryClient {
         server.setRelativeUrl(relativeUrl);
 
         LOG.info("net.es.lookup.client.QueryClient: Sending query request");
-        server.send();
+        server.setAccept(format);
+        try {
+            server.send();
+        } finally {
+            server.setAccept(ReservedValues.MEDIA_TYPE_JSON);
+        }
+
+        if (server.getResponseCode() == ResponseCodes.SUCCESS && server.getResponseBytes() != null) {
+
+            LOG.info("net.es.lookup.client.QueryClient: Parsing " + server.getResponseType() + " response");
+            result.addAll(JSONParser.toRecords(server.getResponseBytes(), server.getResponseType()));
+            return result;
 
-        if (server.getResponseCode() == ResponseCodes.SUCCESS) {
+        } else if (server.getResponseCode() == ResponseCodes.SUCCESS) {
             String response = server.getResponse();
 
             LOG.info("net.es.lookup.client.QueryClient: Parsing response");
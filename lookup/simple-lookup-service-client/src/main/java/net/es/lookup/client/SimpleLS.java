@@ -14,11 +14,17 @@ import java.net.URISyntaxException;
 
 import net.es.lookup.common.ReservedValues;
 import net.es.lookup.common.exception.LSClientException;
+import net.es.lookup.protocol.binary.BinaryCodec;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.HttpResponse;
@@ -39,6 +45,11 @@ public class SimpleLS {
     private String data;
     private int timeout = 5000;
     private String response;
+    private byte[] responseBytes;
+    private String responseType;
+    private String accept = ReservedValues.MEDIA_TYPE_JSON;
+    private boolean compression = true;
+    private boolean compressRequests = false;
 
     private int responseCode;
     private String errorMessage;
@@ -95,6 +106,63 @@ public class SimpleLS {
         return response;
     }
 
+    /**
+     * Returns the body of a response in a binary format, which getResponse does not return.
+     *
+     * @return the body, or null if the response was text
+     */
+    public byte[] getResponseBytes() {
+
+        return responseBytes;
+    }
+
+    public String getResponseType() {
+
+        return responseType;
+    }
+
+    public String getAccept() {
+
+        return accept;
+    }
+
+    /**
+     * Sets the media type asked for in the Accept header. Servers answer queries in
+     * application/cbor or application/x-msgpack when asked; JSON is the default.
+     */
+    public synchronized void setAccept(String accept) {
+
+        this.accept = accept;
+    }
+
+    public boolean isCompression() {
+
+        return compression;
+    }
+
+    /**
+     * Asks the server to compress responses with gzip or deflate, which are decoded transparently.
+     * Enabled by default.
+     */
+    public synchronized void setCompression(boolean compression) {
+
+        this.compression = compression;
+    }
+
+    public boolean isCompressRequests() {
+
+        return compressRequests;
+    }
+
+    /**
+     * Sends POST bodies compressed with gzip, for large bulk registrations. The server must
+     * support compressed requests, so this is disabled by default.
+     */
+    public synchronized void setCompressRequests(boolean compressRequests) {
+
+        this.compressRequests = compressRequests;
+    }
+
     public int getResponseCode() {
 
         return responseCode;
@@ -209,7 +277,8 @@ public class SimpleLS {
         if (connectionType.equalsIgnoreCase("GET")) {
             HttpGet httpGet = new HttpGet();
             httpGet.setURI(connectionUrl);
-            httpGet.setHeader("Accept", "application/json");
+            httpGet.setHeader("Accept", accept);
+            setAcceptEncoding(httpGet);
             httpGet.setHeader("Content-type", "application/json");
             try {
                 httpResponse = httpclient.execute(httpGet);
@@ -220,15 +289,16 @@ public class SimpleLS {
         } else if (connectionType.equalsIgnoreCase("POST")) {
             HttpPost httpPost = new HttpPost();
             httpPost.setURI(connectionUrl);
-            httpPost.setHeader("Accept", "application/json");
+            httpPost.setHeader("Accept", accept);
             httpPost.setHeader("Content-type", "application/json");
+            setAcceptEncoding(httpPost);
             StringEntity se;
             try {
                 se = new StringEntity(data);
             } catch (UnsupportedEncodingException e) {
                 throw new LSClientException(e.getMessage());
             }
-            httpPost.setEntity(se);
+            httpPost.setEntity(compressRequests ? new GzipCompressingEntity(se) : se);
             try {
                 httpResponse = httpclient.execute(httpPost);
             } catch (IOException e) {
@@ -251,9 +321,16 @@ public class SimpleLS {
 
         this.responseCode = httpResponse.getStatusLine().getStatusCode();
         this.errorMessage = httpResponse.getStatusLine().getReasonPhrase();
-        HttpEntity entity = httpResponse.getEntity();
+        HttpEntity entity = decompress(httpResponse.getEntity());
+        this.responseType = (entity.getContentType() != null) ? entity.getContentType().getValue() : null;
         try {
-            this.response = EntityUtils.toString(entity);
+            if (BinaryCodec.forMediaType(responseType) != null) {
+                this.responseBytes = EntityUtils.toByteArray(entity);
+                this.response = null;
+            } else {
+                this.response = EntityUtils.toString(entity);
+                this.responseBytes = null;
+            }
         } catch (IOException e) {
             throw new LSClientException(e.getMessage());
         }
@@ -262,6 +339,28 @@ public class SimpleLS {
     }
 
 
+    private void setAcceptEncoding(HttpRequestBase request) {
+
+        if (compression) {
+            request.setHeader("Accept-Encoding", "gzip, deflate");
+        }
+    }
+
+    private static HttpEntity decompress(HttpEntity entity) {
+
+        Header encoding = entity.getContentEncoding();
+        if (encoding == null) {
+            return entity;
+        }
+        String value = encoding.getValue().trim();
+        if (value.equalsIgnoreCase("gzip") || value.equalsIgnoreCase("x-gzip")) {
+            return new GzipDecompressingEntity(entity);
+        } else if (value.equalsIgnoreCase("deflate")) {
+            return new DeflateDecompressingEntity(entity);
+        }
+        return entity;
+    }
+
     private boolean isValidConnectionType(String connectionType) {
 
         if (connectionType.equalsIgnoreCase("GET") || connectionType.equalsIgnoreCase("POST") || connectionType.equalsIgnoreCase("DELETE")) {
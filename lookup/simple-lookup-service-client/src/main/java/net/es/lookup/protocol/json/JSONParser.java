@@ -4,6 +4,7 @@ import net.es.lookup.common.ReservedKeys;
 import net.es.lookup.common.exception.ParserException;
 import net.es.lookup.common.exception.QueryException;
 import net.es.lookup.common.exception.RecordException;
+import net.es.lookup.protocol.binary.BinaryCodec;
 import net.es.lookup.queries.Query;
 import net.es.lookup.records.Record;
 import net.es.lookup.records.RecordFactory;
@@ -13,6 +14,7 @@ import net.sf.json.JSONObject;
 import net.sf.json.util.JSONBuilder;
 import net.sf.json.util.JSONStringer;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -179,6 +181,84 @@ public class JSONParser {
     }
 
 
+    /**
+     * Parses a record encoded in a binary format.
+     *
+     * @param bytes the encoded record
+     * @param mediaType application/cbor or application/x-msgpack
+     */
+    public static Record toRecord(byte[] bytes, String mediaType) throws ParserException {
+
+        Object value = decode(bytes, mediaType);
+        if (!(value instanceof Map)) {
+            throw new ParserException("Error parsing response. Cannot convert to Record");
+        }
+        return toRecord((Map<String, Object>) value);
+    }
+
+    /**
+     * Parses an array of records encoded in a binary format, like the results of a query.
+     *
+     * @param bytes the encoded records
+     * @param mediaType application/cbor or application/x-msgpack
+     */
+    public static List<Record> toRecords(byte[] bytes, String mediaType) throws ParserException {
+
+        BinaryCodec codec = getCodec(mediaType);
+        List<Object> value;
+        try {
+            value = codec.decodeArray(bytes);
+        } catch (IOException e) {
+            throw new ParserException("Error parsing " + mediaType + ": " + e.getMessage());
+        }
+
+        List<Record> result = new ArrayList<Record>();
+        for (Object element : value) {
+            if (!(element instanceof Map)) {
+                throw new ParserException("Error parsing response. Cannot convert to Records");
+            }
+            result.add(toRecord((Map<String, Object>) element));
+        }
+        return result;
+    }
+
+    private static Object decode(byte[] bytes, String mediaType) throws ParserException {
+
+        BinaryCodec codec = getCodec(mediaType);
+        try {
+            return codec.decode(bytes);
+        } catch (IOException e) {
+            throw new ParserException("Error parsing " + mediaType + ": " + e.getMessage());
+        }
+    }
+
+    private static BinaryCodec getCodec(String mediaType) throws ParserException {
+
+        BinaryCodec codec = BinaryCodec.forMediaType(mediaType);
+        if (codec == null) {
+            throw new ParserException("Unsupported media type " + mediaType);
+        }
+        return codec;
+    }
+
+    private static Record toRecord(Map<String, Object> map) throws ParserException {
+
+        Object type = map.get(ReservedKeys.RECORD_TYPE);
+        if (type instanceof List) {
+            type = ((List) type).isEmpty() ? null : ((List) type).get(0);
+        }
+
+        try {
+            Record result = RecordFactory.getRecord((String) type);
+            result.setMap(map);
+            return result;
+        } catch (RecordException e) {
+            throw new ParserException(e.getMessage());
+        } catch (ClassCastException e) {
+            throw new ParserException("Error parsing response. Invalid record type");
+        }
+    }
+
     public static List<Query> toQuery(String jsonString) throws ParserException {
 
         List<Query> result = new ArrayList<Query>();
@@ -1,5 +1,8 @@
 package net.es.lookup.common;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class ReservedKeys {
 
@@ -11,9 +14,30 @@ public class ReservedKeys {
     public static final String RECORD_EXPIRES = "expires";
     public static final String RECORD_SKIP = "skip";
     public static final String RECORD_MAXRESULTS = "maxresults";
+    public static final String RECORD_CONTINUATION = "continuation";
+    public static final String RECORD_FIELDS = "fields";
+    public static final String RECORD_EXPAND = "expand";
+    public static final String RECORD_FACETS = "facets";
     public static final String RECORD_PRIVATEKEY = "privatekey";
     public static final String RECORD_STATE = "state";
 
+    /**
+     * Keys of the lease of a record. Renewals only change these keys, so the stored JSON of a
+     * record leaves them out and they are always serialized from the map of the record.
+     */
+    public static final List<String> LEASE_KEYS = Collections.unmodifiableList(Arrays.asList(
+            RECORD_TTL, RECORD_EXPIRES, RECORD_STATE));
+
+    //response header carrying the continuation token of a paged query
+    public static final String RECORD_CONTINUATION_HEADER = "X-SLS-Continuation";
+
+    //request header with the client preferences for the response (RFC 7240) and its answer
+    public static final String PREFER_HEADER = "Prefer";
+    public static final String PREFERENCE_APPLIED_HEADER = "Preference-Applied";
+
+    //request header to bypass the query cache
+    public static final String CACHE_CONTROL_HEADER = "Cache-Control";
+
     //error keys
     public static final String ERROR_MESSAGE = "error-message";
     public static final String ERROR_CODE = "error-code";
@@ -105,8 +129,11 @@ public class ReservedKeys {
     public static final String RECORD_BULKRENEW_TOTALRECORDS = "total";
     public static final String RECORD_BULKRENEW_RENEWEDCOUNT = "renewed";
     public static final String RECORD_BULKRENEW_FAILURECOUNT = "failure";
+    public static final String RECORD_QUERY_COUNT = "count";
     public static final String RECORD_BULKRENEW_FAILUREURIS = "failed-uris";
     public static final String RECORD_BULKRENEW_RENEWEDURIS = "renewed-uris";
+    public static final String RECORD_BULKREGISTER_REGISTEREDCOUNT = "registered";
+    public static final String RECORD_BULKREGISTER_FAILURERECORDS = "failed-records";
 
     //cache
 
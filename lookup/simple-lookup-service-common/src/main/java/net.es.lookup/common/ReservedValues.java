@@ -19,6 +19,17 @@ public class ReservedValues {
   public static final String RECORD_VALUE_STATE_DELETE = "deleted";
   public static final String RECORD_VALUE_STATE_EXPIRE = "expired";
 
+  // preference asking for a response without the record body
+  public static final String PREFER_RETURN_MINIMAL = "return=minimal";
+
+  // cache directive asking for a response that is not served from a cache
+  public static final String CACHE_CONTROL_NOCACHE = "no-cache";
+
+  // media types of the responses, JSON is the default and the others are binary encodings
+  public static final String MEDIA_TYPE_JSON = "application/json";
+  public static final String MEDIA_TYPE_CBOR = "application/cbor";
+  public static final String MEDIA_TYPE_MSGPACK = "application/x-msgpack";
+
   // operator values
   public static final String RECORD_OPERATOR_ALL = "all";
   public static final String RECORD_OPERATOR_ANY = "any";
@@ -53,4 +64,8 @@ public class ReservedValues {
   // error messages
   public static final String RECORD_BULKRENEW_EXPIRED_ERRORMESSAGE = "expired";
   public static final String RECORD_BULKRENEW_NOTFOUND_ERRORMESSAGE = "notfound";
+  public static final String RECORD_BULKREGISTER_INVALID_ERRORMESSAGE = "invalid";
+  public static final String RECORD_BULKREGISTER_NOLEASE_ERRORMESSAGE = "nolease";
+  public static final String RECORD_BULKREGISTER_DUPLICATE_ERRORMESSAGE = "duplicate";
+  public static final String RECORD_BULKREGISTER_DATABASE_ERRORMESSAGE = "database";
 }
@@ -7,4 +7,8 @@ public class ResponseCodes {
 
   public static final int ERROR_BULK_EXPIRED = 21;
   public static final int ERROR_BULK_NOTFOUND = 22;
+  public static final int ERROR_BULK_INVALID = 23;
+  public static final int ERROR_BULK_NOLEASE = 24;
+  public static final int ERROR_BULK_DUPLICATE = 25;
+  public static final int ERROR_BULK_DATABASE = 26;
 }
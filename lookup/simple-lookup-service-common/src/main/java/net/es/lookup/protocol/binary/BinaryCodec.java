@@ -0,0 +1,268 @@
+package net.es.lookup.protocol.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.ReservedValues;
+
+/**
+ * Compact binary encodings of the messages exchanged with the lookup service, for clients that
+ * transfer many records at once. JSON stays the default format; the binary ones are negotiated
+ * with the Accept header.
+ *
+ * <p>The codecs work on the same values as the JSON messages: maps with string keys, lists,
+ * strings, and the occasional boolean, number or null. Decoded maps keep the order of the
+ * encoding.
+ */
+public abstract class BinaryCodec {
+
+  public static final BinaryCodec CBOR = new CborCodec();
+  public static final BinaryCodec MSGPACK = new MessagePackCodec();
+
+  // strings longer than this are read in chunks, so that a corrupt length does not allocate it
+  private static final int MAX_CHUNK = 1 << 16;
+
+  /**
+   * Returns the codec of a media type.
+   *
+   * @param mediaType the media type, with or without parameters, or null
+   * @return the codec, or null if the type is not a binary encoding known to the service
+   */
+  public static BinaryCodec forMediaType(String mediaType) {
+
+    if (mediaType == null) {
+      return null;
+    }
+
+    int params = mediaType.indexOf(';');
+    String type = (params < 0 ? mediaType : mediaType.substring(0, params)).trim().toLowerCase();
+    if (ReservedValues.MEDIA_TYPE_CBOR.equals(type)) {
+      return CBOR;
+    } else if (ReservedValues.MEDIA_TYPE_MSGPACK.equals(type)) {
+      return MSGPACK;
+    }
+    return null;
+  }
+
+  public abstract String getMediaType();
+
+  /**
+   * Encodes a value.
+   *
+   * @param value a map, collection, string, boolean, number or null
+   * @param out the stream to write to
+   */
+  public void encode(Object value, OutputStream out) throws IOException {
+
+    if (value == null) {
+
+      writeNull(out);
+
+    } else if (value instanceof String) {
+
+      writeString((String) value, out);
+
+    } else if (value instanceof Map) {
+
+      Map<?, ?> map = (Map<?, ?>) value;
+      writeMapHeader(map.size(), out);
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeString(String.valueOf(entry.getKey()), out);
+        encode(entry.getValue(), out);
+      }
+
+    } else if (value instanceof Collection) {
+
+      Collection<?> list = (Collection<?>) value;
+      writeArrayHeader(list.size(), out);
+      for (Object element : list) {
+        encode(element, out);
+      }
+
+    } else if (value instanceof Boolean) {
+
+      writeBoolean((Boolean) value, out);
+
+    } else if (value instanceof Double || value instanceof Float) {
+
+      writeDouble(((Number) value).doubleValue(), out);
+
+    } else if (value instanceof Number) {
+
+      writeLong(((Number) value).longValue(), out);
+
+    } else {
+
+      writeString(value.toString(), out);
+    }
+  }
+
+  /**
+   * Encodes a value to a byte array.
+   *
+   * @param value a map, collection, string, boolean, number or null
+   * @return the encoded value
+   */
+  public byte[] encode(Object value) {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      encode(value, out);
+    } catch (IOException e) {
+      // a ByteArrayOutputStream does not fail
+      throw new IllegalStateException(e.getMessage());
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Tells if the arrays started with startArray are written as their elements come. Otherwise
+   * the format needs the length of an array up front, and the encoded elements are buffered until
+   * the array is closed, so the service only sends bounded arrays in it.
+   *
+   * @return true if arrays of unknown length are streamed
+   */
+  public boolean streamsArrays() {
+
+    return false;
+  }
+
+  /**
+   * Starts an array whose number of elements is not known in advance, like the results of a
+   * query read from a cursor. Formats that need the length up front buffer the elements until the
+   * array is closed.
+   *
+   * @param out the stream to write to
+   * @return the encoder of the elements, which must be closed to end the array
+   */
+  public ArrayEncoder startArray(final OutputStream out) throws IOException {
+
+    return new ArrayEncoder() {
+
+      private ByteArrayOutputStream elements = new ByteArrayOutputStream();
+      private int count = 0;
+
+      @Override
+      public void write(Object element) throws IOException {
+
+        encode(element, elements);
+        count++;
+      }
+
+      @Override
+      public void close() throws IOException {
+
+        writeArrayHeader(count, out);
+        elements.writeTo(out);
+        elements = null;
+      }
+    };
+  }
+
+  /**
+   * Decodes a value. Strings, maps and arrays are returned as String, Map and List, integers as
+   * Long and floating-point numbers as Double.
+   *
+   * @param in the stream to read from
+   * @return the value
+   * @throws IOException if the stream cannot be read or does not hold a valid encoding
+   */
+  public abstract Object decode(InputStream in) throws IOException;
+
+  public Object decode(byte[] bytes) throws IOException {
+
+    return decode(new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * Decodes an array.
+   *
+   * @param bytes the encoded array
+   * @return the elements of the array
+   * @throws IOException if the bytes do not hold a valid encoding of an array
+   */
+  public List<Object> decodeArray(byte[] bytes) throws IOException {
+
+    Object value = decode(bytes);
+    if (!(value instanceof List)) {
+      throw new IOException("Not an array");
+    }
+    return (List<Object>) value;
+  }
+
+  protected abstract void writeNull(OutputStream out) throws IOException;
+
+  protected abstract void writeBoolean(boolean value, OutputStream out) throws IOException;
+
+  protected abstract void writeLong(long value, OutputStream out) throws IOException;
+
+  protected abstract void writeDouble(double value, OutputStream out) throws IOException;
+
+  protected abstract void writeString(String value, OutputStream out) throws IOException;
+
+  protected abstract void writeArrayHeader(int size, OutputStream out) throws IOException;
+
+  protected abstract void writeMapHeader(int size, OutputStream out) throws IOException;
+
+  /** Writes the lowest bytes of a value in network order. */
+  protected static void writeBytes(long value, int count, OutputStream out) throws IOException {
+
+    for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+      out.write((int) (value >>> shift));
+    }
+  }
+
+  protected static byte[] toUtf8(String value) {
+
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Reads the given number of bytes, in chunks so that a corrupt length fails at the end. */
+  protected static byte[] readBytes(DataInputStream in, long length) throws IOException {
+
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid length " + length);
+    }
+
+    if (length <= MAX_CHUNK) {
+      byte[] bytes = new byte[(int) length];
+      in.readFully(bytes);
+      return bytes;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_CHUNK);
+    byte[] chunk = new byte[MAX_CHUNK];
+    long remaining = length;
+    while (remaining > 0) {
+      int count = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+      if (count < 0) {
+        throw new EOFException();
+      }
+      bytes.write(chunk, 0, count);
+      remaining -= count;
+    }
+    return bytes.toByteArray();
+  }
+
+  protected static String readString(DataInputStream in, long length) throws IOException {
+
+    return new String(readBytes(in, length), StandardCharsets.UTF_8);
+  }
+
+  /** Writes the elements of an array one at a time. */
+  public interface ArrayEncoder {
+
+    void write(Object element) throws IOException;
+
+    /** Ends the array. */
+    void close() throws IOException;
+  }
+}
@@ -0,0 +1,296 @@
+package net.es.lookup.protocol.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.ReservedValues;
+
+/**
+ * CBOR encoding (RFC 8949). Arrays of unknown length are written with the indefinite-length
+ * encoding, so query results are streamed without being buffered.
+ */
+class CborCodec extends BinaryCodec {
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_BYTES = 2;
+  private static final int MAJOR_TEXT = 3;
+  private static final int MAJOR_ARRAY = 4;
+  private static final int MAJOR_MAP = 5;
+  private static final int MAJOR_TAG = 6;
+  private static final int MAJOR_SIMPLE = 7;
+
+  private static final int INDEFINITE = 31;
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int DOUBLE = 0xfb;
+  private static final int BREAK = 0xff;
+
+  // returned by readItem when it reads the end of an indefinite-length item
+  private static final Object END = new Object();
+
+  @Override
+  public String getMediaType() {
+
+    return ReservedValues.MEDIA_TYPE_CBOR;
+  }
+
+  @Override
+  public boolean streamsArrays() {
+
+    return true;
+  }
+
+  @Override
+  public ArrayEncoder startArray(final OutputStream out) throws IOException {
+
+    out.write(MAJOR_ARRAY << 5 | INDEFINITE);
+    return new ArrayEncoder() {
+
+      @Override
+      public void write(Object element) throws IOException {
+
+        encode(element, out);
+      }
+
+      @Override
+      public void close() throws IOException {
+
+        out.write(BREAK);
+      }
+    };
+  }
+
+  @Override
+  public Object decode(InputStream in) throws IOException {
+
+    Object value = readItem(new DataInputStream(in));
+    if (value == END) {
+      throw new IOException("Unexpected break");
+    }
+    return value;
+  }
+
+  @Override
+  protected void writeNull(OutputStream out) throws IOException {
+
+    out.write(NULL);
+  }
+
+  @Override
+  protected void writeBoolean(boolean value, OutputStream out) throws IOException {
+
+    out.write(value ? TRUE : FALSE);
+  }
+
+  @Override
+  protected void writeLong(long value, OutputStream out) throws IOException {
+
+    if (value >= 0) {
+      writeHeader(MAJOR_UNSIGNED, value, out);
+    } else {
+      writeHeader(MAJOR_NEGATIVE, -1 - value, out);
+    }
+  }
+
+  @Override
+  protected void writeDouble(double value, OutputStream out) throws IOException {
+
+    out.write(DOUBLE);
+    writeBytes(Double.doubleToLongBits(value), 8, out);
+  }
+
+  @Override
+  protected void writeString(String value, OutputStream out) throws IOException {
+
+    byte[] bytes = toUtf8(value);
+    writeHeader(MAJOR_TEXT, bytes.length, out);
+    out.write(bytes);
+  }
+
+  @Override
+  protected void writeArrayHeader(int size, OutputStream out) throws IOException {
+
+    writeHeader(MAJOR_ARRAY, size, out);
+  }
+
+  @Override
+  protected void writeMapHeader(int size, OutputStream out) throws IOException {
+
+    writeHeader(MAJOR_MAP, size, out);
+  }
+
+  private static void writeHeader(int major, long argument, OutputStream out)
+      throws IOException {
+
+    int type = major << 5;
+    if (argument < 24) {
+      out.write(type | (int) argument);
+    } else if (argument <= 0xffL) {
+      out.write(type | 24);
+      writeBytes(argument, 1, out);
+    } else if (argument <= 0xffffL) {
+      out.write(type | 25);
+      writeBytes(argument, 2, out);
+    } else if (argument <= 0xffffffffL) {
+      out.write(type | 26);
+      writeBytes(argument, 4, out);
+    } else {
+      out.write(type | 27);
+      writeBytes(argument, 8, out);
+    }
+  }
+
+  private Object readItem(DataInputStream in) throws IOException {
+
+    int initial = in.readUnsignedByte();
+    int major = initial >> 5;
+    int info = initial & 0x1f;
+
+    switch (major) {
+      case MAJOR_UNSIGNED:
+        return readArgument(info, in);
+
+      case MAJOR_NEGATIVE:
+        return -1 - readArgument(info, in);
+
+      case MAJOR_BYTES:
+        return readChunks(major, info, in).toByteArray();
+
+      case MAJOR_TEXT:
+        return readChunks(major, info, in).toString("UTF-8");
+
+      case MAJOR_ARRAY:
+        List<Object> list = new ArrayList<Object>();
+        if (info == INDEFINITE) {
+          for (Object element = readItem(in); element != END; element = readItem(in)) {
+            list.add(element);
+          }
+        } else {
+          for (long i = readArgument(info, in); i > 0; i--) {
+            list.add(readValue(in));
+          }
+        }
+        return list;
+
+      case MAJOR_MAP:
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        if (info == INDEFINITE) {
+          for (Object key = readItem(in); key != END; key = readItem(in)) {
+            map.put(String.valueOf(key), readValue(in));
+          }
+        } else {
+          for (long i = readArgument(info, in); i > 0; i--) {
+            map.put(String.valueOf(readValue(in)), readValue(in));
+          }
+        }
+        return map;
+
+      case MAJOR_TAG:
+        // tags only qualify the item that follows, which is returned as is
+        readArgument(info, in);
+        return readValue(in);
+
+      default:
+        return readSimple(info, in);
+    }
+  }
+
+  private Object readValue(DataInputStream in) throws IOException {
+
+    Object value = readItem(in);
+    if (value == END) {
+      throw new IOException("Unexpected break");
+    }
+    return value;
+  }
+
+  private static Object readSimple(int info, DataInputStream in) throws IOException {
+
+    switch (info) {
+      case 20:
+        return Boolean.FALSE;
+      case 21:
+        return Boolean.TRUE;
+      case 22:
+      case 23:
+        return null;
+      case 24:
+        in.readUnsignedByte();
+        return null;
+      case 25:
+        return (double) halfToFloat(in.readUnsignedShort());
+      case 26:
+        return (double) in.readFloat();
+      case 27:
+        return in.readDouble();
+      case INDEFINITE:
+        return END;
+      default:
+        if (info < 20) {
+          return null;
+        }
+        throw new IOException("Invalid simple value " + info);
+    }
+  }
+
+  /** Reads a byte or text string, joining the chunks of an indefinite-length one. */
+  private static ByteArrayOutputStream readChunks(int major, int info, DataInputStream in)
+      throws IOException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    if (info != INDEFINITE) {
+      bytes.write(readBytes(in, readArgument(info, in)));
+      return bytes;
+    }
+
+    for (int initial = in.readUnsignedByte(); initial != BREAK; initial = in.readUnsignedByte()) {
+      if (initial >> 5 != major || (initial & 0x1f) == INDEFINITE) {
+        throw new IOException("Invalid chunk in indefinite-length string");
+      }
+      bytes.write(readBytes(in, readArgument(initial & 0x1f, in)));
+    }
+    return bytes;
+  }
+
+  private static long readArgument(int info, DataInputStream in) throws IOException {
+
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return in.readUnsignedByte();
+      case 25:
+        return in.readUnsignedShort();
+      case 26:
+        return in.readInt() & 0xffffffffL;
+      case 27:
+        return in.readLong();
+      default:
+        throw new IOException("Invalid length encoding " + info);
+    }
+  }
+
+  private static float halfToFloat(int half) {
+
+    int exponent = (half >> 10) & 0x1f;
+    int mantissa = half & 0x3ff;
+    float value;
+    if (exponent == 0) {
+      value = mantissa * (float) Math.pow(2, -24);
+    } else if (exponent == 31) {
+      value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+    } else {
+      value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+    }
+    return (half & 0x8000) == 0 ? value : -value;
+  }
+}
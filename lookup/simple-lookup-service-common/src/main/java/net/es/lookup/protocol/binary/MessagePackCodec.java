@@ -0,0 +1,252 @@
+package net.es.lookup.protocol.binary;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.ReservedValues;
+
+/**
+ * MessagePack encoding. MessagePack arrays always start with their length, so the arrays started
+ * with startArray are buffered until they are closed, and the service bounds them (see
+ * streamsArrays).
+ */
+class MessagePackCodec extends BinaryCodec {
+
+  private static final int NIL = 0xc0;
+  private static final int FALSE = 0xc2;
+  private static final int TRUE = 0xc3;
+  private static final int FLOAT64 = 0xcb;
+
+  @Override
+  public String getMediaType() {
+
+    return ReservedValues.MEDIA_TYPE_MSGPACK;
+  }
+
+  @Override
+  public Object decode(InputStream in) throws IOException {
+
+    return readValue(new DataInputStream(in));
+  }
+
+  @Override
+  protected void writeNull(OutputStream out) throws IOException {
+
+    out.write(NIL);
+  }
+
+  @Override
+  protected void writeBoolean(boolean value, OutputStream out) throws IOException {
+
+    out.write(value ? TRUE : FALSE);
+  }
+
+  @Override
+  protected void writeLong(long value, OutputStream out) throws IOException {
+
+    if (value >= 0) {
+
+      if (value < 0x80) {
+        out.write((int) value);
+      } else if (value <= 0xffL) {
+        out.write(0xcc);
+        writeBytes(value, 1, out);
+      } else if (value <= 0xffffL) {
+        out.write(0xcd);
+        writeBytes(value, 2, out);
+      } else if (value <= 0xffffffffL) {
+        out.write(0xce);
+        writeBytes(value, 4, out);
+      } else {
+        out.write(0xcf);
+        writeBytes(value, 8, out);
+      }
+
+    } else {
+
+      if (value >= -32) {
+        out.write((int) value & 0xff);
+      } else if (value >= Byte.MIN_VALUE) {
+        out.write(0xd0);
+        writeBytes(value, 1, out);
+      } else if (value >= Short.MIN_VALUE) {
+        out.write(0xd1);
+        writeBytes(value, 2, out);
+      } else if (value >= Integer.MIN_VALUE) {
+        out.write(0xd2);
+        writeBytes(value, 4, out);
+      } else {
+        out.write(0xd3);
+        writeBytes(value, 8, out);
+      }
+    }
+  }
+
+  @Override
+  protected void writeDouble(double value, OutputStream out) throws IOException {
+
+    out.write(FLOAT64);
+    writeBytes(Double.doubleToLongBits(value), 8, out);
+  }
+
+  @Override
+  protected void writeString(String value, OutputStream out) throws IOException {
+
+    byte[] bytes = toUtf8(value);
+    if (bytes.length < 32) {
+      out.write(0xa0 | bytes.length);
+    } else if (bytes.length <= 0xff) {
+      out.write(0xd9);
+      writeBytes(bytes.length, 1, out);
+    } else if (bytes.length <= 0xffff) {
+      out.write(0xda);
+      writeBytes(bytes.length, 2, out);
+    } else {
+      out.write(0xdb);
+      writeBytes(bytes.length, 4, out);
+    }
+    out.write(bytes);
+  }
+
+  @Override
+  protected void writeArrayHeader(int size, OutputStream out) throws IOException {
+
+    if (size < 16) {
+      out.write(0x90 | size);
+    } else if (size <= 0xffff) {
+      out.write(0xdc);
+      writeBytes(size, 2, out);
+    } else {
+      out.write(0xdd);
+      writeBytes(size, 4, out);
+    }
+  }
+
+  @Override
+  protected void writeMapHeader(int size, OutputStream out) throws IOException {
+
+    if (size < 16) {
+      out.write(0x80 | size);
+    } else if (size <= 0xffff) {
+      out.write(0xde);
+      writeBytes(size, 2, out);
+    } else {
+      out.write(0xdf);
+      writeBytes(size, 4, out);
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+
+    int type = in.readUnsignedByte();
+
+    if (type <= 0x7f) {
+      return (long) type;
+    } else if (type <= 0x8f) {
+      return readMap(type & 0x0f, in);
+    } else if (type <= 0x9f) {
+      return readArray(type & 0x0f, in);
+    } else if (type <= 0xbf) {
+      return readString(in, type & 0x1f);
+    } else if (type >= 0xe0) {
+      return (long) (byte) type;
+    }
+
+    switch (type) {
+      case NIL:
+        return null;
+      case FALSE:
+        return Boolean.FALSE;
+      case TRUE:
+        return Boolean.TRUE;
+      case 0xc4:
+        return readBytes(in, in.readUnsignedByte());
+      case 0xc5:
+        return readBytes(in, in.readUnsignedShort());
+      case 0xc6:
+        return readBytes(in, in.readInt() & 0xffffffffL);
+      case 0xc7:
+        return readExtension(in.readUnsignedByte(), in);
+      case 0xc8:
+        return readExtension(in.readUnsignedShort(), in);
+      case 0xc9:
+        return readExtension(in.readInt() & 0xffffffffL, in);
+      case 0xca:
+        return (double) in.readFloat();
+      case FLOAT64:
+        return in.readDouble();
+      case 0xcc:
+        return (long) in.readUnsignedByte();
+      case 0xcd:
+        return (long) in.readUnsignedShort();
+      case 0xce:
+        return in.readInt() & 0xffffffffL;
+      case 0xcf:
+      case 0xd3:
+        return in.readLong();
+      case 0xd0:
+        return (long) in.readByte();
+      case 0xd1:
+        return (long) in.readShort();
+      case 0xd2:
+        return (long) in.readInt();
+      case 0xd4:
+        return readExtension(1, in);
+      case 0xd5:
+        return readExtension(2, in);
+      case 0xd6:
+        return readExtension(4, in);
+      case 0xd7:
+        return readExtension(8, in);
+      case 0xd8:
+        return readExtension(16, in);
+      case 0xd9:
+        return readString(in, in.readUnsignedByte());
+      case 0xda:
+        return readString(in, in.readUnsignedShort());
+      case 0xdb:
+        return readString(in, in.readInt() & 0xffffffffL);
+      case 0xdc:
+        return readArray(in.readUnsignedShort(), in);
+      case 0xdd:
+        return readArray(in.readInt() & 0xffffffffL, in);
+      case 0xde:
+        return readMap(in.readUnsignedShort(), in);
+      case 0xdf:
+        return readMap(in.readInt() & 0xffffffffL, in);
+      default:
+        throw new IOException("Invalid MessagePack type " + type);
+    }
+  }
+
+  private static List<Object> readArray(long size, DataInputStream in) throws IOException {
+
+    List<Object> list = new ArrayList<Object>();
+    for (long i = 0; i < size; i++) {
+      list.add(readValue(in));
+    }
+    return list;
+  }
+
+  private static Map<String, Object> readMap(long size, DataInputStream in) throws IOException {
+
+    Map<String, Object> map = new LinkedHashMap<String, Object>();
+    for (long i = 0; i < size; i++) {
+      String key = String.valueOf(readValue(in));
+      map.put(key, readValue(in));
+    }
+    return map;
+  }
+
+  /** Extension types are not used by the service; their data is returned as is. */
+  private static byte[] readExtension(long size, DataInputStream in) throws IOException {
+
+    in.readByte();
+    return readBytes(in, size);
+  }
+}
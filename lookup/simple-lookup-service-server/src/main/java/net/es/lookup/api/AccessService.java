@@ -1,15 +1,36 @@
 package net.es.lookup.api;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import net.es.lookup.cache.RecordCache;
 import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.common.ResponseCodes;
+import net.es.lookup.common.exception.api.BadRequestException;
 import net.es.lookup.common.exception.api.InternalErrorException;
 import net.es.lookup.common.exception.api.NotFoundException;
 import net.es.lookup.common.exception.internal.DataFormatException;
 import net.es.lookup.common.exception.internal.DatabaseException;
-import net.es.lookup.database.ServiceDaoMongoDb;
+import net.es.lookup.database.RecordStore;
+import net.es.lookup.database.RecordStoreManager;
+import net.es.lookup.protocol.binary.BinaryCodec;
 import net.es.lookup.protocol.json.JSONGetServiceResponse;
 import net.es.lookup.protocol.json.JSONMessage;
+import net.es.lookup.protocol.json.JsonMultiGetRequest;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -24,6 +45,16 @@ public class AccessService {
    * @return String Json message of the record as string */
   public String getService(String serviceid) {
 
+    return getService(serviceid, null);
+  }
+
+  /**
+   * Method to retrieve some keys of the record.
+   * @param serviceid id of the record (uri)
+   * @param fields the keys to be returned in addition to the uri, or null for the entire record
+   * @return String Json message of the record as string */
+  public String getService(String serviceid, List<String> fields) {
+
     LOG.info("Processing getService...");
     LOG.info(" serviceid: " + serviceid);
 
@@ -31,13 +62,18 @@ public class AccessService {
     Message serviceRecord;
 
     try {
-      ServiceDaoMongoDb db = ServiceDaoMongoDb.getInstance();
+      RecordStore db = RecordStoreManager.getInstance();
       if (db != null) {
-        serviceRecord = db.getRecordByUri(serviceid);
+        serviceRecord = RecordCache.getInstance().getRecord(db, serviceid);
 
         if (serviceRecord != null) {
 
           LOG.debug("servicerecord not null");
+          if (fields != null) {
+            Set<String> projected = new HashSet<String>(fields);
+            projected.add(ReservedKeys.RECORD_URI);
+            serviceRecord.retainKeys(projected);
+          }
           Map<String, Object> serviceMap = serviceRecord.getMap();
 
           response = new JSONGetServiceResponse(serviceMap);
@@ -72,6 +108,140 @@ public class AccessService {
     }
   }
 
+  /**
+   * Method to check that a record exists, for HEAD requests. The record is looked up through the
+   * record cache and nothing is formatted.
+   * @param serviceid id of the record (uri)
+   * @throws NotFoundException if the record does not exist */
+  public void checkService(String serviceid) {
+
+    LOG.debug("Processing checkService: " + serviceid);
+
+    RecordStore db = RecordStoreManager.getInstance();
+    if (db == null) {
+      LOG.error("DB could not be accessed.");
+      throw new InternalErrorException("Cannot access database");
+    }
+
+    Message serviceRecord;
+    try {
+      serviceRecord = RecordCache.getInstance().getRecord(db, serviceid);
+    } catch (DatabaseException e) {
+      LOG.fatal("DatabaseException: The database is out of service." + e.getMessage());
+      throw new InternalErrorException("Database error\n");
+    }
+
+    if (serviceRecord == null) {
+      throw new NotFoundException("ServiceRecord Not Found in DB\n");
+    }
+  }
+
+  /**
+   * Method to retrieve several records at once. The records that are in the record cache are
+   * taken from it and the others are read with a single query. The records are streamed in the
+   * order of the request, and each uri that does not exist gets an error record instead, like
+   * the uris that are not found by a bulk renewal. The records are read before being sent, so
+   * requests listing more than maxUris uris are rejected.
+   * @param request JSON object listing the uris of the records in record-uris
+   * @param fields the keys to be returned in addition to the uri, or null for the entire records
+   * @param codec binary format of the response, or null for JSON
+   * @param maxUris the largest number of uris in a request
+   * @return Response with the records as an array */
+  public Response getServices(
+      String request, List<String> fields, final BinaryCodec codec, int maxUris) {
+
+    LOG.info("Processing getServices...");
+
+    JsonMultiGetRequest multiGetRequest = new JsonMultiGetRequest(request);
+    final List<String> uris = multiGetRequest.getUris();
+    if (multiGetRequest.getStatus() == JsonMultiGetRequest.INCORRECT_FORMAT
+        || uris == null
+        || uris.isEmpty()) {
+
+      LOG.error("Request format is invalid.");
+      LOG.info("GetServices status: FAILED; exiting");
+      throw new BadRequestException("Request is invalid. Please edit the request and resend.");
+    }
+    if (uris.size() > maxUris) {
+
+      LOG.error("Request lists " + uris.size() + " uris.");
+      LOG.info("GetServices status: FAILED; exiting");
+      throw new BadRequestException(
+          "Invalid value for " + ReservedKeys.RECORD_BULK_URIS + ": more than " + maxUris + " uris");
+    }
+
+    RecordStore db = RecordStoreManager.getInstance();
+    if (db == null) {
+      LOG.error("DB could not be accessed.");
+      throw new InternalErrorException("Cannot access database");
+    }
+
+    final Map<String, Message> records;
+    try {
+      records = RecordCache.getInstance().getRecords(db, new LinkedHashSet<String>(uris), fields);
+    } catch (DatabaseException e) {
+
+      LOG.fatal("DatabaseException: The database is out of service." + e.getMessage());
+      LOG.info("GetServices status: FAILED; exiting");
+      throw new InternalErrorException("Database error\n");
+    }
+    LOG.info("GetServices status: SUCCESS; found " + records.size() + " of " + uris.size());
+
+    final Iterator<String> results =
+        new Iterator<String>() {
+
+          private final Iterator<String> next = uris.iterator();
+
+          @Override
+          public boolean hasNext() {
+
+            return next.hasNext();
+          }
+
+          @Override
+          public String next() {
+
+            String uri = next.next();
+            Message record = records.get(uri);
+            try {
+              return JSONMessage.toString(record != null ? record : createNotFoundRecord(uri));
+            } catch (DataFormatException e) {
+              throw new IllegalStateException(e.getMessage());
+            }
+          }
+
+          @Override
+          public void remove() {
+
+            throw new UnsupportedOperationException();
+          }
+        };
+
+    StreamingOutput output =
+        new StreamingOutput() {
+
+          @Override
+          public void write(OutputStream out) throws IOException {
+
+            try {
+              if (codec == null) {
+                Writer writer =
+                    new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                JSONMessage.writeJson(results, writer);
+              } else {
+                QueryServices.writeBinary(results, codec, out);
+              }
+            } catch (DataFormatException | RuntimeException e) {
+
+              // the response has already been committed so the status cannot be changed anymore
+              LOG.error("Error streaming records: " + e.getMessage());
+              throw new IOException("Error formatting elements");
+            }
+          }
+        };
+    return QueryServices.ok(output, codec).build();
+  }
+
   /**
    * Method to retrieve a particular key and value from the record.
    * @param serviceid id of the record (uri)
@@ -87,9 +257,9 @@ public class AccessService {
     Message serviceRecord;
 
     try {
-      ServiceDaoMongoDb db = ServiceDaoMongoDb.getInstance();
+      RecordStore db = RecordStoreManager.getInstance();
       if (db != null) {
-        serviceRecord = db.getRecordByUri(serviceid);
+        serviceRecord = RecordCache.getInstance().getRecord(db, serviceid);
 
         if (serviceRecord != null) {
 
@@ -135,4 +305,13 @@ public class AccessService {
       throw new InternalErrorException("Database error\n");
     }
   }
+
+  private static Message createNotFoundRecord(String uri) {
+
+    Message error = new Message();
+    error.add(ReservedKeys.RECORD_URI, uri);
+    error.add(ReservedKeys.ERROR_CODE, ResponseCodes.ERROR_BULK_NOTFOUND);
+    error.add(ReservedKeys.ERROR_MESSAGE, ReservedValues.RECORD_BULKRENEW_NOTFOUND_ERRORMESSAGE);
+    return error;
+  }
 }
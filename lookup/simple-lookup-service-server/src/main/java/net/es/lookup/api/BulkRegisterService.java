@@ -0,0 +1,193 @@
+package net.es.lookup.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.cache.QueryCache;
+import net.es.lookup.common.LeaseManager;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.RegisterRequest;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.common.ResponseCodes;
+import net.es.lookup.common.exception.api.BadRequestException;
+import net.es.lookup.common.exception.api.InternalErrorException;
+import net.es.lookup.common.exception.internal.DataFormatException;
+import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.database.RecordStore;
+import net.es.lookup.database.RecordStoreManager;
+import net.es.lookup.protocol.json.JSONMessage;
+import net.es.lookup.protocol.json.JsonBulkRegisterRequest;
+import net.es.lookup.protocol.json.JsonBulkRegisterResponse;
+import net.es.lookup.publish.Publisher;
+import net.es.lookup.service.PublishService;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+public class BulkRegisterService {
+
+  private static Logger LOG = LogManager.getLogger(BulkRegisterService.class);
+  private RegisterService registerService = new RegisterService();
+
+  /**
+   * The method registers a list of records. Each record is validated and gets its lease as in a
+   * single registration, then all the valid records are inserted at once. Records that are
+   * invalid, did not get a lease, are duplicates or could not be inserted are reported in the
+   * response by their position in the request.
+   *
+   * @param registerRequests JSON array of records.
+   * @return String Json message as a string.
+   */
+  public String bulkRegister(String registerRequests) {
+
+    if (registerRequests.isEmpty()) {
+
+      LOG.error("net.es.lookup.api.BulkRegisterService: Empty bulk request received");
+      throw new BadRequestException("Request cannot be empty");
+    }
+
+    JsonBulkRegisterRequest request = new JsonBulkRegisterRequest(registerRequests);
+
+    if (request.getStatus() == JsonBulkRegisterRequest.INCORRECT_FORMAT) {
+
+      LOG.error("net.es.lookup.api.BulkRegisterService: Request format is invalid.");
+      throw new BadRequestException("Request is invalid. Please edit the request and resend.");
+    }
+
+    RecordStore db = RecordStoreManager.getInstance();
+    if (db == null) {
+
+      LOG.error("net.es.lookup.api.BulkRegisterService: Error accessing database object");
+      throw new InternalErrorException("Error accessing database");
+    }
+
+    JsonBulkRegisterResponse registerResponse = checkAndRegisterRecords(db, request);
+    try {
+      return JSONMessage.toString(registerResponse);
+    } catch (DataFormatException e) {
+      LOG.error("net.es.lookup.api.BulkRegisterService: Error formatting result");
+      throw new InternalErrorException(
+          "Error formatting result. Ask administrator to check logs "
+              + "to confirm status of register operation");
+    }
+  }
+
+  private JsonBulkRegisterResponse checkAndRegisterRecords(
+      RecordStore db, JsonBulkRegisterRequest request) {
+
+    List<RegisterRequest> records = request.getRecords();
+    Map<Integer, Message> failedRecords = new HashMap<>();
+    List<Message> validRecords = new ArrayList<>();
+    List<Integer> validPositions = new ArrayList<>();
+
+    for (int i = 0; i < records.size(); i++) {
+
+      RegisterRequest record = records.get(i);
+
+      if (!registerService.isValid(record)) {
+
+        failedRecords.put(
+            i,
+            createErrorRecord(
+                ResponseCodes.ERROR_BULK_INVALID,
+                ReservedValues.RECORD_BULKREGISTER_INVALID_ERRORMESSAGE));
+        continue;
+      }
+
+      if (!LeaseManager.getInstance().requestLease(record)) {
+
+        failedRecords.put(
+            i,
+            createErrorRecord(
+                ResponseCodes.ERROR_BULK_NOLEASE,
+                ReservedValues.RECORD_BULKREGISTER_NOLEASE_ERRORMESSAGE));
+        continue;
+      }
+
+      record.add(ReservedKeys.RECORD_URI, registerService.newUri(record.getRecordType()));
+      record.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_REGISTER);
+      validRecords.add(record);
+      validPositions.add(i);
+    }
+
+    List<Message> registered;
+    Map<String, String> errors = new HashMap<>();
+    try {
+      registered = db.publishServicesIfAbsent(validRecords, errors);
+    } catch (DatabaseException e) {
+
+      LOG.fatal("DatabaseException: Error registering records." + e.getMessage());
+      LOG.info("BulkRegisterService status: FAILED; exiting");
+      throw new InternalErrorException("Database error\n");
+    }
+
+    Map<String, Message> registeredByUri = new HashMap<>();
+    for (Message record : registered) {
+      registeredByUri.put(record.getURI(), record);
+    }
+
+    List<String> recordUris = new ArrayList<>();
+    for (int i = 0; i < records.size(); i++) {
+      recordUris.add("");
+    }
+
+    for (int i = 0; i < validRecords.size(); i++) {
+
+      String uri = validRecords.get(i).getURI();
+      if (registeredByUri.containsKey(uri)) {
+        recordUris.set(validPositions.get(i), uri);
+      } else if (errors.containsKey(uri)) {
+        LOG.error("BulkRegisterService: Error registering record: " + errors.get(uri));
+        failedRecords.put(
+            validPositions.get(i),
+            createErrorRecord(
+                ResponseCodes.ERROR_BULK_DATABASE,
+                ReservedValues.RECORD_BULKREGISTER_DATABASE_ERRORMESSAGE));
+      } else {
+        failedRecords.put(
+            validPositions.get(i),
+            createErrorRecord(
+                ResponseCodes.ERROR_BULK_DUPLICATE,
+                ReservedValues.RECORD_BULKREGISTER_DUPLICATE_ERRORMESSAGE));
+      }
+    }
+
+    LOG.info(
+        "BulkRegisterService status: registered "
+            + registered.size()
+            + " of "
+            + records.size()
+            + " records");
+    for (Message record : registered) {
+      QueryCache.getInstance().recordChanged(record.getRecordType());
+    }
+    notifyPublisher(registered);
+
+    JsonBulkRegisterResponse response = new JsonBulkRegisterResponse();
+    response.addTotalRecordsCount(records.size());
+    response.updateRegistered(recordUris);
+    response.updateFailures(failedRecords);
+    return response;
+  }
+
+  private Message createErrorRecord(int failureCode, String errorMessage) {
+
+    Message error = new Message();
+    error.add(ReservedKeys.ERROR_CODE, failureCode);
+    error.add(ReservedKeys.ERROR_MESSAGE, errorMessage);
+    return error;
+  }
+
+  private void notifyPublisher(List<Message> registered) {
+
+    if (PublishService.isServiceOn()) {
+
+      Publisher publisher = Publisher.getInstance();
+      for (Message record : registered) {
+
+        publisher.eventNotification(record);
+      }
+    }
+  }
+}
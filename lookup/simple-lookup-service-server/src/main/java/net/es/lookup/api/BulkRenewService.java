@@ -1,10 +1,15 @@
 package net.es.lookup.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import net.es.lookup.cache.QueryCache;
+import net.es.lookup.cache.RecordCache;
 import net.es.lookup.common.LeaseManager;
 import net.es.lookup.common.Message;
 import net.es.lookup.common.ReservedKeys;
@@ -14,7 +19,8 @@ import net.es.lookup.common.exception.api.BadRequestException;
 import net.es.lookup.common.exception.api.InternalErrorException;
 import net.es.lookup.common.exception.internal.DataFormatException;
 import net.es.lookup.common.exception.internal.DatabaseException;
-import net.es.lookup.database.ServiceDaoMongoDb;
+import net.es.lookup.database.RecordStore;
+import net.es.lookup.database.RecordStoreManager;
 import net.es.lookup.protocol.json.JSONMessage;
 import net.es.lookup.protocol.json.JSONRenewRequest;
 import net.es.lookup.protocol.json.JsonBulkRenewRequest;
@@ -50,7 +56,7 @@ public class BulkRenewService {
       throw new BadRequestException("Request is invalid. Please edit the request and resend.");
     }
 
-    ServiceDaoMongoDb db = ServiceDaoMongoDb.getInstance();
+    RecordStore db = RecordStoreManager.getInstance();
     if (db == null) {
 
       LOG.error(("net.es.lookup.api.BulkRenewService: Error accessing database object"));
@@ -72,19 +78,38 @@ public class BulkRenewService {
     return formattedRenewResponse;
   }
 
+  /**
+   * Renews the records with one read and one write, whatever the number of records: the lease is
+   * the same for all the records, so it is granted once, then the expiry time of all the records
+   * is fetched with a single query to find the ones that do not exist or have expired, and the
+   * others are renewed with a single update of their lease fields.
+   */
   private JsonBulkRenewResponse checkAndRenewRecords(
-      ServiceDaoMongoDb db, JsonBulkRenewRequest jsonBulkRenewRequest) {
+      RecordStore db, JsonBulkRenewRequest jsonBulkRenewRequest) {
     // renew
     Map<String, Message> failedUris = new HashMap<>();
 
     try {
       List<String> allRecordUris =
           (List<String>) jsonBulkRenewRequest.getKey(ReservedKeys.RECORD_BULK_URIS);
-      Map<String, Message> bulkUpdateRequests = new HashMap<>();
 
+      Message renewal = createRenewal(jsonBulkRenewRequest.getTTL());
+      boolean gotLease = LeaseManager.getInstance().requestLease(renewal);
+      renewal.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
+
+      // the publisher sends the entire records, otherwise only the expiry time is needed, and the
+      // type to invalidate the cached queries
+      List<String> fields = null;
+      if (!PublishService.isServiceOn()) {
+        fields = Arrays.asList(ReservedKeys.RECORD_EXPIRES, ReservedKeys.RECORD_TYPE);
+      }
+      Map<String, Message> serviceRecords =
+          db.getRecordsByUri(new LinkedHashSet<>(allRecordUris), fields);
+
+      Set<String> renewUris = new LinkedHashSet<>();
       for (String uri : allRecordUris) {
 
-        Message serviceRecord = db.getRecordByUri(uri);
+        Message serviceRecord = serviceRecords.get(uri);
 
         if (serviceRecord == null) {
 
@@ -94,11 +119,11 @@ public class BulkRenewService {
           continue;
         }
 
-        Message serviceLeaseRenewalRequest =
-            updateTtl(serviceRecord, jsonBulkRenewRequest.getTTL());
-        boolean gotLease = LeaseManager.getInstance().requestLease(serviceLeaseRenewalRequest);
-
-        if (!gotLease) {
+        String expires = serviceRecord.getExpires();
+        if (!gotLease
+            || (expires != null
+                && !expires.isEmpty()
+                && LeaseManager.getInstance().isPastPruneThreshold(expires))) {
 
           Message error = createErrorRecord(ResponseCodes.ERROR_BULK_EXPIRED);
           failedUris.put(uri, error);
@@ -109,15 +134,16 @@ public class BulkRenewService {
           continue;
         }
 
-        serviceLeaseRenewalRequest.add(
-            ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
-
-        bulkUpdateRequests.put(uri, serviceLeaseRenewalRequest);
+        renewUris.add(uri);
       }
 
       // db call
-      Message renewResponse = db.bulkUpdate(bulkUpdateRequests);
-      notifyPublisher(bulkUpdateRequests);
+      Message renewResponse = new Message();
+      renewResponse.add(
+          ReservedKeys.RECORD_BULKRENEW_RENEWEDCOUNT, db.renewRecords(renewUris, renewal));
+      RecordCache.getInstance().invalidate(renewUris);
+      invalidateQueries(renewUris, serviceRecords);
+      notifyPublisher(renewUris, serviceRecords, renewal);
 
       JsonBulkRenewResponse jsonBulkRenewResponse =
           formatJsonBulkRenewResponse(allRecordUris.size(), renewResponse, failedUris);
@@ -131,18 +157,31 @@ public class BulkRenewService {
     }
   }
 
-  private Message updateTtl(Message serviceRecord, String ttl) {
-    Map<String, Object> serviceMap = serviceRecord.getMap();
+  private void invalidateQueries(Set<String> renewUris, Map<String, Message> serviceRecords) {
+
+    Set<String> types = new HashSet<>();
+    for (String uri : renewUris) {
+      types.add(serviceRecords.get(uri).getRecordType());
+    }
+
+    QueryCache queryCache = QueryCache.getInstance();
+    for (String type : types) {
+      queryCache.recordChanged(type);
+    }
+  }
+
+  private Message createRenewal(String ttl) {
+    Message renewal = new Message();
 
     if (ttl != null && !ttl.isEmpty()) {
 
-      serviceMap.put(ReservedKeys.RECORD_TTL, ttl);
+      renewal.add(ReservedKeys.RECORD_TTL, ttl);
     } else {
 
-      serviceMap.put(ReservedKeys.RECORD_TTL, new ArrayList());
+      renewal.add(ReservedKeys.RECORD_TTL, new ArrayList());
     }
 
-    return new Message(serviceMap);
+    return renewal;
   }
 
   private Message createErrorRecord(int failureCode) {
@@ -158,13 +197,16 @@ public class BulkRenewService {
     return error;
   }
 
-  private void notifyPublisher(Map<String, Message> updates) {
+  private void notifyPublisher(
+      Set<String> renewedUris, Map<String, Message> serviceRecords, Message renewal) {
     if (PublishService.isServiceOn()) {
 
       Publisher publisher = Publisher.getInstance();
-      for (Entry<String, Message> renewedRecord : updates.entrySet()) {
+      for (String uri : renewedUris) {
 
-        publisher.eventNotification(renewedRecord.getValue());
+        Message renewedRecord = serviceRecords.get(uri);
+        renewedRecord.getMap().putAll(renewal.getMap());
+        publisher.eventNotification(renewedRecord);
       }
     }
   }
@@ -1,7 +1,12 @@
 package net.es.lookup.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import net.es.lookup.cache.QueryCache;
+import net.es.lookup.cache.RecordCache;
 import net.es.lookup.common.LeaseManager;
 import net.es.lookup.common.Message;
 import net.es.lookup.common.ReservedKeys;
@@ -13,7 +18,8 @@ import net.es.lookup.common.exception.api.NotFoundException;
 import net.es.lookup.common.exception.internal.DataFormatException;
 import net.es.lookup.common.exception.internal.DatabaseException;
 import net.es.lookup.common.exception.internal.RecordNotFoundException;
-import net.es.lookup.database.ServiceDaoMongoDb;
+import net.es.lookup.database.RecordStore;
+import net.es.lookup.database.RecordStoreManager;
 import net.es.lookup.protocol.json.JSONDeleteRequest;
 import net.es.lookup.protocol.json.JSONDeleteResponse;
 import net.es.lookup.protocol.json.JSONMessage;
@@ -29,6 +35,17 @@ public class EditService {
 
   private static Logger LOG = LogManager.getLogger(AccessService.class);
 
+  private static final List<String> LEASE_FIELDS =
+      Arrays.asList(ReservedKeys.RECORD_EXPIRES, ReservedKeys.RECORD_TTL, ReservedKeys.RECORD_STATE);
+
+  // the type is read along with the lease to invalidate the cached queries
+  private static final List<String> RENEW_FIELDS =
+      Arrays.asList(
+          ReservedKeys.RECORD_EXPIRES,
+          ReservedKeys.RECORD_TTL,
+          ReservedKeys.RECORD_STATE,
+          ReservedKeys.RECORD_TYPE);
+
   /**
    * Method to renew record.
    * @param serviceid id of the record to delete
@@ -37,6 +54,19 @@ public class EditService {
    * */
   public String renewService(String serviceid, String service) {
 
+    return renewService(serviceid, service, false);
+  }
+
+  /**
+   * Method to renew record. The lease is checked and renewed with a single update of the lease
+   * fields of the record.
+   * @param serviceid id of the record to renew
+   * @param service renew request
+   * @param minimal if true, only the uri and the lease fields of the record are returned
+   * @return String Json message of the renewed record expressed as string.
+   * */
+  public String renewService(String serviceid, String service, boolean minimal) {
+
     LOG.info("Processing renewService...");
     LOG.info(" serviceid: " + serviceid);
 
@@ -59,66 +89,77 @@ public class EditService {
     if (this.isValid(request) && this.isAuthed(serviceid, request)) {
 
       try {
-        ServiceDaoMongoDb db = ServiceDaoMongoDb.getInstance();
+        RecordStore db = RecordStoreManager.getInstance();
         if (db == null) {
           LOG.error(("Error accessing database object"));
           throw new InternalErrorException("Error accessing database");
         }
-        Message serviceRecord = db.getRecordByUri(serviceid);
-
-        if (serviceRecord != null) {
 
-          LOG.debug("servicerecord not null");
-          Map<String, Object> serviceMap = serviceRecord.getMap();
+        Message renewal = new Message();
+        if (request.getTTL() != null && !request.getTTL().isEmpty()) {
 
-          if (request.getTTL() != null && !request.getTTL().isEmpty()) {
+          renewal.add(ReservedKeys.RECORD_TTL, request.getTTL());
 
-            serviceMap.put(ReservedKeys.RECORD_TTL, request.getTTL());
-
-          } else {
+        } else {
 
-            serviceMap.put(ReservedKeys.RECORD_TTL, new ArrayList());
-          }
+          renewal.add(ReservedKeys.RECORD_TTL, new ArrayList());
+        }
 
-          Message newRequest = new Message(serviceMap);
-          boolean gotLease = LeaseManager.getInstance().requestLease(newRequest);
+        // the prune threshold is checked by the database as part of the update
+        if (!LeaseManager.getInstance().requestLease(renewal)) {
 
-          if (gotLease) {
+          LOG.fatal("Failed to secure lease for the renew record");
+          LOG.info("Renew status: FAILED; exiting");
+          throw new ForbiddenRequestException("Failed to secure lease for the renewal record");
+        }
+        renewal.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
 
-            LOG.debug("gotLease for " + serviceid);
-            // update state
+        // the publisher sends the entire record
+        List<String> fields = null;
+        if (minimal && !PublishService.isServiceOn()) {
+          fields = RENEW_FIELDS;
+        }
+        Message res =
+            db.renewRecord(serviceid, renewal, LeaseManager.getInstance().getPruneTime(), fields);
+        RecordCache.getInstance().invalidate(serviceid);
 
-            newRequest.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
-            Message res = db.updateService(serviceid, newRequest);
+        if (res == null) {
 
-            if (PublishService.isServiceOn()) {
-              Publisher publisher = Publisher.getInstance();
-              publisher.eventNotification(res);
-            }
-            response = new JSONRenewResponse(res.getMap());
+          if (db.getRecordByUri(serviceid) == null) {
 
-            try {
-              return JSONMessage.toString(response);
+            LOG.error("ServiceRecord Not Found in DB.");
+            LOG.info("RenewService status: FAILED; exiting");
+            throw new NotFoundException("ServiceRecord Not Found in DB\n");
+          }
 
-            } catch (DataFormatException e) {
+          LOG.fatal("Failed to secure lease for the renew record");
+          LOG.info("Renew status: FAILED; exiting");
+          throw new ForbiddenRequestException("Failed to secure lease for the renewal record");
+        }
 
-              LOG.error("Data formatting exception");
-              LOG.info("RenewService status: FAILED; exiting");
-              throw new InternalErrorException("Data formatting exception");
-            }
+        LOG.debug("gotLease for " + serviceid);
+        QueryCache.getInstance().recordChanged(res.getRecordType());
+        if (PublishService.isServiceOn()) {
+          Publisher publisher = Publisher.getInstance();
+          publisher.eventNotification(res);
+        }
 
-          } else {
+        Map<String, Object> resMap = res.getMap();
+        if (minimal) {
+          resMap = new HashMap<String, Object>(resMap);
+          resMap.keySet().retainAll(LEASE_FIELDS);
+          resMap.put(ReservedKeys.RECORD_URI, res.getURI());
+        }
+        response = new JSONRenewResponse(resMap);
 
-            LOG.fatal("Failed to secure lease for the renew record");
-            LOG.info("Renew status: FAILED; exiting");
-            throw new ForbiddenRequestException("Failed to secure lease for the renewal record");
-          }
+        try {
+          return JSONMessage.toString(response);
 
-        } else {
+        } catch (DataFormatException e) {
 
-          LOG.error("ServiceRecord Not Found in DB.");
+          LOG.error("Data formatting exception");
           LOG.info("RenewService status: FAILED; exiting");
-          throw new NotFoundException("ServiceRecord Not Found in DB\n");
+          throw new InternalErrorException("Data formatting exception");
         }
 
       } catch (DatabaseException e) {
@@ -186,13 +227,14 @@ public class EditService {
 
     if (this.isValid(request) && this.isAuthed(serviceid, request)) {
       try {
-        ServiceDaoMongoDb db = ServiceDaoMongoDb.getInstance();
+        RecordStore db = RecordStoreManager.getInstance();
 
         if (db == null) {
           LOG.error("Error accessing database");
           throw new InternalErrorException("Error accessing database");
         }
         Message serviceRecord = db.deleteRecord(serviceid);
+        RecordCache.getInstance().invalidate(serviceid);
 
         if (serviceRecord == null) {
 
@@ -201,6 +243,7 @@ public class EditService {
           throw new NotFoundException("ServiceRecord not found in DB\n");
 
         } else {
+          QueryCache.getInstance().recordChanged(serviceRecord.getRecordType());
           // update state
           serviceRecord.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_DELETE);
 
@@ -0,0 +1,204 @@
+package net.es.lookup.api;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import net.es.lookup.cache.RecordCache;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.database.JsonRecordCursor;
+import net.es.lookup.database.RecordCursor;
+import net.es.lookup.database.RecordStore;
+import net.es.lookup.protocol.json.JsonCodec;
+import net.es.lookup.protocol.json.JsonWriter;
+
+/**
+ * JsonRecordCursor inlining the records referenced by some keys of the query results, like the
+ * interfaces of a host in host-net-interfaces or the host of a service in service-host. Each
+ * value of these keys that is the uri of a record is replaced by that record; the other values
+ * are left as they are. Only the references of the query results are expanded, not the ones of
+ * the inlined records.
+ *
+ * <p>The query results are read in batches, and the references of a batch that have not been
+ * resolved yet are read with one multi-get through the record cache. Resolved references are
+ * remembered for the whole request, so a host shared by many services is read once.
+ *
+ * <p>Records are read ahead of the ones returned, so the continuation token is only meaningful
+ * once the cursor has been read to its end, as streamQuery does for paged queries.
+ */
+class ExpandingRecordCursor implements JsonRecordCursor {
+
+  private static final int BATCH_SIZE = 100;
+
+  // bounds the references remembered for the request, for queries returning most of the store
+  private static final int MAX_RESOLVED = 10000;
+
+  private final RecordCursor cursor;
+  private final RecordStore db;
+  private final List<String> keys;
+  private final Map<String, Message> resolved = new HashMap<String, Message>();
+  private final List<Message> batch = new ArrayList<Message>();
+  private int next = 0;
+
+  /**
+   * Creates the cursor.
+   *
+   * @param cursor the query results, closed with this cursor
+   * @param db the store holding the referenced records
+   * @param keys the keys whose references are expanded
+   */
+  ExpandingRecordCursor(RecordCursor cursor, RecordStore db, List<String> keys) {
+
+    this.cursor = cursor;
+    this.db = db;
+    this.keys = keys;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    if (next < batch.size()) {
+      return true;
+    }
+    if (!cursor.hasNext()) {
+      return false;
+    }
+    readBatch();
+    return true;
+  }
+
+  @Override
+  public String next() {
+
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    Message record = batch.get(next++);
+    StringWriter out = new StringWriter();
+    try {
+      writeRecord(new JsonWriter(out), record);
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    return out.toString();
+  }
+
+  @Override
+  public String getContinuationToken() {
+
+    return cursor.getContinuationToken();
+  }
+
+  @Override
+  public void remove() {
+
+    throw new UnsupportedOperationException("Records cannot be removed through a cursor");
+  }
+
+  @Override
+  public void close() {
+
+    cursor.close();
+  }
+
+  /** Reads the next batch of results, and the references of the batch not resolved yet. */
+  private void readBatch() {
+
+    batch.clear();
+    next = 0;
+    while (batch.size() < BATCH_SIZE && cursor.hasNext()) {
+      batch.add(cursor.next());
+    }
+
+    Set<String> uris = getUnresolved();
+    if (uris.isEmpty()) {
+      return;
+    }
+    if (resolved.size() + uris.size() > MAX_RESOLVED) {
+      resolved.clear();
+      uris = getUnresolved();
+    }
+
+    Map<String, Message> records;
+    try {
+      records = RecordCache.getInstance().getRecords(db, uris, null);
+    } catch (DatabaseException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    for (String uri : uris) {
+      // values that are not the uri of a record are remembered as well, as null
+      resolved.put(uri, records.get(uri));
+    }
+  }
+
+  /** Returns the references of the batch that have not been resolved yet. */
+  private Set<String> getUnresolved() {
+
+    Set<String> uris = new LinkedHashSet<String>();
+    for (Message record : batch) {
+      for (String key : keys) {
+        for (String value : getValues(record.getKey(key))) {
+          if (!resolved.containsKey(value)) {
+            uris.add(value);
+          }
+        }
+      }
+    }
+    return uris;
+  }
+
+  private void writeRecord(JsonWriter writer, Message record) throws IOException {
+
+    writer.beginObject();
+    for (Map.Entry<String, Object> entry : ((Map<String, Object>) record.getMap()).entrySet()) {
+
+      String key = entry.getKey();
+      Object value = entry.getValue();
+      if (!keys.contains(key)) {
+        JsonCodec.writeEntry(writer, key, value);
+      } else if (value instanceof String) {
+        writer.name(key);
+        writeReference(writer, (String) value);
+      } else if (value instanceof List) {
+        writer.name(key).beginArray();
+        for (Object element : (List) value) {
+          writeReference(writer, (String) element);
+        }
+        writer.endArray();
+      }
+    }
+    writer.endObject();
+  }
+
+  private void writeReference(JsonWriter writer, String uri) throws IOException {
+
+    Message referenced = resolved.get(uri);
+    if (referenced != null) {
+      JsonCodec.writeMessage(writer, referenced);
+    } else {
+      writer.value(uri);
+    }
+  }
+
+  private static List<String> getValues(Object value) {
+
+    List<String> values = new ArrayList<String>();
+    if (value instanceof String) {
+      values.add((String) value);
+    } else if (value instanceof List) {
+      for (Object element : (List) value) {
+        if (element instanceof String) {
+          values.add((String) element);
+        }
+      }
+    }
+    return values;
+  }
+}
@@ -1,17 +1,38 @@
 package net.es.lookup.api;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import net.es.lookup.cache.CachingOutputStream;
+import net.es.lookup.cache.QueryCache;
 import net.es.lookup.common.Message;
 import net.es.lookup.common.ReservedKeys;
 import net.es.lookup.common.ReservedValues;
+import net.es.lookup.common.exception.api.BadRequestException;
 import net.es.lookup.common.exception.api.InternalErrorException;
 import net.es.lookup.common.exception.api.NotFoundException;
-import net.es.lookup.common.exception.api.ServiceUnavailableTemporarilyException;
 import net.es.lookup.common.exception.internal.DataFormatException;
 import net.es.lookup.common.exception.internal.DatabaseException;
-import net.es.lookup.database.ServiceDaoMongoDb;
+import net.es.lookup.database.JsonRecordCursor;
+import net.es.lookup.database.QueryOptions;
+import net.es.lookup.database.RecordStore;
+import net.es.lookup.database.RecordStoreManager;
+import net.es.lookup.protocol.binary.BinaryCodec;
 import net.es.lookup.protocol.json.JSONMessage;
+import net.es.lookup.protocol.json.JsonCodec;
+import net.es.lookup.protocol.json.JsonWriter;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -22,68 +43,352 @@ public class QueryServices {
 
   public static boolean QUERY_ALL_FLAG = false;
 
+  // format of the facet counts in the query cache keys, next to the media types of query results
+  private static final String FACETS_CACHE_TYPE = "facets";
+
+  /**
+   * Method to query for records and stream the results to the client. The database query is run
+   * before the response is committed, so errors finding the records are still reported with the
+   * right status code. The records themselves are written one at a time as they are read from the
+   * database cursor, as the JSON text the store returns for them.
+   *
+   * <p>When the client asks for a bounded page of results, the page is read before the response
+   * is sent so that the continuation token pointing after its last record can be returned in the
+   * response header. The token is only set if the page is full, i.e. if there might be more
+   * records to fetch.
+   *
+   * <p>When the client asks to expand some keys, the records referenced by these keys are read
+   * in batches and inlined in the results (see ExpandingRecordCursor). Such results are not
+   * cached.
+   *
+   * @param request Request containing keywords and operators
+   * @param options skip, maxresults and continuation token
+   * @return Response with the matching records as a JSON array
+   * */
+  public Response streamQuery(Message request, QueryOptions options) {
+
+    return streamQuery(request, options, true);
+  }
+
+  /**
+   * Method to query for records and stream the results to the client, as above. Responses are
+   * served from the query cache when it is enabled, and cached as they are streamed.
+   *
+   * @param request Request containing keywords and operators
+   * @param options skip, maxresults and continuation token
+   * @param useCache false to bypass the query cache
+   * @return Response with the matching records as a JSON array
+   * */
+  public Response streamQuery(Message request, QueryOptions options, boolean useCache) {
+
+    return streamQuery(request, options, useCache, null);
+  }
+
   /**
-   * Method to query for records using the request.
+   * Method to query for records and stream the results to the client, as above, in the format
+   * negotiated with the client.
+   *
    * @param request Request containing keywords and operators
-   * @param maxResult maxResults to be returned .not yet implemeted
+   * @param options skip, maxresults and continuation token
+   * @param useCache false to bypass the query cache
+   * @param codec binary format of the response, or null for JSON
+   * @return Response with the matching records as an array
    * */
-  public String query(Message request, int maxResult) {
+  public Response streamQuery(
+      Message request, QueryOptions options, boolean useCache, BinaryCodec codec) {
 
-    // TODO: Implement maxResult and skip
-    LOG.info("Processing queryService...");
+    LOG.info("Processing streaming queryService...");
     LOG.info("Received message: " + request.getMap());
-    String response;
 
     Message queryParameters = getQueryParameters(request);
     Message operators = getOperators(request, queryParameters);
 
-    // Query DB
-    try {
-      ServiceDaoMongoDb db = ServiceDaoMongoDb.getInstance();
+    RecordStore db = RecordStoreManager.getInstance();
+    if (db == null) {
+      throw new NotFoundException("Cannot access database");
+    }
 
-      if (db != null) {
+    QueryCache cache = QueryCache.getInstance();
+    String cacheKey = null;
+    QueryCache.Stamp stamp = null;
+    // expanded results depend on records of other types, which do not invalidate the query
+    if (useCache && cache.isEnabled() && options.getExpand() == null) {
 
-        List<Message> res = db.query(request, queryParameters, operators, maxResult);
-        // Build response
-        response = JSONMessage.toString(res);
-        res = null;
-        LOG.info("Query status: SUCCESS;");
+      String mediaType = codec == null ? ReservedValues.MEDIA_TYPE_JSON : codec.getMediaType();
+      cacheKey = cache.getKey(queryParameters, operators, options, mediaType);
+      QueryCache.Result cached = cache.get(cacheKey);
+      if (cached != null) {
 
-        if (queryParameters.getMap().size() == 0) {
+        LOG.info("Query status: SUCCESS; cached");
+        if (options.getMaxResults() <= 0 && queryParameters.getMap().size() == 0) {
           QUERY_ALL_FLAG = true;
         }
-        LOG.debug("Sending response");
-        return response;
+        Response.ResponseBuilder response = ok(cached.getBody(), codec);
+        if (cached.getContinuation() != null) {
+          response.header(ReservedKeys.RECORD_CONTINUATION_HEADER, cached.getContinuation());
+        }
+        return response.build();
+      }
+
+      // read the write versions before the database
+      stamp = cache.stamp(queryParameters, operators);
+    }
+
+    JsonRecordCursor cursor;
+    try {
+      if (options.getExpand() != null) {
+        cursor =
+            new ExpandingRecordCursor(
+                db.queryCursor(queryParameters, operators, options), db, options.getExpand());
       } else {
-        throw new NotFoundException("Cannot access database");
+        cursor = db.queryJsonCursor(queryParameters, operators, options);
       }
+    } catch (DataFormatException e) {
+
+      LOG.info("Query status: FAILED; invalid continuation token");
+      throw new BadRequestException("Invalid continuation token");
 
     } catch (DatabaseException e) {
 
       LOG.fatal("Error retrieving results:" + e.getMessage());
       LOG.info("Query status: FAILED; exiting");
       throw new InternalErrorException("Error retrieving results");
+    }
+
+    if (options.getMaxResults() <= 0) {
+
+      if (queryParameters.getMap().size() == 0) {
+        QUERY_ALL_FLAG = true;
+      }
+      return ok(toStreamingOutput(cursor, cursor, codec, cacheKey, stamp, null), codec).build();
+    }
+
+    List<String> page = new ArrayList<String>();
+    String continuation = null;
+    try {
+      while (cursor.hasNext()) {
+        page.add(cursor.next());
+      }
+      if (page.size() == options.getMaxResults()) {
+        continuation = cursor.getContinuationToken();
+      }
+    } catch (RuntimeException e) {
+
+      LOG.fatal("Error retrieving results:" + e.getMessage());
+      LOG.info("Query status: FAILED; exiting");
+      throw new InternalErrorException("Error retrieving results");
+
+    } finally {
+      cursor.close();
+    }
+
+    Response.ResponseBuilder response =
+        ok(toStreamingOutput(page.iterator(), null, codec, cacheKey, stamp, continuation), codec);
+    if (continuation != null) {
+      response.header(ReservedKeys.RECORD_CONTINUATION_HEADER, continuation);
+    }
+    return response.build();
+  }
+
+  /**
+   * Method to count the records matching the request. The store counts the records without
+   * reading them, so the response is a single number whatever the size of the result set.
+   *
+   * @param request Request containing keywords and operators
+   * @return String Json message with the number of matching records in count
+   * */
+  public String count(Message request) {
+
+    LOG.info("Processing countService...");
+    LOG.info("Received message: " + request.getMap());
+
+    Message queryParameters = getQueryParameters(request);
+    Message operators = getOperators(request, queryParameters);
+
+    RecordStore db = RecordStoreManager.getInstance();
+    if (db == null) {
+      throw new NotFoundException("Cannot access database");
+    }
+
+    try {
+      Message response = new Message();
+      response.add(
+          ReservedKeys.RECORD_QUERY_COUNT, String.valueOf(db.count(queryParameters, operators)));
+      LOG.info("Count status: SUCCESS;");
+      return JSONMessage.toString(response);
+
+    } catch (DatabaseException e) {
+
+      LOG.fatal("Error counting results:" + e.getMessage());
+      LOG.info("Count status: FAILED; exiting");
+      throw new InternalErrorException("Error counting results");
 
     } catch (DataFormatException e) {
 
       LOG.error("Data formatting exception");
-      LOG.info("Query status: FAILED; exiting");
+      LOG.info("Count status: FAILED; exiting");
       throw new InternalErrorException("Error formatting elements");
+    }
+  }
 
-    } catch (OutOfMemoryError e) {
+  /**
+   * Method to count the distinct values of some keys over the records matching the request, for
+   * instance all the service types or countries of the registered records. The store counts them
+   * without returning the records. The counts are served from the query cache when it is
+   * enabled, and invalidated by the writes like query results.
+   *
+   * @param request Request containing keywords and operators
+   * @param keys the keys whose values are counted
+   * @param maxValues the number of most frequent values returned per key
+   * @param useCache false to bypass the query cache
+   * @return String Json object mapping each key to the number of records per value
+   * */
+  public String facets(Message request, List<String> keys, int maxValues, boolean useCache) {
 
-      LOG.error("The response was too large so ran out of memory");
-      LOG.info("Query status: FAILED; exiting");
-      throw new ServiceUnavailableTemporarilyException(
-          "Server is unable to process large query requests at this time. Please try later");
+    LOG.info("Processing facetService...");
+    LOG.info("Received message: " + request.getMap());
 
-    } catch (Exception e) {
+    Message queryParameters = getQueryParameters(request);
+    Message operators = getOperators(request, queryParameters);
 
-      LOG.error("Unexpected exception: " + e.getMessage());
-      LOG.info("Query status: FAILED; exiting");
-      throw new ServiceUnavailableTemporarilyException(
-          "Server is unable to process the request at this time. Please try later");
+    RecordStore db = RecordStoreManager.getInstance();
+    if (db == null) {
+      throw new NotFoundException("Cannot access database");
+    }
+
+    QueryCache cache = QueryCache.getInstance();
+    String cacheKey = null;
+    QueryCache.Stamp stamp = null;
+    if (useCache && cache.isEnabled()) {
+
+      QueryOptions options = new QueryOptions();
+      options.setFacets(keys);
+      options.setMaxResults(maxValues);
+      cacheKey = cache.getKey(queryParameters, operators, options, FACETS_CACHE_TYPE);
+      QueryCache.Result cached = cache.get(cacheKey);
+      if (cached != null) {
+        LOG.info("Facet status: SUCCESS; cached");
+        return new String(cached.getBody(), StandardCharsets.UTF_8);
+      }
+      stamp = cache.stamp(queryParameters, operators);
+    }
+
+    String response;
+    try {
+      response = writeFacets(db.facets(queryParameters, operators, keys, maxValues));
+    } catch (DatabaseException e) {
+
+      LOG.fatal("Error counting facets:" + e.getMessage());
+      LOG.info("Facet status: FAILED; exiting");
+      throw new InternalErrorException("Error counting facets");
+    }
+
+    if (cacheKey != null) {
+      byte[] body = response.getBytes(StandardCharsets.UTF_8);
+      cache.put(cacheKey, stamp, body.length <= cache.getMaxEntryBytes() ? body : null, null);
+    }
+    LOG.info("Facet status: SUCCESS;");
+    return response;
+  }
+
+  private static String writeFacets(Map<String, SortedMap<String, Long>> facets) {
+
+    StringWriter out = new StringWriter();
+    try {
+      JsonWriter writer = new JsonWriter(out);
+      writer.beginObject();
+      for (Map.Entry<String, SortedMap<String, Long>> facet : facets.entrySet()) {
+        writer.name(facet.getKey()).beginObject();
+        for (Map.Entry<String, Long> count : facet.getValue().entrySet()) {
+          writer.name(count.getKey()).jsonValue(String.valueOf(count.getValue()));
+        }
+        writer.endObject();
+      }
+      writer.endObject();
+    } catch (IOException e) {
+      throw new InternalErrorException("Error formatting elements");
+    }
+    return out.toString();
+  }
+
+  static Response.ResponseBuilder ok(Object entity, BinaryCodec codec) {
+
+    Response.ResponseBuilder response = Response.ok(entity);
+    if (codec != null) {
+      response.type(codec.getMediaType());
+    }
+    return response;
+  }
+
+  private StreamingOutput toStreamingOutput(
+      final Iterator<String> records,
+      final JsonRecordCursor cursor,
+      final BinaryCodec codec,
+      final String cacheKey,
+      final QueryCache.Stamp stamp,
+      final String continuation) {
+
+    return new StreamingOutput() {
+      @Override
+      public void write(OutputStream output) throws IOException {
+
+        try {
+          CachingOutputStream copy = null;
+          if (cacheKey != null) {
+            copy =
+                new CachingOutputStream(output, QueryCache.getInstance().getMaxEntryBytes());
+            output = copy;
+          }
+
+          if (codec == null) {
+            Writer writer =
+                new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            JSONMessage.writeJson(records, writer);
+          } else {
+            writeBinary(records, codec, output);
+          }
+          LOG.info("Query status: SUCCESS;");
+
+          if (copy != null) {
+            QueryCache.getInstance().put(cacheKey, stamp, copy.toByteArray(), continuation);
+          }
+
+        } catch (DataFormatException e) {
+
+          // the response has already been committed so the status cannot be changed anymore
+          LOG.error("Error streaming results: " + e.getMessage());
+          LOG.info("Query status: FAILED; exiting");
+          throw new IOException("Error formatting elements");
+
+        } catch (RuntimeException e) {
+
+          LOG.error("Error reading results from database: " + e.getMessage());
+          LOG.info("Query status: FAILED; exiting");
+          throw new IOException("Error retrieving results");
+
+        } finally {
+          if (cursor != null) {
+            cursor.close();
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Encodes the records, which the store returns as JSON, in a binary format. Each record is
+   * decoded from its JSON before being encoded, so this costs more than the JSON output.
+   */
+  static void writeBinary(Iterator<String> records, BinaryCodec codec, OutputStream output)
+      throws IOException {
+
+    OutputStream buffered = new BufferedOutputStream(output);
+    BinaryCodec.ArrayEncoder array = codec.startArray(buffered);
+    while (records.hasNext()) {
+      array.write(JsonCodec.decodeValue(records.next()));
     }
+    array.close();
+    buffered.flush();
   }
 
   private Message getQueryParameters(Message request) {
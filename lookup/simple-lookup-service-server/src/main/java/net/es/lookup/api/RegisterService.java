@@ -1,12 +1,10 @@
 package net.es.lookup.api;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import net.es.lookup.cache.QueryCache;
 import net.es.lookup.common.LeaseManager;
 import net.es.lookup.common.Message;
+import net.es.lookup.common.RegisterRequest;
 import net.es.lookup.common.ReservedKeys;
 import net.es.lookup.common.ReservedValues;
 import net.es.lookup.common.exception.api.BadRequestException;
@@ -16,7 +14,8 @@ import net.es.lookup.common.exception.api.UnauthorizedException;
 import net.es.lookup.common.exception.internal.DataFormatException;
 import net.es.lookup.common.exception.internal.DatabaseException;
 import net.es.lookup.common.exception.internal.DuplicateEntryException;
-import net.es.lookup.database.ServiceDaoMongoDb;
+import net.es.lookup.database.RecordStore;
+import net.es.lookup.database.RecordStoreManager;
 import net.es.lookup.protocol.json.JSONMessage;
 import net.es.lookup.protocol.json.JSONRegisterRequest;
 import net.es.lookup.protocol.json.JSONRegisterResponse;
@@ -67,31 +66,13 @@ public class RegisterService {
         // Add the state
         request.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_REGISTER);
 
-        // Build the matching query requestUrl that must fail for the service to be published
-        Message query = new Message();
-        Message operators = new Message();
-        List<String> list;
-        List<String> queryKeyList = new ArrayList();
-
-        Map<String, Object> keyValues = request.getMap();
-        Iterator it = keyValues.entrySet().iterator();
-
-        while (it.hasNext()) {
-
-          Map.Entry<String, Object> pairs = (Map.Entry) it.next();
-
-          if (!isIgnoreKey(pairs.getKey())) {
-
-            LOG.debug("key-value pair:" + pairs.getKey() + "=" + pairs.getValue());
-            operators.add(pairs.getKey(), ReservedValues.RECORD_OPERATOR_ALL);
-            query.add(pairs.getKey(), pairs.getValue());
-          }
-        }
-
+        // The store rejects the record if a record with the same content is registered,
+        // ignoring the lease and the uri
         try {
-          ServiceDaoMongoDb db = ServiceDaoMongoDb.getInstance();
+          RecordStore db = RecordStoreManager.getInstance();
           if (db != null) {
-            Message res = db.queryAndPublishService(request, query, operators);
+            Message res = db.publishServiceIfAbsent(request);
+            QueryCache.getInstance().recordChanged(res.getRecordType());
             response = new JSONRegisterResponse(res.getMap());
             String responseString = null;
             try {
@@ -166,7 +147,7 @@ public class RegisterService {
     return true;
   }
 
-  private boolean isValid(JSONRegisterRequest request) {
+  boolean isValid(RegisterRequest request) {
 
     // Checks if ke "type" is present
     boolean res = request.validate();
@@ -183,7 +164,7 @@ public class RegisterService {
     return res;
   }
 
-  private String newUri(String recordType) {
+  String newUri(String recordType) {
 
     if (recordType != null && !recordType.isEmpty()) {
       String uri =
@@ -194,15 +175,4 @@ public class RegisterService {
       throw new BadRequestException("Cannot create URI. Record Type not found.");
     }
   }
-
-  private boolean isIgnoreKey(String key) {
-
-    if (key.equals(ReservedKeys.RECORD_TTL)
-        || key.equals(ReservedKeys.RECORD_EXPIRES)
-        || key.equals(ReservedKeys.RECORD_URI)) {
-      return true;
-    } else {
-      return false;
-    }
-  }
 }
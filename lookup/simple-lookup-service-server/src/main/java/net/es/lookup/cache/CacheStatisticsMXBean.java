@@ -0,0 +1,20 @@
+package net.es.lookup.cache;
+
+/** Counters of a cache, published over JMX. */
+public interface CacheStatisticsMXBean {
+
+  /** Returns the number of lookups answered from the cache. */
+  long getHits();
+
+  /** Returns the number of lookups not found in the cache, or found expired. */
+  long getMisses();
+
+  /** Returns the number of entries removed to stay within the size limits. */
+  long getEvictions();
+
+  /** Returns the number of entries in the cache. */
+  int getSize();
+
+  /** Returns the estimated size of the entries in the cache, in bytes. */
+  long getWeight();
+}
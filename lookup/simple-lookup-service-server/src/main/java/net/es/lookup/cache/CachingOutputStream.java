@@ -0,0 +1,65 @@
+package net.es.lookup.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that keeps a copy of what is written to the underlying stream, up to a limit. The
+ * response is still streamed to the client, and the copy can be cached once it is complete.
+ */
+public class CachingOutputStream extends FilterOutputStream {
+
+  private final int limit;
+  private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+  /**
+   * Creates the stream.
+   *
+   * @param out the underlying stream
+   * @param limit maximum number of bytes to copy
+   */
+  public CachingOutputStream(OutputStream out, int limit) {
+
+    super(out);
+    this.limit = limit;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+
+    out.write(b);
+    if (copy != null) {
+      copy.write(b);
+      checkLimit();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+
+    out.write(b, off, len);
+    if (copy != null) {
+      copy.write(b, off, len);
+      checkLimit();
+    }
+  }
+
+  /**
+   * Returns the bytes written so far.
+   *
+   * @return the bytes, or null if more than the limit was written
+   */
+  public byte[] toByteArray() {
+
+    return copy == null ? null : copy.toByteArray();
+  }
+
+  private void checkLimit() {
+
+    if (copy.size() > limit) {
+      copy = null;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package net.es.lookup.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Map bounded by the number of entries and by their total weight, an estimate of their size in
+ * bytes given by the caller. When either limit is exceeded the least recently used entries are
+ * evicted. Each entry also has an expiry time after which it is no longer returned.
+ *
+ * <p>The entries are kept in an access ordered LinkedHashMap, so every operation holds the lock of
+ * the cache. The operations are short and do not depend on the size of the cache, except clear and
+ * removeExpired.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class LruCache<K, V> implements CacheStatisticsMXBean {
+
+  private final int maxEntries;
+  private final long maxWeight;
+  private final LinkedHashMap<K, Entry<V>> entries =
+      new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+  private long weight = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maxEntries maximum number of entries
+   * @param maxWeight maximum total weight of the entries
+   */
+  public LruCache(int maxEntries, long maxWeight) {
+
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+  }
+
+  /**
+   * Returns the value of the key, unless it has expired or is stale.
+   *
+   * @param key the key
+   * @return the value, or null if the key is not in the cache, has expired or is stale
+   */
+  public synchronized V get(K key) {
+
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    if (entry.expires <= System.currentTimeMillis() || !isCurrent(entry.value)) {
+      entries.remove(key);
+      weight -= entry.weight;
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+   * Adds or replaces the value of a key, then evicts the least recently used entries until the
+   * cache is within its limits. A value that is heavier than the whole cache is not added.
+   *
+   * @param key the key
+   * @param value the value
+   * @param valueWeight estimated size of the entry in bytes
+   * @param expires time in milliseconds after which the value is no longer returned
+   */
+  public synchronized void put(K key, V value, long valueWeight, long expires) {
+
+    remove(key);
+    if (valueWeight > maxWeight || maxEntries <= 0) {
+      return;
+    }
+
+    entries.put(key, new Entry<V>(value, valueWeight, expires));
+    weight += valueWeight;
+
+    Iterator<Entry<V>> eldest = entries.values().iterator();
+    while (entries.size() > maxEntries || weight > maxWeight) {
+      weight -= eldest.next().weight;
+      eldest.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key the key
+   */
+  public synchronized void remove(K key) {
+
+    Entry<V> entry = entries.remove(key);
+    if (entry != null) {
+      weight -= entry.weight;
+    }
+  }
+
+  /** Removes all the entries. */
+  public synchronized void clear() {
+
+    entries.clear();
+    weight = 0;
+  }
+
+  /** Removes the entries that have expired. */
+  public synchronized void removeExpired() {
+
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry<V> entry = it.next().getValue();
+      if (entry.expires <= now) {
+        weight -= entry.weight;
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Checks if a value is still valid, for caches that can tell that a value is stale without
+   * removing it. Stale values are removed and counted as misses.
+   *
+   * @param value the value
+   * @return true if the value can be returned
+   */
+  protected boolean isCurrent(V value) {
+
+    return true;
+  }
+
+  @Override
+  public long getHits() {
+
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+
+    return misses.get();
+  }
+
+  @Override
+  public long getEvictions() {
+
+    return evictions.get();
+  }
+
+  @Override
+  public synchronized int getSize() {
+
+    return entries.size();
+  }
+
+  @Override
+  public synchronized long getWeight() {
+
+    return weight;
+  }
+
+  private static class Entry<V> {
+
+    private final V value;
+    private final long weight;
+    private final long expires;
+
+    Entry(V value, long weight, long expires) {
+
+      this.value = value;
+      this.weight = weight;
+      this.expires = expires;
+    }
+  }
+}
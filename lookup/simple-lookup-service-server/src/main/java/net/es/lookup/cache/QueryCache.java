@@ -0,0 +1,376 @@
+package net.es.lookup.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.database.QueryOptions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Cache of serialized query results, keyed by the normalized query. Two queries that only differ
+ * in the order of their keys, in the order of the values of a list matched with ANY or ALL, or in
+ * the case of the operators share the same entry.
+ *
+ * <p>Instead of finding the queries a change affects, the cache keeps write versions. Every
+ * register, renew and delete bumps the version of the type of the record, and the global version.
+ * A query restricted to a single record type only depends on the version of that type, other
+ * queries depend on the global version. Changes that are not known by type, like the prune of
+ * expired records, invalidate all the queries. The versions are read before the database is
+ * queried, so a result that raced with a change is stale as soon as it is cached.
+ *
+ * <p>The cache is disabled until it is initialized with a positive size.
+ */
+public class QueryCache {
+
+  private static Logger LOG = LogManager.getLogger(QueryCache.class);
+
+  private static final String MBEAN_NAME = "net.es.lookup:type=Cache,name=queries";
+
+  // estimated size of a cache entry without its key and response, in bytes
+  private static final int ENTRY_OVERHEAD = 160;
+
+  private static QueryCache instance = new QueryCache(0, 0, 0, 0);
+
+  private final LruCache<String, Entry> results;
+  private final int maxEntryBytes;
+  private final long ttl;
+  private final boolean enabled;
+
+  // bumped by every change, by the changes of unknown type, and by the changes of each type
+  private final AtomicLong globalVersion = new AtomicLong();
+  private final AtomicLong allVersion = new AtomicLong();
+  private final Map<String, AtomicLong> typeVersions = new ConcurrentHashMap<String, AtomicLong>();
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maxEntries maximum number of results, 0 to disable the cache
+   * @param maxBytes maximum total size of the results
+   * @param maxEntryBytes maximum size of a single result, larger results are not cached
+   * @param ttl maximum time a result is kept, in seconds
+   */
+  public QueryCache(int maxEntries, long maxBytes, int maxEntryBytes, long ttl) {
+
+    this.results =
+        new LruCache<String, Entry>(maxEntries, maxBytes) {
+          @Override
+          protected boolean isCurrent(Entry entry) {
+
+            return entry.stamp.isCurrent();
+          }
+        };
+    this.maxEntryBytes = maxEntryBytes;
+    this.ttl = ttl * 1000;
+    this.enabled = maxEntries > 0 && maxBytes > 0 && maxEntryBytes > 0 && ttl > 0;
+  }
+
+  public static QueryCache getInstance() {
+
+    return QueryCache.instance;
+  }
+
+  /**
+   * Replaces the cache and publishes its counters over JMX.
+   *
+   * @param maxEntries maximum number of results, 0 to disable the cache
+   * @param maxBytes maximum total size of the results
+   * @param maxEntryBytes maximum size of a single result, larger results are not cached
+   * @param ttl maximum time a result is kept, in seconds
+   */
+  public static void init(int maxEntries, long maxBytes, int maxEntryBytes, long ttl) {
+
+    QueryCache.instance = new QueryCache(maxEntries, maxBytes, maxEntryBytes, ttl);
+    if (!instance.enabled) {
+      return;
+    }
+
+    try {
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      }
+      ManagementFactory.getPlatformMBeanServer().registerMBean(instance.results, name);
+    } catch (JMException e) {
+      LOG.warn("Could not register the query cache statistics: " + e.getMessage());
+    }
+  }
+
+  public boolean isEnabled() {
+
+    return enabled;
+  }
+
+  public int getMaxEntryBytes() {
+
+    return maxEntryBytes;
+  }
+
+  /**
+   * Builds the normalized form of a query.
+   *
+   * @param queryParameters query keywords
+   * @param operators operators of the query, as resolved by QueryServices
+   * @param options skip, maxresults, continuation token, projected and facet keys
+   * @return the cache key of the query
+   */
+  public String getKey(Message queryParameters, Message operators, QueryOptions options) {
+
+    return getKey(queryParameters, operators, options, ReservedValues.MEDIA_TYPE_JSON);
+  }
+
+  /**
+   * Builds the normalized form of a query whose result is encoded in the given media type.
+   *
+   * @param queryParameters query keywords
+   * @param operators operators of the query, as resolved by QueryServices
+   * @param options skip, maxresults, continuation token, projected and facet keys
+   * @param mediaType format of the cached result
+   * @return the cache key of the query
+   */
+  public String getKey(
+      Message queryParameters, Message operators, QueryOptions options, String mediaType) {
+
+    StringBuilder key = new StringBuilder();
+    append(key, mediaType);
+    append(key, String.valueOf(options.getSkip()));
+    append(key, String.valueOf(options.getMaxResults()));
+    append(key, String.valueOf(options.getContinuation()));
+    appendKeys(key, options.getFields());
+    appendKeys(key, options.getFacets());
+    append(key, toOperator(operators.getOperator()));
+
+    Map<String, Object> queryMap = queryParameters.getMap();
+    Map<String, Object> opsMap = operators.getMap();
+    for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(queryMap).entrySet()) {
+
+      String op = toOperator(opsMap.get(entry.getKey()));
+      List<String> values = new ArrayList<String>();
+      if (entry.getValue() instanceof List) {
+        for (Object value : (List) entry.getValue()) {
+          values.add(String.valueOf(value));
+        }
+        // any other list operator compares the lists in order
+        if (ReservedValues.RECORD_OPERATOR_ANY.equals(op)
+            || ReservedValues.RECORD_OPERATOR_ALL.equals(op)) {
+          Collections.sort(values);
+        }
+      } else {
+        values.add(String.valueOf(entry.getValue()));
+      }
+
+      append(key, entry.getKey());
+      append(key, op);
+      key.append(values.size()).append('#');
+      for (String value : values) {
+        append(key, value);
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Returns the cached result of a query.
+   *
+   * @param key the normalized query
+   * @return the result, or null if it is not cached or is stale
+   */
+  public Result get(String key) {
+
+    Entry entry = results.get(key);
+    return entry == null ? null : entry.result;
+  }
+
+  /**
+   * Reads the versions a query depends on. This has to be done before the database is queried.
+   *
+   * @param queryParameters query keywords
+   * @param operators operators of the query, as resolved by QueryServices
+   * @return the versions to be given to put
+   */
+  public Stamp stamp(Message queryParameters, Message operators) {
+
+    String type = getRecordType(queryParameters, operators);
+    if (type == null) {
+      return new Stamp(null, allVersion.get(), globalVersion.get());
+    }
+    return new Stamp(type, allVersion.get(), getTypeVersion(type));
+  }
+
+  /**
+   * Caches the result of a query, unless a change happened since it was stamped.
+   *
+   * @param key the normalized query
+   * @param stamp the versions read before the query
+   * @param body the serialized response, or null if it is too large to be cached
+   * @param continuation the continuation token of the response, or null
+   */
+  public void put(String key, Stamp stamp, byte[] body, String continuation) {
+
+    if (body == null || !stamp.isCurrent()) {
+      return;
+    }
+
+    Entry entry = new Entry(stamp, new Result(body, continuation));
+    long weight = ENTRY_OVERHEAD + 2 * key.length() + body.length;
+    results.put(key, entry, weight, System.currentTimeMillis() + ttl);
+  }
+
+  /**
+   * Invalidates the queries that may return a record of the given type.
+   *
+   * @param type the type of the record that changed, or null if it is not known
+   */
+  public void recordChanged(String type) {
+
+    if (type == null || type.isEmpty()) {
+      allChanged();
+      return;
+    }
+
+    AtomicLong version = typeVersions.get(type);
+    if (version == null) {
+      typeVersions.putIfAbsent(type, new AtomicLong());
+      version = typeVersions.get(type);
+    }
+    version.incrementAndGet();
+    globalVersion.incrementAndGet();
+  }
+
+  /** Invalidates all the queries. */
+  public void allChanged() {
+
+    allVersion.incrementAndGet();
+    globalVersion.incrementAndGet();
+  }
+
+  public CacheStatisticsMXBean getStatistics() {
+
+    return results;
+  }
+
+  private long getTypeVersion(String type) {
+
+    AtomicLong version = typeVersions.get(type);
+    return version == null ? 0 : version.get();
+  }
+
+  /**
+   * Returns the record type a query is restricted to. With the ANY operator the type only
+   * restricts the query if it is the only keyword.
+   */
+  private static String getRecordType(Message queryParameters, Message operators) {
+
+    Map<String, Object> queryMap = queryParameters.getMap();
+    Object type = queryMap.get(ReservedKeys.RECORD_TYPE);
+    if (type instanceof List && ((List) type).size() == 1) {
+      type = ((List) type).get(0);
+    }
+
+    if (!(type instanceof String) || ((String) type).contains("*")) {
+      return null;
+    }
+    if (ReservedValues.RECORD_OPERATOR_ANY.equals(toOperator(operators.getOperator()))
+        && queryMap.size() > 1) {
+      return null;
+    }
+    return (String) type;
+  }
+
+  private static String toOperator(Object op) {
+
+    if (op instanceof List && !((List) op).isEmpty()) {
+      op = ((List) op).get(0);
+    }
+    return op == null ? ReservedValues.RECORD_OPERATOR_DEFAULT : op.toString().toLowerCase();
+  }
+
+  private static void append(StringBuilder key, String value) {
+
+    key.append(value.length()).append(':').append(value);
+  }
+
+  /** Appends a set of record keys, like the projected keys, or '*' if there is none. */
+  private static void appendKeys(StringBuilder key, List<String> recordKeys) {
+
+    if (recordKeys == null) {
+      key.append('*');
+    } else {
+      Set<String> sorted = new TreeSet<String>(recordKeys);
+      key.append(sorted.size()).append('#');
+      for (String recordKey : sorted) {
+        append(key, recordKey);
+      }
+    }
+  }
+
+  /** Versions of the changes a cached query depends on. */
+  public final class Stamp {
+
+    private final String type;
+    private final long all;
+    private final long version;
+
+    private Stamp(String type, long all, long version) {
+
+      this.type = type;
+      this.all = all;
+      this.version = version;
+    }
+
+    private boolean isCurrent() {
+
+      if (all != allVersion.get()) {
+        return false;
+      }
+      return version == (type == null ? globalVersion.get() : getTypeVersion(type));
+    }
+  }
+
+  /** Serialized response of a query. */
+  public static final class Result {
+
+    private final byte[] body;
+    private final String continuation;
+
+    private Result(byte[] body, String continuation) {
+
+      this.body = body;
+      this.continuation = continuation;
+    }
+
+    public byte[] getBody() {
+
+      return body;
+    }
+
+    public String getContinuation() {
+
+      return continuation;
+    }
+  }
+
+  private static class Entry {
+
+    private final Stamp stamp;
+    private final Result result;
+
+    Entry(Stamp stamp, Result result) {
+
+      this.stamp = stamp;
+      this.result = result;
+    }
+  }
+}
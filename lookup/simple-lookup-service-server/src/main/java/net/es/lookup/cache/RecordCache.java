@@ -0,0 +1,244 @@
+package net.es.lookup.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import net.es.lookup.common.CompactRecord;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.database.RecordStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Read-through cache of records, keyed by uri, for the GET of a record or of one of its keys. A
+ * record is kept for at most the configured ttl and never past its expires, so an expired record
+ * is read again from the database like before.
+ *
+ * <p>Every change of a record has to invalidate it once the database has been updated. Reads that
+ * were in flight during an invalidation do not add their record to the cache, as it may have been
+ * read before the change.
+ *
+ * <p>Records are held as CompactRecords, whose expiry time is parsed once, and are copied to a new
+ * Message for each read.
+ *
+ * <p>The cache is disabled until it is initialized with a positive size.
+ */
+public class RecordCache {
+
+  private static Logger LOG = LogManager.getLogger(RecordCache.class);
+
+  private static final String MBEAN_NAME = "net.es.lookup:type=Cache,name=records";
+
+  // estimated size of a cache entry, without its record, in bytes
+  private static final int ENTRY_OVERHEAD = 64;
+
+  private static RecordCache instance = new RecordCache(0, 0, 0);
+
+  private final LruCache<String, CompactRecord> records;
+  private final long ttl;
+  private final boolean enabled;
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maxEntries maximum number of records, 0 to disable the cache
+   * @param maxBytes maximum estimated size of the records
+   * @param ttl maximum time a record is kept, in seconds
+   */
+  public RecordCache(int maxEntries, long maxBytes, long ttl) {
+
+    this.records = new LruCache<String, CompactRecord>(maxEntries, maxBytes);
+    this.ttl = ttl * 1000;
+    this.enabled = maxEntries > 0 && maxBytes > 0 && ttl > 0;
+  }
+
+  public static RecordCache getInstance() {
+
+    return RecordCache.instance;
+  }
+
+  /**
+   * Replaces the cache and publishes its counters over JMX.
+   *
+   * @param maxEntries maximum number of records, 0 to disable the cache
+   * @param maxBytes maximum estimated size of the records
+   * @param ttl maximum time a record is kept, in seconds
+   */
+  public static void init(int maxEntries, long maxBytes, long ttl) {
+
+    RecordCache.instance = new RecordCache(maxEntries, maxBytes, ttl);
+    if (!instance.enabled) {
+      return;
+    }
+
+    try {
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      }
+      ManagementFactory.getPlatformMBeanServer().registerMBean(instance.records, name);
+    } catch (JMException e) {
+      LOG.warn("Could not register the record cache statistics: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns a record, from the cache if it is there or else from the database.
+   *
+   * @param db the database holding the record
+   * @param uri uri of the record
+   * @return the record, or null if it does not exist
+   * @throws DatabaseException if the database could not be read
+   */
+  public Message getRecord(RecordStore db, String uri) throws DatabaseException {
+
+    if (!enabled) {
+      return db.getRecordByUri(uri);
+    }
+
+    CompactRecord cached = records.get(uri);
+    if (cached != null) {
+      // callers are free to change the record they get
+      return cached.toMessage();
+    }
+
+    long readVersion = version.get();
+    Message record = db.getRecordByUri(uri);
+    if (record == null) {
+      return null;
+    }
+
+    cached = CompactRecord.of(record);
+    long now = System.currentTimeMillis();
+    long expires = Math.min(now + ttl, cached.getExpires());
+    synchronized (records) {
+      // the lock of the LruCache also orders the put with the invalidations
+      if (expires > now && version.get() == readVersion) {
+        records.put(uri, cached, ENTRY_OVERHEAD + cached.weigh(), expires);
+      }
+    }
+    return record;
+  }
+
+  /**
+   * Returns several records, from the cache for the ones that are there, and with a single read of
+   * the database for the others.
+   *
+   * @param db the database holding the records
+   * @param uris uris of the records
+   * @param fields the keys to be returned in addition to the uri, or null for the entire records
+   * @return map of uri and record for the records that exist
+   * @throws DatabaseException if the database could not be read
+   */
+  public Map<String, Message> getRecords(
+      RecordStore db, Collection<String> uris, List<String> fields) throws DatabaseException {
+
+    if (!enabled) {
+      return db.getRecordsByUri(uris, fields);
+    }
+
+    Set<String> projected = null;
+    if (fields != null) {
+      projected = new HashSet<String>(fields);
+      projected.add(ReservedKeys.RECORD_URI);
+    }
+
+    Map<String, Message> result = new HashMap<String, Message>();
+    Set<String> missing = new LinkedHashSet<String>();
+    for (String uri : uris) {
+      CompactRecord cached = records.get(uri);
+      if (cached != null) {
+        result.put(uri, toMessage(cached, projected));
+      } else {
+        missing.add(uri);
+      }
+    }
+    if (missing.isEmpty()) {
+      return result;
+    }
+
+    // the whole records are read, to be cached
+    long readVersion = version.get();
+    Map<String, Message> read = db.getRecordsByUri(missing, null);
+    long now = System.currentTimeMillis();
+    synchronized (records) {
+      for (Map.Entry<String, Message> entry : read.entrySet()) {
+
+        CompactRecord record = CompactRecord.of(entry.getValue());
+        long expires = Math.min(now + ttl, record.getExpires());
+        if (expires > now && version.get() == readVersion) {
+          records.put(entry.getKey(), record, ENTRY_OVERHEAD + record.weigh(), expires);
+        }
+        result.put(entry.getKey(), toMessage(record, projected));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes a record that has been changed or deleted.
+   *
+   * @param uri uri of the record
+   */
+  public void invalidate(String uri) {
+
+    synchronized (records) {
+      version.incrementAndGet();
+      records.remove(uri);
+    }
+  }
+
+  /**
+   * Removes records that have been changed or deleted.
+   *
+   * @param uris uris of the records
+   */
+  public void invalidate(Iterable<String> uris) {
+
+    synchronized (records) {
+      version.incrementAndGet();
+      for (String uri : uris) {
+        records.remove(uri);
+      }
+    }
+  }
+
+  /** Removes the records that have expired, which are also the only ones the prune deletes. */
+  public void invalidateExpired() {
+
+    synchronized (records) {
+      version.incrementAndGet();
+      records.removeExpired();
+    }
+  }
+
+  /** Removes all the records. */
+  public void invalidateAll() {
+
+    synchronized (records) {
+      version.incrementAndGet();
+      records.clear();
+    }
+  }
+
+  public CacheStatisticsMXBean getStatistics() {
+
+    return records;
+  }
+
+  private static Message toMessage(CompactRecord record, Set<String> projected) {
+
+    return projected == null ? record.toMessage() : record.select(projected).toMessage();
+  }
+}
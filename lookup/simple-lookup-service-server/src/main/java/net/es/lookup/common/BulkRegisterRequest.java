@@ -0,0 +1,19 @@
+package net.es.lookup.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Request registering several records at once. The records are kept in the order received. */
+public abstract class BulkRegisterRequest extends Message {
+
+  protected List<RegisterRequest> records = new ArrayList<>();
+
+  public BulkRegisterRequest() {
+    super();
+  }
+
+  public List<RegisterRequest> getRecords() {
+
+    return this.records;
+  }
+}
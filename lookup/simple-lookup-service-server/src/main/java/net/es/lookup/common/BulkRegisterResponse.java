@@ -0,0 +1,66 @@
+package net.es.lookup.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+public class BulkRegisterResponse extends Message {
+
+  public BulkRegisterResponse() {
+
+    super();
+  }
+
+  public BulkRegisterResponse(Map<String, Object> map) {
+
+    super(map);
+  }
+
+  public void addTotalRecordsCount(int recordCount) {
+
+    this.add(ReservedKeys.RECORD_BULKRENEW_TOTALRECORDS, String.valueOf(recordCount));
+  }
+
+  /**
+   * This method adds the uris of the records in the order of the request. Records that were not
+   * registered have an empty uri.
+   */
+  public void updateRegistered(List<String> recordUris) {
+
+    int registered = 0;
+    for (String uri : recordUris) {
+      if (!uri.isEmpty()) {
+        registered++;
+      }
+    }
+
+    this.add(ReservedKeys.RECORD_BULKREGISTER_REGISTEREDCOUNT, String.valueOf(registered));
+    this.add(ReservedKeys.RECORD_BULK_URIS, recordUris);
+  }
+
+  /**
+   * This method populates the error codes and message for the failed records, identified by their
+   * position in the request.
+   */
+  public void updateFailures(Map<Integer, Message> failedRecords) {
+
+    this.add(ReservedKeys.RECORD_BULKRENEW_FAILURECOUNT, String.valueOf(failedRecords.size()));
+
+    List<String> positions = new ArrayList<>();
+    List<String> errorCodes = new ArrayList<>();
+    List<String> errorMessages = new ArrayList<>();
+
+    for (Entry<Integer, Message> failure : new TreeMap<>(failedRecords).entrySet()) {
+
+      positions.add(String.valueOf(failure.getKey()));
+      errorCodes.add(String.valueOf(failure.getValue().getKey(ReservedKeys.ERROR_CODE)));
+      errorMessages.add((String) failure.getValue().getKey(ReservedKeys.ERROR_MESSAGE));
+    }
+
+    this.add(ReservedKeys.RECORD_BULKREGISTER_FAILURERECORDS, positions);
+    this.add(ReservedKeys.ERROR_CODE, errorCodes);
+    this.add(ReservedKeys.ERROR_MESSAGE, errorMessages);
+  }
+}
@@ -0,0 +1,455 @@
+package net.es.lookup.common;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Immutable record, for the records that are kept on the heap by the in-memory store and the
+ * caches. A Message holds a HashMap with an ArrayList per value, and is locked on every change;
+ * this holds the keys in one sorted array and the values in another, each value being a String or
+ * a String[] for the values that are lists. Keys are shared between all the records, and the
+ * expiry time is parsed once when the record is built.
+ *
+ * <p>The record is a read-only Map, whose list values are read-only views, so it can be matched
+ * and indexed like the maps of the messages. Changes go through a Builder, which makes a new
+ * record.
+ */
+public final class CompactRecord extends AbstractMap<String, Object> {
+
+  // the keys of all the records, so that each key is held once; keys are sent by the clients,
+  // so the number of shared keys is bounded
+  private static final Map<String, String> KEYS = new ConcurrentHashMap<String, String>();
+  private static final int MAX_SHARED_KEYS = 10000;
+
+  // estimated size of the record and of each string, in bytes
+  private static final int RECORD_OVERHEAD = 64;
+  private static final int STRING_OVERHEAD = 48;
+
+  private static final String[] NO_KEYS = new String[0];
+  private static final Object[] NO_VALUES = new Object[0];
+
+  private final String[] keys;
+  private final Object[] values;
+  private final long expires;
+  private final long lastUpdated;
+  private final String json;
+
+  private CompactRecord(
+      String[] keys, Object[] values, long expires, long lastUpdated, String json) {
+
+    this.keys = keys;
+    this.values = values;
+    this.expires = expires;
+    this.lastUpdated = lastUpdated;
+    this.json = json;
+  }
+
+  /**
+   * Copies the key-values and the stored JSON of a message.
+   *
+   * @param message the message
+   * @return the record
+   */
+  public static CompactRecord of(Message message) {
+
+    return new Builder().putAll(message.getMap()).setJson(message.getJson()).build();
+  }
+
+  public static Builder builder() {
+
+    return new Builder();
+  }
+
+  /** Returns a builder holding the key-values of this record, to make a changed copy. */
+  public Builder toBuilder() {
+
+    Builder builder = new Builder();
+    for (int i = 0; i < keys.length; i++) {
+      builder.values.put(keys[i], values[i]);
+    }
+    builder.lastUpdated = lastUpdated;
+    builder.json = json;
+    return builder;
+  }
+
+  /**
+   * Returns a copy of this record holding another stored JSON. The key-values are shared.
+   *
+   * @param json the JSON members, or null
+   * @return the record
+   */
+  public CompactRecord withJson(String json) {
+
+    return new CompactRecord(keys, values, expires, lastUpdated, json);
+  }
+
+  /**
+   * Returns a copy of this record holding only some of its keys, for the queries that project the
+   * records. The copy has no stored JSON.
+   *
+   * @param selected the keys to be kept
+   * @return the record
+   */
+  public CompactRecord select(Collection<String> selected) {
+
+    int size = 0;
+    for (String key : keys) {
+      if (selected.contains(key)) {
+        size++;
+      }
+    }
+
+    String[] selectedKeys = new String[size];
+    Object[] selectedValues = new Object[size];
+    int next = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (selected.contains(keys[i])) {
+        selectedKeys[next] = keys[i];
+        selectedValues[next++] = values[i];
+      }
+    }
+    return new CompactRecord(selectedKeys, selectedValues, expires, lastUpdated, null);
+  }
+
+  /**
+   * Returns the expiry time of the lease of the record.
+   *
+   * @return epoch millis, or Long.MAX_VALUE if the record has no valid expires
+   */
+  public long getExpires() {
+
+    return expires;
+  }
+
+  /**
+   * Returns the time the record was last written by the store.
+   *
+   * @return epoch millis, or 0 if the store did not timestamp the record
+   */
+  public long getLastUpdated() {
+
+    return lastUpdated;
+  }
+
+  /**
+   * Returns the JSON of the record as it was stored, without its lease keys.
+   *
+   * @return the JSON members, or null if the record has to be serialized from its values
+   */
+  public String getJson() {
+
+    return json;
+  }
+
+  /**
+   * Returns the first value of a key.
+   *
+   * @param key the key
+   * @return the value, the first element of a list value, or null
+   */
+  public String getFirst(String key) {
+
+    Object value = getValue(key);
+    if (value instanceof String[]) {
+      String[] list = (String[]) value;
+      return list.length > 0 ? list[0] : null;
+    }
+    return value == null ? null : String.valueOf(value);
+  }
+
+  @Override
+  public Object get(Object key) {
+
+    Object value = getValue(key);
+    if (value instanceof String[]) {
+      return new ValueList((String[]) value);
+    }
+    return value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+
+    return keys.length;
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+
+    return new AbstractSet<Map.Entry<String, Object>>() {
+
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator() {
+
+        return new Iterator<Map.Entry<String, Object>>() {
+
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+
+            return next < keys.length;
+          }
+
+          @Override
+          public Map.Entry<String, Object> next() {
+
+            if (next >= keys.length) {
+              throw new NoSuchElementException();
+            }
+            String key = keys[next];
+            Object value = values[next++];
+            if (value instanceof String[]) {
+              value = new ValueList((String[]) value);
+            }
+            return new SimpleImmutableEntry<String, Object>(key, value);
+          }
+
+          @Override
+          public void remove() {
+
+            throw new UnsupportedOperationException("Records are immutable");
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+
+        return keys.length;
+      }
+    };
+  }
+
+  /**
+   * Copies the key-values to a mutable map, with a mutable list per list value.
+   *
+   * @return the key-values
+   */
+  public Map<String, Object> toMap() {
+
+    Map<String, Object> map = new HashMap<String, Object>(keys.length * 2);
+    for (int i = 0; i < keys.length; i++) {
+      Object value = values[i];
+      if (value instanceof String[]) {
+        value = new ArrayList<String>(Arrays.asList((String[]) value));
+      }
+      map.put(keys[i], value);
+    }
+    return map;
+  }
+
+  /**
+   * Copies the record to a message the caller is free to change.
+   *
+   * @return the message, carrying the stored JSON
+   */
+  public Message toMessage() {
+
+    Message message = new Message(toMap());
+    message.setJson(json);
+    return message;
+  }
+
+  /**
+   * Estimates the heap used by the record, for caches bounded in size.
+   *
+   * @return the estimated size in bytes, without the keys, which are shared
+   */
+  public long weigh() {
+
+    long weight = RECORD_OVERHEAD + 8L * keys.length;
+    if (json != null) {
+      weight += STRING_OVERHEAD + 2 * json.length();
+    }
+    for (Object value : values) {
+      if (value instanceof String[]) {
+        weight += 16;
+        for (String element : (String[]) value) {
+          weight += STRING_OVERHEAD + (element == null ? 0 : 2 * element.length());
+        }
+      } else {
+        weight += STRING_OVERHEAD + 2 * String.valueOf(value).length();
+      }
+    }
+    return weight;
+  }
+
+  private Object getValue(Object key) {
+
+    int index = indexOf(key);
+    return index < 0 ? null : values[index];
+  }
+
+  private int indexOf(Object key) {
+
+    if (!(key instanceof String)) {
+      return -1;
+    }
+    return Arrays.binarySearch(keys, key);
+  }
+
+  private static String intern(String key) {
+
+    String shared = KEYS.get(key);
+    if (shared != null) {
+      return shared;
+    }
+    if (KEYS.size() >= MAX_SHARED_KEYS) {
+      return key;
+    }
+    shared = KEYS.putIfAbsent(key, key);
+    return shared == null ? key : shared;
+  }
+
+  private static long parseExpires(Object expires) {
+
+    if (expires instanceof String[]) {
+      String[] list = (String[]) expires;
+      expires = list.length > 0 ? list[0] : null;
+    }
+    if (expires instanceof String && !((String) expires).isEmpty()) {
+      try {
+        return ISODateTimeFormat.dateTime().parseMillis((String) expires);
+      } catch (IllegalArgumentException e) {
+        return Long.MAX_VALUE;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /** Read-only view of a list value. */
+  private static final class ValueList extends AbstractList<String> implements RandomAccess {
+
+    private final String[] values;
+
+    ValueList(String[] values) {
+
+      this.values = values;
+    }
+
+    @Override
+    public String get(int index) {
+
+      return values[index];
+    }
+
+    @Override
+    public int size() {
+
+      return values.length;
+    }
+  }
+
+  /** Collects the key-values of a record, for the writes that register or renew it. */
+  public static final class Builder {
+
+    private final Map<String, Object> values = new HashMap<String, Object>();
+    private long lastUpdated = 0;
+    private String json = null;
+
+    private Builder() {}
+
+    /**
+     * Sets a key. Lists of strings are held in an array; other values, which records do not
+     * normally have, are kept as they are, and lists of them are copied.
+     *
+     * @param key the key
+     * @param value a string or a list of strings, or null to remove the key
+     * @return this builder
+     */
+    public Builder put(String key, Object value) {
+
+      if (value == null) {
+        values.remove(key);
+        return this;
+      }
+
+      if (value instanceof List) {
+        List<?> list = (List<?>) value;
+        String[] array = new String[list.size()];
+        for (int i = 0; i < array.length; i++) {
+          Object element = list.get(i);
+          if (element != null && !(element instanceof String)) {
+            value = Collections.unmodifiableList(new ArrayList<Object>(list));
+            break;
+          }
+          array[i] = (String) element;
+        }
+        if (value == list) {
+          value = array;
+        }
+      }
+      values.put(key, value);
+      return this;
+    }
+
+    public Builder putAll(Map<String, Object> map) {
+
+      for (Map.Entry<String, Object> entry : map.entrySet()) {
+        put(entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+
+    public Builder remove(String key) {
+
+      values.remove(key);
+      return this;
+    }
+
+    public boolean containsKey(String key) {
+
+      return values.containsKey(key);
+    }
+
+    public Builder setLastUpdated(long lastUpdated) {
+
+      this.lastUpdated = lastUpdated;
+      return this;
+    }
+
+    public Builder setJson(String json) {
+
+      this.json = json;
+      return this;
+    }
+
+    public CompactRecord build() {
+
+      if (values.isEmpty()) {
+        return new CompactRecord(NO_KEYS, NO_VALUES, Long.MAX_VALUE, lastUpdated, json);
+      }
+
+      String[] keys = values.keySet().toArray(new String[values.size()]);
+      Arrays.sort(keys);
+      Object[] recordValues = new Object[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        recordValues[i] = values.get(keys[i]);
+        keys[i] = intern(keys[i]);
+      }
+      long expires = parseExpires(values.get(ReservedKeys.RECORD_EXPIRES));
+      return new CompactRecord(keys, recordValues, expires, lastUpdated, json);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package net.es.lookup.common;
 
+import java.util.Date;
 import net.es.lookup.utils.config.reader.LookupServiceConfigReader;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -64,21 +65,9 @@ public class LeaseManager {
         }
 
 
-        if (expires != null && !expires.isEmpty()) {
+        if (expires != null && !expires.isEmpty() && isPastPruneThreshold(expires)) {
 
-            Instant pTime = now.minus(lcfg.getPruneThreshold());
-            DateTime pruneTime = pTime.toDateTime();
-
-            DateTimeFormatter fmt = ISODateTimeFormat.dateTime();
-            DateTime dt = fmt.parseDateTime(expires);
-            DateTimeComparator dtc = DateTimeComparator.getInstance();
-
-            if (dtc.compare(dt, pruneTime) < 0) {
-
-                LOG.info("Cannot grant lease because record expired more than 5 minutes ago" + dt + "----" + pruneTime);
-                return false;
-
-            }
+            return false;
 
         }
 
@@ -126,4 +115,43 @@ public class LeaseManager {
     }
 
 
+    /**
+     * Checks if a record expired longer ago than the prune threshold. Such a record is about to be
+     * deleted, so its lease cannot be renewed.
+     *
+     * @param expires expiry time of the record, in ISO format
+     * @return true if the lease cannot be renewed
+     */
+    public boolean isPastPruneThreshold(String expires) {
+
+        DateTime pruneTime = new DateTime(getPruneTime());
+
+        DateTimeFormatter fmt = ISODateTimeFormat.dateTime();
+        DateTime dt = fmt.parseDateTime(expires);
+        DateTimeComparator dtc = DateTimeComparator.getInstance();
+
+        if (dtc.compare(dt, pruneTime) < 0) {
+
+            LOG.info("Cannot grant lease because record expired more than 5 minutes ago" + dt + "----" + pruneTime);
+            return true;
+
+        }
+
+        return false;
+
+    }
+
+
+    /**
+     * Returns the time before which expired records cannot be renewed anymore.
+     *
+     * @return current time minus the prune threshold
+     */
+    public Date getPruneTime() {
+
+        return new Instant().minus(lcfg.getPruneThreshold()).toDate();
+
+    }
+
+
 }
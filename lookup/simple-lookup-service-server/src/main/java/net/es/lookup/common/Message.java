@@ -1,15 +1,31 @@
 package net.es.lookup.common;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+
+/**
+ * Key-values of a record or of a request, with the status of its processing. A Message belongs to
+ * the request handling it and is not locked; records shared between requests are held as
+ * CompactRecords.
+ *
+ * <p>A Message read from a store may carry the JSON of the record as it was stored. Any change of
+ * a key that is part of that JSON, through add or through the map, drops it. Values are replaced,
+ * not modified in place.
+ */
 public class Message {
 
     private final Map<String, Object> keyValues;
+    private final Map<String, Object> view = new KeyValues();
     protected int status = 0;
     private int error = 0;
     private String errorMessage = "";
+    private String json = null;
 
     public Message() {
 
@@ -23,13 +39,13 @@ public class Message {
 
     }
 
-    public synchronized int getStatus() {
+    public int getStatus() {
 
         return this.status;
 
     }
 
-    public synchronized int setStatus(int status) {
+    public int setStatus(int status) {
 
         int old = this.status;
         this.status = status;
@@ -39,7 +55,7 @@ public class Message {
 
     public final Map getMap() {
 
-        return this.keyValues;
+        return this.view;
 
     }
 
@@ -55,9 +71,61 @@ public class Message {
 
     }
 
-    public synchronized void add(String key, Object value) {
+    public void add(String key, Object value) {
 
         this.keyValues.put(key, value);
+        this.json = null;
+
+    }
+
+    /**
+     * Returns the JSON of the record as it was stored, without its lease keys. See
+     * JSONMessage.toStoredJson.
+     *
+     * @return the JSON members, or null if the record has to be serialized from its map
+     */
+    public final String getJson() {
+
+        return this.json;
+
+    }
+
+    /**
+     * Sets the JSON of the record as it was stored. It is dropped when a key other than the lease
+     * keys and the internal keys changes.
+     *
+     * @param json the JSON members
+     */
+    public final void setJson(String json) {
+
+        this.json = json;
+
+    }
+
+    /**
+     * Projects the message on some keys, removing the others.
+     *
+     * @param keys the keys to be kept
+     */
+    public final void retainKeys(Collection<String> keys) {
+
+        this.keyValues.keySet().retainAll(keys);
+        this.json = null;
+
+    }
+
+    /** Tells if a key is part of the stored JSON, which leaves out the lease and internal keys. */
+    private static boolean isInJson(Object key) {
+
+        return !ReservedKeys.LEASE_KEYS.contains(key) && !String.valueOf(key).startsWith("_");
+
+    }
+
+    private void changed(Object key) {
+
+        if (this.json != null && isInJson(key)) {
+            this.json = null;
+        }
 
     }
 
@@ -143,28 +211,28 @@ public class Message {
     }
 
 
-    public synchronized void setError(int error) {
+    public void setError(int error) {
 
         this.error = error;
 
     }
 
 
-    public synchronized int getError() {
+    public int getError() {
 
         return this.error;
 
     }
 
 
-    public synchronized void setErrorMessage(String errorMessage) {
+    public void setErrorMessage(String errorMessage) {
 
         this.errorMessage = errorMessage;
 
     }
 
 
-    public synchronized String getErrorMessage() {
+    public String getErrorMessage() {
 
         return this.errorMessage;
 
@@ -208,4 +276,114 @@ public class Message {
 
     }
 
-}
\ No newline at end of file
+
+    /** The key-values, dropping the stored JSON when they change. */
+    private final class KeyValues extends AbstractMap<String, Object> {
+
+        @Override
+        public int size() {
+
+            return keyValues.size();
+
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+
+            return keyValues.containsKey(key);
+
+        }
+
+        @Override
+        public Object get(Object key) {
+
+            return keyValues.get(key);
+
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+
+            changed(key);
+            return keyValues.put(key, value);
+
+        }
+
+        @Override
+        public Object remove(Object key) {
+
+            if (keyValues.containsKey(key)) {
+                changed(key);
+            }
+            return keyValues.remove(key);
+
+        }
+
+        @Override
+        public void clear() {
+
+            keyValues.clear();
+            json = null;
+
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+
+            return new AbstractSet<Entry<String, Object>>() {
+
+                @Override
+                public int size() {
+
+                    return keyValues.size();
+
+                }
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+
+                    final Iterator<Entry<String, Object>> entries = keyValues.entrySet().iterator();
+                    return new Iterator<Entry<String, Object>>() {
+
+                        private Entry<String, Object> current;
+
+                        @Override
+                        public boolean hasNext() {
+
+                            return entries.hasNext();
+
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+
+                            current = entries.next();
+                            return new SimpleEntry<String, Object>(current) {
+
+                                @Override
+                                public Object setValue(Object value) {
+
+                                    changed(getKey());
+                                    super.setValue(value);
+                                    return current.setValue(value);
+
+                                }
+                            };
+
+                        }
+
+                        @Override
+                        public void remove() {
+
+                            entries.remove();
+                            changed(current.getKey());
+
+                        }
+                    };
+
+                }
+            };
+
+        }
+    }
+}
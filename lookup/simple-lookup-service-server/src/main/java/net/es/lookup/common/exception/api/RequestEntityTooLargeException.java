@@ -0,0 +1,12 @@
+package net.es.lookup.common.exception.api;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/** Request body larger than the service accepts, answered with a 413. */
+public class RequestEntityTooLargeException extends WebApplicationException {
+    public RequestEntityTooLargeException(String message) {
+        super(Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity(message).type(MediaType.TEXT_PLAIN).build());
+    }
+}
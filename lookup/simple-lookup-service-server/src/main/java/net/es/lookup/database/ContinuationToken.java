@@ -0,0 +1,48 @@
+package net.es.lookup.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import net.es.lookup.common.exception.internal.DataFormatException;
+
+/**
+ * Encodes the position of the last record returned in a page of results as an opaque, URL safe
+ * token. Clients must not make any assumption about the content of the token; it is only meant to
+ * be passed back in the continuation parameter of the next query.
+ */
+public final class ContinuationToken {
+
+  private ContinuationToken() {}
+
+  /**
+   * Encodes the given position.
+   *
+   * @param position position of the last record returned to the client
+   * @return the continuation token
+   */
+  public static String encode(String position) {
+
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes a token created with encode.
+   *
+   * @param token continuation token received from the client
+   * @return position of the last record returned to the client
+   * @throws DataFormatException if the token is not a valid continuation token
+   */
+  public static String decode(String token) throws DataFormatException {
+
+    if (token == null || token.isEmpty()) {
+      throw new DataFormatException("Empty continuation token");
+    }
+
+    try {
+      return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new DataFormatException("Invalid continuation token");
+    }
+  }
+}
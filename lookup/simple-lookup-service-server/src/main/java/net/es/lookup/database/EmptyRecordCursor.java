@@ -0,0 +1,38 @@
+package net.es.lookup.database;
+
+import java.util.NoSuchElementException;
+import net.es.lookup.common.Message;
+
+/** Cursor returned when the store knows that no record matches the query without reading any. */
+class EmptyRecordCursor implements RecordCursor {
+
+  @Override
+  public boolean hasNext() {
+
+    return false;
+  }
+
+  @Override
+  public Message next() {
+
+    throw new NoSuchElementException();
+  }
+
+  @Override
+  public void remove() {
+
+    throw new UnsupportedOperationException("Records cannot be removed through a cursor");
+  }
+
+  @Override
+  public String getContinuationToken() {
+
+    return null;
+  }
+
+  @Override
+  public void close() {
+
+    // nothing to release
+  }
+}
@@ -0,0 +1,801 @@
+package net.es.lookup.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import net.es.lookup.common.CompactRecord;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.exception.internal.DataFormatException;
+import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.common.exception.internal.DuplicateEntryException;
+import net.es.lookup.common.exception.internal.RecordNotFoundException;
+import net.es.lookup.database.index.InvertedIndex;
+import net.es.lookup.protocol.json.JSONMessage;
+
+/**
+ * RecordStore that keeps all the records on the heap. It is meant for small deployments and for
+ * tests, where running MongoDB is not worth it. Records are lost when the service is restarted.
+ *
+ * <p>Records are kept in a concurrent map sorted by uri, as CompactRecords. Records are immutable:
+ * updates replace the whole record, so readers never see a partially updated record and do not
+ * need to lock. Queries have the same semantics as the Mongo backend. They are
+ * answered from the query index when it is enabled and evaluated by scanning all the records
+ * otherwise.
+ */
+public class InMemoryRecordStore implements RecordStore {
+
+  private final ConcurrentSkipListMap<String, CompactRecord> records =
+      new ConcurrentSkipListMap<String, CompactRecord>();
+  // uri of the registered record holding each fingerprint, released once the record is removed
+  private final ConcurrentHashMap<String, String> fingerprints =
+      new ConcurrentHashMap<String, String>();
+  private final AtomicLong count = new AtomicLong();
+  private volatile InvertedIndex index = null;
+
+  /**
+   * Enables the index for equality queries. The index is built from the records already in the
+   * store.
+   *
+   * @param index empty index to be used, or null to disable it
+   */
+  public void setQueryIndex(InvertedIndex index) {
+
+    if (index != null) {
+      for (Entry<String, CompactRecord> entry : records.entrySet()) {
+        index.add(entry.getKey(), entry.getValue());
+      }
+    }
+    this.index = index;
+  }
+
+  public Message queryAndPublishService(Message message, Message queryRequest, Message operators)
+      throws DatabaseException, DuplicateEntryException {
+
+    List<Message> dupEntries = this.query(message, queryRequest, operators);
+    if (dupEntries.size() > 0) {
+      throw new DuplicateEntryException("Record already exists");
+    }
+
+    CompactRecord record = newRecord(message).build();
+    insert(record);
+    return toMessage(record);
+  }
+
+  /**
+   * Claims the fingerprint of the record and inserts it in one step, holding the lock of the
+   * fingerprint in the map of claims, so that a duplicate record is never inserted. A fingerprint
+   * is only claimed by a registered record: the claim is released after the record is removed or
+   * loses its fingerprint (see releaseFingerprint), so any claim found here is a duplicate.
+   */
+  public Message publishServiceIfAbsent(Message message)
+      throws DatabaseException, DuplicateEntryException {
+
+    String fingerprint = RecordFingerprint.compute(message.getMap());
+    final CompactRecord record =
+        newRecord(message).put(RecordFingerprint.FIELD, fingerprint).build();
+    final String uri = record.getFirst(ReservedKeys.RECORD_URI);
+    if (uri == null) {
+      throw new DatabaseException("Record URI not specified!!!");
+    }
+
+    final Exception[] failure = {null};
+    fingerprints.compute(
+        fingerprint,
+        new BiFunction<String, String, String>() {
+
+          @Override
+          public String apply(String key, String holder) {
+
+            if (holder != null) {
+              failure[0] = new DuplicateEntryException("Record already exists");
+              return holder;
+            }
+            try {
+              insert(record);
+            } catch (DatabaseException e) {
+              failure[0] = e;
+              return null;
+            }
+            return uri;
+          }
+        });
+
+    if (failure[0] instanceof DuplicateEntryException) {
+      throw (DuplicateEntryException) failure[0];
+    } else if (failure[0] instanceof DatabaseException) {
+      throw (DatabaseException) failure[0];
+    }
+    return toMessage(record);
+  }
+
+  /**
+   * Inserts the records that are not registered yet. As with the Mongo backend, duplicates are
+   * left out, and a record whose uri is taken is reported in errors.
+   */
+  public List<Message> publishServicesIfAbsent(List<Message> messages, Map<String, String> errors)
+      throws DatabaseException {
+
+    List<Message> inserted = new ArrayList<Message>();
+    for (Message message : messages) {
+      try {
+        inserted.add(publishServiceIfAbsent(message));
+      } catch (DuplicateEntryException e) {
+        // left out
+      } catch (DatabaseException e) {
+        errors.put(message.getURI(), e.getMessage());
+      }
+    }
+    return inserted;
+  }
+
+  public Message updateService(String serviceid, Message updateRequest) throws DatabaseException {
+
+    if (serviceid == null || serviceid.isEmpty()) {
+      throw new DatabaseException("Record URI not specified!!!");
+    }
+
+    CompactRecord result = update(serviceid, updateRequest.getMap());
+    if (result == null) {
+      throw new DatabaseException("Error renewing record");
+    }
+    return toMessage(result);
+  }
+
+  public List<Message> query(Message message, Message queryRequest, Message operators)
+      throws DatabaseException {
+
+    return this.query(message, queryRequest, operators, 0);
+  }
+
+  public List<Message> query(
+      Message message, Message queryRequest, Message operators, int maxResults)
+      throws DatabaseException {
+
+    List<Message> result = new ArrayList<Message>();
+    RecordMatcher matcher = new RecordMatcher(queryRequest, operators);
+    Iterator<CompactRecord> candidates = iterateRecords(queryRequest, operators, null);
+    RecordCursor cursor = new InMemoryRecordCursor(candidates, matcher, 0, maxResults, null);
+    while (cursor.hasNext()) {
+      result.add(cursor.next());
+    }
+    return result;
+  }
+
+  public RecordCursor queryCursor(Message queryRequest, Message operators, QueryOptions options)
+      throws DatabaseException, DataFormatException {
+
+    return openCursor(queryRequest, operators, options);
+  }
+
+  public JsonRecordCursor queryJsonCursor(
+      Message queryRequest, Message operators, QueryOptions options)
+      throws DatabaseException, DataFormatException {
+
+    return new InMemoryJsonCursor(openCursor(queryRequest, operators, options));
+  }
+
+  private InMemoryRecordCursor openCursor(
+      Message queryRequest, Message operators, QueryOptions options)
+      throws DatabaseException, DataFormatException {
+
+    RecordMatcher matcher = new RecordMatcher(queryRequest, operators);
+
+    String lastUri = null;
+    if (options.getContinuation() != null) {
+      lastUri = ContinuationToken.decode(options.getContinuation());
+    }
+
+    return new InMemoryRecordCursor(
+        iterateRecords(queryRequest, operators, lastUri),
+        matcher,
+        options.getSkip(),
+        options.getMaxResults(),
+        options.getFields());
+  }
+
+  public long count(Message queryRequest, Message operators) throws DatabaseException {
+
+    RecordMatcher matcher = new RecordMatcher(queryRequest, operators);
+    long matching = 0;
+    Iterator<CompactRecord> candidates = iterateRecords(queryRequest, operators, null);
+    while (candidates.hasNext()) {
+      if (matcher.matches(candidates.next())) {
+        matching++;
+      }
+    }
+    return matching;
+  }
+
+  public Map<String, SortedMap<String, Long>> facets(
+      Message queryRequest, Message operators, List<String> keys, int maxValues)
+      throws DatabaseException {
+
+    Map<String, SortedMap<String, Long>> facets =
+        new LinkedHashMap<String, SortedMap<String, Long>>();
+    for (String key : keys) {
+      facets.put(key, new TreeMap<String, Long>());
+    }
+
+    RecordMatcher matcher = new RecordMatcher(queryRequest, operators);
+    Iterator<CompactRecord> candidates = iterateRecords(queryRequest, operators, null);
+    while (candidates.hasNext()) {
+      CompactRecord record = candidates.next();
+      if (!matcher.matches(record)) {
+        continue;
+      }
+      for (Entry<String, SortedMap<String, Long>> facet : facets.entrySet()) {
+        Object value = record.get(facet.getKey());
+        if (value instanceof String) {
+          increment(facet.getValue(), (String) value);
+        } else if (value instanceof List) {
+          for (Object element : (List) value) {
+            increment(facet.getValue(), String.valueOf(element));
+          }
+        }
+      }
+    }
+
+    for (SortedMap<String, Long> counts : facets.values()) {
+      keepMostFrequent(counts, maxValues);
+    }
+    return facets;
+  }
+
+  /** Removes all but the most frequent values, the lowest first among equal counts. */
+  private static void keepMostFrequent(SortedMap<String, Long> counts, int maxValues) {
+
+    if (counts.size() <= maxValues) {
+      return;
+    }
+    List<Entry<String, Long>> byCount = new ArrayList<Entry<String, Long>>(counts.entrySet());
+    // the sort is stable, so equal counts stay in value order
+    Collections.sort(
+        byCount,
+        new Comparator<Entry<String, Long>>() {
+
+          @Override
+          public int compare(Entry<String, Long> a, Entry<String, Long> b) {
+
+            return b.getValue().compareTo(a.getValue());
+          }
+        });
+    SortedMap<String, Long> kept = new TreeMap<String, Long>();
+    for (Entry<String, Long> count : byCount.subList(0, maxValues)) {
+      kept.put(count.getKey(), count.getValue());
+    }
+    counts.clear();
+    counts.putAll(kept);
+  }
+
+  private static void increment(SortedMap<String, Long> counts, String value) {
+
+    Long count = counts.get(value);
+    counts.put(value, count == null ? 1 : count + 1);
+  }
+
+  /**
+   * Returns the records that may match the query in uri order, starting after lastUri. When the
+   * query can be answered from the index only the candidate records are returned; otherwise all
+   * the records are.
+   */
+  private Iterator<CompactRecord> iterateRecords(
+      Message queryRequest, Message operators, String lastUri) {
+
+    InvertedIndex currentIndex = index;
+    Set<String> candidates = null;
+    if (currentIndex != null) {
+      candidates = currentIndex.lookup(queryRequest, operators);
+    }
+
+    if (candidates == null) {
+      ConcurrentNavigableMap<String, CompactRecord> view = records;
+      if (lastUri != null) {
+        view = records.tailMap(lastUri, false);
+      }
+      return view.values().iterator();
+    }
+
+    NavigableSet<String> uris = new TreeSet<String>(candidates);
+    if (lastUri != null) {
+      uris = uris.tailSet(lastUri, false);
+    }
+    return new UriIterator(uris.iterator());
+  }
+
+  public List<Message> queryAll() throws DatabaseException {
+
+    Message msg = new Message();
+    return query(msg, msg, msg);
+  }
+
+  public Message getRecordByUri(String recorduri) throws DatabaseException {
+
+    if (recorduri == null) {
+      return null;
+    }
+
+    CompactRecord record = records.get(recorduri);
+    if (record == null) {
+      return null;
+    }
+    return toMessage(record);
+  }
+
+  public Map<String, Message> getRecordsByUri(Collection<String> recorduris, List<String> fields)
+      throws DatabaseException {
+
+    Map<String, Message> result = new HashMap<String, Message>();
+    for (String uri : recorduris) {
+
+      CompactRecord record = records.get(uri);
+      if (record == null) {
+        continue;
+      }
+
+      Message message = toMessage(record);
+      if (fields != null) {
+        message.retainKeys(fields);
+        message.add(ReservedKeys.RECORD_URI, uri);
+      }
+      result.put(uri, message);
+    }
+    return result;
+  }
+
+  public void publishService(Message message) throws DatabaseException {
+
+    Map<String, Object> map = message.getMap();
+    insert(CompactRecord.builder().putAll(map).setJson(RecordJson.compute(map)).build());
+  }
+
+  public long getCount() throws DatabaseException {
+
+    return count.get();
+  }
+
+  public Message deleteRecord(String recorduri) throws DatabaseException, RecordNotFoundException {
+
+    CompactRecord record = (recorduri == null) ? null : records.remove(recorduri);
+    if (record == null) {
+      throw new RecordNotFoundException("Record not found in the database");
+    }
+
+    count.decrementAndGet();
+    unindexRecord(recorduri);
+    releaseFingerprint(recorduri, record);
+    return toMessage(record);
+  }
+
+  public long deleteExpiredRecords(Date datetime) throws DatabaseException {
+
+    long deleted = 0;
+    for (Entry<String, CompactRecord> entry : records.entrySet()) {
+
+      CompactRecord record = entry.getValue();
+      if (record.getLastUpdated() != 0 && record.getExpires() <= datetime.getTime()) {
+        if (records.remove(entry.getKey(), record)) {
+          count.decrementAndGet();
+          releaseFingerprint(entry.getKey(), record);
+          deleted++;
+        }
+      }
+    }
+
+    InvertedIndex currentIndex = index;
+    if (currentIndex != null) {
+      currentIndex.removeExpired(datetime);
+    }
+    return deleted;
+  }
+
+  public long deleteAllRecords() throws DatabaseException {
+
+    long deleted = 0;
+    for (String uri : records.keySet()) {
+      CompactRecord record = records.remove(uri);
+      if (record != null) {
+        count.decrementAndGet();
+        releaseFingerprint(uri, record);
+        deleted++;
+      }
+    }
+
+    InvertedIndex currentIndex = index;
+    if (currentIndex != null) {
+      currentIndex.clear();
+    }
+    return deleted;
+  }
+
+  public Message bulkUpdate(Map<String, Message> updates) throws DatabaseException {
+
+    Message response = new Message();
+
+    if (updates.size() > 0) {
+
+      int modifiedRecordsCount = 0;
+      for (Entry<String, Message> recordEntry : updates.entrySet()) {
+        if (update(recordEntry.getKey(), recordEntry.getValue().getMap()) != null) {
+          modifiedRecordsCount++;
+        }
+      }
+
+      if (modifiedRecordsCount < updates.size()) {
+
+        throw new DatabaseException("Error updating records");
+      }
+
+      response.add(ReservedKeys.RECORD_BULKRENEW_RENEWEDCOUNT, modifiedRecordsCount);
+    }
+
+    return response;
+  }
+
+  public long renewRecords(Collection<String> recorduris, Message renewal)
+      throws DatabaseException {
+
+    long renewed = 0;
+    for (String uri : recorduris) {
+      if (update(uri, renewal.getMap()) != null) {
+        renewed++;
+      }
+    }
+    return renewed;
+  }
+
+  public Message renewRecord(
+      String recorduri, Message renewal, Date pruneTime, List<String> fields)
+      throws DatabaseException {
+
+    CompactRecord current = (recorduri == null) ? null : records.get(recorduri);
+    if (current == null) {
+      return null;
+    }
+
+    if (current.getLastUpdated() != 0 && current.getExpires() < pruneTime.getTime()) {
+      return null;
+    }
+
+    CompactRecord result = update(recorduri, renewal.getMap());
+    if (result == null) {
+      return null;
+    }
+
+    Message message = toMessage(result);
+    if (fields != null) {
+      message.retainKeys(fields);
+      message.add(ReservedKeys.RECORD_URI, recorduri);
+    }
+    return message;
+  }
+
+  public List<Message> findRecordsInTimeRange(Date start, Date end) throws DatabaseException {
+
+    List<Message> result = new ArrayList<Message>();
+
+    for (CompactRecord record : records.values()) {
+
+      long lastUpdated = record.getLastUpdated();
+      if (lastUpdated != 0 && lastUpdated > start.getTime() && lastUpdated <= end.getTime()) {
+        result.add(toMessage(record));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Inserts a record. A record with the same uri is a database error, as with the unique index on
+   * the uris of the Mongo backend; only records with the same content are duplicates.
+   */
+  private void insert(CompactRecord record) throws DatabaseException {
+
+    String uri = record.getFirst(ReservedKeys.RECORD_URI);
+    if (uri == null) {
+      throw new DatabaseException("Record URI not specified!!!");
+    }
+
+    if (records.putIfAbsent(uri, record) != null) {
+      throw new DatabaseException("A record with uri " + uri + " already exists");
+    }
+    count.incrementAndGet();
+    indexRecord(uri, record);
+  }
+
+  /**
+   * Replaces the record with a copy containing the given fields, timestamped. The update is
+   * retried if the record was modified concurrently, so that no update is lost.
+   *
+   * @return the updated record or null if the record does not exist
+   */
+  private CompactRecord update(String uri, Map<String, Object> fields) {
+
+    while (true) {
+
+      CompactRecord current = records.get(uri);
+      if (current == null) {
+        return null;
+      }
+
+      CompactRecord.Builder builder =
+          current.toBuilder().putAll(fields).setLastUpdated(System.currentTimeMillis());
+      if (RecordFingerprint.isReleasedBy(fields)) {
+        builder.remove(RecordFingerprint.FIELD);
+      }
+      CompactRecord updated = builder.build();
+      if (RecordJson.isChangedBy(fields)) {
+        updated = updated.withJson(RecordJson.compute(updated));
+      }
+      if (records.replace(uri, current, updated)) {
+        indexRecord(uri, updated);
+        if (!updated.containsKey(RecordFingerprint.FIELD)) {
+          releaseFingerprint(uri, current);
+        }
+        return updated;
+      }
+    }
+  }
+
+  /**
+   * Adds the record to the index unless it has been replaced or deleted in the meantime, in which
+   * case the thread that replaced it indexes the newer version. Both checks are done holding the
+   * index lock, so the index always ends up with the latest version of the record.
+   */
+  private void indexRecord(String uri, CompactRecord record) {
+
+    InvertedIndex currentIndex = index;
+    if (currentIndex != null) {
+      synchronized (currentIndex) {
+        if (records.get(uri) == record) {
+          currentIndex.add(uri, record);
+        }
+      }
+    }
+  }
+
+  private void unindexRecord(String uri) {
+
+    InvertedIndex currentIndex = index;
+    if (currentIndex != null) {
+      synchronized (currentIndex) {
+        if (!records.containsKey(uri)) {
+          currentIndex.remove(uri);
+        }
+      }
+    }
+  }
+
+  /**
+   * Releases the claim of a record on its fingerprint, once the record has been removed or
+   * replaced by a version without the fingerprint. Until then, registrations of the same content
+   * are rejected as duplicates.
+   */
+  private void releaseFingerprint(String uri, CompactRecord record) {
+
+    Object fingerprint = record.get(RecordFingerprint.FIELD);
+    if (fingerprint != null) {
+      fingerprints.remove(fingerprint, uri);
+    }
+  }
+
+  static Message toMessage(CompactRecord record) {
+
+    Message message = record.toMessage();
+    message.getMap().remove(RecordFingerprint.FIELD);
+    return message;
+  }
+
+  /** Starts a record registered with the message, timestamped and holding its stored JSON. */
+  private static CompactRecord.Builder newRecord(Message message) {
+
+    Map<String, Object> map = message.getMap();
+    return CompactRecord.builder()
+        .putAll(map)
+        .setJson(RecordJson.compute(map))
+        .setLastUpdated(System.currentTimeMillis());
+  }
+
+  /** Iterates over the records with the given uris, skipping the ones deleted in the meantime. */
+  private class UriIterator implements Iterator<CompactRecord> {
+
+    private final Iterator<String> uris;
+    private CompactRecord nextRecord = null;
+
+    UriIterator(Iterator<String> uris) {
+
+      this.uris = uris;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+      while (nextRecord == null && uris.hasNext()) {
+        nextRecord = records.get(uris.next());
+      }
+      return nextRecord != null;
+    }
+
+    @Override
+    public CompactRecord next() {
+
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      CompactRecord record = nextRecord;
+      nextRecord = null;
+      return record;
+    }
+
+    @Override
+    public void remove() {
+
+      throw new UnsupportedOperationException("Records cannot be removed through a cursor");
+    }
+  }
+
+  /**
+   * Cursor that walks over the records in uri order and returns the ones matching the query,
+   * projected on the requested keys.
+   */
+  private static class InMemoryRecordCursor implements RecordCursor {
+
+    private final Iterator<CompactRecord> iterator;
+    private final RecordMatcher matcher;
+    private final Set<String> fields;
+    private int toSkip;
+    private int remaining;
+    private CompactRecord nextRecord = null;
+    private String lastUri = null;
+
+    InMemoryRecordCursor(
+        Iterator<CompactRecord> iterator,
+        RecordMatcher matcher,
+        int skip,
+        int maxResults,
+        List<String> fields) {
+
+      this.iterator = iterator;
+      this.matcher = matcher;
+      if (fields != null) {
+        this.fields = new HashSet<String>(fields);
+        this.fields.add(ReservedKeys.RECORD_URI);
+      } else {
+        this.fields = null;
+      }
+      this.toSkip = skip;
+      this.remaining = (maxResults > 0) ? maxResults : -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+      if (nextRecord != null) {
+        return true;
+      }
+      if (remaining == 0) {
+        return false;
+      }
+
+      while (iterator.hasNext()) {
+        CompactRecord record = iterator.next();
+        if (matcher.matches(record)) {
+          if (toSkip > 0) {
+            toSkip--;
+          } else {
+            nextRecord = record;
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Message next() {
+
+      return toMessage(nextRecord());
+    }
+
+    /** Returns the next matching record as it is stored. */
+    CompactRecord nextRecord() {
+
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      CompactRecord record = nextRecord;
+      nextRecord = null;
+      if (remaining > 0) {
+        remaining--;
+      }
+      lastUri = record.getFirst(ReservedKeys.RECORD_URI);
+      return fields == null ? record : record.select(fields);
+    }
+
+    @Override
+    public void remove() {
+
+      throw new UnsupportedOperationException("Records cannot be removed through a cursor");
+    }
+
+    @Override
+    public String getContinuationToken() {
+
+      if (lastUri != null) {
+        return ContinuationToken.encode(lastUri);
+      }
+      return null;
+    }
+
+    @Override
+    public void close() {
+
+      // nothing to release
+    }
+  }
+
+  /** JsonRecordCursor serializing the stored records, without copying them to messages first. */
+  private static class InMemoryJsonCursor implements JsonRecordCursor {
+
+    private final InMemoryRecordCursor cursor;
+
+    InMemoryJsonCursor(InMemoryRecordCursor cursor) {
+
+      this.cursor = cursor;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+      return cursor.hasNext();
+    }
+
+    @Override
+    public String next() {
+
+      try {
+        return JSONMessage.toString(cursor.nextRecord());
+      } catch (DataFormatException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
+    }
+
+    @Override
+    public String getContinuationToken() {
+
+      return cursor.getContinuationToken();
+    }
+
+    @Override
+    public void remove() {
+
+      throw new UnsupportedOperationException("Records cannot be removed through a cursor");
+    }
+
+    @Override
+    public void close() {
+
+      cursor.close();
+    }
+  }
+}
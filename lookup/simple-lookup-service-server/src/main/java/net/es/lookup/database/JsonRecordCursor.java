@@ -0,0 +1,23 @@
+package net.es.lookup.database;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterator over the records matching a query, returning the JSON text of each record. It serves
+ * the endpoints that send the records as they are stored, so that the store can write the JSON
+ * from what it reads without building a Message for each record. Like RecordCursor, records are
+ * read as the cursor is iterated and the cursor must be closed once the caller is done with it.
+ */
+public interface JsonRecordCursor extends Iterator<String>, Closeable {
+
+  /**
+   * Returns the token that points right after the last record returned by this cursor.
+   *
+   * @return continuation token or null if no record has been read yet
+   */
+  String getContinuationToken();
+
+  @Override
+  void close();
+}
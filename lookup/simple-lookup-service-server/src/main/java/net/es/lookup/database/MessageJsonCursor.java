@@ -0,0 +1,49 @@
+package net.es.lookup.database;
+
+import net.es.lookup.common.exception.internal.DataFormatException;
+import net.es.lookup.protocol.json.JSONMessage;
+
+/** JsonRecordCursor serializing the records of a RecordCursor, for stores holding Messages. */
+class MessageJsonCursor implements JsonRecordCursor {
+
+  private final RecordCursor cursor;
+
+  MessageJsonCursor(RecordCursor cursor) {
+
+    this.cursor = cursor;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    return cursor.hasNext();
+  }
+
+  @Override
+  public String next() {
+
+    try {
+      return JSONMessage.toString(cursor.next());
+    } catch (DataFormatException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+  }
+
+  @Override
+  public String getContinuationToken() {
+
+    return cursor.getContinuationToken();
+  }
+
+  @Override
+  public void remove() {
+
+    throw new UnsupportedOperationException("Records cannot be removed through a cursor");
+  }
+
+  @Override
+  public void close() {
+
+    cursor.close();
+  }
+}
@@ -1,5 +1,7 @@
 package net.es.lookup.database;
 
+import net.es.lookup.cache.QueryCache;
+import net.es.lookup.cache.RecordCache;
 import net.es.lookup.common.Message;
 import net.es.lookup.common.exception.internal.DatabaseException;
 import org.apache.logging.log4j.Logger;
@@ -18,7 +20,7 @@ import java.util.List;
 public class MongoDBMaintenanceJob implements Job {
 
     private static Logger LOG = LogManager.getLogger(MongoDBMaintenanceJob.class);
-    private ServiceDaoMongoDb db;
+    private RecordStore db;
     public static String PRUNE_THRESHOLD = "prune_threshold"; //parameter will be set during run time
     public static final String DBNAME = "db_name"; //parameter will be set during run time
 
@@ -36,7 +38,7 @@ public class MongoDBMaintenanceJob implements Job {
         LOG.info("Running MongoDBPrune...");
         JobDataMap data = context.getJobDetail().getJobDataMap();
 
-        this.db = ServiceDaoMongoDb.getInstance();
+        this.db = RecordStoreManager.getInstance();
 
         long prune_threshold = data.getLong(PRUNE_THRESHOLD);
         Instant now = new Instant();
@@ -47,6 +49,10 @@ public class MongoDBMaintenanceJob implements Job {
         try {
 
             count = db.deleteExpiredRecords(daterange);
+            RecordCache.getInstance().invalidateExpired();
+            if (count > 0) {
+                QueryCache.getInstance().allChanged();
+            }
             LOG.info("Record deleted: "+count);
 
         } catch (DatabaseException e) {
@@ -0,0 +1,184 @@
+package net.es.lookup.database;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCursor;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.NoSuchElementException;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.protocol.json.JsonWriter;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+
+/**
+ * JsonRecordCursor backed by a Mongo cursor over raw BSON documents. Each document is transcoded
+ * to JSON straight from its bytes in a single pass, skipping the internal fields starting with
+ * '_', so no Document, Message or value list is built for it.
+ *
+ * <p>The lease keys are always transcoded. The other keys are replaced by the stored JSON (see
+ * RecordJson), which ServiceDaoMongoDb puts before them, so they are skipped once it is found.
+ * The keys met before it, in records stored without the JSON or before it was put first, are
+ * transcoded aside and used only if the document has no stored JSON. Strings, numbers, booleans,
+ * nulls and lists of them are written like JsonCodec does. Like the cursors of the other stores,
+ * next throws an IllegalStateException on a value of another type.
+ */
+class MongoJsonRecordCursor implements JsonRecordCursor {
+
+  private final MongoCursor<RawBsonDocument> cursor;
+  // buffers reused for all the documents, only the returned string is allocated for each
+  private final StringWriter out = new StringWriter(512);
+  private final StringWriter others = new StringWriter(512);
+  private ObjectId lastId = null;
+
+  MongoJsonRecordCursor(MongoCursor<RawBsonDocument> cursor) {
+
+    this.cursor = cursor;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    return cursor.hasNext();
+  }
+
+  @Override
+  public String next() {
+
+    if (!cursor.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return toJson(cursor.next());
+  }
+
+  @Override
+  public String getContinuationToken() {
+
+    if (lastId != null) {
+      return ContinuationToken.encode(lastId.toHexString());
+    }
+    return null;
+  }
+
+  @Override
+  public void remove() {
+
+    throw new UnsupportedOperationException("Records cannot be removed through a cursor");
+  }
+
+  @Override
+  public void close() {
+
+    try {
+      cursor.close();
+    } catch (MongoException e) {
+      // nothing more can be done with the cursor at this point
+    }
+  }
+
+  private String toJson(RawBsonDocument doc) {
+
+    out.getBuffer().setLength(0);
+    others.getBuffer().setLength(0);
+    JsonWriter json = new JsonWriter(out);
+    JsonWriter othersJson = null;
+    String stored = null;
+
+    BsonReader reader = doc.asBsonReader();
+    try {
+      json.beginObject();
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        String name = reader.readName();
+        BsonType type = reader.getCurrentBsonType();
+        if (name.startsWith("_")) {
+          if ("_id".equals(name) && type == BsonType.OBJECT_ID) {
+            lastId = reader.readObjectId();
+          } else if (RecordJson.FIELD.equals(name) && type == BsonType.STRING) {
+            stored = reader.readString();
+          } else {
+            reader.skipValue();
+          }
+        } else if (ReservedKeys.LEASE_KEYS.contains(name)) {
+          writeMember(json, name, reader);
+        } else if (stored != null) {
+          reader.skipValue();
+        } else {
+          if (othersJson == null) {
+            othersJson = new JsonWriter(others).beginObject();
+          }
+          writeMember(othersJson, name, reader);
+        }
+      }
+
+      if (stored != null) {
+        json.jsonMembers(stored);
+      } else if (othersJson != null) {
+        // the members written aside, without the opening brace
+        json.jsonMembers(others.getBuffer().substring(1));
+      }
+      json.endObject();
+    } catch (IOException e) {
+      // a StringWriter does not fail
+      throw new IllegalStateException(e.getMessage());
+    } finally {
+      reader.close();
+    }
+    return out.toString();
+  }
+
+  /** Writes a string, number, boolean or null, or a list of them. */
+  private static void writeMember(JsonWriter json, String name, BsonReader reader)
+      throws IOException {
+
+    json.name(name);
+    if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+      writeScalar(json, name, reader);
+      return;
+    }
+
+    json.beginArray();
+    reader.readStartArray();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      writeScalar(json, name, reader);
+    }
+    reader.readEndArray();
+    json.endArray();
+  }
+
+  private static void writeScalar(JsonWriter json, String name, BsonReader reader)
+      throws IOException {
+
+    switch (reader.getCurrentBsonType()) {
+      case STRING:
+        json.value(reader.readString());
+        break;
+      case INT32:
+        json.value(reader.readInt32());
+        break;
+      case INT64:
+        json.value(reader.readInt64());
+        break;
+      case BOOLEAN:
+        json.value(reader.readBoolean());
+        break;
+      case NULL:
+        reader.readNull();
+        json.value((String) null);
+        break;
+      case DOUBLE:
+        double value = reader.readDouble();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+          // not allowed in JSON
+          json.value((String) null);
+        } else {
+          json.value(value);
+        }
+        break;
+      default:
+        throw new IllegalStateException(
+            "Cannot write a value of type " + reader.getCurrentBsonType() + " for " + name);
+    }
+  }
+}
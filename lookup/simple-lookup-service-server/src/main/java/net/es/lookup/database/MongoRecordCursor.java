@@ -0,0 +1,68 @@
+package net.es.lookup.database;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCursor;
+import java.util.NoSuchElementException;
+import net.es.lookup.common.Message;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * RecordCursor backed by a Mongo cursor. Records are converted to Message objects one at a time as
+ * they are read, so only the current batch of documents is held in memory. The continuation token
+ * is the object id of the last record returned.
+ */
+class MongoRecordCursor implements RecordCursor {
+
+  private final MongoCursor<Document> cursor;
+  private final ServiceDaoMongoDb dao;
+  private Object lastId = null;
+
+  MongoRecordCursor(ServiceDaoMongoDb dao, MongoCursor<Document> cursor) {
+
+    this.dao = dao;
+    this.cursor = cursor;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    return cursor.hasNext();
+  }
+
+  @Override
+  public Message next() {
+
+    if (!cursor.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Document doc = cursor.next();
+    lastId = doc.get("_id");
+    return dao.toMessage(doc);
+  }
+
+  @Override
+  public String getContinuationToken() {
+
+    if (lastId instanceof ObjectId) {
+      return ContinuationToken.encode(((ObjectId) lastId).toHexString());
+    }
+    return null;
+  }
+
+  @Override
+  public void remove() {
+
+    throw new UnsupportedOperationException("Records cannot be removed through a cursor");
+  }
+
+  @Override
+  public void close() {
+
+    try {
+      cursor.close();
+    } catch (MongoException e) {
+      // nothing more can be done with the cursor at this point
+    }
+  }
+}
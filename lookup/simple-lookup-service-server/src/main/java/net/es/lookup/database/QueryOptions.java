@@ -0,0 +1,119 @@
+package net.es.lookup.database;
+
+import java.util.List;
+
+/**
+ * Paging options for a query. Clients can either page through the results with skip and
+ * maxresults, or use the continuation token returned with the previous page to fetch the records
+ * that come after it. The continuation token does not get slower as the client moves deeper into
+ * the result set, whereas a large skip has to walk over every skipped record.
+ *
+ * <p>The options also hold the keys the client wants back, which the stores project the records
+ * on, the keys whose references are inlined in the results and, for facet queries, the keys whose
+ * values are counted.
+ */
+public class QueryOptions {
+
+  private int skip = 0;
+  private int maxResults = 0;
+  private String continuation = null;
+  private List<String> fields = null;
+  private List<String> expand = null;
+  private List<String> facets = null;
+
+  public int getSkip() {
+
+    return skip;
+  }
+
+  public void setSkip(int skip) {
+
+    this.skip = skip;
+  }
+
+  public int getMaxResults() {
+
+    return maxResults;
+  }
+
+  /**
+   * Sets the maximum number of records to be returned. A value of 0 returns all the matching
+   * records.
+   *
+   * @param maxResults maximum number of records
+   */
+  public void setMaxResults(int maxResults) {
+
+    this.maxResults = maxResults;
+  }
+
+  public String getContinuation() {
+
+    return continuation;
+  }
+
+  /**
+   * Sets the continuation token returned with the previous page of results.
+   *
+   * @param continuation opaque token or null to start from the first record
+   */
+  public void setContinuation(String continuation) {
+
+    this.continuation = continuation;
+  }
+
+  public List<String> getFields() {
+
+    return fields;
+  }
+
+  /**
+   * Sets the keys to be returned for each record. The uri is always returned.
+   *
+   * @param fields the keys, or null to return the entire records
+   */
+  public void setFields(List<String> fields) {
+
+    this.fields = fields;
+  }
+
+  public List<String> getExpand() {
+
+    return expand;
+  }
+
+  /**
+   * Sets the keys holding uris of other records, which are returned in place of the uris.
+   *
+   * @param expand the keys, or null to return the records as they are
+   */
+  public void setExpand(List<String> expand) {
+
+    this.expand = expand;
+  }
+
+  public List<String> getFacets() {
+
+    return facets;
+  }
+
+  /**
+   * Sets the keys whose distinct values are counted by a facet query.
+   *
+   * @param facets the keys, or null if the query is not a facet query
+   */
+  public void setFacets(List<String> facets) {
+
+    this.facets = facets;
+  }
+
+  /**
+   * Results are returned in a stable order only when the client pages through them.
+   *
+   * @return true if the client asked for a bounded page or a continuation of a previous one
+   */
+  public boolean isPaged() {
+
+    return maxResults > 0 || continuation != null;
+  }
+}
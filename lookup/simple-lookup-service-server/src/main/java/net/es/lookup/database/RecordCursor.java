@@ -0,0 +1,26 @@
+package net.es.lookup.database;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import net.es.lookup.common.Message;
+
+/**
+ * Iterator over the records matching a query. Records are read from the store as the cursor is
+ * iterated, so the whole result set is never held in memory. The cursor must be closed once the
+ * caller is done with it.
+ *
+ * <p>The cursor remembers the last record it returned so that a continuation token can be handed
+ * to the client when the results are paged.
+ */
+public interface RecordCursor extends Iterator<Message>, Closeable {
+
+  /**
+   * Returns the token that points right after the last record returned by this cursor.
+   *
+   * @return continuation token or null if no record has been read yet
+   */
+  String getContinuationToken();
+
+  @Override
+  void close();
+}
@@ -0,0 +1,113 @@
+package net.es.lookup.database;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+
+/**
+ * Content hash of a record, used to detect duplicate registrations. Two records have the same
+ * fingerprint if they have the same keys with the same values, ignoring the order of the keys and
+ * of the values in lists. The lease (ttl and expires), the uri and the internal keys starting with
+ * '_' are not part of the fingerprint, as they differ between two registrations of the same
+ * record.
+ *
+ * <p>The stores keep the fingerprint of each registered record in a field with a unique index, so
+ * that registration is a single insert that fails if the record already exists.
+ */
+final class RecordFingerprint {
+
+  /** Field holding the fingerprint in the stored records. */
+  static final String FIELD = "_fingerprint";
+
+  private static final Set<String> IGNORED = new HashSet<String>();
+
+  static {
+    IGNORED.add(ReservedKeys.RECORD_TTL);
+    IGNORED.add(ReservedKeys.RECORD_EXPIRES);
+    IGNORED.add(ReservedKeys.RECORD_URI);
+  }
+
+  private RecordFingerprint() {}
+
+  /**
+   * Computes the fingerprint of a record.
+   *
+   * @param record key-values of the record
+   * @return SHA-256 hash of the canonical form of the record, in hex
+   */
+  static String compute(Map<String, Object> record) {
+
+    StringBuilder canonical = new StringBuilder();
+    for (String key : new TreeSet<String>(record.keySet())) {
+
+      if (IGNORED.contains(key) || key.startsWith("_")) {
+        continue;
+      }
+
+      List<String> values = new ArrayList<String>();
+      Object value = record.get(key);
+      if (value instanceof List) {
+        for (Object element : (List) value) {
+          values.add(String.valueOf(element));
+        }
+        Collections.sort(values);
+      } else {
+        values.add(String.valueOf(value));
+      }
+
+      // length prefixes keep the encoding unambiguous whatever the keys and values contain
+      append(canonical, key);
+      canonical.append(values.size()).append('#');
+      for (String element : values) {
+        append(canonical, element);
+      }
+    }
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+
+    byte[] hash = digest.digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+    StringBuilder hex = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+      hex.append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Checks if an update changes the state of a record away from registered. Duplicate detection
+   * only compares new registrations with records in the registered state, as the query it
+   * replaces did, so such records give up their fingerprint.
+   *
+   * @param fields the key-values that are set by the update
+   * @return true if the fingerprint of the record has to be removed
+   */
+  static boolean isReleasedBy(Map<String, Object> fields) {
+
+    Object state = fields.get(ReservedKeys.RECORD_STATE);
+    if (state instanceof List && !((List) state).isEmpty()) {
+      state = ((List) state).get(0);
+    }
+    return state != null && !ReservedValues.RECORD_VALUE_STATE_REGISTER.equals(state);
+  }
+
+  private static void append(StringBuilder canonical, String value) {
+
+    canonical.append(value.length()).append(':').append(value);
+  }
+}
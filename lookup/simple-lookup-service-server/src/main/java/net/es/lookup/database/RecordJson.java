@@ -0,0 +1,63 @@
+package net.es.lookup.database;
+
+import java.util.Map;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.exception.internal.DataFormatException;
+import net.es.lookup.protocol.json.JSONMessage;
+
+/**
+ * JSON of a record, serialized when the record is written and stored with it. Records read back
+ * carry it in their Message, so responses copy it instead of serializing the record again. The
+ * lease keys are not part of it, so that renewals, by far the most frequent writes, keep it valid;
+ * any other update drops it, and the record is then serialized from its map.
+ */
+final class RecordJson {
+
+  /** Field holding the JSON in the stored records. */
+  static final String FIELD = "_json";
+
+  private RecordJson() {}
+
+  /**
+   * Serializes a record.
+   *
+   * @param record key-values of the record
+   * @return the JSON to be stored, or null if the record cannot be serialized
+   */
+  static String compute(Map<String, Object> record) {
+
+    try {
+      return JSONMessage.toStoredJson(record);
+    } catch (DataFormatException e) {
+      // responses serialize the record from its map, and report the error
+      return null;
+    }
+  }
+
+  /**
+   * Checks if an update changes the stored JSON of a record.
+   *
+   * @param fields the key-values that are set by the update
+   * @return true if the JSON has to be removed or computed again
+   */
+  static boolean isChangedBy(Map<String, Object> fields) {
+
+    return JSONMessage.isStoredJsonChangedBy(fields);
+  }
+
+  /**
+   * Moves the stored JSON from the record to the Message holding it.
+   *
+   * @param record key-values of the record, without the JSON on return
+   * @param message the Message of the record
+   * @return the message
+   */
+  static Message attach(Map<String, Object> record, Message message) {
+
+    Object json = record.remove(FIELD);
+    if (json instanceof String) {
+      message.setJson((String) json);
+    }
+    return message;
+  }
+}
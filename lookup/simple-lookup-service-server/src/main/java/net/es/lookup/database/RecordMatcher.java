@@ -0,0 +1,244 @@
+package net.es.lookup.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.common.exception.internal.DatabaseException;
+
+/**
+ * Evaluates a query against records held in memory. The semantics are the same as the Mongo query
+ * built by ServiceDaoMongoDb.buildQuery:
+ *
+ * <ul>
+ *   <li>the query keywords are combined with ALL (default) or ANY,
+ *   <li>a value ending with '*' is a prefix match and a value starting with '*' is a suffix match,
+ *   <li>a list of values is matched with the ALL or ANY operator given for the key,
+ *   <li>a keyword matches a list valued key if any of the values in the list matches.
+ * </ul>
+ */
+class RecordMatcher {
+
+  private static final int SINGLE = 0;
+  private static final int ANY = 1;
+  private static final int ALL = 2;
+  private static final int EXACT = 3;
+
+  private final boolean matchAny;
+  private final List<Term> terms = new ArrayList<Term>();
+
+  /**
+   * Compiles the query.
+   *
+   * @param queryRequest query keywords
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @throws DatabaseException if the query operator is not supported
+   */
+  RecordMatcher(Message queryRequest, Message operators) throws DatabaseException {
+
+    Map<String, Object> queryMap = queryRequest.getMap();
+    Map<String, Object> opsMap = operators.getMap();
+
+    for (Map.Entry<String, Object> entry : queryMap.entrySet()) {
+
+      String key = entry.getKey();
+      Object queryValue = entry.getValue();
+
+      if (queryValue instanceof String) {
+
+        terms.add(new Term(key, SINGLE, new Object[] {toValue((String) queryValue)}));
+
+      } else if (queryValue instanceof List) {
+
+        List<Object> values = (List<Object>) queryValue;
+
+        if (values.size() > 1) {
+
+          Object[] newValues = new Object[values.size()];
+          for (int i = 0; i < values.size(); i++) {
+            newValues[i] = toValue((String) values.get(i));
+          }
+
+          String listOp = getListOperator(opsMap.get(key));
+          if (ReservedValues.RECORD_OPERATOR_ANY.equals(listOp)) {
+            terms.add(new Term(key, ANY, newValues));
+          } else if (ReservedValues.RECORD_OPERATOR_ALL.equals(listOp)) {
+            terms.add(new Term(key, ALL, newValues));
+          } else {
+            terms.add(new Term(key, EXACT, newValues));
+          }
+
+        } else if (values.size() == 1) {
+
+          terms.add(new Term(key, SINGLE, new Object[] {toValue((String) values.get(0))}));
+        }
+      }
+    }
+
+    String queryOp = operators.getOperator();
+    String op;
+    if (queryOp == null || queryOp.isEmpty()) {
+      op = ReservedValues.RECORD_OPERATOR_DEFAULT;
+    } else {
+      op = queryOp.toLowerCase();
+    }
+
+    if (ReservedValues.RECORD_OPERATOR_ANY.equals(op)) {
+      matchAny = true;
+    } else if (ReservedValues.RECORD_OPERATOR_ALL.equals(op)) {
+      matchAny = false;
+    } else if (terms.isEmpty()) {
+      matchAny = false;
+    } else {
+      throw new DatabaseException("Unknown query operator: " + queryOp);
+    }
+  }
+
+  /**
+   * Checks if the record matches the query.
+   *
+   * @param record key-values of the record
+   * @return true if the record matches
+   */
+  boolean matches(Map<String, Object> record) {
+
+    if (terms.isEmpty()) {
+      return true;
+    }
+
+    for (Term term : terms) {
+      boolean match = term.matches(record.get(term.key));
+      if (match && matchAny) {
+        return true;
+      } else if (!match && !matchAny) {
+        return false;
+      }
+    }
+    return !matchAny;
+  }
+
+  private static String getListOperator(Object op) {
+
+    if (op instanceof String) {
+      return ((String) op).toLowerCase();
+    } else if (op instanceof List && !((List) op).isEmpty()) {
+      return String.valueOf(((List) op).get(0)).toLowerCase();
+    }
+    return null;
+  }
+
+  /**
+   * Converts a query value to either the string to be matched or the wildcard pattern. Like the
+   * Mongo query, a '*' in the middle of the value yields null, which only matches records that do
+   * not have the key.
+   */
+  private static Object toValue(String val) {
+
+    if (!val.contains("*")) {
+      return val;
+    }
+
+    if (val.endsWith("*")) {
+      return Pattern.compile("^" + quote(val.substring(0, val.length() - 1)));
+    } else if (val.startsWith("*")) {
+      return Pattern.compile(quote(val.substring(1, val.length())) + "$");
+    }
+    return null;
+  }
+
+  /**
+   * Escapes the regular expression metacharacters of a prefix or suffix, so that 'ps.es.net*'
+   * only matches values starting with the literal text. Each character is escaped on its own
+   * rather than quoting the whole text, as Mongo only uses the index for a prefix it can read as
+   * plain text.
+   *
+   * @param literal the text to be matched
+   * @return the regular expression matching the text
+   */
+  static String quote(String literal) {
+
+    StringBuilder quoted = new StringBuilder(literal.length() + 8);
+    for (int i = 0; i < literal.length(); i++) {
+      char c = literal.charAt(i);
+      if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+        quoted.append('\\');
+      }
+      quoted.append(c);
+    }
+    return quoted.toString();
+  }
+
+  private static boolean matchesValue(Object field, Object value) {
+
+    if (field instanceof List) {
+      for (Object element : (List) field) {
+        if (matchesScalar(element, value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return matchesScalar(field, value);
+  }
+
+  private static boolean matchesScalar(Object field, Object value) {
+
+    if (value == null) {
+      return field == null;
+    } else if (value instanceof Pattern) {
+      return field instanceof String && ((Pattern) value).matcher((String) field).find();
+    }
+    return value.equals(field);
+  }
+
+  private static class Term {
+
+    private final String key;
+    private final int mode;
+    private final Object[] values;
+
+    Term(String key, int mode, Object[] values) {
+
+      this.key = key;
+      this.mode = mode;
+      this.values = values;
+    }
+
+    boolean matches(Object field) {
+
+      switch (mode) {
+        case ANY:
+          for (Object value : values) {
+            if (matchesValue(field, value)) {
+              return true;
+            }
+          }
+          return false;
+
+        case ALL:
+          for (Object value : values) {
+            if (!matchesValue(field, value)) {
+              return false;
+            }
+          }
+          return true;
+
+        case EXACT:
+          if (!(field instanceof List) || ((List) field).size() != values.length) {
+            return false;
+          }
+          for (int i = 0; i < values.length; i++) {
+            if (values[i] == null || !values[i].equals(((List) field).get(i))) {
+              return false;
+            }
+          }
+          return true;
+
+        default:
+          return matchesValue(field, values[0]);
+      }
+    }
+  }
+}
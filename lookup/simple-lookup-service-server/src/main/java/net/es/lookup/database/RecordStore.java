@@ -0,0 +1,240 @@
+package net.es.lookup.database;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.exception.internal.DataFormatException;
+import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.common.exception.internal.DuplicateEntryException;
+import net.es.lookup.common.exception.internal.RecordNotFoundException;
+
+/**
+ * Storage backend for the lookup service records. The API classes access the records only
+ * through this interface, using the instance registered with RecordStoreManager.
+ *
+ * <p>Queries use the same format for all the backends: the query keywords are matched with the
+ * record key-values using the ALL (default) or ANY operator, values ending or starting with '*'
+ * are prefix or suffix matches and lists of values are matched per key with the ALL or ANY
+ * operator.
+ */
+public interface RecordStore {
+
+  /**
+   * Inserts a record if no record matches the given query.
+   *
+   * @param message The record to be inserted
+   * @param queryRequest Query to check if the record already exists
+   * @param operators The operation (ALL|ANY) to be performed on the query. Default is ALL
+   * @return Returns the record that was inserted as a Message
+   * @throws DatabaseException if error while writing to database
+   * @throws DuplicateEntryException if record is already present
+   */
+  Message queryAndPublishService(Message message, Message queryRequest, Message operators)
+      throws DatabaseException, DuplicateEntryException;
+
+  /**
+   * Inserts a record unless a registered record with the same content exists. The check and the
+   * insert are a single atomic operation, so two concurrent registrations of the same record
+   * cannot both succeed.
+   *
+   * @param message The record to be inserted
+   * @return Returns the record that was inserted as a Message
+   * @throws DatabaseException if error while writing to database
+   * @throws DuplicateEntryException if record is already present
+   */
+  Message publishServiceIfAbsent(Message message)
+      throws DatabaseException, DuplicateEntryException;
+
+  /**
+   * Inserts several records, leaving out the ones for which a registered record with the same
+   * content exists, or which repeat an earlier record of the list. A record that cannot be
+   * inserted for another reason, like its uri being taken, is reported in errors without stopping
+   * the insert of the others.
+   *
+   * @param messages The records to be inserted
+   * @param errors filled with the uri and the error message of each record that failed
+   * @return the records that were inserted, in the order of the list
+   * @throws DatabaseException if the records could not be written at all
+   */
+  List<Message> publishServicesIfAbsent(List<Message> messages, Map<String, String> errors)
+      throws DatabaseException;
+
+  /**
+   * Updates the given fields of an existing record.
+   *
+   * @param serviceid The unique service identifier
+   * @param updateRequest The fields to be modified
+   * @return The record that was modified (after modification) as a Message
+   * @throws DatabaseException if error updating record
+   */
+  Message updateService(String serviceid, Message updateRequest) throws DatabaseException;
+
+  List<Message> query(Message message, Message queryRequest, Message operators)
+      throws DatabaseException;
+
+  /**
+   * Queries the records and returns them as a list.
+   *
+   * @param message original query request
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @param maxResults max results to be returned. 0 returns all the matching records
+   * @return List of all the records
+   * @throws DatabaseException if the query could not be executed
+   */
+  List<Message> query(Message message, Message queryRequest, Message operators, int maxResults)
+      throws DatabaseException;
+
+  /**
+   * Queries the records without loading the whole result set in memory.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @param options paging options and projected keys
+   * @return RecordCursor over the matching records. It must be closed by the caller.
+   * @throws DatabaseException if the query could not be executed
+   * @throws DataFormatException if the continuation token is not valid
+   */
+  RecordCursor queryCursor(Message queryRequest, Message operators, QueryOptions options)
+      throws DatabaseException, DataFormatException;
+
+  /**
+   * Queries the records like queryCursor, returning the JSON text of each record.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @param options paging options and projected keys
+   * @return JsonRecordCursor over the matching records. It must be closed by the caller.
+   * @throws DatabaseException if the query could not be executed
+   * @throws DataFormatException if the continuation token is not valid
+   */
+  JsonRecordCursor queryJsonCursor(Message queryRequest, Message operators, QueryOptions options)
+      throws DatabaseException, DataFormatException;
+
+  /**
+   * Counts the records matching a query, without reading them.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @return the number of matching records
+   * @throws DatabaseException if the query could not be executed
+   */
+  long count(Message queryRequest, Message operators) throws DatabaseException;
+
+  /**
+   * Counts the distinct values of some keys over the records matching a query. A record with a
+   * list of values counts once for each value. Only the most frequent values of each key are
+   * returned, ties going to the lowest values.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @param keys the keys whose values are counted
+   * @param maxValues the number of values returned per key
+   * @return map of each key to the number of matching records per value, in value order
+   * @throws DatabaseException if the query could not be executed
+   */
+  Map<String, SortedMap<String, Long>> facets(
+      Message queryRequest, Message operators, List<String> keys, int maxValues)
+      throws DatabaseException;
+
+  List<Message> queryAll() throws DatabaseException;
+
+  /**
+   * Retrieves a record using the record uri.
+   *
+   * @param recorduri the uri of the record
+   * @return Entire record as a Message object or null if it does not exist
+   * @throws DatabaseException thrown if error accessing the record.
+   */
+  Message getRecordByUri(String recorduri) throws DatabaseException;
+
+  /**
+   * Retrieves several records with a single query.
+   *
+   * @param recorduris the uris of the records
+   * @param fields the keys to be returned in addition to the uri, or null for the entire records
+   * @return map of uri and record for the records that exist
+   * @throws DatabaseException thrown if error accessing the records.
+   */
+  Map<String, Message> getRecordsByUri(Collection<String> recorduris, List<String> fields)
+      throws DatabaseException;
+
+  /**
+   * Inserts the given record as is.
+   *
+   * @param message The record to be added to the database
+   * @throws DatabaseException thrown if error writing to database
+   */
+  void publishService(Message message) throws DatabaseException;
+
+  long getCount() throws DatabaseException;
+
+  /**
+   * Deletes the record for given uri.
+   *
+   * @param recorduri uri of the record
+   * @return Message - returns the deleted record as a Message object
+   * @throws DatabaseException thrown if error deleting record
+   * @throws RecordNotFoundException thrown if the record does not exist
+   */
+  Message deleteRecord(String recorduri) throws DatabaseException, RecordNotFoundException;
+
+  /**
+   * Deletes expired records and returns number of records deleted.
+   *
+   * @param datetime All records that have _timestamp before "datetime" are deleted
+   * @return number of records deleted
+   * @throws DatabaseException thrown if error deleting records from database
+   */
+  long deleteExpiredRecords(Date datetime) throws DatabaseException;
+
+  long deleteAllRecords() throws DatabaseException;
+
+  /**
+   * Updates multiple records.
+   *
+   * @param records Map of uri and the record to be updated
+   * @return Message returns a message with the number of records updated
+   * @throws DatabaseException exception is thrown if error updating database
+   */
+  Message bulkUpdate(Map<String, Message> records) throws DatabaseException;
+
+  /**
+   * Renews the lease of several records with a single update. Only the fields of the renewal
+   * (expires, ttl and state) are written, along with the internal timestamps; the rest of the
+   * records is left as is.
+   *
+   * @param recorduris the uris of the records
+   * @param renewal the lease fields, the same for all the records
+   * @return the number of records renewed
+   * @throws DatabaseException exception is thrown if error updating database
+   */
+  long renewRecords(Collection<String> recorduris, Message renewal) throws DatabaseException;
+
+  /**
+   * Renews the lease of a record unless it expired before the prune time, in a single atomic
+   * operation. Only the fields of the renewal and the internal timestamps are written.
+   *
+   * @param recorduri the uri of the record
+   * @param renewal the lease fields (expires, ttl and state)
+   * @param pruneTime records that expired before this time are not renewed
+   * @param fields the keys to be returned in addition to the uri, or null for the entire record
+   * @return the renewed record, or null if the record does not exist or expired before pruneTime
+   * @throws DatabaseException exception is thrown if error updating database
+   */
+  Message renewRecord(String recorduri, Message renewal, Date pruneTime, List<String> fields)
+      throws DatabaseException;
+
+  /**
+   * Finds records that were updated between start and end date.
+   *
+   * @param start Start timestamp as Date object
+   * @param end End timestamp as Date object
+   * @return List list of records that are between the start and end time
+   * @throws DatabaseException thrown if error accessing the database
+   */
+  List<Message> findRecordsInTimeRange(Date start, Date end) throws DatabaseException;
+}
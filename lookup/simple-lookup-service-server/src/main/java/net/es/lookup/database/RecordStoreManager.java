@@ -0,0 +1,22 @@
+package net.es.lookup.database;
+
+/**
+ * Holds the RecordStore used by the lookup service. The store is registered once at startup,
+ * depending on the database type set in the configuration.
+ */
+public final class RecordStoreManager {
+
+  private static volatile RecordStore instance = null;
+
+  private RecordStoreManager() {}
+
+  public static RecordStore getInstance() {
+
+    return RecordStoreManager.instance;
+  }
+
+  public static void setInstance(RecordStore store) {
+
+    RecordStoreManager.instance = store;
+  }
+}
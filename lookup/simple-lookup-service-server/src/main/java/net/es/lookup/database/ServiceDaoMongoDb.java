@@ -2,49 +2,89 @@ package net.es.lookup.database;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Filters.lte;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.MongoWriteConcernException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.Facet;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import net.es.lookup.common.Message;
 import net.es.lookup.common.ReservedKeys;
 import net.es.lookup.common.ReservedValues;
+import net.es.lookup.common.exception.internal.DataFormatException;
 import net.es.lookup.common.exception.internal.DatabaseException;
 import net.es.lookup.common.exception.internal.DuplicateEntryException;
 import net.es.lookup.common.exception.internal.RecordNotFoundException;
+import net.es.lookup.database.index.InvertedIndex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 import org.quartz.DisallowConcurrentExecution;
 
 @DisallowConcurrentExecution
-public class ServiceDaoMongoDb {
+public class ServiceDaoMongoDb implements RecordStore {
+
+  private static Logger LOG = LogManager.getLogger(ServiceDaoMongoDb.class);
+
+  // name of the unique index on the fingerprints, as created by ensureIndexes
+  private static final String FINGERPRINT_INDEX = RecordFingerprint.FIELD + "_1";
+  private static final int BACKFILL_BATCH_SIZE = 1000;
 
   private String dburl = "127.0.0.1";
   private int dbport = 27017;
   private String dbname = "LookupService";
   private String collname = "services";
+  private int queryBatchSize = 0;
+  private long queryMaxTime = 0;
+  private InvertedIndex index = null;
+  // until ensureIndexes finds the unique index on the fingerprints, duplicates are looked up
+  private volatile boolean fingerprintIndexed = false;
 
   private static ServiceDaoMongoDb instance = null;
 
@@ -72,6 +112,260 @@ public class ServiceDaoMongoDb {
     return ServiceDaoMongoDb.instance;
   }
 
+  public int getQueryBatchSize() {
+
+    return queryBatchSize;
+  }
+
+  /**
+   * Sets the number of documents fetched from the database per round trip when iterating over
+   * query results. A value of 0 lets the driver pick the batch size.
+   *
+   * @param queryBatchSize number of documents per batch
+   */
+  public void setQueryBatchSize(int queryBatchSize) {
+
+    this.queryBatchSize = queryBatchSize;
+  }
+
+  public long getQueryMaxTime() {
+
+    return queryMaxTime;
+  }
+
+  /**
+   * Sets the time the database may spend on a query before aborting it, so that queries whose
+   * request timed out do not keep running. A value of 0 sets no limit.
+   *
+   * @param queryMaxTime time limit in milliseconds
+   */
+  public void setQueryMaxTime(long queryMaxTime) {
+
+    this.queryMaxTime = queryMaxTime;
+  }
+
+  /**
+   * Enables the in-process index for equality queries. The index is built from the records
+   * already in the collection, so this should be called at startup before the service starts
+   * accepting requests.
+   *
+   * @param index empty index to be used, or null to disable it
+   * @throws DatabaseException if the records could not be read to build the index
+   */
+  public void setQueryIndex(InvertedIndex index) throws DatabaseException {
+
+    if (index != null) {
+      try {
+        FindIterable<Document> resultIterator = coll.find();
+        if (queryBatchSize > 0) {
+          resultIterator = resultIterator.batchSize(queryBatchSize);
+        }
+
+        MongoCursor<Document> cursor = resultIterator.iterator();
+        try {
+          while (cursor.hasNext()) {
+            Document doc = cursor.next();
+            index.add(doc.getString(ReservedKeys.RECORD_URI), doc);
+          }
+        } finally {
+          cursor.close();
+        }
+      } catch (MongoException e) {
+        throw new DatabaseException("Error building query index: " + e.getMessage());
+      }
+    }
+
+    this.index = index;
+  }
+
+  /**
+   * Creates the indexes needed by the lookup service if they do not exist yet: a unique index on
+   * uri, which every renew and delete looks up, indexes on _timestamp and _lastUpdated for the
+   * prune job and the publisher, and an index on type. Indexes on fields holding lists are
+   * multikey indexes, so the extra indexes can be used for keys like group-domains as well.
+   *
+   * <p>Existing indexes that have not been used since the database server started are reported
+   * in the log, since each of them slows down registration and renewal.
+   *
+   * <p>Registrations rely on the unique index on the fingerprints to reject duplicate records.
+   * When it is created, the registered records stored without a fingerprint get one (see
+   * backfillFingerprints). If it cannot be created, each registration looks up the fingerprint of
+   * the record before inserting it instead.
+   *
+   * @param extraIndexes additional indexes, each one a key or a comma separated list of keys for
+   *     a compound index
+   */
+  public void ensureIndexes(List<String> extraIndexes) {
+
+    Map<String, Document> existing = new HashMap<String, Document>();
+    try {
+      for (Object index : coll.listIndexes()) {
+        existing.put(((Document) index).getString("name"), (Document) index);
+      }
+    } catch (MongoException e) {
+      LOG.error("Could not list the indexes of " + collname + ": " + e.getMessage());
+      return;
+    }
+
+    Set<String> created = new HashSet<String>();
+    created.add(ensureIndex(existing, Arrays.asList(ReservedKeys.RECORD_URI), true, false));
+    created.add(ensureIndex(existing, Arrays.asList(RecordFingerprint.FIELD), true, true));
+    Document fingerprintIndex = existing.get(FINGERPRINT_INDEX);
+    fingerprintIndexed =
+        created.contains(FINGERPRINT_INDEX)
+            || (fingerprintIndex != null && Boolean.TRUE.equals(fingerprintIndex.get("unique")));
+    if (!fingerprintIndexed) {
+      LOG.error(
+          "No unique index "
+              + FINGERPRINT_INDEX
+              + " on "
+              + collname
+              + "; duplicate registrations are looked up before each insert");
+    } else if (created.contains(FINGERPRINT_INDEX)) {
+      backfillFingerprints();
+    }
+    created.add(ensureIndex(existing, Arrays.asList("_timestamp"), false, false));
+    created.add(ensureIndex(existing, Arrays.asList("_lastUpdated"), false, false));
+    created.add(ensureIndex(existing, Arrays.asList(ReservedKeys.RECORD_TYPE), false, false));
+
+    if (extraIndexes != null) {
+      for (String extraIndex : extraIndexes) {
+        List<String> keys = new ArrayList<String>();
+        for (String key : extraIndex.split(",")) {
+          if (!key.trim().isEmpty()) {
+            keys.add(key.trim());
+          }
+        }
+        if (!keys.isEmpty()) {
+          created.add(ensureIndex(existing, keys, false, false));
+        }
+      }
+    }
+
+    try {
+      Iterable stats = coll.aggregate(Arrays.asList(new Document("$indexStats", new Document())));
+      for (Object stat : stats) {
+        String name = ((Document) stat).getString("name");
+        Document accesses = (Document) ((Document) stat).get("accesses");
+        if (name.equals("_id_") || created.contains(name) || accesses == null) {
+          continue;
+        }
+        Object ops = accesses.get("ops");
+        if (ops instanceof Number && ((Number) ops).longValue() == 0) {
+          LOG.warn("Index " + name + " has not been used since " + accesses.get("since"));
+        }
+      }
+    } catch (MongoException e) {
+      LOG.debug("Index usage statistics are not available: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Sets the fingerprint of the registered records stored without one, by versions of the service
+   * that did not compute fingerprints, so that new registrations of the same content are rejected
+   * as duplicates. When several stored records have the same content, only the first one gets the
+   * fingerprint.
+   */
+  private void backfillFingerprints() {
+
+    long updated = 0;
+    long duplicates = 0;
+    MongoCursor<Document> cursor = null;
+    try {
+      cursor =
+          coll.find(
+                  and(
+                      new Document(RecordFingerprint.FIELD, new Document("$exists", false)),
+                      new Document(
+                          ReservedKeys.RECORD_STATE,
+                          ReservedValues.RECORD_VALUE_STATE_REGISTER)))
+              .projection(Projections.exclude(RecordJson.FIELD))
+              .batchSize(queryBatchSize)
+              .iterator();
+
+      List<UpdateOneModel<Document>> updates = new ArrayList<UpdateOneModel<Document>>();
+      while (cursor.hasNext() || !updates.isEmpty()) {
+
+        if (cursor.hasNext()) {
+          Document doc = cursor.next();
+          updates.add(
+              new UpdateOneModel<Document>(
+                  and(
+                      new Document("_id", doc.get("_id")),
+                      new Document(RecordFingerprint.FIELD, new Document("$exists", false))),
+                  new Document(
+                      "$set",
+                      new Document(RecordFingerprint.FIELD, RecordFingerprint.compute(doc)))));
+          if (updates.size() < BACKFILL_BATCH_SIZE && cursor.hasNext()) {
+            continue;
+          }
+        }
+
+        try {
+          updated += coll.bulkWrite(updates, new BulkWriteOptions().ordered(false))
+              .getModifiedCount();
+        } catch (MongoBulkWriteException e) {
+          updated += e.getWriteResult().getModifiedCount();
+          duplicates += e.getWriteErrors().size();
+        }
+        updates.clear();
+      }
+    } catch (MongoException e) {
+      LOG.error("Could not set the fingerprints of the stored records: " + e.getMessage());
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    LOG.info(
+        "Set the fingerprint of "
+            + updated
+            + " stored records, "
+            + duplicates
+            + " left without one as duplicates");
+  }
+
+  /**
+   * Creates an ascending index on the keys unless an index with the same name exists. A sparse
+   * index leaves out the records that do not have the keys.
+   *
+   * @return name of the index if it was created, null otherwise
+   */
+  private String ensureIndex(
+      Map<String, Document> existing, List<String> keys, boolean unique, boolean sparse) {
+
+    StringBuilder name = new StringBuilder();
+    for (String key : keys) {
+      if (name.length() > 0) {
+        name.append('_');
+      }
+      name.append(key).append("_1");
+    }
+
+    Document current = existing.get(name.toString());
+    if (current != null) {
+      if (unique && !Boolean.TRUE.equals(current.get("unique"))) {
+        LOG.warn("Index " + name + " exists but is not unique");
+      }
+      return null;
+    }
+
+    LOG.info("Creating missing index " + name + " on " + collname);
+    try {
+      coll.createIndex(
+          Indexes.ascending(keys),
+          new IndexOptions()
+              .name(name.toString())
+              .unique(unique)
+              .sparse(sparse)
+              .background(true));
+      return name.toString();
+    } catch (MongoException e) {
+      LOG.error("Could not create index " + name + ": " + e.getMessage());
+      return null;
+    }
+  }
+
   /**
    * Constructor uses default url and port - mongodb running on localhost and default port - 27017.
    * Creates a new connection if it cannot find one
@@ -112,6 +406,7 @@ public class ServiceDaoMongoDb {
     }
 
     ServiceDaoMongoDb.instance = this;
+    RecordStoreManager.setInstance(this);
 
     try {
 
@@ -126,6 +421,51 @@ public class ServiceDaoMongoDb {
     }
   }
 
+  /**
+   * Retrieves several records with one $in query. Only the requested fields are read from the
+   * database.
+   *
+   * @param recorduris the uris of the records
+   * @param fields the keys to be returned in addition to the uri, or null for the entire records
+   * @return map of uri and record for the records that exist
+   * @throws DatabaseException thrown if error accessing the records.
+   */
+  public Map<String, Message> getRecordsByUri(Collection<String> recorduris, List<String> fields)
+      throws DatabaseException {
+
+    Map<String, Message> result = new HashMap<String, Message>();
+    if (recorduris.isEmpty()) {
+      return result;
+    }
+
+    try {
+
+      FindIterable resultIterator = coll.find(in(ReservedKeys.RECORD_URI, recorduris));
+      if (fields != null) {
+        resultIterator = resultIterator.projection(project(fields));
+      }
+      if (queryBatchSize > 0) {
+        resultIterator = resultIterator.batchSize(queryBatchSize);
+      }
+
+      MongoCursor cursor = resultIterator.iterator();
+      try {
+        while (cursor.hasNext()) {
+          Message record = toMessage((Document) cursor.next());
+          result.put(record.getURI(), record);
+        }
+      } finally {
+        cursor.close();
+      }
+
+    } catch (MongoException e) {
+
+      throw new DatabaseException(e.getMessage());
+    }
+
+    return result;
+  }
+
   /**
    * Inserts records into the database. This method checks if a record exists before inserting it
    * into the database. If record exists then a DuplicateEntryException is thrown.
@@ -154,6 +494,7 @@ public class ServiceDaoMongoDb {
 
     Document doc = new Document();
     doc.putAll(services);
+    putJson(doc);
 
     try {
       coll.insertOne(doc);
@@ -169,9 +510,115 @@ public class ServiceDaoMongoDb {
       throw new DatabaseException("Error inserting record. Database exception:" + me.getMessage());
     }
 
+    if (index != null) {
+      index.add(doc.getString(ReservedKeys.RECORD_URI), doc);
+    }
     return toMessage(doc);
   }
 
+  /**
+   * Inserts a record with its fingerprint. The unique index on the fingerprint created by
+   * ensureIndexes rejects the insert if a registered record with the same content exists, so the
+   * record is checked and inserted in one round trip, whatever the size of the record and of the
+   * collection. Without that index the fingerprint is looked up before the insert. On a duplicate
+   * key the uri of the record is looked up: a record whose uri is taken by a record with other
+   * content is a database error, not a duplicate.
+   *
+   * @param message The record to be inserted
+   * @return Returns the record that was inserted as a Message
+   * @throws DatabaseException if error while writing to database
+   * @throws DuplicateEntryException if record is already present
+   */
+  public Message publishServiceIfAbsent(Message message)
+      throws DatabaseException, DuplicateEntryException {
+
+    Message timestampedMessage = addTimestamp(message);
+    String fingerprint = RecordFingerprint.compute(message.getMap());
+
+    Document doc = new Document();
+    doc.putAll(timestampedMessage.getMap());
+    doc.put(RecordFingerprint.FIELD, fingerprint);
+    putJson(doc);
+
+    try {
+      if (!fingerprintIndexed && !findRegistered(Arrays.asList(fingerprint)).isEmpty()) {
+        throw new DuplicateEntryException("Record already exists");
+      }
+      coll.insertOne(doc);
+    } catch (MongoWriteException mwe) {
+      if (mwe.getError().getCategory() == ErrorCategory.DUPLICATE_KEY
+          && findTakenUris(Arrays.asList(doc)).isEmpty()) {
+        throw new DuplicateEntryException("Record already exists");
+      }
+      throw new DatabaseException(mwe.getMessage());
+    } catch (MongoWriteConcernException mwce) {
+      throw new DatabaseException(
+          "Error inserting record. Database exception due to write concerns: " + mwce.getMessage());
+    } catch (MongoException me) {
+      throw new DatabaseException("Error inserting record. Database exception:" + me.getMessage());
+    }
+
+    if (index != null) {
+      index.add(doc.getString(ReservedKeys.RECORD_URI), doc);
+    }
+    return toMessage(doc);
+  }
+
+  /**
+   * Finds which of the records rejected with a duplicate key have their uri taken by a record with
+   * other content, rather than duplicating a registered record. Duplicate keys are rare, so the
+   * uris are looked up instead of parsing the error messages of the server to find the index.
+   *
+   * @param rejected the rejected records, with their uri and fingerprint
+   * @return the uris taken by other records
+   * @throws DatabaseException if the uris cannot be looked up
+   */
+  private Set<String> findTakenUris(Collection<Document> rejected) throws DatabaseException {
+
+    Map<String, Object> fingerprints = new HashMap<String, Object>();
+    for (Document doc : rejected) {
+      fingerprints.put(doc.getString(ReservedKeys.RECORD_URI), doc.get(RecordFingerprint.FIELD));
+    }
+
+    Set<String> taken = new HashSet<String>();
+    try {
+      FindIterable<Document> docs =
+          coll.find(in(ReservedKeys.RECORD_URI, fingerprints.keySet()))
+              .projection(Projections.include(ReservedKeys.RECORD_URI, RecordFingerprint.FIELD));
+      for (Document doc : docs) {
+        String uri = doc.getString(ReservedKeys.RECORD_URI);
+        Object fingerprint = fingerprints.get(uri);
+        if (fingerprint == null || !fingerprint.equals(doc.get(RecordFingerprint.FIELD))) {
+          taken.add(uri);
+        }
+      }
+    } catch (MongoException me) {
+      throw new DatabaseException("Error inserting records. Database exception:" + me.getMessage());
+    }
+    return taken;
+  }
+
+  /**
+   * Looks up which of the given fingerprints belong to registered records, for when the unique
+   * index on the fingerprints is missing.
+   *
+   * @return the fingerprints of registered records
+   */
+  private Set<String> findRegistered(Collection<String> fingerprints) {
+
+    Set<String> registered = new HashSet<String>();
+    FindIterable<Document> docs =
+        coll.find(
+                new Document(
+                    RecordFingerprint.FIELD,
+                    new Document("$in", new ArrayList<String>(fingerprints))))
+            .projection(Projections.include(RecordFingerprint.FIELD));
+    for (Document doc : docs) {
+      registered.add(doc.getString(RecordFingerprint.FIELD));
+    }
+    return registered;
+  }
+
   /**
    * This method updates an existing record in the database.
    *
@@ -191,7 +638,7 @@ public class ServiceDaoMongoDb {
 
       Message timestampedMessage = addTimestamp(updateRequest);
 
-      Document updateObject = new Document("$set", new Document(timestampedMessage.getMap()));
+      Document updateObject = buildUpdate(timestampedMessage.getMap());
       try {
         FindOneAndUpdateOptions updateOptions = new FindOneAndUpdateOptions();
         updateOptions.returnDocument(ReturnDocument.AFTER);
@@ -199,6 +646,9 @@ public class ServiceDaoMongoDb {
         Document result = (Document) coll.findOneAndUpdate(query, updateObject, updateOptions);
 
         if (result != null) {
+          if (index != null) {
+            index.add(serviceid, result);
+          }
           response = toMessage(result);
         } else {
           throw new DatabaseException("Error renewing record");
@@ -224,25 +674,26 @@ public class ServiceDaoMongoDb {
    * @param message original query request
    * @param queryRequest query keywords extracted from the priginal request
    * @param operators operators like ANY, ALL that specifies how query keywords should be applied
-   * @param maxResults max results to be returned. not implemented
+   * @param maxResults max results to be returned. 0 returns all the matching records
    * @return List of all the records
    * */
   public List<Message> query(
       Message message, Message queryRequest, Message operators, int maxResults)
       throws DatabaseException {
 
-    Document query;
+    ArrayList<Message> result = new ArrayList<Message>();
 
-    if (queryRequest.getMap().isEmpty()) {
-      query = new Document();
-    } else {
-      query = buildQuery(queryRequest, operators);
+    Set<String> candidates = lookupIndex(queryRequest, operators);
+    if (candidates != null && candidates.isEmpty()) {
+      return result;
     }
-
-    ArrayList<Message> result = new ArrayList<Message>();
+    Document query = restrictToCandidates(toMongoQuery(queryRequest, operators), candidates);
 
     try {
       FindIterable resultIterator = coll.find(query);
+      if (maxResults > 0) {
+        resultIterator = resultIterator.limit(maxResults);
+      }
       MongoCursor cursor = resultIterator.iterator();
 
       while (cursor.hasNext()) {
@@ -260,6 +711,304 @@ public class ServiceDaoMongoDb {
     return result;
   }
 
+  /**
+   * Method to query records from database without loading the whole result set in memory. The
+   * records are fetched in batches of queryBatchSize documents as the returned cursor is iterated.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @return RecordCursor over the matching records. It must be closed by the caller.
+   * @throws DatabaseException if the query could not be executed
+   */
+  public RecordCursor queryCursor(Message queryRequest, Message operators)
+      throws DatabaseException {
+
+    try {
+      return queryCursor(queryRequest, operators, new QueryOptions());
+    } catch (DataFormatException e) {
+      // cannot happen, there is no continuation token to parse
+      throw new DatabaseException(e.getMessage());
+    }
+  }
+
+  /**
+   * Method to query a page of records from database. Skip and maxResults are applied by the
+   * database. When the results are paged the records are sorted by their object id, so that the
+   * continuation token of the returned cursor can be used to fetch the records following the last
+   * one returned without skipping over the previous pages again.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @param options paging options and projected keys
+   * @return RecordCursor over the matching records. It must be closed by the caller.
+   * @throws DatabaseException if the query could not be executed
+   * @throws DataFormatException if the continuation token is not valid
+   */
+  public RecordCursor queryCursor(Message queryRequest, Message operators, QueryOptions options)
+      throws DatabaseException, DataFormatException {
+
+    FindIterable<Document> resultIterator = find(coll, queryRequest, operators, options);
+    if (resultIterator == null) {
+      return new EmptyRecordCursor();
+    }
+
+    try {
+      return new MongoRecordCursor(this, resultIterator.iterator());
+    } catch (MongoException e) {
+      throw new DatabaseException("Error retrieving results");
+    }
+  }
+
+  /**
+   * Method to query a page of records from database as JSON, like queryCursor. The documents are
+   * read as raw BSON and transcoded to JSON without building a Document or a Message for them.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @param options paging options and projected keys
+   * @return JsonRecordCursor over the matching records. It must be closed by the caller.
+   * @throws DatabaseException if the query could not be executed
+   * @throws DataFormatException if the continuation token is not valid
+   */
+  public JsonRecordCursor queryJsonCursor(
+      Message queryRequest, Message operators, QueryOptions options)
+      throws DatabaseException, DataFormatException {
+
+    FindIterable<RawBsonDocument> resultIterator =
+        find(coll.withDocumentClass(RawBsonDocument.class), queryRequest, operators, options);
+    if (resultIterator == null) {
+      return new MessageJsonCursor(new EmptyRecordCursor());
+    }
+
+    try {
+      return new MongoJsonRecordCursor(resultIterator.iterator());
+    } catch (MongoException e) {
+      throw new DatabaseException("Error retrieving results");
+    }
+  }
+
+  /**
+   * Counts the records matching a query with the same query as queryCursor, without reading them.
+   * When the index can answer the query only the candidate records it finds are counted, through
+   * the uri index.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @return the number of matching records
+   * @throws DatabaseException if the query could not be executed
+   */
+  public long count(Message queryRequest, Message operators) throws DatabaseException {
+
+    Set<String> candidates = lookupIndex(queryRequest, operators);
+    if (candidates != null && candidates.isEmpty()) {
+      return 0;
+    }
+    Document query = restrictToCandidates(toMongoQuery(queryRequest, operators), candidates);
+
+    try {
+      if (query.isEmpty()) {
+        return coll.estimatedDocumentCount();
+      }
+      CountOptions countOptions = new CountOptions();
+      if (queryMaxTime > 0) {
+        countOptions.maxTime(queryMaxTime, TimeUnit.MILLISECONDS);
+      }
+      return coll.countDocuments(query, countOptions);
+    } catch (MongoException e) {
+      throw new DatabaseException("Error counting results");
+    }
+  }
+
+  /**
+   * Counts the distinct values of some keys over the records matching a query with a single
+   * aggregation. The matching records go through a $facet stage with one $unwind and $group
+   * pipeline per key, so the records are read once whatever the number of keys. Each pipeline
+   * keeps the most frequent values with $sort and $limit, as all the facets are returned in one
+   * document, which cannot exceed 16MB.
+   *
+   * @param queryRequest query keywords extracted from the original request
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @param keys the keys whose values are counted, which must not be field paths or operators
+   * @param maxValues the number of values returned per key
+   * @return map of each key to the number of matching records per value, in value order
+   * @throws DatabaseException if the query could not be executed
+   */
+  public Map<String, SortedMap<String, Long>> facets(
+      Message queryRequest, Message operators, List<String> keys, int maxValues)
+      throws DatabaseException {
+
+    Map<String, SortedMap<String, Long>> facets =
+        new LinkedHashMap<String, SortedMap<String, Long>>();
+    for (String key : keys) {
+      // the keys are used as field paths in the pipeline
+      if (key.startsWith("_") || key.startsWith("$") || key.contains(".")) {
+        throw new DatabaseException("Invalid facet key " + key);
+      }
+      facets.put(key, new TreeMap<String, Long>());
+    }
+
+    Set<String> candidates = lookupIndex(queryRequest, operators);
+    if (candidates != null && candidates.isEmpty()) {
+      return facets;
+    }
+    Document query = restrictToCandidates(toMongoQuery(queryRequest, operators), candidates);
+
+    // the facets are named by position, as keys may hold characters not allowed in field names
+    List<Facet> stages = new ArrayList<Facet>();
+    for (int i = 0; i < keys.size(); i++) {
+      stages.add(
+          new Facet(
+              String.valueOf(i),
+              Aggregates.unwind("$" + keys.get(i)),
+              Aggregates.group("$" + keys.get(i), Accumulators.sum("count", 1)),
+              Aggregates.sort(new Document("count", -1).append("_id", 1)),
+              Aggregates.limit(maxValues)));
+    }
+    List<Bson> pipeline = new ArrayList<Bson>();
+    if (!query.isEmpty()) {
+      pipeline.add(Aggregates.match(query));
+    }
+    pipeline.add(Aggregates.facet(stages));
+
+    try {
+      AggregateIterable<Document> aggregation = coll.aggregate(pipeline);
+      if (queryMaxTime > 0) {
+        aggregation = aggregation.maxTime(queryMaxTime, TimeUnit.MILLISECONDS);
+      }
+      Document result = aggregation.first();
+      if (result == null) {
+        return facets;
+      }
+
+      for (int i = 0; i < keys.size(); i++) {
+        SortedMap<String, Long> counts = facets.get(keys.get(i));
+        for (Document group : (List<Document>) result.get(String.valueOf(i))) {
+          counts.put(
+              String.valueOf(group.get("_id")), ((Number) group.get("count")).longValue());
+        }
+      }
+      return facets;
+
+    } catch (MongoException e) {
+      throw new DatabaseException("Error counting facets");
+    }
+  }
+
+  /**
+   * Builds the find of queryCursor and queryJsonCursor.
+   *
+   * @return the find, or null if the index shows that no record matches
+   */
+  private <T> FindIterable<T> find(
+      MongoCollection<T> collection, Message queryRequest, Message operators, QueryOptions options)
+      throws DatabaseException, DataFormatException {
+
+    ObjectId continueAfter = null;
+    if (options.getContinuation() != null) {
+      String lastId = ContinuationToken.decode(options.getContinuation());
+      if (!ObjectId.isValid(lastId)) {
+        throw new DataFormatException("Invalid continuation token");
+      }
+      continueAfter = new ObjectId(lastId);
+    }
+
+    Set<String> candidates = lookupIndex(queryRequest, operators);
+    if (candidates != null && candidates.isEmpty()) {
+      return null;
+    }
+    Document query = restrictToCandidates(toMongoQuery(queryRequest, operators), candidates);
+
+    if (continueAfter != null) {
+
+      Document after = new Document("_id", new Document("$gt", continueAfter));
+      if (query.isEmpty()) {
+        query = after;
+      } else {
+        query = new Document("$and", Arrays.asList(query, after));
+      }
+    }
+
+    try {
+      FindIterable<T> resultIterator = collection.find(query);
+      if (options.isPaged()) {
+        resultIterator = resultIterator.sort(new Document("_id", 1));
+      }
+      if (options.getSkip() > 0) {
+        resultIterator = resultIterator.skip(options.getSkip());
+      }
+      if (options.getMaxResults() > 0) {
+        resultIterator = resultIterator.limit(options.getMaxResults());
+      }
+      if (options.getFields() != null) {
+        resultIterator = resultIterator.projection(project(options.getFields()));
+      }
+      if (queryBatchSize > 0) {
+        resultIterator = resultIterator.batchSize(queryBatchSize);
+      }
+      if (queryMaxTime > 0) {
+        resultIterator = resultIterator.maxTime(queryMaxTime, TimeUnit.MILLISECONDS);
+      }
+      return resultIterator;
+
+    } catch (MongoException e) {
+
+      throw new DatabaseException("Error retrieving results");
+    }
+  }
+
+  /**
+   * Builds the projection reading only the given keys of the records, and their uri. The _id is
+   * read as well, as the continuation tokens are made from it.
+   */
+  private static Bson project(List<String> fields) {
+
+    List<String> projected = new ArrayList<String>(fields);
+    projected.add(ReservedKeys.RECORD_URI);
+    return Projections.include(projected);
+  }
+
+  private Document toMongoQuery(Message queryRequest, Message operators) {
+
+    if (queryRequest.getMap().isEmpty()) {
+      return new Document();
+    } else {
+      return buildQuery(queryRequest, operators);
+    }
+  }
+
+  /**
+   * Looks up the uris of the records matching the query in the index.
+   *
+   * @return the uris of the matching records or null if the query has to be run by Mongo
+   */
+  private Set<String> lookupIndex(Message queryRequest, Message operators) {
+
+    if (index == null) {
+      return null;
+    }
+    return index.lookup(queryRequest, operators);
+  }
+
+  /**
+   * Restricts the query to the records found in the index. The original query is kept so that
+   * the result is right even if a record was modified since the index was looked up; Mongo only
+   * evaluates it on the candidate records fetched through the uri index.
+   */
+  private Document restrictToCandidates(Document query, Set<String> candidates) {
+
+    if (candidates == null) {
+      return query;
+    }
+
+    Document byUri =
+        new Document(
+            ReservedKeys.RECORD_URI, new Document("$in", new ArrayList<String>(candidates)));
+    if (query.isEmpty()) {
+      return byUri;
+    }
+    return new Document("$and", Arrays.asList(byUri, query));
+  }
+
   /**
    * Method to query all the records from the database.
    * @return list of all records.
@@ -374,7 +1123,7 @@ public class ServiceDaoMongoDb {
    * This is a private method that retrieves the mongo wild card pattern. The REST API of sLS
    * supports only prefix and suffix matching using the '*' character. Whereas, mongo uses PCRE
    * standards - '^' and '$'. This method maps prefix and suffix received from the REST API to the
-   * Mongo wild card operation
+   * Mongo wild card operation. The rest of the string is matched literally.
    *
    * @param stringPattern The string pattern received from the REST API
    * @return Pattern object containing the Mongo's PCRE
@@ -384,9 +1133,11 @@ public class ServiceDaoMongoDb {
     Pattern newPattern = null;
 
     if (stringPattern.endsWith("*")) {
-      newPattern = Pattern.compile("^" + stringPattern.substring(0, stringPattern.length() - 1));
+      String prefix = stringPattern.substring(0, stringPattern.length() - 1);
+      newPattern = Pattern.compile("^" + RecordMatcher.quote(prefix));
     } else if (stringPattern.startsWith("*")) {
-      newPattern = Pattern.compile(stringPattern.substring(1, stringPattern.length()) + "$");
+      String suffix = stringPattern.substring(1, stringPattern.length());
+      newPattern = Pattern.compile(RecordMatcher.quote(suffix) + "$");
     }
 
     return newPattern;
@@ -435,8 +1186,12 @@ public class ServiceDaoMongoDb {
     try {
 
       Document document = new Document(message.getMap());
+      putJson(document);
 
       coll.insertOne(document);
+      if (index != null) {
+        index.add(message.getURI(), document);
+      }
     } catch (MongoException e) {
 
       throw new DatabaseException(e.getMessage());
@@ -477,6 +1232,9 @@ public class ServiceDaoMongoDb {
       try {
 
         DeleteResult deleteResult = coll.deleteOne(query);
+        if (index != null) {
+          index.remove(recorduri);
+        }
         if (deleteResult.getDeletedCount() != 1) {
           throw new DatabaseException("Error deleting record");
         }
@@ -502,6 +1260,9 @@ public class ServiceDaoMongoDb {
 
     try {
       DeleteResult result = coll.deleteMany(lte("_timestamp", datetime));
+      if (index != null) {
+        index.removeExpired(datetime);
+      }
       return result.getDeletedCount();
     } catch (MongoException e) {
 
@@ -520,6 +1281,9 @@ public class ServiceDaoMongoDb {
     try {
 
       DeleteResult deleteResult = coll.deleteMany(new Document());
+      if (index != null) {
+        index.clear();
+      }
       return deleteResult.getDeletedCount();
     } catch (MongoException e) {
 
@@ -527,13 +1291,221 @@ public class ServiceDaoMongoDb {
     }
   }
 
-  private Message toMessage(Document doc) {
+  /**
+   * Inserts the records with their fingerprints in one unordered insertMany. Records repeating an
+   * earlier record of the list are left out before the insert; the ones already registered are
+   * rejected by the unique index on the fingerprint, without stopping the insert of the others.
+   * The uris of the rejected records are looked up to tell them apart from records whose uri is
+   * taken by a record with other content, which are reported in errors like the records rejected
+   * for other reasons.
+   *
+   * @param messages The records to be inserted
+   * @param errors filled with the uri and the error message of each record that failed
+   * @return the records that were inserted, in the order of the list
+   * @throws DatabaseException if the records could not be written at all
+   */
+  public List<Message> publishServicesIfAbsent(List<Message> messages, Map<String, String> errors)
+      throws DatabaseException {
+
+    Set<String> registered = new HashSet<String>();
+    if (!fingerprintIndexed) {
+      List<String> fingerprints = new ArrayList<String>();
+      for (Message message : messages) {
+        fingerprints.add(RecordFingerprint.compute(message.getMap()));
+      }
+      try {
+        registered = findRegistered(fingerprints);
+      } catch (MongoException me) {
+        throw new DatabaseException(
+            "Error inserting records. Database exception:" + me.getMessage());
+      }
+    }
+
+    List<Document> docs = new ArrayList<Document>();
+    Set<String> fingerprints = new HashSet<String>(registered);
+    for (Message message : messages) {
+
+      Message timestampedMessage = addTimestamp(message);
+      String fingerprint = RecordFingerprint.compute(message.getMap());
+      if (fingerprints.add(fingerprint)) {
+        Document doc = new Document();
+        doc.putAll(timestampedMessage.getMap());
+        doc.put(RecordFingerprint.FIELD, fingerprint);
+        putJson(doc);
+        docs.add(doc);
+      }
+    }
+
+    List<Message> inserted = new ArrayList<Message>();
+    if (docs.isEmpty()) {
+      return inserted;
+    }
+
+    Set<Integer> rejected = new HashSet<Integer>();
+    try {
+      coll.insertMany(docs, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      List<Document> duplicateKeys = new ArrayList<Document>();
+      for (BulkWriteError writeError : e.getWriteErrors()) {
+        rejected.add(writeError.getIndex());
+        Document doc = docs.get(writeError.getIndex());
+        if (writeError.getCategory() == ErrorCategory.DUPLICATE_KEY) {
+          duplicateKeys.add(doc);
+        } else {
+          errors.put(doc.getString(ReservedKeys.RECORD_URI), writeError.getMessage());
+        }
+      }
+      if (!duplicateKeys.isEmpty()) {
+        for (String uri : findTakenUris(duplicateKeys)) {
+          errors.put(uri, "A record with uri " + uri + " already exists");
+        }
+      }
+    } catch (MongoException me) {
+      throw new DatabaseException("Error inserting records. Database exception:" + me.getMessage());
+    }
+
+    for (int i = 0; i < docs.size(); i++) {
+      if (!rejected.contains(i)) {
+        Document doc = docs.get(i);
+        if (index != null) {
+          index.add(doc.getString(ReservedKeys.RECORD_URI), doc);
+        }
+        inserted.add(toMessage(doc));
+      }
+    }
+    return inserted;
+  }
+
+  /**
+   * Renews the records with one updateMany on their uris, setting only the lease fields and the
+   * timestamps instead of writing back the entire records.
+   *
+   * @param recorduris the uris of the records
+   * @param renewal the lease fields, the same for all the records
+   * @return the number of records renewed
+   * @throws DatabaseException exception is thrown if error updating database
+   */
+  public long renewRecords(Collection<String> recorduris, Message renewal)
+      throws DatabaseException {
+
+    if (recorduris.isEmpty()) {
+      return 0;
+    }
+
+    Message renewalCopy = new Message(new HashMap<String, Object>(renewal.getMap()));
+    Map<String, Object> fields = addTimestamp(renewalCopy).getMap();
+    try {
+
+      UpdateResult result =
+          coll.updateMany(in(ReservedKeys.RECORD_URI, recorduris), buildUpdate(fields));
+      if (index != null) {
+        for (String uri : recorduris) {
+          index.update(uri, fields);
+        }
+      }
+      return result.getMatchedCount();
+
+    } catch (MongoException e) {
+
+      throw new DatabaseException(e.getMessage());
+    }
+  }
+
+  /**
+   * Renews a record with one findOneAndUpdate. The prune threshold is part of the filter, so the
+   * record is checked and renewed in one round trip, and only the requested fields are sent back.
+   *
+   * @param recorduri the uri of the record
+   * @param renewal the lease fields (expires, ttl and state)
+   * @param pruneTime records that expired before this time are not renewed
+   * @param fields the keys to be returned in addition to the uri, or null for the entire record
+   * @return the renewed record, or null if the record does not exist or expired before pruneTime
+   * @throws DatabaseException exception is thrown if error updating database
+   */
+  public Message renewRecord(
+      String recorduri, Message renewal, Date pruneTime, List<String> fields)
+      throws DatabaseException {
+
+    Message renewalCopy = new Message(new HashMap<String, Object>(renewal.getMap()));
+    Map<String, Object> updateFields = addTimestamp(renewalCopy).getMap();
+
+    // records inserted without a timestamp are never pruned, so they can always be renewed
+    Document query = new Document(ReservedKeys.RECORD_URI, recorduri);
+    query.put(
+        "$or",
+        Arrays.asList(
+            new Document("_timestamp", new Document("$gte", pruneTime)),
+            new Document("_timestamp", new Document("$exists", false))));
+
+    FindOneAndUpdateOptions updateOptions = new FindOneAndUpdateOptions();
+    updateOptions.returnDocument(ReturnDocument.AFTER);
+    if (fields != null) {
+      updateOptions.projection(project(fields));
+    }
+
+    try {
+
+      Document result =
+          (Document) coll.findOneAndUpdate(query, buildUpdate(updateFields), updateOptions);
+      if (result == null) {
+        return null;
+      }
+      if (index != null) {
+        index.update(recorduri, updateFields);
+      }
+      return toMessage(result);
+
+    } catch (MongoException e) {
+
+      throw new DatabaseException(e.getMessage());
+    }
+  }
+
+  /**
+   * Builds the update setting the given fields of a record. A record leaving the registered state
+   * no longer counts as a duplicate of new registrations, so its fingerprint is removed. The
+   * stored JSON is removed if the update changes more than the lease of the record, as the new
+   * JSON cannot be computed without reading the record.
+   */
+  private static Document buildUpdate(Map<String, Object> fields) {
+
+    Document updateObject = new Document("$set", new Document(fields));
+    Document unset = new Document();
+    if (RecordFingerprint.isReleasedBy(fields)) {
+      unset.put(RecordFingerprint.FIELD, "");
+    }
+    if (RecordJson.isChangedBy(fields)) {
+      unset.put(RecordJson.FIELD, "");
+    }
+    if (!unset.isEmpty()) {
+      updateObject.put("$unset", unset);
+    }
+    return updateObject;
+  }
+
+  /**
+   * Adds the stored JSON to a record to be inserted. It is put before the keys of the record, so
+   * that MongoJsonRecordCursor finds it before the keys it replaces.
+   */
+  private static void putJson(Document doc) {
+
+    String json = RecordJson.compute(doc);
+    if (json != null) {
+      Map<String, Object> fields = new LinkedHashMap<String, Object>(doc);
+      doc.clear();
+      doc.put(RecordJson.FIELD, json);
+      doc.putAll(fields);
+    }
+  }
+
+  Message toMessage(Document doc) {
     Message result;
     if (doc != null) {
       doc.remove("_timestamp");
       doc.remove("_id");
       doc.remove("_lastUpdated");
-      result = new Message(doc);
+      doc.remove(RecordFingerprint.FIELD);
+      result = RecordJson.attach(doc, new Message(doc));
     } else {
       result = new Message();
     }
@@ -558,7 +1530,7 @@ public class ServiceDaoMongoDb {
 
       Message mongoTimestampedMessage = addTimestamp(fullRecord);
 
-      Document updateObject = new Document("$set", new Document(mongoTimestampedMessage.getMap()));
+      Document updateObject = buildUpdate(mongoTimestampedMessage.getMap());
 
       UpdateOneModel updateOperation = new UpdateOneModel(query, updateObject);
       bulkUpdateOperations.add(updateOperation);
@@ -570,6 +1542,11 @@ public class ServiceDaoMongoDb {
 
       BulkWriteResult bulkUpdateResult =
           coll.bulkWrite(bulkUpdateOperations, new BulkWriteOptions().ordered(false));
+      if (index != null) {
+        for (Entry<String, Message> recordEntry : records.entrySet()) {
+          index.update(recordEntry.getKey(), recordEntry.getValue().getMap());
+        }
+      }
       int modifiedRecordsCount = 0;
       if (bulkUpdateResult.isModifiedCountAvailable()) {
         modifiedRecordsCount = bulkUpdateResult.getModifiedCount();
@@ -0,0 +1,429 @@
+package net.es.lookup.database.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.es.lookup.common.CompactRecord;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * In-process index mapping each (key, value) pair of the records to the uris of the records that
+ * contain it. It answers equality queries combined with the ALL and ANY operators by intersecting
+ * or merging the sets of uris, so the store only has to fetch the records that match.
+ *
+ * <p>The index is kept up to date by the RecordStore on register, renew, delete and prune. It
+ * assumes that this lookup service is the only one writing to the database: records written by
+ * another process are not visible through the index until the service is restarted.
+ *
+ * <p>Prefix and suffix wildcards are answered for the keys given to the constructor, from a
+ * WildcardIndex over their values. Queries that cannot be answered from the index (other
+ * wildcards, list operators other than ALL and ANY, keys that are not indexed) return null, in
+ * which case the store falls back to evaluating the query itself. Lookups do not lock; writes are
+ * serialized.
+ */
+public class InvertedIndex {
+
+  private static final Set<String> NOT_INDEXED = new HashSet<String>();
+
+  static {
+    // unique per record, they would only add a set per record to the index
+    NOT_INDEXED.add(ReservedKeys.RECORD_URI);
+    NOT_INDEXED.add(ReservedKeys.RECORD_EXPIRES);
+  }
+
+  private final Map<String, Map<String, Set<String>>> postings =
+      new ConcurrentHashMap<String, Map<String, Set<String>>>();
+  private final Map<String, IndexedRecord> records = new ConcurrentHashMap<String, IndexedRecord>();
+  private final WildcardIndex wildcards;
+  private final int maxCandidates;
+
+  /**
+   * Creates an empty index.
+   *
+   * @param maxCandidates queries matching more records than this are not answered from the index,
+   *     since fetching a long list of uris is slower than running the query. 0 means no limit.
+   */
+  public InvertedIndex(int maxCandidates) {
+
+    this(maxCandidates, Collections.<String>emptySet());
+  }
+
+  /**
+   * Creates an empty index answering wildcard queries on some keys.
+   *
+   * @param maxCandidates queries matching more records than this are not answered from the index.
+   *     0 means no limit.
+   * @param wildcardKeys keys for which prefix and suffix queries are answered from the index
+   */
+  public InvertedIndex(int maxCandidates, Collection<String> wildcardKeys) {
+
+    this.maxCandidates = maxCandidates;
+    this.wildcards = new WildcardIndex(wildcardKeys);
+  }
+
+  /**
+   * Adds a record to the index, replacing the previous version of the record if there is one.
+   *
+   * @param uri uri of the record
+   * @param record key-values of the record
+   */
+  public synchronized void add(String uri, Map<String, Object> record) {
+
+    if (uri == null) {
+      return;
+    }
+
+    removePostings(uri, records.remove(uri));
+
+    Map<String, List<String>> values = new HashMap<String, List<String>>();
+    for (Map.Entry<String, Object> entry : record.entrySet()) {
+
+      String key = entry.getKey();
+      if (NOT_INDEXED.contains(key) || key.startsWith("_")) {
+        continue;
+      }
+
+      List<String> keyValues = toStrings(entry.getValue());
+      if (!keyValues.isEmpty()) {
+        values.put(key, keyValues);
+        for (String value : keyValues) {
+          addPosting(key, value, uri);
+        }
+      }
+    }
+
+    records.put(uri, new IndexedRecord(values, getExpiry(record)));
+  }
+
+  /**
+   * Applies an update of some of the fields of a record to the index. Records that are not in the
+   * index are ignored, as they do not exist in the store either.
+   *
+   * @param uri uri of the record
+   * @param fields the key-values that were set
+   */
+  public synchronized void update(String uri, Map<String, Object> fields) {
+
+    IndexedRecord current = (uri == null) ? null : records.get(uri);
+    if (current == null) {
+      return;
+    }
+
+    Map<String, Object> record = new HashMap<String, Object>(current.values);
+    record.put("_timestamp", new Date(current.expires));
+    record.putAll(fields);
+    add(uri, record);
+  }
+
+  /**
+   * Removes a record from the index.
+   *
+   * @param uri uri of the record
+   */
+  public synchronized void remove(String uri) {
+
+    if (uri != null) {
+      removePostings(uri, records.remove(uri));
+    }
+  }
+
+  /**
+   * Removes the records whose lease expired before the given time, in the same way as the prune
+   * job removes them from the database.
+   *
+   * @param datetime records with an expiry time before or equal to datetime are removed
+   * @return number of records removed from the index
+   */
+  public synchronized long removeExpired(Date datetime) {
+
+    long removed = 0;
+    List<String> expired = new ArrayList<String>();
+    for (Map.Entry<String, IndexedRecord> entry : records.entrySet()) {
+      if (entry.getValue().expires <= datetime.getTime()) {
+        expired.add(entry.getKey());
+      }
+    }
+
+    for (String uri : expired) {
+      removePostings(uri, records.remove(uri));
+      removed++;
+    }
+    return removed;
+  }
+
+  public synchronized void clear() {
+
+    postings.clear();
+    wildcards.clear();
+    records.clear();
+  }
+
+  public int size() {
+
+    return records.size();
+  }
+
+  public boolean contains(String uri) {
+
+    return records.containsKey(uri);
+  }
+
+  /**
+   * Finds the uris of the records matching the query.
+   *
+   * @param queryRequest query keywords
+   * @param operators operators like ANY, ALL that specifies how query keywords should be applied
+   * @return the uris of the matching records, or null if the query cannot be answered from the
+   *     index
+   */
+  public Set<String> lookup(Message queryRequest, Message operators) {
+
+    Map<String, Object> queryMap = queryRequest.getMap();
+    if (queryMap.isEmpty()) {
+      return null;
+    }
+
+    boolean matchAny;
+    String queryOp = operators.getOperator();
+    if (queryOp == null
+        || queryOp.isEmpty()
+        || queryOp.equalsIgnoreCase(ReservedValues.RECORD_OPERATOR_ALL)) {
+      matchAny = false;
+    } else if (queryOp.equalsIgnoreCase(ReservedValues.RECORD_OPERATOR_ANY)) {
+      matchAny = true;
+    } else {
+      return null;
+    }
+
+    Map<String, Object> opsMap = operators.getMap();
+    List<Set<String>> termResults = new ArrayList<Set<String>>();
+
+    for (Map.Entry<String, Object> entry : queryMap.entrySet()) {
+
+      String key = entry.getKey();
+      Object queryValue = entry.getValue();
+      List<String> values = toStrings(queryValue);
+
+      if (values.isEmpty()) {
+        // not a query term, buildQuery ignores it as well
+        continue;
+      }
+
+      boolean anyValue = false;
+      if (values.size() > 1) {
+        String listOp = getListOperator(opsMap.get(key));
+        if (ReservedValues.RECORD_OPERATOR_ANY.equals(listOp)) {
+          anyValue = true;
+        } else if (!ReservedValues.RECORD_OPERATOR_ALL.equals(listOp)) {
+          return null;
+        }
+      }
+
+      List<Set<String>> valueResults = new ArrayList<Set<String>>();
+      for (String value : values) {
+        Set<String> uris = lookupValue(key, value);
+        if (uris == null) {
+          return null;
+        }
+        valueResults.add(uris);
+      }
+
+      termResults.add(anyValue ? union(valueResults) : intersection(valueResults));
+    }
+
+    if (termResults.isEmpty()) {
+      return null;
+    }
+
+    Set<String> result = matchAny ? union(termResults) : intersection(termResults);
+    if (maxCandidates > 0 && result.size() > maxCandidates) {
+      return null;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the uris of the records having the given value for the key.
+   *
+   * @return set of uris (not to be modified) or null if the value cannot be looked up
+   */
+  private Set<String> lookupValue(String key, String value) {
+
+    if (value.contains("*")) {
+      return wildcards.lookup(key, value);
+    }
+
+    if (ReservedKeys.RECORD_EXPIRES.equals(key) || key.startsWith("_")) {
+      return null;
+    }
+
+    if (ReservedKeys.RECORD_URI.equals(key)) {
+      if (records.containsKey(value)) {
+        return Collections.singleton(value);
+      }
+      return Collections.emptySet();
+    }
+
+    Map<String, Set<String>> keyPostings = postings.get(key);
+    if (keyPostings == null) {
+      return Collections.emptySet();
+    }
+
+    Set<String> uris = keyPostings.get(value);
+    if (uris == null) {
+      return Collections.emptySet();
+    }
+    return uris;
+  }
+
+  private void addPosting(String key, String value, String uri) {
+
+    Map<String, Set<String>> keyPostings = postings.get(key);
+    if (keyPostings == null) {
+      keyPostings = new ConcurrentHashMap<String, Set<String>>();
+      postings.put(key, keyPostings);
+    }
+
+    Set<String> uris = keyPostings.get(value);
+    if (uris == null) {
+      uris = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      keyPostings.put(value, uris);
+    }
+    uris.add(uri);
+    wildcards.add(key, value, uri);
+  }
+
+  private void removePostings(String uri, IndexedRecord record) {
+
+    if (record == null) {
+      return;
+    }
+
+    for (Map.Entry<String, List<String>> entry : record.values.entrySet()) {
+
+      Map<String, Set<String>> keyPostings = postings.get(entry.getKey());
+      if (keyPostings == null) {
+        continue;
+      }
+
+      for (String value : entry.getValue()) {
+        wildcards.remove(entry.getKey(), value, uri);
+        Set<String> uris = keyPostings.get(value);
+        if (uris != null) {
+          uris.remove(uri);
+          if (uris.isEmpty()) {
+            keyPostings.remove(value);
+          }
+        }
+      }
+
+      if (keyPostings.isEmpty()) {
+        postings.remove(entry.getKey());
+      }
+    }
+  }
+
+  private static Set<String> intersection(List<Set<String>> sets) {
+
+    // start from the smallest set so that the result is built with as few lookups as possible
+    List<Set<String>> sorted = new ArrayList<Set<String>>(sets);
+    Collections.sort(sorted, new Comparator<Set<String>>() {
+      @Override
+      public int compare(Set<String> s1, Set<String> s2) {
+        return Integer.compare(s1.size(), s2.size());
+      }
+    });
+
+    Set<String> result = new HashSet<String>(sorted.get(0));
+    for (int i = 1; i < sorted.size() && !result.isEmpty(); i++) {
+      result.retainAll(sorted.get(i));
+    }
+    return result;
+  }
+
+  private static Set<String> union(List<Set<String>> sets) {
+
+    Set<String> result = new HashSet<String>();
+    for (Set<String> set : sets) {
+      result.addAll(set);
+    }
+    return result;
+  }
+
+  private static List<String> toStrings(Object value) {
+
+    List<String> result = new ArrayList<String>();
+    if (value instanceof String) {
+      result.add((String) value);
+    } else if (value instanceof List) {
+      for (Object element : (List) value) {
+        if (element instanceof String) {
+          result.add((String) element);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static String getListOperator(Object op) {
+
+    if (op instanceof String) {
+      return ((String) op).toLowerCase();
+    } else if (op instanceof List && !((List) op).isEmpty()) {
+      return String.valueOf(((List) op).get(0)).toLowerCase();
+    }
+    return null;
+  }
+
+  /**
+   * Records without an expiry time are never pruned by the database, so they are never pruned
+   * from the index either.
+   */
+  private static long getExpiry(Map<String, Object> record) {
+
+    if (record instanceof CompactRecord) {
+      return ((CompactRecord) record).getExpires();
+    }
+
+    Object timestamp = record.get("_timestamp");
+    if (timestamp instanceof Date) {
+      return ((Date) timestamp).getTime();
+    }
+
+    Object expires = record.get(ReservedKeys.RECORD_EXPIRES);
+    if (expires instanceof List && !((List) expires).isEmpty()) {
+      expires = ((List) expires).get(0);
+    }
+    if (expires instanceof String) {
+      try {
+        return ISODateTimeFormat.dateTime().parseMillis((String) expires);
+      } catch (IllegalArgumentException e) {
+        return Long.MAX_VALUE;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  private static class IndexedRecord {
+
+    private final Map<String, List<String>> values;
+    private final long expires;
+
+    IndexedRecord(Map<String, List<String>> values, long expires) {
+
+      this.values = values;
+      this.expires = expires;
+    }
+  }
+}
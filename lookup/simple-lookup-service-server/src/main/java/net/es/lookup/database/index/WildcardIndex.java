@@ -0,0 +1,152 @@
+package net.es.lookup.database.index;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index of the values of some keys for prefix ('foo*') and suffix ('*foo') queries. The values of
+ * each key are kept sorted, so the values starting with a prefix are a contiguous range of the
+ * map. Suffixes are looked up in the same way in a second map holding the reversed values, so
+ * that '*.es.net' is answered from the range of values starting with 'ten.se.'.
+ *
+ * <p>Only the configured keys are indexed, as most keys are never queried with wildcards and the
+ * sorted maps cost more memory than the postings of the InvertedIndex.
+ */
+class WildcardIndex {
+
+  private final Set<String> keys;
+  private final Map<String, ConcurrentSkipListMap<String, Set<String>>> prefixes =
+      new ConcurrentHashMap<String, ConcurrentSkipListMap<String, Set<String>>>();
+  private final Map<String, ConcurrentSkipListMap<String, Set<String>>> suffixes =
+      new ConcurrentHashMap<String, ConcurrentSkipListMap<String, Set<String>>>();
+
+  /**
+   * Creates an empty index.
+   *
+   * @param keys the keys whose values are indexed
+   */
+  WildcardIndex(Collection<String> keys) {
+
+    this.keys = new HashSet<String>(keys);
+  }
+
+  boolean isIndexed(String key) {
+
+    return keys.contains(key);
+  }
+
+  void add(String key, String value, String uri) {
+
+    if (keys.contains(key)) {
+      addValue(prefixes, key, value, uri);
+      addValue(suffixes, key, reverse(value), uri);
+    }
+  }
+
+  void remove(String key, String value, String uri) {
+
+    if (keys.contains(key)) {
+      removeValue(prefixes, key, value, uri);
+      removeValue(suffixes, key, reverse(value), uri);
+    }
+  }
+
+  void clear() {
+
+    prefixes.clear();
+    suffixes.clear();
+  }
+
+  /**
+   * Finds the uris of the records having a value that matches the wildcard for the key.
+   *
+   * @param key the key
+   * @param wildcard a value starting or ending with '*'
+   * @return set of uris, or null if the key is not indexed or the wildcard is neither a prefix nor
+   *     a suffix
+   */
+  Set<String> lookup(String key, String wildcard) {
+
+    if (!keys.contains(key)) {
+      return null;
+    }
+
+    if (wildcard.endsWith("*")) {
+      String prefix = wildcard.substring(0, wildcard.length() - 1);
+      return prefix.contains("*") ? null : lookupRange(prefixes.get(key), prefix);
+    } else if (wildcard.startsWith("*")) {
+      String suffix = wildcard.substring(1);
+      return suffix.contains("*") ? null : lookupRange(suffixes.get(key), reverse(suffix));
+    }
+    return null;
+  }
+
+  private static Set<String> lookupRange(
+      ConcurrentSkipListMap<String, Set<String>> values, String start) {
+
+    if (values == null) {
+      return Collections.emptySet();
+    }
+
+    Set<String> result = new HashSet<String>();
+    ConcurrentNavigableMap<String, Set<String>> range = values.tailMap(start, true);
+    for (Map.Entry<String, Set<String>> entry : range.entrySet()) {
+      if (!entry.getKey().startsWith(start)) {
+        break;
+      }
+      result.addAll(entry.getValue());
+    }
+    return result;
+  }
+
+  private static void addValue(
+      Map<String, ConcurrentSkipListMap<String, Set<String>>> index,
+      String key,
+      String value,
+      String uri) {
+
+    ConcurrentSkipListMap<String, Set<String>> values = index.get(key);
+    if (values == null) {
+      values = new ConcurrentSkipListMap<String, Set<String>>();
+      index.put(key, values);
+    }
+
+    Set<String> uris = values.get(value);
+    if (uris == null) {
+      uris = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      values.put(value, uris);
+    }
+    uris.add(uri);
+  }
+
+  private static void removeValue(
+      Map<String, ConcurrentSkipListMap<String, Set<String>>> index,
+      String key,
+      String value,
+      String uri) {
+
+    ConcurrentSkipListMap<String, Set<String>> values = index.get(key);
+    if (values == null) {
+      return;
+    }
+
+    Set<String> uris = values.get(value);
+    if (uris != null) {
+      uris.remove(uri);
+      if (uris.isEmpty()) {
+        values.remove(value);
+      }
+    }
+  }
+
+  private static String reverse(String value) {
+
+    return new StringBuilder(value).reverse().toString();
+  }
+}
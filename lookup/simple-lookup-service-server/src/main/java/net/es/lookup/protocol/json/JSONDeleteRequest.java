@@ -1,8 +1,8 @@
 package net.es.lookup.protocol.json;
 
 import net.es.lookup.common.DeleteRequest;
-import net.sf.json.JSONObject;
-import net.sf.json.util.JSONTokener;
+
+import java.util.Map;
 
 public class JSONDeleteRequest extends DeleteRequest {
 
@@ -19,13 +19,22 @@ public class JSONDeleteRequest extends DeleteRequest {
 
         if (!message.isEmpty()) {
 
-            JSONTokener tokener = new JSONTokener(message);
-            Object obj = tokener.nextValue();
-            JSONObject jsonObj = (JSONObject) obj;
+            Map<String, Object> obj;
+
+            try {
+
+                obj = JsonCodec.decodeObject(message, false);
+
+            } catch (JsonFormatException e) {
+
+                this.status = JSONDeleteRequest.INCORRECT_FORMAT;
+                return;
+
+            }
 
-            for (Object o : ((JSONObject) obj).keySet()) {
+            for (Map.Entry<String, Object> entry : obj.entrySet()) {
 
-                this.add(o.toString(), ((JSONObject) obj).get(o));
+                this.add(entry.getKey(), entry.getValue());
 
             }
 
@@ -1,187 +1,250 @@
 package net.es.lookup.protocol.json;
 
+import net.es.lookup.common.CompactRecord;
 import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
 import net.es.lookup.common.exception.internal.DataFormatException;
-import net.sf.json.JSONException;
-import net.sf.json.util.JSONBuilder;
-import net.sf.json.util.JSONStringer;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * This class provides  methods that convert
- * the sLS records to the API's JSON message format.
+ * the sLS records to the API's JSON message format. The records are
+ * encoded with JsonCodec.
+ *
+ * <p>Records read from the database may carry the JSON they were stored with (see
+ * toStoredJson). That JSON is copied to the output as is, and only the lease keys are serialized
+ * from the map of the record.
  */
 
 public class JSONMessage {
 
     public static String toString(Message message) throws DataFormatException {
 
-        JSONStringer stringer = new JSONStringer();
-
-        Map<String, Object> map = message.getMap();
-        Set<Map.Entry<String, Object>> entries = map.entrySet();
+        StringWriter out = new StringWriter();
 
         try {
 
-            JSONBuilder tmp = stringer.object();
+            JsonCodec.writeMessage(new JsonWriter(out), message);
 
-            for (Map.Entry<String, Object> entry : entries) {
+        } catch (IOException e) {
 
-                if (entry.getValue() instanceof String) {
+            throw new DataFormatException("Error in elements format");
 
-                    tmp = tmp.key(entry.getKey()).value(entry.getValue());
+        } catch (ClassCastException | IllegalArgumentException e) {
 
-                } else {
+            throw new DataFormatException("Error in elements format");
 
-                    List<String> tmpvalues = (List) entry.getValue();
-                    Iterator<String> it = tmpvalues.iterator();
-                    tmp = tmp.key(entry.getKey());
-                    tmp = tmp.array();
+        }
 
-                    while (it.hasNext()) {
+        return out.toString();
 
-                        tmp = tmp.value(it.next());
+    }
 
-                    }
 
-                    tmp.endArray();
+    public static String toString(CompactRecord record) throws DataFormatException {
 
-                }
+        StringWriter out = new StringWriter();
 
-            }
+        try {
 
-            tmp.endObject();
+            JsonCodec.writeRecord(new JsonWriter(out), record);
 
-        } catch (JSONException e) {
+        } catch (IOException e) {
+
+            throw new DataFormatException("Error in elements format");
+
+        } catch (ClassCastException | IllegalArgumentException e) {
 
             throw new DataFormatException("Error in elements format");
 
         }
 
-        return stringer.toString();
+        return out.toString();
 
     }
 
 
     public static String toString(List<Message> services) throws DataFormatException {
 
-        JSONStringer stringer = new JSONStringer();
-        JSONBuilder tmp = stringer;
+        StringWriter out = new StringWriter();
 
         try {
 
-            tmp = tmp.array();
+            JsonCodec.writeMessages(new JsonWriter(out), services.iterator());
 
-            for (Message service : services) {
+        } catch (IOException e) {
 
-                Map<String, Object> map = service.getMap();
-                Set<Map.Entry<String, Object>> entries = map.entrySet();
-                tmp = tmp.object();
+            throw new DataFormatException("Error in elements format");
 
-                for (Map.Entry<String, Object> entry : entries) {
+        } catch (ClassCastException | IllegalArgumentException e) {
 
-                    if (entry.getValue() instanceof String) {
+            throw new DataFormatException("Error in elements format");
 
-                        tmp = tmp.key(entry.getKey()).value(entry.getValue());
+        }
 
-                    } else if (entry.getValue() instanceof List) {
+        return out.toString();
 
-                        List<String> tmpvalues = (List) entry.getValue();
-                        Iterator<String> it = tmpvalues.iterator();
-                        tmp = tmp.key(entry.getKey());
-                        tmp = tmp.array();
+    }
 
-                        while (it.hasNext()) {
 
-                            tmp = tmp.value(it.next());
 
-                        }
+    /**
+     * Writes the records as a JSON array to the writer, one record at a time. Unlike
+     * toString(List), the records are never held together in memory, so this can be used with a
+     * database cursor of any size.
+     */
+    public static void write(Iterator<Message> services, Writer writer) throws DataFormatException {
 
-                        tmp.endArray();
+        try {
 
-                    }
+            JsonCodec.writeMessages(new JsonWriter(writer), services);
+            writer.flush();
 
-                }
+        } catch (ClassCastException | IllegalArgumentException e) {
 
-                tmp = tmp.endObject();
+            throw new DataFormatException("Error in elements format");
 
-            }
+        } catch (IOException e) {
 
-            tmp = tmp.endArray();
+            throw new DataFormatException("Error writing elements: " + e.getMessage());
 
-        } catch (JSONException e) {
+        }
 
-            throw new DataFormatException("Error in elements format");
+    }
 
-        }
 
-        return stringer.toString();
+    /**
+     * Writes records already serialized to JSON as a JSON array to the writer, one record at a
+     * time, like write(Iterator, Writer).
+     */
+    public static void writeJson(Iterator<String> records, Writer writer) throws DataFormatException {
 
-    }
+        try {
 
+            JsonWriter json = new JsonWriter(writer);
+            json.beginArray();
 
+            while (records.hasNext()) {
 
-    public static String toString(List<Message> services, String listname) throws DataFormatException {
+                json.jsonValue(records.next());
 
-        JSONStringer stringer = new JSONStringer();
-        JSONBuilder tmp = stringer;
+            }
+
+            json.endArray();
+            writer.flush();
+
+        } catch (IOException e) {
+
+            throw new DataFormatException("Error writing elements: " + e.getMessage());
 
-        if(listname == null || listname.isEmpty()){
-            throw new DataFormatException("List name was null");
         }
 
+    }
+
+
+    /**
+     * Serializes a record to be stored with it, so that responses do not have to serialize it
+     * again. The lease keys and the internal keys starting with '_' are left out. The result is
+     * the members of a JSON object without the braces, to which the lease keys are added when the
+     * record is written.
+     *
+     * @param record key-values of the record
+     * @return the JSON members
+     * @throws DataFormatException if the record cannot be serialized
+     */
+    public static String toStoredJson(Map<String, Object> record) throws DataFormatException {
+
+        StringWriter out = new StringWriter();
+
         try {
 
-            tmp = tmp.object().key(listname).array();
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject();
 
-            for (Message service : services) {
+            for (Map.Entry<String, Object> entry : record.entrySet()) {
 
-                Map<String, Object> map = service.getMap();
-                Set<Map.Entry<String, Object>> entries = map.entrySet();
-                tmp = tmp.object();
+                String key = entry.getKey();
+                if (!ReservedKeys.LEASE_KEYS.contains(key) && !key.startsWith("_")) {
 
-                for (Map.Entry<String, Object> entry : entries) {
+                    JsonCodec.writeEntry(writer, key, entry.getValue());
 
-                    if (entry.getValue() instanceof String) {
+                }
 
-                        tmp = tmp.key(entry.getKey()).value(entry.getValue());
+            }
 
-                    } else if (entry.getValue() instanceof List) {
+            writer.endObject();
 
-                        List<String> tmpvalues = (List) entry.getValue();
-                        Iterator<String> it = tmpvalues.iterator();
-                        tmp = tmp.key(entry.getKey());
-                        tmp = tmp.array();
+        } catch (IOException e) {
 
-                        while (it.hasNext()) {
+            throw new DataFormatException("Error in elements format");
 
-                            tmp = tmp.value(it.next());
+        } catch (IllegalArgumentException e) {
 
-                        }
+            throw new DataFormatException("Error in elements format");
 
-                        tmp.endArray();
+        }
 
-                    }
+        String json = out.toString();
+        return json.substring(1, json.length() - 1);
 
-                }
+    }
+
+
+    /**
+     * Checks if an update of the given keys changes the stored JSON of a record.
+     *
+     * @param fields the key-values set by the update
+     * @return true if the stored JSON is no longer valid after the update
+     */
+    public static boolean isStoredJsonChangedBy(Map<String, Object> fields) {
 
-                tmp = tmp.endObject();
+        for (String key : fields.keySet()) {
+
+            if (!ReservedKeys.LEASE_KEYS.contains(key) && !key.startsWith("_")) {
+
+                return true;
 
             }
 
-            tmp = tmp.endArray().endObject();
+        }
+
+        return false;
+
+    }
+
+
+    public static String toString(List<Message> services, String listname) throws DataFormatException {
+
+        if(listname == null || listname.isEmpty()){
+            throw new DataFormatException("List name was null");
+        }
+
+        StringWriter out = new StringWriter();
+
+        try {
+
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject().name(listname);
+            JsonCodec.writeMessages(writer, services.iterator());
+            writer.endObject();
+
+        } catch (IOException e) {
+
+            throw new DataFormatException("Error in elements format");
 
-        } catch (JSONException e) {
+        } catch (ClassCastException | IllegalArgumentException e) {
 
             throw new DataFormatException("Error in elements format");
 
         }
 
-        return stringer.toString();
+        return out.toString();
 
     }
 
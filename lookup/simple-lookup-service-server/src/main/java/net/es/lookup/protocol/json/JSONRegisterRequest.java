@@ -1,12 +1,7 @@
 package net.es.lookup.protocol.json;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 import net.es.lookup.common.RegisterRequest;
-import net.sf.json.JSONArray;
-import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
-import net.sf.json.util.JSONTokener;
 
 public class JSONRegisterRequest extends RegisterRequest {
 
@@ -19,50 +14,42 @@ public class JSONRegisterRequest extends RegisterRequest {
 
     }
 
+    /**
+     * Creates the request from a record that is already decoded, like the elements of a bulk
+     * registration.
+     */
+    public JSONRegisterRequest(Map<String, Object> record) {
+
+        this.parseRecord(record);
+
+    }
+
     private void parseJSON(String message) {
 
-        JSONTokener tokener = new JSONTokener(message);
-        Object obj;
+        Map<String, Object> record;
 
         try {
 
-            obj = tokener.nextValue();
+            record = JsonCodec.decodeObject(message, true);
 
-        } catch (JSONException e) {
+        } catch (JsonFormatException e) {
 
             this.status = JSONRegisterRequest.INCORRECT_FORMAT;
             return;
 
         }
 
-        if (obj != null) {
+        this.parseRecord(record);
 
-            JSONObject jsonObj = (JSONObject) obj;
+    }
 
-            for (Object key : jsonObj.keySet()) {
-                Object value = jsonObj.get(key);
-                if (value instanceof String) {
-                    List<String> tmpList = new ArrayList<String>(1);
-                    tmpList.add((String) value);
-                    this.add(key.toString(), tmpList);
-                } else if (value instanceof List) {
+    private void parseRecord(Map<String, Object> record) {
 
-                    JSONArray jsonArray = new JSONArray();
+        // the codec already turned every value into a list of strings
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
 
-                    for(Object o: (List)value){
-                        Object tmp = o;
-                        if(! (o instanceof String)){
-                            tmp = "";
-                        }
-                        jsonArray.add(tmp);
-                    }
-                    this.add(key.toString(), jsonArray);
-                }
-            }
-        } else {
+            this.add(entry.getKey(), entry.getValue());
 
-            this.status = JSONRegisterRequest.INCORRECT_FORMAT;
-            return;
         }
 
     }
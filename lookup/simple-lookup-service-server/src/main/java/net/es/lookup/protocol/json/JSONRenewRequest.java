@@ -1,11 +1,8 @@
 package net.es.lookup.protocol.json;
 
 import net.es.lookup.common.RenewRequest;
-import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
-import net.sf.json.util.JSONTokener;
 
-import java.util.Set;
+import java.util.Map;
 
 public class JSONRenewRequest extends RenewRequest {
 
@@ -22,22 +19,17 @@ public class JSONRenewRequest extends RenewRequest {
 
         try {
 
-            JSONTokener tokener = new JSONTokener(message);
+            Map<String, Object> obj = JsonCodec.decodeObject(message, false);
 
-            Object obj = tokener.nextValue();
+            for (Map.Entry<String, Object> entry : obj.entrySet()) {
 
-            JSONObject jsonObj = (JSONObject) obj;
-            Set keyValues = jsonObj.entrySet();
-
-            for (Object o : ((JSONObject) obj).keySet()) {
-
-                this.add(o.toString(), ((JSONObject) obj).get(o));
+                this.add(entry.getKey(), entry.getValue());
 
             }
 
             this.status = JSONRenewRequest.VALID;
 
-        } catch (JSONException e) {
+        } catch (JsonFormatException e) {
 
             this.status = JSONRenewRequest.INCORRECT_FORMAT;
 
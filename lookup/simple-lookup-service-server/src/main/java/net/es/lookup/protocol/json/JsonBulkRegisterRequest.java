@@ -0,0 +1,39 @@
+package net.es.lookup.protocol.json;
+
+import java.util.HashMap;
+import java.util.Map;
+import net.es.lookup.common.BulkRegisterRequest;
+
+/** Parses a bulk registration: a JSON array of records in the format of a single registration. */
+public class JsonBulkRegisterRequest extends BulkRegisterRequest {
+
+  public static final int VALID = 1;
+  public static final int INCORRECT_FORMAT = 2;
+
+  public JsonBulkRegisterRequest(String message) {
+
+    this.parseJson(message);
+  }
+
+  private void parseJson(String message) {
+
+    try {
+
+      for (Map<String, Object> record : JsonCodec.decodeObjects(message, true)) {
+
+        if (record != null) {
+          this.records.add(new JSONRegisterRequest(record));
+        } else {
+          // reported as an invalid record, the other records are registered
+          this.records.add(new JSONRegisterRequest(new HashMap<String, Object>()));
+        }
+      }
+
+      this.status = VALID;
+
+    } catch (JsonFormatException e) {
+
+      this.status = INCORRECT_FORMAT;
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package net.es.lookup.protocol.json;
+
+import java.util.Map;
+import net.es.lookup.common.BulkRegisterResponse;
+
+public class JsonBulkRegisterResponse extends BulkRegisterResponse {
+
+  public JsonBulkRegisterResponse() {
+
+    super();
+  }
+
+  public JsonBulkRegisterResponse(Map<String, Object> bulkRegisterResponse) {
+
+    super(bulkRegisterResponse);
+  }
+}
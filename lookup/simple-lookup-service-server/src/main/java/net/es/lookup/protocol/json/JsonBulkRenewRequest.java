@@ -1,10 +1,7 @@
 package net.es.lookup.protocol.json;
 
-import java.util.List;
+import java.util.Map;
 import net.es.lookup.common.BulkRenewRequest;
-import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
-import net.sf.json.util.JSONTokener;
 
 public class JsonBulkRenewRequest extends BulkRenewRequest {
 
@@ -20,18 +17,16 @@ public class JsonBulkRenewRequest extends BulkRenewRequest {
 
     try {
 
-      JSONTokener tokener = new JSONTokener(message);
+      Map<String, Object> obj = JsonCodec.decodeObject(message, false);
 
-      Object obj = tokener.nextValue();
+      for (Map.Entry<String, Object> entry : obj.entrySet()) {
 
-      for (Object o : ((JSONObject) obj).keySet()) {
-
-        this.add(o.toString(), ((JSONObject) obj).get(o));
+        this.add(entry.getKey(), entry.getValue());
       }
 
       this.status = VALID;
 
-    } catch (JSONException e) {
+    } catch (JsonFormatException e) {
 
       this.status = INCORRECT_FORMAT;
     }
@@ -0,0 +1,300 @@
+package net.es.lookup.protocol.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.CompactRecord;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+
+/**
+ * Converts between JSON and the key-values of a Message, on top of JsonReader and JsonWriter.
+ * Request bodies are decoded straight into the maps of the messages and responses are encoded
+ * straight to the output, without building a json-lib object tree in between.
+ *
+ * <p>The values of a message are strings or lists of strings. When decoding, a list element that
+ * is not a string becomes an empty string, and the values that are neither a string nor an array
+ * are dropped, as the request classes did with json-lib.
+ */
+public final class JsonCodec {
+
+  private JsonCodec() {}
+
+  /**
+   * Decodes a JSON object.
+   *
+   * @param json the JSON text
+   * @param listValues true to turn strings into lists of one string, as records are stored
+   * @return the key-values in the order of the text
+   * @throws JsonFormatException if the text is not a JSON object
+   */
+  public static Map<String, Object> decodeObject(String json, boolean listValues) {
+
+    JsonReader reader = new JsonReader(json);
+    try {
+      if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+        throw new JsonFormatException("Expected a JSON object");
+      }
+      return readObject(reader, listValues);
+    } catch (IOException e) {
+      throw new JsonFormatException(e.getMessage());
+    }
+  }
+
+  /**
+   * Decodes a JSON array of objects, like the records of a bulk registration.
+   *
+   * @param json the JSON text
+   * @param listValues true to turn strings into lists of one string, as records are stored
+   * @return the key-values of each element, null for the elements that are not objects
+   * @throws JsonFormatException if the text is not a JSON array
+   */
+  public static List<Map<String, Object>> decodeObjects(String json, boolean listValues) {
+
+    JsonReader reader = new JsonReader(json);
+    List<Map<String, Object>> objects = new ArrayList<Map<String, Object>>();
+    try {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        if (reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+          objects.add(readObject(reader, listValues));
+        } else {
+          reader.skipValue();
+          objects.add(null);
+        }
+      }
+      reader.endArray();
+    } catch (IOException e) {
+      throw new JsonFormatException(e.getMessage());
+    }
+    return objects;
+  }
+
+  /**
+   * Reads the next value of the reader, which must be an object.
+   *
+   * @param reader the reader, positioned before the object
+   * @param listValues true to turn strings into lists of one string
+   * @return the key-values in the order of the text
+   */
+  public static Map<String, Object> readObject(JsonReader reader, boolean listValues)
+      throws IOException {
+
+    Map<String, Object> object = new LinkedHashMap<String, Object>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+
+      String key = reader.nextName();
+      JsonReader.Token token = reader.peek();
+      if (token == JsonReader.Token.STRING) {
+
+        String value = reader.nextString();
+        if (listValues) {
+          List<String> values = new ArrayList<String>(1);
+          values.add(value);
+          object.put(key, values);
+        } else {
+          object.put(key, value);
+        }
+
+      } else if (token == JsonReader.Token.BEGIN_ARRAY) {
+
+        List<String> values = new ArrayList<String>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          if (reader.peek() == JsonReader.Token.STRING) {
+            values.add(reader.nextString());
+          } else {
+            reader.skipValue();
+            values.add("");
+          }
+        }
+        reader.endArray();
+        object.put(key, values);
+
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return object;
+  }
+
+  /**
+   * Decodes any JSON value, to convert it to another format. Objects and arrays become maps and
+   * lists, numbers become Long or Double and booleans Boolean.
+   *
+   * @param json the JSON text
+   * @return the value
+   * @throws JsonFormatException if the text is not valid JSON
+   */
+  public static Object decodeValue(String json) {
+
+    try {
+      return readValue(new JsonReader(json));
+    } catch (IOException e) {
+      throw new JsonFormatException(e.getMessage());
+    }
+  }
+
+  private static Object readValue(JsonReader reader) throws IOException {
+
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String key = reader.nextName();
+          object.put(key, readValue(reader));
+        }
+        reader.endObject();
+        return object;
+
+      case BEGIN_ARRAY:
+        List<Object> array = new ArrayList<Object>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          array.add(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+
+      case NUMBER:
+        String number = reader.nextString();
+        try {
+          return Long.valueOf(number);
+        } catch (NumberFormatException e) {
+          return Double.valueOf(number);
+        }
+
+      case BOOLEAN:
+        return Boolean.valueOf(reader.nextString());
+
+      case NULL:
+        reader.nextNull();
+        return null;
+
+      default:
+        return reader.nextString();
+    }
+  }
+
+  /**
+   * Writes a message as a JSON object. If the message carries its stored JSON, only the lease
+   * keys are serialized from its map and the stored JSON is copied after them.
+   *
+   * @param writer the writer
+   * @param message the message
+   * @throws IllegalArgumentException if a value is not a string, number, boolean or list of them
+   */
+  public static void writeMessage(JsonWriter writer, Message message) throws IOException {
+
+    Map<String, Object> map = message.getMap();
+    writer.beginObject();
+    if (message.getJson() != null) {
+
+      for (String key : ReservedKeys.LEASE_KEYS) {
+        writeEntry(writer, key, map.get(key));
+      }
+      writer.jsonMembers(message.getJson());
+
+    } else {
+
+      for (Map.Entry<String, Object> entry : map.entrySet()) {
+        writeEntry(writer, entry.getKey(), entry.getValue());
+      }
+    }
+    writer.endObject();
+  }
+
+  /**
+   * Writes a record held by a store as a JSON object, like writeMessage, without copying it to a
+   * message. The internal keys starting with '_' are left out.
+   *
+   * @param writer the writer
+   * @param record the record
+   * @throws IllegalArgumentException if a value is not a string, number, boolean or list of them
+   */
+  public static void writeRecord(JsonWriter writer, CompactRecord record) throws IOException {
+
+    writer.beginObject();
+    if (record.getJson() != null) {
+
+      for (String key : ReservedKeys.LEASE_KEYS) {
+        writeEntry(writer, key, record.get(key));
+      }
+      writer.jsonMembers(record.getJson());
+
+    } else {
+
+      for (Map.Entry<String, Object> entry : record.entrySet()) {
+        if (!entry.getKey().startsWith("_")) {
+          writeEntry(writer, entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    writer.endObject();
+  }
+
+  /**
+   * Writes messages as a JSON array, one at a time.
+   *
+   * @param writer the writer
+   * @param messages the messages
+   */
+  public static void writeMessages(JsonWriter writer, Iterator<Message> messages)
+      throws IOException {
+
+    writer.beginArray();
+    while (messages.hasNext()) {
+      writeMessage(writer, messages.next());
+    }
+    writer.endArray();
+  }
+
+  /**
+   * Writes a key of a message. Numbers and booleans are written as literals, like json-lib does,
+   * and a null value leaves the key out.
+   *
+   * @param writer the writer, inside an object
+   * @param key the key
+   * @param value a string, number, boolean or list of them, or null
+   * @throws IllegalArgumentException if the value has another type
+   */
+  public static void writeEntry(JsonWriter writer, String key, Object value) throws IOException {
+
+    if (value == null) {
+      return;
+    }
+    if (value instanceof List) {
+
+      writer.name(key).beginArray();
+      for (Object element : (List) value) {
+        writeScalar(writer, key, element);
+      }
+      writer.endArray();
+
+    } else {
+
+      writer.name(key);
+      writeScalar(writer, key, value);
+    }
+  }
+
+  private static void writeScalar(JsonWriter writer, String key, Object value) throws IOException {
+
+    if (value == null || value instanceof String) {
+      writer.value((String) value);
+    } else if (value instanceof Number) {
+      writer.value((Number) value);
+    } else if (value instanceof Boolean) {
+      writer.value(((Boolean) value).booleanValue());
+    } else {
+      throw new IllegalArgumentException(
+          "Cannot write a value of type " + value.getClass().getName() + " for " + key);
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package net.es.lookup.protocol.json;
+
+/**
+ * Thrown when a request body is not valid JSON. Like the JSONException of json-lib, it is
+ * unchecked: the request classes catch it and report the request with INCORRECT_FORMAT.
+ */
+public class JsonFormatException extends RuntimeException {
+
+  public JsonFormatException(String message) {
+
+    super(message);
+  }
+}
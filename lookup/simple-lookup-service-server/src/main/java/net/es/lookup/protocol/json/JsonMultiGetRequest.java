@@ -0,0 +1,48 @@
+package net.es.lookup.protocol.json;
+
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+
+/** Request of a multi-get: a JSON object listing the uris of the records in record-uris. */
+public class JsonMultiGetRequest extends Message {
+
+  public static final int VALID = 1;
+  public static final int INCORRECT_FORMAT = 2;
+
+  public JsonMultiGetRequest(String message) {
+
+    this.parseJson(message);
+  }
+
+  /**
+   * Returns the uris of the requested records, in the order of the request.
+   *
+   * @return the uris, or null if the request has none
+   */
+  public List<String> getUris() {
+
+    Object uris = this.getKey(ReservedKeys.RECORD_BULK_URIS);
+    return uris instanceof List ? (List<String>) uris : null;
+  }
+
+  private void parseJson(String message) {
+
+    try {
+
+      Map<String, Object> obj = JsonCodec.decodeObject(message, false);
+
+      for (Map.Entry<String, Object> entry : obj.entrySet()) {
+
+        this.add(entry.getKey(), entry.getValue());
+      }
+
+      this.status = VALID;
+
+    } catch (JsonFormatException e) {
+
+      this.status = INCORRECT_FORMAT;
+    }
+  }
+}
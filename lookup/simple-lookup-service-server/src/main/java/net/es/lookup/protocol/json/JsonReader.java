@@ -0,0 +1,440 @@
+package net.es.lookup.protocol.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON parser. The text is read one token at a time, so values are only built for what
+ * the caller asks for and the rest is skipped.
+ *
+ * <p>The parser accepts the same lenient syntax as the JSONTokener of json-lib that clients have
+ * been relying on: strings in single quotes, names and strings without quotes, and a trailing
+ * comma before the end of an object or array. Like JSONTokener, text after the first value is
+ * ignored.
+ */
+public class JsonReader implements Closeable {
+
+  /** The kinds of tokens returned by peek. */
+  public enum Token {
+    BEGIN_OBJECT,
+    END_OBJECT,
+    BEGIN_ARRAY,
+    END_ARRAY,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+  }
+
+  // position in the enclosing array, object or document
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int EMPTY_ARRAY = 2;
+  private static final int NONEMPTY_ARRAY = 3;
+  private static final int EMPTY_OBJECT = 4;
+  private static final int DANGLING_NAME = 5;
+  private static final int NONEMPTY_OBJECT = 6;
+
+  private final Reader in;
+  private final char[] buffer = new char[1024];
+  private int pos = 0;
+  private int limit = 0;
+  private long bufferOffset = 0;
+
+  private int[] stack = new int[16];
+  private int depth = 0;
+
+  private Token peeked = null;
+  private String peekedValue = null;
+
+  public JsonReader(Reader in) {
+
+    this.in = in;
+    stack[depth++] = EMPTY_DOCUMENT;
+  }
+
+  public JsonReader(String json) {
+
+    this(new StringReader(json));
+  }
+
+  /**
+   * Returns the kind of the next token without consuming it.
+   *
+   * @return the next token
+   * @throws IOException if the text cannot be read
+   * @throws JsonFormatException if the text is not valid JSON
+   */
+  public Token peek() throws IOException {
+
+    if (peeked != null) {
+      return peeked;
+    }
+
+    int c;
+    switch (stack[depth - 1]) {
+      case EMPTY_DOCUMENT:
+        stack[depth - 1] = NONEMPTY_DOCUMENT;
+        return readValue();
+
+      case NONEMPTY_DOCUMENT:
+        return setPeeked(Token.END_DOCUMENT, null);
+
+      case EMPTY_ARRAY:
+        stack[depth - 1] = NONEMPTY_ARRAY;
+        c = nextNonWhitespace();
+        if (c == ']') {
+          return setPeeked(Token.END_ARRAY, null);
+        }
+        unread(c);
+        return readValue();
+
+      case NONEMPTY_ARRAY:
+        c = nextNonWhitespace();
+        if (c == ']') {
+          return setPeeked(Token.END_ARRAY, null);
+        }
+        if (c != ',') {
+          throw syntaxError("Expected ',' or ']'");
+        }
+        c = nextNonWhitespace();
+        if (c == ']') {
+          return setPeeked(Token.END_ARRAY, null);
+        }
+        unread(c);
+        return readValue();
+
+      case EMPTY_OBJECT:
+      case NONEMPTY_OBJECT:
+        c = nextNonWhitespace();
+        if (stack[depth - 1] == NONEMPTY_OBJECT && c != '}') {
+          if (c != ',') {
+            throw syntaxError("Expected ',' or '}'");
+          }
+          c = nextNonWhitespace();
+        }
+        if (c == '}') {
+          return setPeeked(Token.END_OBJECT, null);
+        }
+        String name = c == '"' || c == '\'' ? readQuoted((char) c) : readUnquoted(c);
+        stack[depth - 1] = DANGLING_NAME;
+        return setPeeked(Token.NAME, name);
+
+      case DANGLING_NAME:
+        if (nextNonWhitespace() != ':') {
+          throw syntaxError("Expected ':'");
+        }
+        stack[depth - 1] = NONEMPTY_OBJECT;
+        return readValue();
+
+      default:
+        throw new IllegalStateException("Corrupt reader state");
+    }
+  }
+
+  /** Returns true if the current array or object has another element. */
+  public boolean hasNext() throws IOException {
+
+    Token token = peek();
+    return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+  }
+
+  public void beginObject() throws IOException {
+
+    expect(Token.BEGIN_OBJECT);
+    push(EMPTY_OBJECT);
+  }
+
+  public void endObject() throws IOException {
+
+    expect(Token.END_OBJECT);
+    depth--;
+  }
+
+  public void beginArray() throws IOException {
+
+    expect(Token.BEGIN_ARRAY);
+    push(EMPTY_ARRAY);
+  }
+
+  public void endArray() throws IOException {
+
+    expect(Token.END_ARRAY);
+    depth--;
+  }
+
+  public String nextName() throws IOException {
+
+    expect(Token.NAME);
+    return peekedValue;
+  }
+
+  /**
+   * Consumes a string, or the text of a number or boolean.
+   *
+   * @return the value
+   */
+  public String nextString() throws IOException {
+
+    Token token = peek();
+    if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+      throw new JsonFormatException("Expected a string but found " + token);
+    }
+    peeked = null;
+    return peekedValue;
+  }
+
+  public void nextNull() throws IOException {
+
+    expect(Token.NULL);
+  }
+
+  /** Skips the next value, with all its elements if it is an array or object. */
+  public void skipValue() throws IOException {
+
+    int count = 0;
+    do {
+      switch (peek()) {
+        case BEGIN_OBJECT:
+          beginObject();
+          count++;
+          break;
+        case BEGIN_ARRAY:
+          beginArray();
+          count++;
+          break;
+        case END_OBJECT:
+          endObject();
+          count--;
+          break;
+        case END_ARRAY:
+          endArray();
+          count--;
+          break;
+        case END_DOCUMENT:
+          throw new JsonFormatException("No value to skip");
+        default:
+          peeked = null;
+          break;
+      }
+    } while (count > 0);
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    peeked = null;
+    in.close();
+  }
+
+  private void expect(Token token) throws IOException {
+
+    if (peek() != token) {
+      throw new JsonFormatException("Expected " + token + " but found " + peeked);
+    }
+    peeked = null;
+  }
+
+  private void push(int scope) {
+
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, depth * 2);
+    }
+    stack[depth++] = scope;
+  }
+
+  private Token setPeeked(Token token, String value) {
+
+    peeked = token;
+    peekedValue = value;
+    return token;
+  }
+
+  private Token readValue() throws IOException {
+
+    int c = nextNonWhitespace();
+    switch (c) {
+      case '{':
+        return setPeeked(Token.BEGIN_OBJECT, null);
+      case '[':
+        return setPeeked(Token.BEGIN_ARRAY, null);
+      case '"':
+      case '\'':
+        return setPeeked(Token.STRING, readQuoted((char) c));
+      default:
+        String literal = readUnquoted(c);
+        if ("true".equals(literal) || "false".equals(literal)) {
+          return setPeeked(Token.BOOLEAN, literal);
+        }
+        if ("null".equals(literal)) {
+          return setPeeked(Token.NULL, null);
+        }
+        return setPeeked(isNumber(literal) ? Token.NUMBER : Token.STRING, literal);
+    }
+  }
+
+  private String readQuoted(char quote) throws IOException {
+
+    StringBuilder value = new StringBuilder();
+    while (true) {
+
+      // copy the run of plain characters at once
+      int start = pos;
+      while (pos < limit) {
+        char c = buffer[pos];
+        if (c == quote || c == '\\' || c == '\n' || c == '\r') {
+          break;
+        }
+        pos++;
+      }
+      value.append(buffer, start, pos - start);
+
+      // either a special character, or the first one after the buffer was refilled
+      int c = read();
+      if (c == quote) {
+        return value.toString();
+      } else if (c == '\\') {
+        value.append(readEscape());
+      } else if (c == -1 || c == '\n' || c == '\r') {
+        throw syntaxError("Unterminated string");
+      } else {
+        pos--;
+      }
+    }
+  }
+
+  private char readEscape() throws IOException {
+
+    int c = read();
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'f':
+        return '\f';
+      case 'r':
+        return '\r';
+      case 'u':
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit < 0) {
+            throw syntaxError("Invalid unicode escape");
+          }
+          code = code * 16 + digit;
+        }
+        return (char) code;
+      case -1:
+        throw syntaxError("Unterminated string");
+      default:
+        return (char) c;
+    }
+  }
+
+  private String readUnquoted(int first) throws IOException {
+
+    StringBuilder value = new StringBuilder();
+    int c = first;
+    while (c != -1 && !isDelimiter(c)) {
+      value.append((char) c);
+      c = read();
+    }
+    unread(c);
+    if (value.length() == 0) {
+      throw syntaxError(c == -1 ? "Unexpected end of input" : "Unexpected character");
+    }
+    return value.toString();
+  }
+
+  private static boolean isDelimiter(int c) {
+
+    switch (c) {
+      case ',':
+      case ':':
+      case '[':
+      case ']':
+      case '{':
+      case '}':
+      case '"':
+      case '\'':
+        return true;
+      default:
+        return Character.isWhitespace(c);
+    }
+  }
+
+  private static boolean isNumber(String literal) {
+
+    int i = literal.charAt(0) == '-' ? 1 : 0;
+    int digits = 0;
+    boolean fraction = false;
+    boolean exponent = false;
+    for (; i < literal.length(); i++) {
+      char c = literal.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits++;
+      } else if (c == '.' && !fraction && !exponent && digits > 0) {
+        fraction = true;
+        digits = 0;
+      } else if ((c == 'e' || c == 'E') && !exponent && digits > 0) {
+        exponent = true;
+        digits = 0;
+        if (i + 1 < literal.length()
+            && (literal.charAt(i + 1) == '+' || literal.charAt(i + 1) == '-')) {
+          i++;
+        }
+      } else {
+        return false;
+      }
+    }
+    return digits > 0;
+  }
+
+  private int nextNonWhitespace() throws IOException {
+
+    int c = read();
+    while (c != -1 && Character.isWhitespace(c)) {
+      c = read();
+    }
+    return c;
+  }
+
+  /** Steps back over the last character read, which is still in the buffer. */
+  private void unread(int c) {
+
+    if (c != -1) {
+      pos--;
+    }
+  }
+
+  private int read() throws IOException {
+
+    if (pos == limit) {
+      bufferOffset += limit;
+      pos = 0;
+      limit = 0;
+      int count = in.read(buffer, 0, buffer.length);
+      while (count == 0) {
+        count = in.read(buffer, 0, buffer.length);
+      }
+      if (count < 0) {
+        return -1;
+      }
+      limit = count;
+    }
+    return buffer[pos++];
+  }
+
+  private JsonFormatException syntaxError(String message) {
+
+    return new JsonFormatException(message + " at character " + (bufferOffset + pos));
+  }
+}
@@ -0,0 +1,261 @@
+package net.es.lookup.protocol.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON generator. Tokens are written to the underlying writer as they are given, and
+ * the separators between them are added as needed. Strings are escaped like json-lib does, so
+ * the output is the same as the one of JSONStringer.
+ *
+ * <p>JSON that is already serialized, like the stored JSON of a record, can be copied to the
+ * output as is with jsonValue and jsonMembers.
+ */
+public class JsonWriter implements Closeable, Flushable {
+
+  // position in the enclosing array, object or document
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int EMPTY_ARRAY = 2;
+  private static final int NONEMPTY_ARRAY = 3;
+  private static final int EMPTY_OBJECT = 4;
+  private static final int DANGLING_NAME = 5;
+  private static final int NONEMPTY_OBJECT = 6;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Writer out;
+
+  private int[] stack = new int[16];
+  private int depth = 0;
+
+  public JsonWriter(Writer out) {
+
+    this.out = out;
+    stack[depth++] = EMPTY_DOCUMENT;
+  }
+
+  public JsonWriter beginObject() throws IOException {
+
+    beforeValue();
+    push(EMPTY_OBJECT);
+    out.write('{');
+    return this;
+  }
+
+  public JsonWriter endObject() throws IOException {
+
+    int scope = stack[depth - 1];
+    if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT) {
+      throw new IllegalStateException("Not in an object");
+    }
+    depth--;
+    out.write('}');
+    return this;
+  }
+
+  public JsonWriter beginArray() throws IOException {
+
+    beforeValue();
+    push(EMPTY_ARRAY);
+    out.write('[');
+    return this;
+  }
+
+  public JsonWriter endArray() throws IOException {
+
+    int scope = stack[depth - 1];
+    if (scope != EMPTY_ARRAY && scope != NONEMPTY_ARRAY) {
+      throw new IllegalStateException("Not in an array");
+    }
+    depth--;
+    out.write(']');
+    return this;
+  }
+
+  public JsonWriter name(String name) throws IOException {
+
+    beforeName();
+    string(name);
+    out.write(':');
+    stack[depth - 1] = DANGLING_NAME;
+    return this;
+  }
+
+  /**
+   * Writes a string value.
+   *
+   * @param value the string, or null to write null
+   * @return this writer
+   */
+  public JsonWriter value(String value) throws IOException {
+
+    beforeValue();
+    if (value == null) {
+      out.write("null");
+    } else {
+      string(value);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a number literal.
+   *
+   * @param value the number, finite
+   * @return this writer
+   * @throws IllegalArgumentException if the number is NaN or infinite
+   */
+  public JsonWriter value(Number value) throws IOException {
+
+    if ((value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite()))
+        || (value instanceof Float && (((Float) value).isNaN() || ((Float) value).isInfinite()))) {
+      throw new IllegalArgumentException("JSON does not allow non-finite numbers: " + value);
+    }
+    beforeValue();
+    out.write(value.toString());
+    return this;
+  }
+
+  /**
+   * Writes a boolean literal.
+   *
+   * @param value the boolean
+   * @return this writer
+   */
+  public JsonWriter value(boolean value) throws IOException {
+
+    beforeValue();
+    out.write(value ? "true" : "false");
+    return this;
+  }
+
+  /**
+   * Copies a serialized JSON value to the output.
+   *
+   * @param json a JSON value
+   * @return this writer
+   */
+  public JsonWriter jsonValue(String json) throws IOException {
+
+    beforeValue();
+    out.write(json);
+    return this;
+  }
+
+  /**
+   * Copies serialized members to the current object. They are written like a sequence of name
+   * and value calls.
+   *
+   * @param json JSON object members without the braces, may be empty
+   * @return this writer
+   */
+  public JsonWriter jsonMembers(String json) throws IOException {
+
+    if (json.isEmpty()) {
+      return this;
+    }
+    beforeName();
+    out.write(json);
+    stack[depth - 1] = NONEMPTY_OBJECT;
+    return this;
+  }
+
+  @Override
+  public void flush() throws IOException {
+
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    out.close();
+  }
+
+  private void push(int scope) {
+
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, depth * 2);
+    }
+    stack[depth++] = scope;
+  }
+
+  private void beforeName() throws IOException {
+
+    int scope = stack[depth - 1];
+    if (scope == NONEMPTY_OBJECT) {
+      out.write(',');
+    } else if (scope != EMPTY_OBJECT) {
+      throw new IllegalStateException("Not in an object");
+    }
+  }
+
+  private void beforeValue() throws IOException {
+
+    switch (stack[depth - 1]) {
+      case EMPTY_DOCUMENT:
+        stack[depth - 1] = NONEMPTY_DOCUMENT;
+        break;
+      case EMPTY_ARRAY:
+        stack[depth - 1] = NONEMPTY_ARRAY;
+        break;
+      case NONEMPTY_ARRAY:
+        out.write(',');
+        break;
+      case DANGLING_NAME:
+        stack[depth - 1] = NONEMPTY_OBJECT;
+        break;
+      case NONEMPTY_DOCUMENT:
+        throw new IllegalStateException("The document already has a value");
+      default:
+        throw new IllegalStateException("Expected a name");
+    }
+  }
+
+  private void string(String value) throws IOException {
+
+    out.write('"');
+    int start = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+
+      char c = value.charAt(i);
+      String escape;
+      if (c == '"') {
+        escape = "\\\"";
+      } else if (c == '\\') {
+        escape = "\\\\";
+      } else if (c == '/' && i > 0 && value.charAt(i - 1) == '<') {
+        escape = "\\/";
+      } else if (c >= ' ' && c != '\u2028' && c != '\u2029') {
+        continue;
+      } else if (c == '\b') {
+        escape = "\\b";
+      } else if (c == '\t') {
+        escape = "\\t";
+      } else if (c == '\n') {
+        escape = "\\n";
+      } else if (c == '\f') {
+        escape = "\\f";
+      } else if (c == '\r') {
+        escape = "\\r";
+      } else {
+        escape =
+            new String(
+                new char[] {
+                  '\\', 'u', HEX[c >> 12], HEX[(c >> 8) & 0xf], HEX[(c >> 4) & 0xf], HEX[c & 0xf]
+                });
+      }
+
+      out.write(value, start, i - start);
+      out.write(escape);
+      start = i + 1;
+    }
+    out.write(value, start, length - start);
+    out.write('"');
+  }
+}
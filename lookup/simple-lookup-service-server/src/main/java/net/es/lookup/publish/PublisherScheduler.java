@@ -2,7 +2,8 @@ package net.es.lookup.publish;
 
 import net.es.lookup.common.Message;
 import net.es.lookup.common.exception.internal.DatabaseException;
-import net.es.lookup.database.ServiceDaoMongoDb;
+import net.es.lookup.database.RecordStore;
+import net.es.lookup.database.RecordStoreManager;
 import net.es.lookup.utils.config.reader.QueueServiceConfigReader;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -47,7 +48,7 @@ public class PublisherScheduler implements Job {
         ExecutorService executorService = Executors.newFixedThreadPool(batchSize);
 
 
-        ServiceDaoMongoDb db = ServiceDaoMongoDb.getInstance();
+        RecordStore db = RecordStoreManager.getInstance();
 
         for (Queue queue : queues) {
 
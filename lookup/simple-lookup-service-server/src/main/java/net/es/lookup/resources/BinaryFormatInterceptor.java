@@ -0,0 +1,42 @@
+package net.es.lookup.resources;
+
+import java.io.IOException;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import net.es.lookup.common.exception.api.InternalErrorException;
+import net.es.lookup.protocol.binary.BinaryCodec;
+import net.es.lookup.protocol.json.JsonCodec;
+import net.es.lookup.protocol.json.JsonFormatException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Converts the JSON responses of the services to the binary format negotiated with the client.
+ * Query results are streamed in the negotiated format by QueryServices and are not converted here.
+ */
+@Provider
+public class BinaryFormatInterceptor implements WriterInterceptor {
+
+  private static Logger LOG = LogManager.getLogger(BinaryFormatInterceptor.class);
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+
+    BinaryCodec codec = BinaryCodec.forMediaType(String.valueOf(context.getMediaType()));
+    if (codec != null && context.getEntity() instanceof String) {
+
+      Object value;
+      try {
+        value = JsonCodec.decodeValue((String) context.getEntity());
+      } catch (JsonFormatException e) {
+        LOG.error("Error converting response to " + codec.getMediaType() + ": " + e.getMessage());
+        throw new InternalErrorException("Error converting response");
+      }
+      context.setEntity(codec.encode(value));
+      context.setType(byte[].class);
+      context.setGenericType(byte[].class);
+    }
+    context.proceed();
+  }
+}
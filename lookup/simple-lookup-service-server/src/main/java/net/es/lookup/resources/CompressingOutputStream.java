@@ -0,0 +1,127 @@
+package net.es.lookup.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Compresses a response body once it reaches a minimum size. The first bytes are held back until
+ * then, so that small responses are sent as they are and the Content-Encoding header is only set
+ * on the responses that are compressed; the headers are written when the first byte is.
+ */
+class CompressingOutputStream extends OutputStream {
+
+  static final String GZIP = "gzip";
+  static final String DEFLATE = "deflate";
+
+  private final OutputStream out;
+  private final MultivaluedMap<String, Object> headers;
+  private final String encoding;
+  private final int level;
+
+  private byte[] pending;
+  private int count = 0;
+  private OutputStream compressed = null;
+
+  CompressingOutputStream(
+      OutputStream out,
+      MultivaluedMap<String, Object> headers,
+      String encoding,
+      int minSize,
+      int level) {
+
+    this.out = out;
+    this.headers = headers;
+    this.encoding = encoding;
+    this.level = level;
+    this.pending = new byte[Math.max(minSize, 1)];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+
+    if (compressed != null) {
+      compressed.write(b, off, len);
+    } else if (count + len < pending.length) {
+      System.arraycopy(b, off, pending, count, len);
+      count += len;
+    } else {
+      startCompression();
+      compressed.write(b, off, len);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+
+    // compressed data is only flushed when the stream is closed, to keep the ratio
+    if (compressed == null) {
+      out.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    if (compressed != null) {
+      compressed.close();
+    } else {
+      out.write(pending, 0, count);
+      pending = null;
+      out.close();
+    }
+  }
+
+  private void startCompression() throws IOException {
+
+    headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+    headers.remove(HttpHeaders.CONTENT_LENGTH);
+
+    if (GZIP.equals(encoding)) {
+      compressed = new GzipStream(out, level);
+    } else {
+      compressed = new ZlibStream(out, new Deflater(level));
+    }
+    compressed.write(pending, 0, count);
+    pending = null;
+  }
+
+  /** A zlib stream that releases its deflater when it is closed. */
+  private static class ZlibStream extends DeflaterOutputStream {
+
+    ZlibStream(OutputStream out, Deflater deflater) {
+
+      super(out, deflater, 8192);
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      try {
+        super.close();
+      } finally {
+        def.end();
+      }
+    }
+  }
+
+  /** A gzip stream with a compression level, which GZIPOutputStream does not take. */
+  private static class GzipStream extends GZIPOutputStream {
+
+    GzipStream(OutputStream out, int level) throws IOException {
+
+      super(out, 8192);
+      def.setLevel(level);
+    }
+  }
+}
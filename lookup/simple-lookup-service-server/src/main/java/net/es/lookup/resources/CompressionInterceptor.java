@@ -0,0 +1,129 @@
+package net.es.lookup.resources;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Compresses responses with gzip or deflate, as negotiated with the Accept-Encoding header of the
+ * request. Query results repeat the same keys in every record and shrink many times over. Only
+ * the configured media types are compressed, and only once the body reaches a minimum size.
+ */
+@Provider
+public class CompressionInterceptor implements WriterInterceptor {
+
+  private final int minSize;
+  private final int level;
+  private final List<MediaType> mediaTypes = new ArrayList<MediaType>();
+
+  @Context
+  private HttpHeaders requestHeaders;
+
+  /**
+   * Constructor.
+   *
+   * @param minSize responses smaller than this number of bytes are not compressed
+   * @param level deflate compression level, from 1 (fastest) to 9 (smallest)
+   * @param mediaTypes media types of the responses to compress
+   */
+  public CompressionInterceptor(int minSize, int level, List<String> mediaTypes) {
+
+    this.minSize = minSize;
+    this.level = level;
+    for (String mediaType : mediaTypes) {
+      this.mediaTypes.add(MediaType.valueOf(mediaType));
+    }
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+
+    MultivaluedMap<String, Object> headers = context.getHeaders();
+    if (isCompressible(context.getMediaType())
+        && !headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+
+      // the response depends on Accept-Encoding, even when it is not compressed
+      headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+      String encoding = negotiate(requestHeaders.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+      if (encoding != null) {
+        context.setOutputStream(
+            new CompressingOutputStream(
+                context.getOutputStream(), headers, encoding, minSize, level));
+      }
+    }
+    context.proceed();
+  }
+
+  private boolean isCompressible(MediaType mediaType) {
+
+    if (mediaType == null) {
+      return false;
+    }
+    for (MediaType compressible : mediaTypes) {
+      if (compressible.isCompatible(mediaType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Picks the content coding of a response.
+   *
+   * @param acceptEncoding the Accept-Encoding header of the request, or null
+   * @return gzip or deflate, whichever has the higher quality (gzip on a tie), or null if the
+   *     client accepts neither
+   */
+  static String negotiate(String acceptEncoding) {
+
+    if (acceptEncoding == null) {
+      return null;
+    }
+
+    float gzip = -1;
+    float deflate = -1;
+    float any = -1;
+    for (String element : acceptEncoding.split(",")) {
+
+      String[] params = element.split(";");
+      String coding = params[0].trim().toLowerCase();
+      float quality = 1;
+      for (int i = 1; i < params.length; i++) {
+        String param = params[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Float.parseFloat(param.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+
+      if (coding.equals(CompressingOutputStream.GZIP) || coding.equals("x-gzip")) {
+        gzip = quality;
+      } else if (coding.equals(CompressingOutputStream.DEFLATE)) {
+        deflate = quality;
+      } else if (coding.equals("*")) {
+        any = quality;
+      }
+    }
+
+    // codings that are not listed get the quality of the wildcard
+    gzip = gzip < 0 ? any : gzip;
+    deflate = deflate < 0 ? any : deflate;
+    if (gzip > 0 && gzip >= deflate) {
+      return CompressingOutputStream.GZIP;
+    } else if (deflate > 0) {
+      return CompressingOutputStream.DEFLATE;
+    }
+    return null;
+  }
+}
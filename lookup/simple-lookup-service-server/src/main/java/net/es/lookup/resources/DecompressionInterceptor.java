@@ -0,0 +1,119 @@
+package net.es.lookup.resources;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import net.es.lookup.common.exception.api.BadRequestException;
+import net.es.lookup.common.exception.api.RequestEntityTooLargeException;
+
+/**
+ * Decompresses request bodies sent with a gzip or deflate Content-Encoding, so that clients can
+ * compress large bulk registrations and renewals. The handlers read the whole body, so a
+ * decompressed body larger than the configured size is rejected with a 413 as it is read.
+ */
+@Provider
+public class DecompressionInterceptor implements ReaderInterceptor {
+
+  public static final int DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+  private final long maxSize;
+
+  public DecompressionInterceptor() {
+
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /** @param maxSize largest decompressed body accepted, in bytes */
+  public DecompressionInterceptor(long maxSize) {
+
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+
+    MultivaluedMap<String, String> headers = context.getHeaders();
+    String encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+    if (encoding != null) {
+
+      encoding = encoding.trim().toLowerCase();
+      InputStream in = context.getInputStream();
+      if (encoding.equals(CompressingOutputStream.GZIP) || encoding.equals("x-gzip")) {
+        try {
+          context.setInputStream(new LimitedInputStream(new GZIPInputStream(in), maxSize));
+        } catch (IOException e) {
+          throw new BadRequestException("Invalid gzip request body: " + e.getMessage());
+        }
+      } else if (encoding.equals(CompressingOutputStream.DEFLATE)) {
+        context.setInputStream(new LimitedInputStream(new InflaterInputStream(in), maxSize));
+      } else if (!encoding.equals("identity")) {
+        throw new BadRequestException("Unsupported Content-Encoding: " + encoding);
+      }
+      headers.remove(HttpHeaders.CONTENT_ENCODING);
+    }
+    return context.proceed();
+  }
+
+  /** Stream counting the bytes read, which fails once more than a maximum has been read. */
+  static class LimitedInputStream extends FilterInputStream {
+
+    private final long maxSize;
+    private long count = 0;
+
+    LimitedInputStream(InputStream in, long maxSize) {
+
+      super(in);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+      int b = super.read();
+      if (b >= 0) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        count(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+
+      return false;
+    }
+
+    private void count(long read) {
+
+      count += read;
+      if (count > maxSize) {
+        throw new RequestEntityTooLargeException(
+            "Decompressed request body larger than " + maxSize + " bytes");
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package net.es.lookup.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.es.lookup.common.exception.api.BadRequestException;
+
+/**
+ * Parses the parameters listing keys of the records, like fields, the keys a client wants back for
+ * each record, or expand, the keys whose references are inlined.
+ */
+final class Fields {
+
+  private Fields() {}
+
+  /**
+   * Parses the comma separated keys of a parameter.
+   *
+   * @param name name of the parameter
+   * @param value the parameter, or null if the request has none
+   * @return the keys, or null if the request has no such parameter
+   * @throws BadRequestException if the parameter holds no key
+   */
+  static List<String> parse(String name, String value) {
+
+    if (value == null) {
+      return null;
+    }
+
+    List<String> fields = new ArrayList<String>();
+    for (String field : value.split(",")) {
+      field = field.trim();
+      if (!field.isEmpty()) {
+        fields.add(field);
+      }
+    }
+
+    if (fields.isEmpty()) {
+      throw new BadRequestException("Invalid value for " + name + ": " + value);
+    }
+    return fields;
+  }
+}
@@ -1,9 +1,12 @@
 package net.es.lookup.resources;
 
+import java.util.concurrent.Callable;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import net.es.lookup.api.AccessService;
 
 /**
@@ -16,13 +19,24 @@ public class KeyResource {
   private AccessService accessService = new AccessService();
 
   @GET
-  @Produces("application/json")
-  public String getHandler(
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void getHandler(
       @PathParam("sls") String path,
       @PathParam("record") String record,
       @PathParam("recordid") String recordid,
-      @PathParam("key") String key) {
-    String serviceuri = "lookup/" + record + "/" + recordid;
-    return this.accessService.getKeyService(serviceuri, key);
+      @PathParam("key") final String key,
+      @Suspended AsyncResponse async) {
+    final String serviceuri = "lookup/" + record + "/" + recordid;
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<String>() {
+
+              @Override
+              public String call() {
+
+                return accessService.getKeyService(serviceuri, key);
+              }
+            });
   }
 }
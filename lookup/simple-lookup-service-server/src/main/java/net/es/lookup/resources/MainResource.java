@@ -3,26 +3,40 @@ package net.es.lookup.resources;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import net.es.lookup.api.AccessService;
+import net.es.lookup.api.BulkRegisterService;
 import net.es.lookup.api.BulkRenewService;
 import net.es.lookup.api.QueryServices;
 import net.es.lookup.api.RegisterService;
 import net.es.lookup.common.Message;
 import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.common.exception.api.BadRequestException;
 import net.es.lookup.common.exception.api.NotSupportedException;
+import net.es.lookup.database.QueryOptions;
+import net.es.lookup.protocol.binary.BinaryCodec;
 
 /**
  * This class and other similar resource classes need to be explicitly loaded in the
- * net.es.lookup.service.LookupService class
+ * net.es.lookup.service.LookupService class. Requests are processed asynchronously by the
+ * RequestExecutor.
  */
 @Path("/{sls}/records")
 public class MainResource {
@@ -30,30 +44,249 @@ public class MainResource {
   private QueryServices queryServices = new QueryServices();
   private RegisterService registerService = new RegisterService();
   private BulkRenewService bulkRenewService = new BulkRenewService();
+  private BulkRegisterService bulkRegisterService = new BulkRegisterService();
+  private AccessService accessService = new AccessService();
   private String prefix = "lookup";
 
+  // pages are read whole before they are sent, to return their continuation token
+  private static volatile int maxResultsLimit = 10000;
+  private static volatile int maxFacetValues = 1000;
+
+  /**
+   * Sets the largest page of query results a client can ask for with maxresults. Larger values
+   * are rejected; clients wanting more records page through them, or leave maxresults out to
+   * have all the records streamed. It also bounds the number of uris of an _mget request.
+   *
+   * @param limit the largest value of maxresults
+   */
+  public static void setMaxResultsLimit(int limit) {
+
+    maxResultsLimit = limit;
+  }
+
+  /**
+   * Sets the number of values returned for each key of a facet query. The most frequent values
+   * are returned, so that the counts of keys with many distinct values stay bounded.
+   *
+   * @param limit the largest number of values per key
+   */
+  public static void setMaxFacetValues(int limit) {
+
+    maxFacetValues = limit;
+  }
+
   /** Post handler to register records. */
   @POST
   @Consumes("application/json")
-  @Produces("application/json")
-  public String postHandler(@PathParam("sls") String sls, String message) {
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void postHandler(
+      @PathParam("sls") String sls, final String message, @Suspended AsyncResponse async) {
+
+    if (!sls.equalsIgnoreCase(prefix)) {
+      throw new NotSupportedException("Register Operation not supported");
+    }
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<String>() {
+
+              @Override
+              public String call() {
+
+                return registerService.registerService(message);
+              }
+            });
+  }
+
+  /** Post handler to register a JSON array of records at once. */
+  @POST
+  @Path("_bulk")
+  @Consumes("application/json")
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void bulkRegisterHandler(
+      @PathParam("sls") String sls, final String message, @Suspended AsyncResponse async) {
 
-    if (sls.equalsIgnoreCase(prefix)) {
-      return this.registerService.registerService(message);
-    } else {
+    if (!sls.equalsIgnoreCase(prefix)) {
       throw new NotSupportedException("Register Operation not supported");
     }
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<String>() {
+
+              @Override
+              public String call() {
+
+                return bulkRegisterService.bulkRegister(message);
+              }
+            });
   }
 
-  /** Get handler to query records. */
+  /**
+   * Post handler to get several records at once, listed by uri in record-uris. The records are
+   * returned in the order of the request; the uris that do not exist get an error record. Requests
+   * listing more uris than the largest page of query results are rejected. The fields parameter
+   * restricts the records to the listed keys and their uri.
+   */
+  @POST
+  @Path("_mget")
+  @Consumes("application/json")
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void multiGetHandler(
+      @PathParam("sls") String sls,
+      @QueryParam(ReservedKeys.RECORD_FIELDS) String fields,
+      @Context HttpHeaders headers,
+      final String message,
+      @Suspended AsyncResponse async) {
+
+    if (!sls.equalsIgnoreCase(prefix)) {
+      throw new NotSupportedException("Operation not supported");
+    }
+    final List<String> projection = Fields.parse(ReservedKeys.RECORD_FIELDS, fields);
+    final BinaryCodec codec = MediaTypes.negotiate(headers);
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<Response>() {
+
+              @Override
+              public Response call() {
+
+                return accessService.getServices(message, projection, codec, maxResultsLimit);
+              }
+            });
+  }
+
+  /**
+   * Get handler to query records. Results are streamed to the client as they are read. Clients can
+   * page through the results using skip and maxresults, or the continuation token returned in the
+   * response header of the previous page. Pages larger than the configured limit are rejected.
+   * Results may come from the query cache, unless the request has a 'Cache-Control: no-cache'
+   * header. Results are JSON, or CBOR or MessagePack when the Accept header asks for them.
+   * MessagePack results are sent as one array, whose length comes first, so a MessagePack query
+   * without maxresults gets a page of the configured limit (see boundPage). Clients only needing
+   * some keys of the records list them in fields, and get these keys and the uri of each record.
+   * The keys listed in expand have the records they reference inlined, in place of their uris.
+   */
   @GET
-  @Produces("application/json")
-  public String getHandler(@Context UriInfo ui, @PathParam("sls") String sls) {
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void getHandler(
+      @Context UriInfo ui,
+      @PathParam("sls") String sls,
+      @HeaderParam(ReservedKeys.CACHE_CONTROL_HEADER) String cacheControl,
+      @Context HttpHeaders headers,
+      @Suspended AsyncResponse async) {
+
+    final Message message = new Message();
+    final QueryOptions options = new QueryOptions();
+    parseQuery(ui.getQueryParameters(), message, options);
+
+    final boolean useCache =
+        cacheControl == null || !cacheControl.contains(ReservedValues.CACHE_CONTROL_NOCACHE);
+    final BinaryCodec codec = MediaTypes.negotiate(headers);
+    boundPage(options, codec);
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<Response>() {
+
+              @Override
+              public Response call() {
+
+                return queryServices.streamQuery(message, options, useCache, codec);
+              }
+            });
+  }
+
+  /**
+   * Get handler to count the records matching a query, given with the same parameters as the
+   * queries of getHandler. The paging and projection parameters do not change the count.
+   */
+  @GET
+  @Path("_count")
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void countHandler(
+      @Context UriInfo ui, @PathParam("sls") String sls, @Suspended AsyncResponse async) {
+
+    final Message message = new Message();
+    parseQuery(ui.getQueryParameters(), message, new QueryOptions());
+
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<String>() {
 
-    MultivaluedMap<String, String> queryParams = ui.getQueryParameters();
-    Message message = new Message();
-    int maxResults = 0;
-    int skip = 0;
+              @Override
+              public String call() {
+
+                return queryServices.count(message);
+              }
+            });
+  }
+
+  /**
+   * Get handler to count the distinct values of the keys listed in facets over the records
+   * matching a query, given with the same parameters as the queries of getHandler. Only the most
+   * frequent values of each key are returned, up to the configured limit. The keys are record
+   * keys, so internal keys starting with '_' or '$' and keys holding a '.' are rejected. The counts
+   * may come from the query cache, unless the request has a 'Cache-Control: no-cache' header.
+   */
+  @GET
+  @Path("_facets")
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void facetsHandler(
+      @Context UriInfo ui,
+      @PathParam("sls") String sls,
+      @HeaderParam(ReservedKeys.CACHE_CONTROL_HEADER) String cacheControl,
+      @Suspended AsyncResponse async) {
+
+    final Message message = new Message();
+    final QueryOptions options = new QueryOptions();
+    parseQuery(ui.getQueryParameters(), message, options);
+    if (options.getFacets() == null) {
+      throw new BadRequestException("Missing " + ReservedKeys.RECORD_FACETS + " parameter");
+    }
+    for (String key : options.getFacets()) {
+      if (key.startsWith("_") || key.startsWith("$") || key.contains(".")) {
+        throw new BadRequestException(
+            "Invalid value for " + ReservedKeys.RECORD_FACETS + ": " + key);
+      }
+    }
+    final int limit = maxFacetValues;
+
+    final boolean useCache =
+        cacheControl == null || !cacheControl.contains(ReservedValues.CACHE_CONTROL_NOCACHE);
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<String>() {
+
+              @Override
+              public String call() {
+
+                return queryServices.facets(message, options.getFacets(), limit, useCache);
+              }
+            });
+  }
+
+  /**
+   * Pages the results of a query sent in a format that needs the length of an array up front,
+   * like MessagePack. Such results are read whole before they are sent, so a query without
+   * maxresults gets the largest page allowed, and the continuation token of the next one.
+   *
+   * @param options the options of the query
+   * @param codec the format of the results, or null for JSON
+   */
+  static void boundPage(QueryOptions options, BinaryCodec codec) {
+
+    if (codec != null && !codec.streamsArrays() && options.getMaxResults() <= 0) {
+      options.setMaxResults(maxResultsLimit);
+    }
+  }
+
+  /** Splits the query parameters into the query keywords and operators, and the options. */
+  private void parseQuery(
+      MultivaluedMap<String, String> queryParams, Message message, QueryOptions options) {
 
     for (String key : queryParams.keySet()) {
 
@@ -65,15 +298,37 @@ public class MainResource {
 
       } else if (key.equals(ReservedKeys.RECORD_SKIP)) {
 
-        skip = Integer.parseInt(queryParams.getFirst(key));
+        options.setSkip(parseCount(key, queryParams.getFirst(key)));
 
       } else if (key.equals(ReservedKeys.RECORD_MAXRESULTS)) {
 
-        maxResults = Integer.parseInt(queryParams.getFirst(key));
+        int maxResults = parseCount(key, queryParams.getFirst(key));
+        if (maxResults > maxResultsLimit) {
+          throw new BadRequestException(
+              "Invalid value for " + key + ": larger than " + maxResultsLimit);
+        }
+        options.setMaxResults(maxResults);
+
+      } else if (key.equals(ReservedKeys.RECORD_CONTINUATION)) {
+
+        options.setContinuation(queryParams.getFirst(key));
+
+      } else if (key.equals(ReservedKeys.RECORD_FIELDS)) {
+
+        options.setFields(Fields.parse(key, queryParams.getFirst(key)));
+
+      } else if (key.equals(ReservedKeys.RECORD_EXPAND)) {
+
+        options.setExpand(Fields.parse(key, queryParams.getFirst(key)));
+
+      } else if (key.equals(ReservedKeys.RECORD_FACETS)) {
+
+        options.setFacets(Fields.parse(key, queryParams.getFirst(key)));
 
       } else {
 
-        // Not skip, operator or max-results. Must be key/values pair for the query
+        // Not skip, operator, max-results or one of the key lists. Must be key/values pair for the
+        // query
         String[] strArr = queryParams.getFirst(key).split(",");
         if (strArr.length > 1) {
 
@@ -85,15 +340,39 @@ public class MainResource {
         }
       }
     }
+  }
+
+  private int parseCount(String key, String value) {
+
+    int count;
+    try {
+      count = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new BadRequestException("Invalid value for " + key + ": " + value);
+    }
 
-    return this.queryServices.query(message, maxResults);
+    if (count < 0) {
+      throw new BadRequestException("Invalid value for " + key + ": " + value);
+    }
+    return count;
   }
 
   /** Put handler for bulk renews of records. */
   @PUT
   @Consumes("application/json")
-  @Produces("application/json")
-  public String bulkRenewHandler(String message) {
-    return bulkRenewService.bulkRenew(message);
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void bulkRenewHandler(final String message, @Suspended AsyncResponse async) {
+
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<String>() {
+
+              @Override
+              public String call() {
+
+                return bulkRenewService.bulkRenew(message);
+              }
+            });
   }
 }
@@ -0,0 +1,45 @@
+package net.es.lookup.resources;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.protocol.binary.BinaryCodec;
+
+/**
+ * Media types the resources produce. The binary formats have a lower server quality than JSON, so
+ * JSON is chosen unless the client asks for a binary format explicitly.
+ */
+final class MediaTypes {
+
+  static final String JSON = ReservedValues.MEDIA_TYPE_JSON;
+  static final String CBOR = ReservedValues.MEDIA_TYPE_CBOR + ";qs=0.9";
+  static final String MSGPACK = ReservedValues.MEDIA_TYPE_MSGPACK + ";qs=0.9";
+
+  private static final MediaType JSON_TYPE = MediaType.valueOf(JSON);
+  private static final BinaryCodec[] CODECS = {BinaryCodec.CBOR, BinaryCodec.MSGPACK};
+
+  private MediaTypes() {}
+
+  /**
+   * Picks the format of a response from the Accept header.
+   *
+   * @param headers headers of the request
+   * @return the codec of the preferred binary format, or null for JSON
+   */
+  static BinaryCodec negotiate(HttpHeaders headers) {
+
+    // the acceptable types are sorted by preference
+    for (MediaType accepted : headers.getAcceptableMediaTypes()) {
+
+      if (accepted.isCompatible(JSON_TYPE)) {
+        return null;
+      }
+      for (BinaryCodec codec : CODECS) {
+        if (accepted.isCompatible(MediaType.valueOf(codec.getMediaType()))) {
+          return codec;
+        }
+      }
+    }
+    return null;
+  }
+}
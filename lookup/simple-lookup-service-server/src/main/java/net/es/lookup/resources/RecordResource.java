@@ -1,13 +1,23 @@
 package net.es.lookup.resources;
 
+import java.util.List;
+import java.util.concurrent.Callable;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HEAD;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Response;
 import net.es.lookup.api.AccessService;
 import net.es.lookup.api.EditService;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
 import net.es.lookup.common.exception.api.NotSupportedException;
 
 
@@ -24,51 +34,124 @@ public class RecordResource {
   private String recordPrefix = dbname;
 
   /**
-   * Get handler to retrieve record details.
+   * Get handler to retrieve record details. The fields parameter restricts the record to the
+   * listed keys and its uri.
    * **/
   @GET
-  @Produces("application/json")
-  public String getHandler(
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void getHandler(
       @PathParam("sls") String path,
       @PathParam("record") String record,
-      @PathParam("recordid") String recordid) {
-    String dbname = path;
+      @PathParam("recordid") String recordid,
+      @QueryParam(ReservedKeys.RECORD_FIELDS) String fields,
+      @Suspended AsyncResponse async) {
+
+    final String serviceuri = path + "/" + record + "/" + recordid;
+    final List<String> projection = Fields.parse(ReservedKeys.RECORD_FIELDS, fields);
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<String>() {
+
+              @Override
+              public String call() {
+
+                return accessService.getService(serviceuri, projection);
+              }
+            });
+  }
+
+  /**
+   * Head handler to check that a record exists, without formatting or sending it. Responds with
+   * 200, or 404 if the record does not exist.
+   * **/
+  @HEAD
+  public void headHandler(
+      @PathParam("sls") String path,
+      @PathParam("record") String record,
+      @PathParam("recordid") String recordid,
+      @Suspended AsyncResponse async) {
+
+    final String serviceuri = path + "/" + record + "/" + recordid;
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<Response>() {
 
-    String serviceuri = path + "/" + record + "/" + recordid;
-    return this.accessService.getService(serviceuri);
+              @Override
+              public Response call() {
+
+                accessService.checkService(serviceuri);
+                return Response.ok().build();
+              }
+            });
   }
 
   /**
-   * Post handler to handle renewals.
+   * Post handler to handle renewals. Clients sending "Prefer: return=minimal" only get the uri
+   * and the new lease of the record back.
    * */
   @POST
-  @Produces("application/json")
-  public String renewHandler(
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void renewHandler(
       @PathParam("sls") String path,
       @PathParam("record") String record,
       @PathParam("recordid") String recordid,
-      String message) {
+      @HeaderParam(ReservedKeys.PREFER_HEADER) String prefer,
+      final String message,
+      @Suspended AsyncResponse async) {
     if (!path.equals(recordPrefix)) {
       throw new NotSupportedException("Operation not supported");
     }
-    String serviceuri = path + "/" + record + "/" + recordid;
-    return this.editService.renewService(serviceuri, message);
+    final String serviceuri = path + "/" + record + "/" + recordid;
+
+    final boolean minimal =
+        prefer != null && prefer.contains(ReservedValues.PREFER_RETURN_MINIMAL);
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<Response>() {
+
+              @Override
+              public Response call() {
+
+                Response.ResponseBuilder response =
+                    Response.ok(editService.renewService(serviceuri, message, minimal));
+                if (minimal) {
+                  response.header(
+                      ReservedKeys.PREFERENCE_APPLIED_HEADER,
+                      ReservedValues.PREFER_RETURN_MINIMAL);
+                }
+                return response.build();
+              }
+            });
   }
 
   /**
    * This method handles record deletions.
    * **/
   @DELETE
-  @Produces("application/json")
-  public String deleteHandler(
+  @Produces({MediaTypes.JSON, MediaTypes.CBOR, MediaTypes.MSGPACK})
+  public void deleteHandler(
       @PathParam("sls") String path,
       @PathParam("record") String record,
       @PathParam("recordid") String recordid,
-      String service) {
+      final String service,
+      @Suspended AsyncResponse async) {
     if (!path.equals(recordPrefix)) {
       throw new NotSupportedException("Operation not supported");
     }
-    String serviceuri = path + "/" + record + "/" + recordid;
-    return this.editService.deleteService(serviceuri, service);
+    final String serviceuri = path + "/" + record + "/" + recordid;
+    RequestExecutor.getInstance()
+        .submit(
+            async,
+            new Callable<String>() {
+
+              @Override
+              public String call() {
+
+                return editService.deleteService(serviceuri, service);
+              }
+            });
   }
 }
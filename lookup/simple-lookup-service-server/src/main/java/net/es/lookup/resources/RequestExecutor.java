@@ -0,0 +1,238 @@
+package net.es.lookup.resources;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import net.es.lookup.common.exception.api.ServiceUnavailableTemporarilyException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded pool the resources hand their requests to. The resources suspend the request and
+ * return, so the Grizzly workers are not held while the database is read or written; the pool
+ * bounds the number of database operations in progress, and requests beyond its queue are
+ * rejected with a 503 instead of piling up. With virtual threads, each request runs on its own
+ * virtual thread, and semaphores keep the same bounds.
+ *
+ * <p>A request that is not answered within the timeout gets a 503. A request still waiting is
+ * dropped, and the thread working on a running one is interrupted, but the Mongo driver ignores
+ * interrupts, so a database call in progress runs to its end. Queries are bounded by the time
+ * limit of ServiceDaoMongoDb, set from the same timeout; writes have no limit and complete after
+ * the 503 was sent.
+ */
+public class RequestExecutor {
+
+  private static Logger LOG = LogManager.getLogger(RequestExecutor.class);
+
+  private static final int DEFAULT_THREADS = 64;
+  private static final int DEFAULT_QUEUE_LIMIT = 1000;
+
+  private static RequestExecutor instance =
+      new RequestExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_LIMIT, 0);
+
+  private final ExecutorService executor;
+  // with an executor running each task on its own thread, bound the running and the admitted
+  // requests; null with the pool, whose threads and queue bound them
+  private final Semaphore running;
+  private final Semaphore admitted;
+  private final int timeout;
+
+  /**
+   * Constructor.
+   *
+   * @param threads number of requests processed at the same time
+   * @param queueLimit number of requests waiting for a thread, -1 for no limit
+   * @param timeout seconds a request may take until it is answered, 0 for no timeout
+   */
+  public RequestExecutor(int threads, int queueLimit, int timeout) {
+
+    BlockingQueue<Runnable> queue;
+    if (queueLimit < 0) {
+      queue = new LinkedBlockingQueue<Runnable>();
+    } else if (queueLimit == 0) {
+      queue = new SynchronousQueue<Runnable>();
+    } else {
+      queue = new ArrayBlockingQueue<Runnable>(queueLimit);
+    }
+
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            threads, threads, 60, TimeUnit.SECONDS, queue, new RequestThreadFactory());
+    pool.allowCoreThreadTimeOut(true);
+    this.executor = pool;
+    this.running = null;
+    this.admitted = null;
+    this.timeout = timeout;
+  }
+
+  /**
+   * Constructor for an executor that runs each task on a new thread, like the virtual thread per
+   * task executor. The requests waiting for one of the threads hold a thread of the executor.
+   *
+   * @param executor runs each request on its own thread
+   * @param threads number of requests processed at the same time
+   * @param queueLimit number of requests waiting for a thread, -1 for no limit
+   * @param timeout seconds a request may take until it is answered, 0 for no timeout
+   */
+  public RequestExecutor(ExecutorService executor, int threads, int queueLimit, int timeout) {
+
+    this.executor = executor;
+    this.running = new Semaphore(threads, true);
+    this.admitted = queueLimit < 0 ? null : new Semaphore(threads + queueLimit);
+    this.timeout = timeout;
+  }
+
+  public static RequestExecutor getInstance() {
+
+    return RequestExecutor.instance;
+  }
+
+  /**
+   * Replaces the executor. Requests already submitted to the previous one are completed.
+   *
+   * @param virtualExecutor runs each request on its own virtual thread, or null for a pool
+   * @param threads number of requests processed at the same time
+   * @param queueLimit number of requests waiting for a thread, -1 for no limit
+   * @param timeout seconds a request may take until it is answered, 0 for no timeout
+   */
+  public static void init(
+      ExecutorService virtualExecutor, int threads, int queueLimit, int timeout) {
+
+    RequestExecutor previous = RequestExecutor.instance;
+    if (virtualExecutor != null) {
+      RequestExecutor.instance =
+          new RequestExecutor(virtualExecutor, threads, queueLimit, timeout);
+    } else {
+      RequestExecutor.instance = new RequestExecutor(threads, queueLimit, timeout);
+    }
+    previous.executor.shutdown();
+  }
+
+  public int getTimeout() {
+
+    return timeout;
+  }
+
+  /**
+   * Processes a request in the pool and resumes it with the result.
+   *
+   * @param async the suspended request
+   * @param task computes the response entity, or throws the exception to answer with
+   * @throws ServiceUnavailableTemporarilyException if the queue of the pool is full
+   */
+  public void submit(final AsyncResponse async, final Callable<?> task) {
+
+    if (admitted != null && !admitted.tryAcquire()) {
+      throw rejected();
+    }
+
+    // set by the task when it starts, or by the timeout when it drops the task before
+    final AtomicBoolean started = new AtomicBoolean();
+    final Future<?> future;
+    try {
+      future =
+          executor.submit(
+              new Runnable() {
+
+                @Override
+                public void run() {
+
+                  if (!started.compareAndSet(false, true)) {
+                    return;
+                  }
+                  Object result;
+                  try {
+                    result = call(task);
+                  } catch (Throwable e) {
+                    async.resume(e);
+                    return;
+                  }
+                  async.resume(result);
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      if (admitted != null) {
+        admitted.release();
+      }
+      throw rejected();
+    }
+
+    if (timeout > 0) {
+      async.setTimeoutHandler(
+          new TimeoutHandler() {
+
+            @Override
+            public void handleTimeout(AsyncResponse response) {
+
+              LOG.warn("Request timed out after " + timeout + " seconds");
+              // answer first, so that the interrupted task cannot resume the request; a request
+              // still waiting is dropped, a database call in progress is not aborted
+              response.resume(new ServiceUnavailableTemporarilyException("Request timed out"));
+              if (started.compareAndSet(false, true) && admitted != null) {
+                admitted.release();
+              }
+              future.cancel(true);
+            }
+          });
+      async.setTimeout(timeout, TimeUnit.SECONDS);
+    }
+  }
+
+  /** Runs the task, holding the permits, if any, until it is done but not until it is sent. */
+  private Object call(Callable<?> task) throws Exception {
+
+    try {
+      if (running == null) {
+        return task.call();
+      }
+      running.acquire();
+      try {
+        return task.call();
+      } finally {
+        running.release();
+      }
+    } finally {
+      if (admitted != null) {
+        admitted.release();
+      }
+    }
+  }
+
+  private ServiceUnavailableTemporarilyException rejected() {
+
+    int waiting;
+    if (running != null) {
+      waiting = running.getQueueLength();
+    } else {
+      waiting = ((ThreadPoolExecutor) executor).getQueue().size();
+    }
+    LOG.warn("Rejected request: " + waiting + " requests waiting");
+    return new ServiceUnavailableTemporarilyException("Server busy, please retry later");
+  }
+
+  private static class RequestThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+
+      Thread thread = new Thread(runnable, "lookup-request-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -11,10 +11,17 @@ import java.util.List;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import net.es.lookup.cache.QueryCache;
+import net.es.lookup.cache.RecordCache;
 import net.es.lookup.common.MemoryManager;
 import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.database.InMemoryRecordStore;
 import net.es.lookup.database.MongoDBMaintenanceJob;
+import net.es.lookup.database.RecordStoreManager;
 import net.es.lookup.database.ServiceDaoMongoDb;
+import net.es.lookup.database.index.InvertedIndex;
+import net.es.lookup.resources.MainResource;
+import net.es.lookup.resources.RequestExecutor;
 import net.es.lookup.timer.Scheduler;
 import net.es.lookup.utils.config.reader.LookupServiceConfigReader;
 import net.es.lookup.utils.config.reader.QueueServiceConfigReader;
@@ -69,8 +76,7 @@ public class Invoker {
     port = lookupServiceConfigReader.getPort();
     host = lookupServiceConfigReader.getHost();
 
-    LOG.info("starting ServiceDaoMongoDb");
-
+    String dbtype = lookupServiceConfigReader.getDbType();
     String dburl = lookupServiceConfigReader.getDbUrl();
     int dbport = lookupServiceConfigReader.getDbPort();
     String dbname = lookupServiceConfigReader.getDbName();
@@ -79,19 +85,80 @@ public class Invoker {
     List<String> services = new LinkedList<>();
 
     // Initialize services
-    try {
-      new ServiceDaoMongoDb(dburl, dbport, dbname, collname);
+    if (dbtype.equals(LookupServiceConfigReader.DB_TYPE_MEMORY)) {
+
+      LOG.info("starting InMemoryRecordStore");
+      InMemoryRecordStore store = new InMemoryRecordStore();
+      store.setQueryIndex(createQueryIndex());
+      RecordStoreManager.setInstance(store);
       services.add(LookupService.LOOKUP_SERVICE);
 
-    } catch (DatabaseException e) {
+    } else if (dbtype.equals(LookupServiceConfigReader.DB_TYPE_MONGODB)) {
+
+      LOG.info("starting ServiceDaoMongoDb");
+      try {
+        ServiceDaoMongoDb dao = new ServiceDaoMongoDb(dburl, dbport, dbname, collname);
+        dao.setQueryBatchSize(lookupServiceConfigReader.getQueryBatchSize());
+        dao.setQueryMaxTime(lookupServiceConfigReader.getRequestTimeout() * 1000L);
+        dao.ensureIndexes(lookupServiceConfigReader.getIndexes());
+        dao.setQueryIndex(createQueryIndex());
+        services.add(LookupService.LOOKUP_SERVICE);
+
+      } catch (DatabaseException e) {
 
-      LOG.info("Error connecting to database; Please check if MongoDB is running");
+        LOG.info("Error connecting to database; Please check if MongoDB is running");
+        System.exit(1);
+      }
+
+    } else {
+
+      LOG.error("Unknown database type: " + dbtype);
       System.exit(1);
     }
+    RecordCache.init(
+        lookupServiceConfigReader.getRecordCacheMaxEntries(),
+        lookupServiceConfigReader.getRecordCacheMaxBytes(),
+        lookupServiceConfigReader.getRecordCacheTtl());
+    QueryCache.init(
+        lookupServiceConfigReader.getQueryCacheMaxEntries(),
+        lookupServiceConfigReader.getQueryCacheMaxBytes(),
+        lookupServiceConfigReader.getQueryCacheMaxEntryBytes(),
+        lookupServiceConfigReader.getQueryCacheTtl());
+
+    RequestExecutor.init(
+        lookupServiceConfigReader.isVirtualThreads()
+            ? TransportOptions.newVirtualThreadExecutor()
+            : null,
+        lookupServiceConfigReader.getRequestThreads(),
+        lookupServiceConfigReader.getRequestQueueLimit(),
+        lookupServiceConfigReader.getRequestTimeout());
+    MainResource.setMaxResultsLimit(lookupServiceConfigReader.getRequestMaxResults());
+    MainResource.setMaxFacetValues(lookupServiceConfigReader.getRequestMaxFacetValues());
+
     LOG.info("starting Lookup Service");
     // Create the REST service
     Invoker.lookupService = new LookupService(Invoker.host, Invoker.port);
 
+    TransportOptions transportOptions = new TransportOptions();
+    transportOptions.setSelectorThreads(lookupServiceConfigReader.getSelectorThreads());
+    transportOptions.setWorkerCoreThreads(lookupServiceConfigReader.getWorkerCoreThreads());
+    transportOptions.setWorkerMaxThreads(lookupServiceConfigReader.getWorkerMaxThreads());
+    transportOptions.setWorkerQueueLimit(lookupServiceConfigReader.getWorkerQueueLimit());
+    transportOptions.setVirtualThreads(lookupServiceConfigReader.isVirtualThreads());
+    transportOptions.setBacklog(lookupServiceConfigReader.getBacklog());
+    transportOptions.setKeepAliveTimeout(lookupServiceConfigReader.getKeepAliveTimeout());
+    transportOptions.setKeepAliveMaxRequests(lookupServiceConfigReader.getKeepAliveMaxRequests());
+    transportOptions.setTcpNoDelay(lookupServiceConfigReader.isTcpNoDelay());
+    Invoker.lookupService.setTransportOptions(transportOptions);
+    Invoker.lookupService.setMaxDecompressedSize(
+        lookupServiceConfigReader.getRequestMaxDecompressedSize());
+    if (lookupServiceConfigReader.isCompression()) {
+      Invoker.lookupService.setCompression(
+          lookupServiceConfigReader.getCompressionMinSize(),
+          lookupServiceConfigReader.getCompressionLevel(),
+          lookupServiceConfigReader.getCompressionMimeTypes());
+    }
+
     // Start the service
     Invoker.lookupService.startService();
 
@@ -161,6 +228,18 @@ public class Invoker {
     }
   }
 
+  private static InvertedIndex createQueryIndex() {
+
+    if (!lookupServiceConfigReader.isQueryIndex()) {
+      return null;
+    }
+
+    LOG.info("building query index");
+    return new InvertedIndex(
+        lookupServiceConfigReader.getQueryIndexMaxCandidates(),
+        lookupServiceConfigReader.getQueryIndexWildcardKeys());
+  }
+
   private static void parseArgs(String[] args) throws java.io.IOException {
 
     OptionParser parser = new OptionParser();
@@ -1,10 +1,16 @@
 package net.es.lookup.service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
 import javax.ws.rs.core.UriBuilder;
+import net.es.lookup.resources.CompressionInterceptor;
+import net.es.lookup.resources.DecompressionInterceptor;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
@@ -19,6 +25,12 @@ public class LookupService {
   private String host = "localhost";
 
   private String datadirectory = "../elements";
+  private boolean compression = false;
+  private int compressionMinSize = 1024;
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private List<String> compressionMimeTypes = new ArrayList<String>();
+  private int maxDecompressedSize = DecompressionInterceptor.DEFAULT_MAX_SIZE;
+  private TransportOptions transportOptions = new TransportOptions();
   private HttpServer httpServer = null;
   private static LookupService instance = null;
   public static final String LOOKUP_SERVICE = "lookup";
@@ -55,6 +67,43 @@ public class LookupService {
     this.datadirectory = datadirectory;
   }
 
+  /**
+   * Enables the compression of responses with gzip or deflate, for the clients that accept it.
+   *
+   * @param minSize responses smaller than this number of bytes are not compressed
+   * @param level compression level, from 1 (fastest) to 9 (smallest)
+   * @param mimeTypes media types of the responses to compress
+   */
+  public void setCompression(int minSize, int level, List<String> mimeTypes) {
+
+    this.compression = true;
+    this.compressionMinSize = minSize;
+    this.compressionLevel = level;
+    this.compressionMimeTypes = mimeTypes;
+  }
+
+  /**
+   * Sets the largest request body accepted once decompressed, for the requests sent with a gzip
+   * or deflate Content-Encoding.
+   *
+   * @param maxSize size in bytes
+   */
+  public void setMaxDecompressedSize(int maxSize) {
+
+    this.maxDecompressedSize = maxSize;
+  }
+
+  public TransportOptions getTransportOptions() {
+
+    return transportOptions;
+  }
+
+  /** Sets the thread pools, keep-alive and backlog of the HTTP server, before it is started. */
+  public void setTransportOptions(TransportOptions transportOptions) {
+
+    this.transportOptions = transportOptions;
+  }
+
   public static LookupService getInstance() {
 
     return LookupService.instance;
@@ -116,6 +165,12 @@ public class LookupService {
     rc.register(net.es.lookup.resources.KeyResource.class);
     rc.register(net.es.lookup.resources.MainResource.class);
     rc.register(net.es.lookup.resources.RecordResource.class);
+    rc.register(net.es.lookup.resources.BinaryFormatInterceptor.class);
+    rc.register(new DecompressionInterceptor(maxDecompressedSize));
+    if (compression) {
+      rc.register(
+          new CompressionInterceptor(compressionMinSize, compressionLevel, compressionMimeTypes));
+    }
 
     LOG.info("Creating Resource..."+rc.getResources().toString());
     LOG.info("Starting grizzly...");
@@ -123,8 +178,11 @@ public class LookupService {
 
     HttpServer server =
         GrizzlyHttpServerFactory.createHttpServer(
-            UriBuilder.fromUri(hosturl).port(this.port).build(), rc);
-
+            UriBuilder.fromUri(hosturl).port(this.port).build(), rc, false);
+    for (NetworkListener listener : server.getListeners()) {
+      transportOptions.apply(listener);
+    }
+    server.start();
 
     return server;
   }
@@ -0,0 +1,194 @@
+package net.es.lookup.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.grizzly.http.KeepAlive;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+
+/**
+ * Settings of the Grizzly transport the lookup service runs on. Zero or negative values keep the
+ * Grizzly defaults.
+ *
+ * <p>Resources run on the worker threads of the transport and block on the database. With
+ * virtual threads, which need a JDK that has them (21 or later), each request gets its own
+ * virtual thread instead of waiting for a worker of a fixed pool.
+ */
+public class TransportOptions {
+
+  private static Logger LOG = LogManager.getLogger(TransportOptions.class);
+
+  private int selectorThreads = 0;
+  private int workerCoreThreads = 0;
+  private int workerMaxThreads = 0;
+  private int workerQueueLimit = 0;
+  private boolean virtualThreads = false;
+  private int backlog = 0;
+  private int keepAliveTimeout = 0;
+  private int keepAliveMaxRequests = 0;
+  private boolean tcpNoDelay = true;
+
+  public int getSelectorThreads() {
+
+    return selectorThreads;
+  }
+
+  public void setSelectorThreads(int selectorThreads) {
+
+    this.selectorThreads = selectorThreads;
+  }
+
+  public int getWorkerCoreThreads() {
+
+    return workerCoreThreads;
+  }
+
+  public void setWorkerCoreThreads(int workerCoreThreads) {
+
+    this.workerCoreThreads = workerCoreThreads;
+  }
+
+  public int getWorkerMaxThreads() {
+
+    return workerMaxThreads;
+  }
+
+  public void setWorkerMaxThreads(int workerMaxThreads) {
+
+    this.workerMaxThreads = workerMaxThreads;
+  }
+
+  public int getWorkerQueueLimit() {
+
+    return workerQueueLimit;
+  }
+
+  /** Sets the number of requests waiting for a worker; -1 for no limit. */
+  public void setWorkerQueueLimit(int workerQueueLimit) {
+
+    this.workerQueueLimit = workerQueueLimit;
+  }
+
+  public boolean isVirtualThreads() {
+
+    return virtualThreads;
+  }
+
+  public void setVirtualThreads(boolean virtualThreads) {
+
+    this.virtualThreads = virtualThreads;
+  }
+
+  public int getBacklog() {
+
+    return backlog;
+  }
+
+  public void setBacklog(int backlog) {
+
+    this.backlog = backlog;
+  }
+
+  public int getKeepAliveTimeout() {
+
+    return keepAliveTimeout;
+  }
+
+  /** Sets the seconds an idle keep-alive connection stays open; -1 to never close it. */
+  public void setKeepAliveTimeout(int keepAliveTimeout) {
+
+    this.keepAliveTimeout = keepAliveTimeout;
+  }
+
+  public int getKeepAliveMaxRequests() {
+
+    return keepAliveMaxRequests;
+  }
+
+  /** Sets the number of requests served on a keep-alive connection; -1 for no limit. */
+  public void setKeepAliveMaxRequests(int keepAliveMaxRequests) {
+
+    this.keepAliveMaxRequests = keepAliveMaxRequests;
+  }
+
+  public boolean isTcpNoDelay() {
+
+    return tcpNoDelay;
+  }
+
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  /**
+   * Applies the settings to a listener, before the server is started.
+   *
+   * @param listener the network listener of the server
+   */
+  void apply(NetworkListener listener) {
+
+    TCPNIOTransport transport = listener.getTransport();
+    if (selectorThreads > 0) {
+      transport.setSelectorRunnersCount(selectorThreads);
+    }
+    if (backlog > 0) {
+      transport.setServerConnectionBackLog(backlog);
+    }
+    transport.setTcpNoDelay(tcpNoDelay);
+
+    ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+    if (virtualExecutor != null) {
+
+      LOG.info("Running requests on virtual threads");
+      transport.setWorkerThreadPool(virtualExecutor);
+
+    } else if (workerCoreThreads > 0 || workerMaxThreads > 0 || workerQueueLimit != 0) {
+
+      ThreadPoolConfig workers = ThreadPoolConfig.defaultConfig().copy();
+      workers.setPoolName("lookup-worker");
+      if (workerCoreThreads > 0) {
+        workers.setCorePoolSize(workerCoreThreads);
+      }
+      if (workerMaxThreads > 0) {
+        workers.setMaxPoolSize(Math.max(workerMaxThreads, workerCoreThreads));
+      }
+      if (workerQueueLimit != 0) {
+        workers.setQueueLimit(workerQueueLimit);
+      }
+      transport.setWorkerThreadPoolConfig(workers);
+    }
+
+    KeepAlive keepAlive = listener.getKeepAlive();
+    if (keepAliveTimeout != 0) {
+      keepAlive.setIdleTimeoutInSeconds(keepAliveTimeout);
+    }
+    if (keepAliveMaxRequests != 0) {
+      keepAlive.setMaxRequestsCount(keepAliveMaxRequests);
+    }
+  }
+
+  /**
+   * Creates an executor that starts a virtual thread per task. The service is built for Java 8,
+   * so the factory method is looked up at runtime.
+   *
+   * @return the executor, or null if the JDK has no virtual threads
+   */
+  static ExecutorService newVirtualThreadExecutor() {
+
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (Exception e) {
+      LOG.warn(
+          "Virtual threads are not available on Java "
+              + System.getProperty("java.version")
+              + "; using the worker thread pool");
+      return null;
+    }
+  }
+}
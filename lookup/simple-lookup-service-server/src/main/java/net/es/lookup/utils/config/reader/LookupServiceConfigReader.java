@@ -1,7 +1,11 @@
 package net.es.lookup.utils.config.reader;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import net.es.lookup.common.ReservedValues;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -19,23 +23,82 @@ public class LookupServiceConfigReader {
   private static String configFile = DEFAULT_PATH + "/" + DEFAULT_FILE;
   private static final int MINIMUM_INTERVAL = 1800;
   private static final int MINIMUM_THRESHOLD = 0;
+  private static final int DEFAULT_QUERY_BATCHSIZE = 1000;
+  private static final int DEFAULT_QUERY_INDEX_MAXCANDIDATES = 10000;
+  private static final long DEFAULT_CACHE_MAXBYTES = 64L * 1024 * 1024;
+  private static final int DEFAULT_CACHE_TTL = 300;
+  private static final int DEFAULT_CACHE_MAXENTRYBYTES = 1024 * 1024;
+  private static final int DEFAULT_COMPRESSION_MINSIZE = 1024;
+  private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+  private static final int DEFAULT_REQUEST_THREADS = 64;
+  private static final int DEFAULT_REQUEST_QUEUELIMIT = 1000;
+  private static final int DEFAULT_REQUEST_TIMEOUT = 60;
+  private static final int DEFAULT_REQUEST_MAXRESULTS = 10000;
+  private static final int DEFAULT_REQUEST_MAXDECOMPRESSEDSIZE = 64 * 1024 * 1024;
+  private static final int DEFAULT_REQUEST_MAXFACETVALUES = 1000;
+
+  public static final String DB_TYPE_MONGODB = "mongodb";
+  public static final String DB_TYPE_MEMORY = "memory";
 
   // Lookup service fields
   private String host = "127.0.0.1";
   private int port = 8085;
 
+  // response compression
+  private boolean compression = true;
+  private int compressionMinSize = DEFAULT_COMPRESSION_MINSIZE;
+  private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+  private List<String> compressionMimeTypes =
+      new ArrayList<String>(
+          Arrays.asList(
+              ReservedValues.MEDIA_TYPE_JSON,
+              ReservedValues.MEDIA_TYPE_CBOR,
+              ReservedValues.MEDIA_TYPE_MSGPACK));
+
+  // HTTP server transport, 0 keeps the Grizzly defaults
+  private int selectorThreads = 0;
+  private int workerCoreThreads = 0;
+  private int workerMaxThreads = 0;
+  private int workerQueueLimit = 0;
+  private boolean virtualThreads = false;
+  private int backlog = 0;
+  private int keepAliveTimeout = 0;
+  private int keepAliveMaxRequests = 0;
+  private boolean tcpNoDelay = true;
+  private int requestThreads = DEFAULT_REQUEST_THREADS;
+  private int requestQueueLimit = DEFAULT_REQUEST_QUEUELIMIT;
+  private int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+  private int requestMaxResults = DEFAULT_REQUEST_MAXRESULTS;
+  private int requestMaxDecompressedSize = DEFAULT_REQUEST_MAXDECOMPRESSEDSIZE;
+  private int requestMaxFacetValues = DEFAULT_REQUEST_MAXFACETVALUES;
+
   // Lookup service Lease fields
   private int maxlease;
   private int minlease;
   private int defaultlease;
 
   // database
+  private String dbtype = DB_TYPE_MONGODB;
   private String dburl = "127.0.0.1";
   private int dbport = 27017;
   private String dbname = "LookupService";
   private String collname = "services";
   private int pruneInterval = MINIMUM_INTERVAL;
   private int pruneThreshold = MINIMUM_THRESHOLD;
+  private int queryBatchSize = DEFAULT_QUERY_BATCHSIZE;
+  private boolean queryIndex = false;
+  private int queryIndexMaxCandidates = DEFAULT_QUERY_INDEX_MAXCANDIDATES;
+  private List<String> queryIndexWildcardKeys = new ArrayList<String>();
+  private List<String> indexes = new ArrayList<String>();
+
+  // caches
+  private int recordCacheMaxEntries = 0;
+  private long recordCacheMaxBytes = DEFAULT_CACHE_MAXBYTES;
+  private int recordCacheTtl = DEFAULT_CACHE_TTL;
+  private int queryCacheMaxEntries = 0;
+  private long queryCacheMaxBytes = DEFAULT_CACHE_MAXBYTES;
+  private int queryCacheMaxEntryBytes = DEFAULT_CACHE_MAXENTRYBYTES;
+  private int queryCacheTtl = DEFAULT_CACHE_TTL;
 
   private static Logger LOG = LogManager.getLogger(BaseConfigReader.class);
 
@@ -74,6 +137,101 @@ public class LookupServiceConfigReader {
     return this.port;
   }
 
+  public boolean isCompression() {
+
+    return this.compression;
+  }
+
+  public int getCompressionMinSize() {
+
+    return this.compressionMinSize;
+  }
+
+  public int getCompressionLevel() {
+
+    return this.compressionLevel;
+  }
+
+  public List<String> getCompressionMimeTypes() {
+
+    return this.compressionMimeTypes;
+  }
+
+  public int getSelectorThreads() {
+
+    return this.selectorThreads;
+  }
+
+  public int getWorkerCoreThreads() {
+
+    return this.workerCoreThreads;
+  }
+
+  public int getWorkerMaxThreads() {
+
+    return this.workerMaxThreads;
+  }
+
+  public int getWorkerQueueLimit() {
+
+    return this.workerQueueLimit;
+  }
+
+  public boolean isVirtualThreads() {
+
+    return this.virtualThreads;
+  }
+
+  public int getBacklog() {
+
+    return this.backlog;
+  }
+
+  public int getKeepAliveTimeout() {
+
+    return this.keepAliveTimeout;
+  }
+
+  public int getKeepAliveMaxRequests() {
+
+    return this.keepAliveMaxRequests;
+  }
+
+  public boolean isTcpNoDelay() {
+
+    return this.tcpNoDelay;
+  }
+
+  public int getRequestThreads() {
+
+    return this.requestThreads;
+  }
+
+  public int getRequestQueueLimit() {
+
+    return this.requestQueueLimit;
+  }
+
+  public int getRequestTimeout() {
+
+    return this.requestTimeout;
+  }
+
+  public int getRequestMaxResults() {
+
+    return this.requestMaxResults;
+  }
+
+  public int getRequestMaxDecompressedSize() {
+
+    return this.requestMaxDecompressedSize;
+  }
+
+  public int getRequestMaxFacetValues() {
+
+    return this.requestMaxFacetValues;
+  }
+
   public long getMaxLease() {
 
     return this.maxlease;
@@ -89,6 +247,15 @@ public class LookupServiceConfigReader {
     return this.minlease;
   }
 
+  /**
+   * Returns the record store backend: mongodb (default) or memory.
+   * @return the database type
+   * */
+  public String getDbType() {
+
+    return this.dbtype;
+  }
+
   public String getDbUrl() {
 
     return this.dburl;
@@ -119,6 +286,66 @@ public class LookupServiceConfigReader {
     return this.pruneThreshold;
   }
 
+  public int getQueryBatchSize() {
+
+    return this.queryBatchSize;
+  }
+
+  public boolean isQueryIndex() {
+
+    return this.queryIndex;
+  }
+
+  public int getQueryIndexMaxCandidates() {
+
+    return this.queryIndexMaxCandidates;
+  }
+
+  public List<String> getQueryIndexWildcardKeys() {
+
+    return this.queryIndexWildcardKeys;
+  }
+
+  public List<String> getIndexes() {
+
+    return this.indexes;
+  }
+
+  public int getRecordCacheMaxEntries() {
+
+    return this.recordCacheMaxEntries;
+  }
+
+  public long getRecordCacheMaxBytes() {
+
+    return this.recordCacheMaxBytes;
+  }
+
+  public int getRecordCacheTtl() {
+
+    return this.recordCacheTtl;
+  }
+
+  public int getQueryCacheMaxEntries() {
+
+    return this.queryCacheMaxEntries;
+  }
+
+  public long getQueryCacheMaxBytes() {
+
+    return this.queryCacheMaxBytes;
+  }
+
+  public int getQueryCacheMaxEntryBytes() {
+
+    return this.queryCacheMaxEntryBytes;
+  }
+
+  public int getQueryCacheTtl() {
+
+    return this.queryCacheTtl;
+  }
+
   private void setInfo(String configPath) {
 
     BaseConfigReader cfg = BaseConfigReader.getInstance();
@@ -136,13 +363,134 @@ public class LookupServiceConfigReader {
       minlease = (Integer) leaseTimeMap.get("min");
       defaultlease = (Integer) leaseTimeMap.get("default");
 
+      HashMap<String, Object> compressionMap = (HashMap) lookupServiceMap.get("compression");
+      if (compressionMap != null) {
+        if (compressionMap.get("enabled") != null) {
+          compression = (Boolean) compressionMap.get("enabled");
+        }
+        if (compressionMap.get("minSize") != null) {
+          compressionMinSize = (Integer) compressionMap.get("minSize");
+        }
+        if (compressionMap.get("level") != null) {
+          compressionLevel = (Integer) compressionMap.get("level");
+        }
+        if (compressionMap.get("mimeTypes") != null) {
+          compressionMimeTypes = (List<String>) compressionMap.get("mimeTypes");
+        }
+      }
+
+      HashMap<String, Object> serverMap = (HashMap) yamlMap.get("server");
+      if (serverMap != null) {
+        if (serverMap.get("selectorThreads") != null) {
+          selectorThreads = (Integer) serverMap.get("selectorThreads");
+        }
+        if (serverMap.get("virtualThreads") != null) {
+          virtualThreads = (Boolean) serverMap.get("virtualThreads");
+        }
+        if (serverMap.get("backlog") != null) {
+          backlog = (Integer) serverMap.get("backlog");
+        }
+        if (serverMap.get("tcpNoDelay") != null) {
+          tcpNoDelay = (Boolean) serverMap.get("tcpNoDelay");
+        }
+        HashMap<String, Object> workerMap = (HashMap) serverMap.get("workerThreads");
+        if (workerMap != null) {
+          if (workerMap.get("core") != null) {
+            workerCoreThreads = (Integer) workerMap.get("core");
+          }
+          if (workerMap.get("max") != null) {
+            workerMaxThreads = (Integer) workerMap.get("max");
+          }
+          if (workerMap.get("queueLimit") != null) {
+            workerQueueLimit = (Integer) workerMap.get("queueLimit");
+          }
+        }
+        HashMap<String, Object> requestMap = (HashMap) serverMap.get("requests");
+        if (requestMap != null) {
+          if (requestMap.get("threads") != null) {
+            requestThreads = (Integer) requestMap.get("threads");
+          }
+          if (requestMap.get("queueLimit") != null) {
+            requestQueueLimit = (Integer) requestMap.get("queueLimit");
+          }
+          if (requestMap.get("timeout") != null) {
+            requestTimeout = (Integer) requestMap.get("timeout");
+          }
+          if (requestMap.get("maxResults") != null) {
+            requestMaxResults = (Integer) requestMap.get("maxResults");
+          }
+          if (requestMap.get("maxDecompressedSize") != null) {
+            requestMaxDecompressedSize = (Integer) requestMap.get("maxDecompressedSize");
+          }
+          if (requestMap.get("maxFacetValues") != null) {
+            requestMaxFacetValues = (Integer) requestMap.get("maxFacetValues");
+          }
+        }
+        HashMap<String, Object> keepAliveMap = (HashMap) serverMap.get("keepAlive");
+        if (keepAliveMap != null) {
+          if (keepAliveMap.get("idleTimeout") != null) {
+            keepAliveTimeout = (Integer) keepAliveMap.get("idleTimeout");
+          }
+          if (keepAliveMap.get("maxRequests") != null) {
+            keepAliveMaxRequests = (Integer) keepAliveMap.get("maxRequests");
+          }
+        }
+      }
+
       HashMap<String, Object> databaseMap = (HashMap) yamlMap.get("database");
+      if (databaseMap.get("type") != null) {
+        dbtype = ((String) databaseMap.get("type")).toLowerCase();
+      }
       dburl = (String) databaseMap.get("DBUrl");
       dbport = (Integer) databaseMap.get("DBPort");
       dbname = (String) databaseMap.get("DBName");
       collname = (String) databaseMap.get("DBCollName");
       pruneThreshold = (Integer) databaseMap.get("pruneThreshold");
       pruneInterval = (Integer) databaseMap.get("pruneInterval");
+      if (databaseMap.get("queryBatchSize") != null) {
+        queryBatchSize = (Integer) databaseMap.get("queryBatchSize");
+      }
+      if (databaseMap.get("queryIndex") != null) {
+        queryIndex = (Boolean) databaseMap.get("queryIndex");
+      }
+      if (databaseMap.get("queryIndexMaxCandidates") != null) {
+        queryIndexMaxCandidates = (Integer) databaseMap.get("queryIndexMaxCandidates");
+      }
+      if (databaseMap.get("queryIndexWildcardKeys") != null) {
+        queryIndexWildcardKeys = (List<String>) databaseMap.get("queryIndexWildcardKeys");
+      }
+      if (databaseMap.get("indexes") != null) {
+        indexes = (List<String>) databaseMap.get("indexes");
+      }
+
+      HashMap<String, Object> cacheMap = (HashMap) yamlMap.get("cache");
+      if (cacheMap != null && cacheMap.get("records") != null) {
+        HashMap<String, Object> recordCacheMap = (HashMap) cacheMap.get("records");
+        if (recordCacheMap.get("maxEntries") != null) {
+          recordCacheMaxEntries = (Integer) recordCacheMap.get("maxEntries");
+        }
+        if (recordCacheMap.get("maxBytes") != null) {
+          recordCacheMaxBytes = ((Number) recordCacheMap.get("maxBytes")).longValue();
+        }
+        if (recordCacheMap.get("ttl") != null) {
+          recordCacheTtl = (Integer) recordCacheMap.get("ttl");
+        }
+      }
+      if (cacheMap != null && cacheMap.get("queries") != null) {
+        HashMap<String, Object> queryCacheMap = (HashMap) cacheMap.get("queries");
+        if (queryCacheMap.get("maxEntries") != null) {
+          queryCacheMaxEntries = (Integer) queryCacheMap.get("maxEntries");
+        }
+        if (queryCacheMap.get("maxBytes") != null) {
+          queryCacheMaxBytes = ((Number) queryCacheMap.get("maxBytes")).longValue();
+        }
+        if (queryCacheMap.get("maxEntryBytes") != null) {
+          queryCacheMaxEntryBytes = (Integer) queryCacheMap.get("maxEntryBytes");
+        }
+        if (queryCacheMap.get("ttl") != null) {
+          queryCacheTtl = (Integer) queryCacheMap.get("ttl");
+        }
+      }
     } catch (Exception e) {
       LOG.error("Error parsing config file. Please check config parameters " + e.toString());
       System.exit(1);
@@ -0,0 +1,104 @@
+package net.es.lookup.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.database.InMemoryRecordStore;
+import net.es.lookup.database.QueryOptions;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+public class ExpandingRecordCursorTest {
+
+  @Test
+  public void testInlinesReferencedRecords() throws Exception {
+    System.out.println("Testing Expanding Record Cursor - references");
+    CountingRecordStore store = new CountingRecordStore();
+    store.publishService(record("lookup/interface/1", "interface", "interface-name", "eth0"));
+    store.publishService(record("lookup/interface/2", "interface", "interface-name", "eth1"));
+    Message host = record("lookup/host/1", "host", "host-name", "perfsonar1.es.net");
+    host.add(
+        ReservedKeys.RECORD_HOST_NET_INTERFACES,
+        Arrays.asList("lookup/interface/1", "lookup/interface/2", "lookup/interface/gone"));
+    store.publishService(host);
+    for (int i = 0; i < 3; i++) {
+      Message service = record("lookup/service/" + i, "service", "service-type", "owamp");
+      service.add(ReservedKeys.RECORD_SERVICE_HOST, Arrays.asList("lookup/host/1"));
+      store.publishService(service);
+    }
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_TYPE, "service");
+    ExpandingRecordCursor cursor =
+        new ExpandingRecordCursor(
+            store.queryCursor(query, new Message(), new QueryOptions()),
+            store,
+            Arrays.asList(ReservedKeys.RECORD_SERVICE_HOST));
+
+    JSONArray services = new JSONArray();
+    while (cursor.hasNext()) {
+      services.add(JSONObject.fromObject(cursor.next()));
+    }
+    cursor.close();
+
+    assertEquals(3, services.size());
+    JSONObject expanded = services.getJSONObject(2).getJSONArray("service-host").getJSONObject(0);
+    assertEquals("perfsonar1.es.net", expanded.getJSONArray("host-name").getString(0));
+    // the references of the inlined records are not expanded
+    assertEquals(
+        "lookup/interface/1",
+        expanded.getJSONArray(ReservedKeys.RECORD_HOST_NET_INTERFACES).getString(0));
+    // the host shared by the services is read once
+    assertEquals(1, store.batchReads);
+
+    query = new Message();
+    query.add(ReservedKeys.RECORD_TYPE, "host");
+    cursor =
+        new ExpandingRecordCursor(
+            store.queryCursor(query, new Message(), new QueryOptions()),
+            store,
+            Arrays.asList(ReservedKeys.RECORD_HOST_NET_INTERFACES));
+    JSONArray interfaces =
+        JSONObject.fromObject(cursor.next()).getJSONArray(ReservedKeys.RECORD_HOST_NET_INTERFACES);
+    assertFalse(cursor.hasNext());
+    cursor.close();
+
+    assertEquals("eth1", interfaces.getJSONObject(1).getJSONArray("interface-name").getString(0));
+    assertEquals("lookup/interface/gone", interfaces.getString(2));
+  }
+
+  private static Message record(String uri, String type, String key, String value) {
+
+    Message message = new Message();
+    message.add(ReservedKeys.RECORD_URI, uri);
+    message.add(ReservedKeys.RECORD_TYPE, Arrays.asList(type));
+    message.add(
+        ReservedKeys.RECORD_EXPIRES,
+        new DateTime().plusHours(2).toString(ISODateTimeFormat.dateTime()));
+    message.add(key, Arrays.asList(value));
+    return message;
+  }
+
+  private static class CountingRecordStore extends InMemoryRecordStore {
+
+    private int batchReads = 0;
+
+    @Override
+    public Map<String, Message> getRecordsByUri(Collection<String> recorduris, List<String> fields)
+        throws DatabaseException {
+
+      batchReads++;
+      return super.getRecordsByUri(recorduris, fields);
+    }
+  }
+}
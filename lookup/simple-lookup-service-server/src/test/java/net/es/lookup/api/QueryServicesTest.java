@@ -0,0 +1,80 @@
+package net.es.lookup.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.database.InMemoryRecordStore;
+import net.es.lookup.database.JsonRecordCursor;
+import net.es.lookup.database.QueryOptions;
+import net.es.lookup.protocol.binary.BinaryCodec;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+public class QueryServicesTest {
+
+  private static final int RECORDS = 20000;
+
+  @Test
+  public void testStreamsUnpagedCbor() throws Exception {
+    System.out.println("Testing Query Services - unpaged CBOR results");
+    InMemoryRecordStore store = new InMemoryRecordStore();
+    String expires = new DateTime().plusHours(2).toString(ISODateTimeFormat.dateTime());
+    for (int i = 0; i < RECORDS; i++) {
+      Message record = new Message();
+      record.add(ReservedKeys.RECORD_URI, String.format("lookup/host/%05d", i));
+      record.add(ReservedKeys.RECORD_TYPE, Arrays.asList("host"));
+      record.add(ReservedKeys.RECORD_EXPIRES, expires);
+      record.add("host-name", Arrays.asList("host" + i + ".es.net"));
+      store.publishService(record);
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final JsonRecordCursor cursor =
+        store.queryJsonCursor(new Message(), new Message(), new QueryOptions());
+    final int[] writtenBeforeLast = {0};
+    Iterator<String> records =
+        new Iterator<String>() {
+
+          private int read = 0;
+
+          @Override
+          public boolean hasNext() {
+
+            return cursor.hasNext();
+          }
+
+          @Override
+          public String next() {
+
+            if (++read == RECORDS) {
+              writtenBeforeLast[0] = out.size();
+            }
+            return cursor.next();
+          }
+
+          @Override
+          public void remove() {
+
+            throw new UnsupportedOperationException();
+          }
+        };
+    QueryServices.writeBinary(records, BinaryCodec.CBOR, out);
+    cursor.close();
+
+    // the records reach the output as they are read, not once the array is complete
+    assertTrue(writtenBeforeLast[0] > out.size() * 9 / 10);
+
+    List<Object> decoded = (List<Object>) BinaryCodec.CBOR.decode(out.toByteArray());
+    assertEquals(RECORDS, decoded.size());
+    assertEquals(
+        "lookup/host/19999", ((Map<String, Object>) decoded.get(RECORDS - 1)).get("uri"));
+  }
+}
@@ -0,0 +1,134 @@
+package net.es.lookup.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.database.QueryOptions;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+  private static final byte[] BODY = "[]".getBytes(StandardCharsets.UTF_8);
+
+  private QueryCache cache = new QueryCache(10, 1 << 20, 1024, 60);
+
+  @Test
+  public void normalizesQueries() {
+
+    Message first = new Message();
+    first.add("type", "service");
+    first.add("group-domains", Arrays.asList("es.net", "geant.org"));
+    Message second = new Message();
+    second.add("group-domains", Arrays.asList("geant.org", "es.net"));
+    second.add("type", "service");
+
+    Message ops = operators("ALL");
+    ops.add("group-domains", ReservedValues.RECORD_OPERATOR_ANY);
+    Message sameOps = operators("all");
+    sameOps.add("group-domains", "ANY");
+    assertEquals(key(first, ops), key(second, sameOps));
+    assertNotEquals(key(first, ops), key(first, operators("any")));
+
+    Message exact = operators(null);
+    exact.add("group-domains", "exact");
+    assertNotEquals(key(first, exact), key(second, exact));
+
+    QueryOptions hosts = new QueryOptions();
+    hosts.setFields(Arrays.asList("host-name", "uri"));
+    QueryOptions sameHosts = new QueryOptions();
+    sameHosts.setFields(Arrays.asList("uri", "host-name"));
+    assertEquals(cache.getKey(first, ops, hosts), cache.getKey(second, sameOps, sameHosts));
+    assertNotEquals(key(first, ops), cache.getKey(first, ops, hosts));
+
+    QueryOptions facets = new QueryOptions();
+    facets.setFacets(Arrays.asList("host-name", "uri"));
+    assertNotEquals(cache.getKey(first, ops, hosts), cache.getKey(first, ops, facets));
+  }
+
+  @Test
+  public void invalidatesQueriesOfTheChangedType() {
+
+    Message services = query("service");
+    Message all = new Message();
+    put(services);
+    put(all);
+
+    cache.recordChanged(ReservedValues.RECORD_VALUE_TYPE_HOST);
+    assertArrayEquals(BODY, cache.get(key(services, operators(null))).getBody());
+    assertNull(cache.get(key(all, operators(null))));
+
+    put(all);
+    cache.recordChanged(ReservedValues.RECORD_VALUE_TYPE_SERVICE);
+    assertNull(cache.get(key(services, operators(null))));
+    assertNull(cache.get(key(all, operators(null))));
+
+    put(services);
+    cache.allChanged();
+    assertNull(cache.get(key(services, operators(null))));
+  }
+
+  @Test
+  public void doesNotCacheResultsReadBeforeAChange() {
+
+    Message services = query("service");
+    QueryCache.Stamp stamp = cache.stamp(services, operators(null));
+    cache.recordChanged(ReservedValues.RECORD_VALUE_TYPE_SERVICE);
+    cache.put(key(services, operators(null)), stamp, BODY, null);
+    assertNull(cache.get(key(services, operators(null))));
+  }
+
+  @Test
+  public void doesNotCacheLargeResults() throws Exception {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CachingOutputStream copy = new CachingOutputStream(out, 4);
+    copy.write(BODY);
+    assertArrayEquals(BODY, copy.toByteArray());
+
+    copy.write(BODY);
+    copy.write(BODY);
+    assertNull(copy.toByteArray());
+    assertEquals(6, out.size());
+
+    Message services = query("service");
+    cache.put(key(services, operators(null)), cache.stamp(services, operators(null)), null, null);
+    assertNull(cache.get(key(services, operators(null))));
+  }
+
+  private void put(Message query) {
+
+    String key = key(query, operators(null));
+    cache.put(key, cache.stamp(query, operators(null)), BODY, null);
+    assertNotNull(cache.get(key));
+  }
+
+  private String key(Message query, Message operators) {
+
+    return cache.getKey(query, operators, new QueryOptions());
+  }
+
+  private static Message query(String type) {
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_TYPE, type);
+    return query;
+  }
+
+  private static Message operators(String op) {
+
+    Message operators = new Message();
+    if (op != null) {
+      operators.add(ReservedKeys.RECORD_OPERATOR, op);
+    }
+    return operators;
+  }
+}
@@ -0,0 +1,148 @@
+package net.es.lookup.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.database.InMemoryRecordStore;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordCacheTest {
+
+  private CountingRecordStore store;
+
+  @Before
+  public void createStore() throws Exception {
+
+    store = new CountingRecordStore();
+    store.publishServiceIfAbsent(record("lookup/host/1", "perfsonar1.es.net", 2));
+    store.publishServiceIfAbsent(record("lookup/host/2", "ps.geant.org", 2));
+    store.publishServiceIfAbsent(record("lookup/host/3", "old.es.net", -1));
+  }
+
+  @Test
+  public void readsRecordsOnceUntilInvalidated() throws Exception {
+
+    RecordCache cache = new RecordCache(10, 1 << 20, 60);
+
+    cache.getRecord(store, "lookup/host/1").add("host-name", "changed.es.net");
+    assertEquals("perfsonar1.es.net", cache.getRecord(store, "lookup/host/1").getKey("host-name"));
+    assertEquals(1, store.reads);
+    assertEquals(1, cache.getStatistics().getHits());
+    assertEquals(1, cache.getStatistics().getMisses());
+
+    cache.invalidate("lookup/host/1");
+    cache.getRecord(store, "lookup/host/1");
+    assertEquals(2, store.reads);
+
+    assertNull(cache.getRecord(store, "lookup/host/missing"));
+    assertNull(cache.getRecord(store, "lookup/host/missing"));
+    assertEquals(4, store.reads);
+  }
+
+  @Test
+  public void readsMissingRecordsAtOnce() throws Exception {
+
+    RecordCache cache = new RecordCache(10, 1 << 20, 60);
+    cache.getRecord(store, "lookup/host/1");
+
+    List<String> uris = Arrays.asList("lookup/host/1", "lookup/host/2", "lookup/host/missing");
+    Map<String, Message> records = cache.getRecords(store, uris, null);
+    assertEquals(2, records.size());
+    assertEquals("ps.geant.org", records.get("lookup/host/2").getKey("host-name"));
+    assertEquals(1, store.reads);
+    assertEquals(1, store.batchReads);
+
+    records = cache.getRecords(store, uris, Arrays.asList("host-name"));
+    assertEquals(2, records.get("lookup/host/1").getMap().size());
+    assertEquals("lookup/host/1", records.get("lookup/host/1").getURI());
+    assertNull(records.get("lookup/host/1").getJson());
+    assertEquals(2, store.batchReads);
+    assertEquals(3, cache.getStatistics().getHits());
+  }
+
+  @Test
+  public void doesNotKeepRecordsPastTheirExpiry() throws Exception {
+
+    RecordCache cache = new RecordCache(10, 1 << 20, 60);
+
+    cache.getRecord(store, "lookup/host/3");
+    cache.getRecord(store, "lookup/host/3");
+    assertEquals(2, store.reads);
+    assertEquals(0, cache.getStatistics().getSize());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedRecords() throws Exception {
+
+    RecordCache cache = new RecordCache(1, 1 << 20, 60);
+
+    cache.getRecord(store, "lookup/host/1");
+    cache.getRecord(store, "lookup/host/2");
+    cache.getRecord(store, "lookup/host/1");
+    assertEquals(3, store.reads);
+    assertEquals(2, cache.getStatistics().getEvictions());
+    assertEquals(1, cache.getStatistics().getSize());
+  }
+
+  @Test
+  public void staysWithinMemoryBudget() {
+
+    LruCache<String, String> cache = new LruCache<String, String>(10, 100);
+    long expires = System.currentTimeMillis() + 60000;
+
+    cache.put("a", "a", 40, expires);
+    cache.put("b", "b", 40, expires);
+    cache.get("a");
+    cache.put("c", "c", 40, expires);
+    assertEquals("a", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals(80, cache.getWeight());
+
+    cache.put("d", "d", 200, expires);
+    assertNull(cache.get("d"));
+    assertEquals(2, cache.getSize());
+  }
+
+  private static Message record(String uri, String hostName, int hours) {
+
+    Message message = new Message();
+    message.add(ReservedKeys.RECORD_URI, uri);
+    message.add(ReservedKeys.RECORD_TYPE, "host");
+    message.add(
+        ReservedKeys.RECORD_EXPIRES,
+        new DateTime().plusHours(hours).toString(ISODateTimeFormat.dateTime()));
+    message.add("host-name", hostName);
+    return message;
+  }
+
+  private static class CountingRecordStore extends InMemoryRecordStore {
+
+    private int reads = 0;
+    private int batchReads = 0;
+
+    @Override
+    public Message getRecordByUri(String recorduri) throws DatabaseException {
+
+      reads++;
+      return super.getRecordByUri(recorduri);
+    }
+
+    @Override
+    public Map<String, Message> getRecordsByUri(Collection<String> recorduris, List<String> fields)
+        throws DatabaseException {
+
+      batchReads++;
+      return super.getRecordsByUri(recorduris, fields);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package net.es.lookup.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+public class CompactRecordTest {
+
+  private static final String EXPIRES = "2030-01-01T00:00:00.000Z";
+
+  @Test
+  public void testCopiesMessage() {
+    System.out.println("Testing Compact Record - copy of a message");
+    Message message = message("lookup/host/1", "perfsonar1.es.net");
+    message.setJson("\"host-name\":[\"perfsonar1.es.net\"]");
+
+    CompactRecord record = CompactRecord.of(message);
+    assertEquals(message.getMap(), record);
+    assertEquals(message.getJson(), record.getJson());
+    assertEquals("perfsonar1.es.net", record.getFirst("host-name"));
+    assertEquals(ISODateTimeFormat.dateTime().parseMillis(EXPIRES), record.getExpires());
+    assertEquals(0, record.getLastUpdated());
+
+    // the record does not change with the message
+    ((List<String>) message.getKey("host-name")).add("ps.es.net");
+    assertEquals(Arrays.asList("perfsonar1.es.net"), record.get("host-name"));
+  }
+
+  @Test
+  public void testIsImmutable() {
+    System.out.println("Testing Compact Record - immutability");
+    CompactRecord record = CompactRecord.of(message("lookup/host/1", "perfsonar1.es.net"));
+
+    try {
+      record.put("host-name", "changed.es.net");
+      throw new AssertionError("Changed a record");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      ((List<String>) record.get("host-name")).set(0, "changed.es.net");
+      throw new AssertionError("Changed a value of a record");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    // messages made from the record are free to change
+    Message copy = record.toMessage();
+    ((List<String>) copy.getKey("host-name")).add("ps.es.net");
+    copy.add("description", "changed");
+    assertEquals(Arrays.asList("perfsonar1.es.net"), record.get("host-name"));
+    assertFalse(record.containsKey("description"));
+  }
+
+  @Test
+  public void testBuildsChangedCopy() {
+    System.out.println("Testing Compact Record - builder");
+    CompactRecord record =
+        CompactRecord.builder()
+            .putAll(message("lookup/host/1", "perfsonar1.es.net").getMap())
+            .setJson("\"host-name\":[\"perfsonar1.es.net\"]")
+            .setLastUpdated(1000)
+            .build();
+
+    Map<String, Object> renewal = new HashMap<String, Object>();
+    renewal.put(ReservedKeys.RECORD_EXPIRES, list("2031-01-01T00:00:00.000Z"));
+    CompactRecord renewed =
+        record.toBuilder().putAll(renewal).remove("type").setLastUpdated(2000).build();
+
+    assertEquals(ISODateTimeFormat.dateTime().parseMillis("2031-01-01T00:00:00.000Z"),
+        renewed.getExpires());
+    assertEquals(2000, renewed.getLastUpdated());
+    assertEquals(record.getJson(), renewed.getJson());
+    assertEquals(record.get("host-name"), renewed.get("host-name"));
+    assertEquals(1000, record.getLastUpdated());
+    assertNull(renewed.withJson(null).getJson());
+
+    CompactRecord noExpires =
+        CompactRecord.builder().put(ReservedKeys.RECORD_URI, "lookup/host/2").build();
+    assertEquals(Long.MAX_VALUE, noExpires.getExpires());
+    assertTrue(noExpires.containsKey(ReservedKeys.RECORD_URI));
+    assertFalse(noExpires.containsKey(ReservedKeys.RECORD_EXPIRES));
+  }
+
+  @Test
+  public void testSharesKeys() {
+    System.out.println("Testing Compact Record - shared keys");
+    CompactRecord first = CompactRecord.of(message("lookup/host/1", "perfsonar1.es.net"));
+    CompactRecord second = CompactRecord.of(message("lookup/host/2", "ps.geant.org"));
+
+    String firstKey = null;
+    for (String key : first.keySet()) {
+      if (key.equals("host-name")) {
+        firstKey = key;
+      }
+    }
+    for (String key : second.keySet()) {
+      if (key.equals("host-name")) {
+        assertSame(firstKey, key);
+      }
+    }
+  }
+
+  @Test
+  public void testMessageDropsStaleJson() {
+    System.out.println("Testing Compact Record - stored JSON of a changed message");
+    String json = "\"host-name\":[\"perfsonar1.es.net\"]";
+    Message message = message("lookup/host/1", "perfsonar1.es.net");
+
+    // the lease keys and the internal keys are not in the stored JSON
+    message.setJson(json);
+    Map<String, Object> renewal = new HashMap<String, Object>();
+    renewal.put(ReservedKeys.RECORD_EXPIRES, "2031-01-01T00:00:00.000Z");
+    message.getMap().putAll(renewal);
+    message.getMap().remove("_fingerprint");
+    assertEquals(json, message.getJson());
+
+    message.getMap().put("host-name", list("ps.es.net"));
+    assertNull(message.getJson());
+
+    message.setJson(json);
+    message.getMap().keySet().remove("type");
+    assertNull(message.getJson());
+
+    message.setJson(json);
+    Map<String, Object> map = message.getMap();
+    for (Map.Entry<String, Object> entry : map.entrySet()) {
+      if (entry.getKey().equals("host-name")) {
+        entry.setValue(list("perfsonar1.es.net"));
+      }
+    }
+    assertNull(message.getJson());
+
+    message.setJson(json);
+    message.retainKeys(Arrays.asList(ReservedKeys.RECORD_URI));
+    assertNull(message.getJson());
+    assertEquals(1, message.getMap().size());
+  }
+
+  private static Message message(String uri, String hostName) {
+
+    Message message = new Message();
+    message.add(ReservedKeys.RECORD_URI, uri);
+    message.add(ReservedKeys.RECORD_EXPIRES, EXPIRES);
+    message.add("type", list("host"));
+    message.add(new String("host-name"), list(hostName));
+    return message;
+  }
+
+  private static List<String> list(String value) {
+
+    List<String> list = new ArrayList<String>();
+    list.add(value);
+    return list;
+  }
+}
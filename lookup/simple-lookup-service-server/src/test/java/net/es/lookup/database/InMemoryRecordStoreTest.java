@@ -0,0 +1,471 @@
+package net.es.lookup.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.common.exception.internal.DuplicateEntryException;
+import net.es.lookup.common.exception.internal.RecordNotFoundException;
+import net.es.lookup.database.index.InvertedIndex;
+import net.es.lookup.protocol.json.JSONMessage;
+import net.sf.json.JSONArray;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryRecordStoreTest {
+
+  private InMemoryRecordStore store;
+
+  @Before
+  public void createStore() throws Exception {
+
+    store = new InMemoryRecordStore();
+    publish(record("lookup/host/1", "host", "host-name", "perfsonar1.es.net"));
+    publish(record("lookup/host/2", "host", "host-name", "ps.geant.org"));
+    Message service = record("lookup/service/3", "service", "service-type", "owamp");
+    service.add("group-domains", Arrays.asList("es.net", "internet2.edu"));
+    publish(service);
+  }
+
+  @Test
+  public void queriesAllRecords() throws Exception {
+
+    assertEquals(3, store.queryAll().size());
+    assertEquals(3, store.getCount());
+  }
+
+  @Test
+  public void queriesWithAllAndAnyOperators() throws Exception {
+
+    Message query = new Message();
+    query.add("type", "host");
+    query.add("host-name", "ps.geant.org");
+    assertEquals(1, store.query(query, query, operators(null)).size());
+
+    Message anyOperators = operators(ReservedValues.RECORD_OPERATOR_ANY);
+    query = new Message();
+    query.add("type", "service");
+    query.add("host-name", "ps.geant.org");
+    assertEquals(2, store.query(query, query, anyOperators).size());
+  }
+
+  @Test
+  public void queriesWithWildcards() throws Exception {
+
+    Message query = new Message();
+    query.add("host-name", "*.es.net");
+    List<Message> result = store.query(query, query, operators(null));
+    assertEquals(1, result.size());
+    assertEquals("lookup/host/1", result.get(0).getURI());
+
+    query = new Message();
+    query.add("host-name", "ps.*");
+    assertEquals(1, store.query(query, query, operators(null)).size());
+  }
+
+  @Test
+  public void queriesListValues() throws Exception {
+
+    Message query = new Message();
+    query.add("group-domains", "internet2.edu");
+    assertEquals(1, store.query(query, query, operators(null)).size());
+
+    query = new Message();
+    query.add("group-domains", Arrays.asList("es.net", "geant.org"));
+    Message ops = operators(null);
+    ops.add("group-domains", ReservedValues.RECORD_OPERATOR_ALL);
+    assertEquals(0, store.query(query, query, ops).size());
+
+    ops.add("group-domains", ReservedValues.RECORD_OPERATOR_ANY);
+    assertEquals(1, store.query(query, query, ops).size());
+  }
+
+  @Test(expected = DuplicateEntryException.class)
+  public void rejectsDuplicates() throws Exception {
+
+    Message query = new Message();
+    query.add("host-name", "ps.geant.org");
+    store.queryAndPublishService(
+        record("lookup/host/4", "host", "host-name", "ps.geant.org"), query, operators(null));
+  }
+
+  @Test
+  public void rejectsRegistrationsWithSameContent() throws Exception {
+
+    Message first = record("lookup/service/7", "service", "service-type", "bwctl");
+    first.add("group-domains", Arrays.asList("es.net", "internet2.edu"));
+    store.publishServiceIfAbsent(first);
+    assertNull(store.getRecordByUri("lookup/service/7").getKey("_fingerprint"));
+
+    Message second = record("lookup/service/8", "service", "service-type", "bwctl");
+    second.add(ReservedKeys.RECORD_EXPIRES, expires(3));
+    second.add("group-domains", Arrays.asList("internet2.edu", "es.net"));
+    try {
+      store.publishServiceIfAbsent(second);
+      fail("Registered the same record twice");
+    } catch (DuplicateEntryException e) {
+      // expected
+    }
+    assertNull(store.getRecordByUri("lookup/service/8"));
+
+    store.deleteRecord("lookup/service/7");
+    store.publishServiceIfAbsent(second);
+    assertNotNull(store.getRecordByUri("lookup/service/8"));
+  }
+
+  @Test
+  public void registersConcurrentDuplicatesOnce() throws Exception {
+
+    final int threads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger registered = new AtomicInteger();
+    List<Thread> registrations = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      final Message record = record("lookup/service/" + (20 + i), "service", "service-type", "ndt");
+      Thread thread =
+          new Thread() {
+
+            @Override
+            public void run() {
+
+              try {
+                start.await();
+                store.publishServiceIfAbsent(record);
+                registered.incrementAndGet();
+              } catch (DuplicateEntryException e) {
+                // expected for all but one
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            }
+          };
+      thread.start();
+      registrations.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : registrations) {
+      thread.join();
+    }
+    assertEquals(1, registered.get());
+    assertEquals(4, store.getCount());
+  }
+
+  @Test
+  public void releasesFingerprintOfFailedRegistration() throws Exception {
+
+    // the uri is taken, so the registration fails after claiming the fingerprint, with a
+    // database error as in the Mongo backend
+    Message record = record("lookup/host/1", "host", "host-name", "ps.es.net");
+    try {
+      store.publishServiceIfAbsent(record);
+      fail("Registered a record with a taken uri");
+    } catch (DatabaseException e) {
+      // expected
+    }
+    assertEquals("perfsonar1.es.net", store.getRecordByUri("lookup/host/1").getKey("host-name"));
+
+    record.add(ReservedKeys.RECORD_URI, "lookup/host/9");
+    store.publishServiceIfAbsent(record);
+    assertNotNull(store.getRecordByUri("lookup/host/9"));
+  }
+
+  @Test
+  public void registersRecordsInBulk() throws Exception {
+
+    List<Message> records = new ArrayList<Message>();
+    records.add(record("lookup/service/9", "service", "service-type", "ndt"));
+    records.add(record("lookup/service/10", "service", "service-type", "ndt"));
+    records.add(record("lookup/service/11", "service", "service-type", "ping"));
+
+    Map<String, String> errors = new HashMap<String, String>();
+    List<Message> registered = store.publishServicesIfAbsent(records, errors);
+    assertEquals(2, registered.size());
+    assertEquals("lookup/service/9", registered.get(0).getURI());
+    assertEquals("lookup/service/11", registered.get(1).getURI());
+    assertEquals(5, store.getCount());
+
+    assertTrue(errors.isEmpty());
+
+    // a taken uri is an error, not a duplicate left out, and the others are inserted
+    records.clear();
+    records.add(record("lookup/host/1", "host", "host-name", "ps.es.net"));
+    records.add(record("lookup/service/12", "service", "service-type", "bwctl"));
+    registered = store.publishServicesIfAbsent(records, errors);
+    assertEquals(1, registered.size());
+    assertEquals("lookup/service/12", registered.get(0).getURI());
+    assertEquals(1, errors.size());
+    assertTrue(errors.containsKey("lookup/host/1"));
+    assertNotNull(store.getRecordByUri("lookup/service/12"));
+  }
+
+  @Test
+  public void renewsRecordsInBulk() throws Exception {
+
+    List<String> uris = Arrays.asList("lookup/host/1", "lookup/host/2", "lookup/host/missing");
+    Map<String, Message> leases =
+        store.getRecordsByUri(uris, Arrays.asList(ReservedKeys.RECORD_EXPIRES));
+    assertEquals(2, leases.size());
+    assertEquals(2, leases.get("lookup/host/1").getMap().size());
+
+    Message renewal = new Message();
+    renewal.add(ReservedKeys.RECORD_EXPIRES, expires(5));
+    renewal.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
+    assertEquals(2, store.renewRecords(uris, renewal));
+
+    Message renewed = store.getRecordByUri("lookup/host/2");
+    assertEquals(renewal.getExpires(), renewed.getExpires());
+    assertEquals("ps.geant.org", renewed.getKey("host-name"));
+  }
+
+  @Test
+  public void renewsRecordUnlessPruned() throws Exception {
+
+    Message renewal = new Message();
+    renewal.add(ReservedKeys.RECORD_EXPIRES, expires(5));
+    renewal.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
+    List<String> fields = Arrays.asList(ReservedKeys.RECORD_EXPIRES, ReservedKeys.RECORD_STATE);
+
+    Message renewed = store.renewRecord("lookup/host/1", renewal, new Date(), fields);
+    assertEquals(3, renewed.getMap().size());
+    assertEquals(renewal.getExpires(), renewed.getExpires());
+    assertEquals("perfsonar1.es.net", store.getRecordByUri("lookup/host/1").getKey("host-name"));
+
+    Date afterExpiry = new DateTime().plusHours(3).toDate();
+    assertNull(store.renewRecord("lookup/host/2", renewal, afterExpiry, fields));
+    assertNull(store.renewRecord("lookup/host/missing", renewal, new Date(), fields));
+  }
+
+  @Test
+  public void keepsStoredJsonOfRecords() throws Exception {
+
+    Message record = store.getRecordByUri("lookup/host/1");
+    assertNotNull(record.getJson());
+    assertNull(record.getKey("_json"));
+
+    Message renewal = new Message();
+    renewal.add(ReservedKeys.RECORD_EXPIRES, expires(5));
+    store.renewRecords(Arrays.asList("lookup/host/1"), renewal);
+    assertEquals(record.getJson(), store.getRecordByUri("lookup/host/1").getJson());
+
+    Message update = new Message();
+    update.add(ReservedKeys.RECORD_EXPIRES, expires(5));
+    update.add("host-name", "ps.es.net");
+    Message updated = store.updateService("lookup/host/1", update);
+    assertTrue(updated.getJson().contains("ps.es.net"));
+  }
+
+  @Test
+  public void updatesAndDeletesRecords() throws Exception {
+
+    Message renew = new Message();
+    renew.add(ReservedKeys.RECORD_EXPIRES, expires(4));
+    renew.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
+    Message updated = store.updateService("lookup/host/1", renew);
+    assertEquals(
+        ReservedValues.RECORD_VALUE_STATE_RENEW, updated.getKey(ReservedKeys.RECORD_STATE));
+    assertEquals("perfsonar1.es.net", updated.getKey("host-name"));
+    assertNull(updated.getKey("_timestamp"));
+
+    assertNotNull(store.deleteRecord("lookup/host/1"));
+    assertNull(store.getRecordByUri("lookup/host/1"));
+    try {
+      store.deleteRecord("lookup/host/1");
+      fail("Deleted a record twice");
+    } catch (RecordNotFoundException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void deletesExpiredRecords() throws Exception {
+
+    Message expired = record("lookup/host/5", "host", "host-name", "old.es.net");
+    expired.add(ReservedKeys.RECORD_EXPIRES, expires(-1));
+    publish(expired);
+
+    assertEquals(1, store.deleteExpiredRecords(new Date()));
+    assertNull(store.getRecordByUri("lookup/host/5"));
+    assertEquals(3, store.getCount());
+  }
+
+  @Test
+  public void queriesThroughIndex() throws Exception {
+
+    store.setQueryIndex(new InvertedIndex(0));
+
+    Message query = new Message();
+    query.add("type", "host");
+    assertEquals(2, store.query(query, query, operators(null)).size());
+
+    store.deleteRecord("lookup/host/2");
+    publish(record("lookup/host/6", "host", "host-name", "ps.geant.org"));
+    List<Message> result = store.query(query, query, operators(null));
+    assertEquals(2, result.size());
+    assertEquals("lookup/host/6", result.get(1).getURI());
+  }
+
+  @Test
+  public void pagesWithContinuationToken() throws Exception {
+
+    QueryOptions options = new QueryOptions();
+    options.setMaxResults(2);
+    List<String> uris = new ArrayList<String>();
+
+    RecordCursor cursor = store.queryCursor(new Message(), operators(null), options);
+    while (cursor.hasNext()) {
+      uris.add(cursor.next().getURI());
+    }
+    assertEquals(2, uris.size());
+
+    options.setContinuation(cursor.getContinuationToken());
+    cursor = store.queryCursor(new Message(), operators(null), options);
+    while (cursor.hasNext()) {
+      uris.add(cursor.next().getURI());
+    }
+    assertEquals(Arrays.asList("lookup/host/1", "lookup/host/2", "lookup/service/3"), uris);
+  }
+
+  @Test
+  public void queriesRecordsAsJson() throws Exception {
+
+    QueryOptions options = new QueryOptions();
+    options.setMaxResults(2);
+    Message query = new Message();
+    query.add("group-domains", "es.net");
+
+    JsonRecordCursor cursor = store.queryJsonCursor(query, operators(null), options);
+    StringWriter writer = new StringWriter();
+    JSONMessage.writeJson(cursor, writer);
+    cursor.close();
+
+    JSONArray records = JSONArray.fromObject(writer.toString());
+    assertEquals(1, records.size());
+    assertEquals("lookup/service/3", records.getJSONObject(0).getString(ReservedKeys.RECORD_URI));
+    assertEquals("owamp", records.getJSONObject(0).getString("service-type"));
+    assertNotNull(cursor.getContinuationToken());
+  }
+
+  @Test
+  public void projectsRecordsOnFields() throws Exception {
+
+    QueryOptions options = new QueryOptions();
+    options.setFields(Arrays.asList("host-name", "group-domains"));
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_TYPE, "host");
+
+    RecordCursor cursor = store.queryCursor(query, operators(null), options);
+    Message record = cursor.next();
+    assertEquals("lookup/host/1", record.getURI());
+    assertEquals("perfsonar1.es.net", record.getKey("host-name"));
+    assertEquals(2, record.getMap().size());
+
+    JsonRecordCursor json = store.queryJsonCursor(query, operators(null), options);
+    StringWriter writer = new StringWriter();
+    JSONMessage.writeJson(json, writer);
+    json.close();
+
+    JSONArray records = JSONArray.fromObject(writer.toString());
+    assertEquals(2, records.size());
+    assertEquals(2, records.getJSONObject(1).size());
+    assertEquals("ps.geant.org", records.getJSONObject(1).getString("host-name"));
+  }
+
+  @Test
+  public void countsMatchingRecords() throws Exception {
+
+    Message query = new Message();
+    query.add("type", "host");
+    assertEquals(2, store.count(query, operators(null)));
+
+    query.add("host-name", "*.es.net");
+    assertEquals(1, store.count(query, operators(null)));
+    assertEquals(2, store.count(query, operators(ReservedValues.RECORD_OPERATOR_ANY)));
+    assertEquals(3, store.count(new Message(), operators(null)));
+
+    store.setQueryIndex(new InvertedIndex(0));
+    query = new Message();
+    query.add("type", "service");
+    assertEquals(1, store.count(query, operators(null)));
+    query.add("service-type", "bwctl");
+    assertEquals(0, store.count(query, operators(null)));
+  }
+
+  @Test
+  public void countsFacetValues() throws Exception {
+
+    Message service = record("lookup/service/4", "service", "service-type", "bwctl");
+    service.add("group-domains", Arrays.asList("es.net"));
+    publish(service);
+
+    Map<String, SortedMap<String, Long>> facets =
+        store.facets(new Message(), operators(null), Arrays.asList("type", "group-domains"), 10);
+    assertEquals(Long.valueOf(2), facets.get("type").get("host"));
+    assertEquals(Long.valueOf(2), facets.get("type").get("service"));
+    assertEquals(Long.valueOf(2), facets.get("group-domains").get("es.net"));
+    assertEquals(Long.valueOf(1), facets.get("group-domains").get("internet2.edu"));
+
+    // only the most frequent values are kept, the lowest first among equal counts
+    facets =
+        store.facets(new Message(), operators(null), Arrays.asList("type", "group-domains"), 1);
+    assertEquals(Arrays.asList("host"), new ArrayList<String>(facets.get("type").keySet()));
+    assertEquals(
+        Arrays.asList("es.net"), new ArrayList<String>(facets.get("group-domains").keySet()));
+
+    store.setQueryIndex(new InvertedIndex(0));
+    Message query = new Message();
+    query.add("type", "service");
+    facets = store.facets(query, operators(null), Arrays.asList("service-type", "host-name"), 10);
+    assertEquals(Arrays.asList("bwctl", "owamp"),
+        new ArrayList<String>(facets.get("service-type").keySet()));
+    assertTrue(facets.get("host-name").isEmpty());
+  }
+
+  private void publish(Message record) throws Exception {
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_URI, record.getURI());
+    store.queryAndPublishService(record, query, operators(null));
+  }
+
+  private static Message record(String uri, String type, String key, String value) {
+
+    Message message = new Message();
+    message.add(ReservedKeys.RECORD_URI, uri);
+    message.add(ReservedKeys.RECORD_TYPE, type);
+    message.add(ReservedKeys.RECORD_EXPIRES, expires(2));
+    message.add(key, value);
+    return message;
+  }
+
+  private static Message operators(String op) {
+
+    Message operators = new Message();
+    if (op != null) {
+      operators.add(ReservedKeys.RECORD_OPERATOR, op);
+    }
+    return operators;
+  }
+
+  private static String expires(int hours) {
+
+    return new DateTime().plusHours(hours).toString(ISODateTimeFormat.dateTime());
+  }
+}
@@ -0,0 +1,141 @@
+package net.es.lookup.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import java.util.Arrays;
+import java.util.Iterator;
+import net.sf.json.JSONObject;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class MongoJsonRecordCursorTest {
+
+  private static final String STORED = "\"type\":[\"host\"],\"host-name\":[\"ps1.es.net\"]";
+
+  @Test
+  public void testTranscodesDocuments() {
+    System.out.println("Testing Mongo JSON Record Cursor - transcoding");
+    ObjectId id = new ObjectId();
+    Document stored =
+        new Document("_id", new ObjectId())
+            .append(RecordJson.FIELD, STORED)
+            .append("type", Arrays.asList("host"))
+            .append("ttl", "PT2H")
+            .append("host-name", Arrays.asList("ps1.es.net"))
+            .append("_timestamp", 1L);
+    Document storedLast =
+        new Document("_id", new ObjectId())
+            .append("type", Arrays.asList("host"))
+            .append("host-name", Arrays.asList("ps1.es.net"))
+            .append("ttl", "PT2H")
+            .append(RecordJson.FIELD, STORED);
+    Document unstored =
+        new Document("_id", id)
+            .append("type", Arrays.asList("host"))
+            .append("ttl", 7200)
+            .append("host-name", Arrays.asList("ps1.es.net"))
+            .append("host-enabled", true)
+            .append("host-load", Arrays.asList(0.5, 1L));
+
+    MongoJsonRecordCursor cursor =
+        new MongoJsonRecordCursor(new Cursor(Arrays.asList(stored, storedLast, unstored)));
+
+    JSONObject expected =
+        JSONObject.fromObject("{'ttl':'PT2H', 'type':['host'], 'host-name':['ps1.es.net']}");
+    assertEquals(expected, JSONObject.fromObject(cursor.next()));
+    assertEquals(expected, JSONObject.fromObject(cursor.next()));
+    assertEquals(
+        JSONObject.fromObject(
+            "{'type':['host'], 'ttl':7200, 'host-name':['ps1.es.net'], 'host-enabled':true,"
+                + " 'host-load':[0.5, 1]}"),
+        JSONObject.fromObject(cursor.next()));
+    assertFalse(cursor.hasNext());
+
+    assertEquals(ContinuationToken.encode(id.toHexString()), cursor.getContinuationToken());
+    cursor.close();
+  }
+
+  @Test
+  public void testRejectsUnsupportedValues() {
+    System.out.println("Testing Mongo JSON Record Cursor - unsupported values");
+    Document nulls =
+        new Document("_id", new ObjectId())
+            .append("type", Arrays.asList("host"))
+            .append("host-name", Arrays.asList("ps1.es.net", null));
+    Document nested =
+        new Document("_id", new ObjectId())
+            .append("type", Arrays.asList("host"))
+            .append("host-os", new Document("name", "linux"));
+
+    MongoJsonRecordCursor cursor =
+        new MongoJsonRecordCursor(new Cursor(Arrays.asList(nulls, nested)));
+
+    assertEquals(
+        JSONObject.fromObject("{'type':['host'], 'host-name':['ps1.es.net', null]}"),
+        JSONObject.fromObject(cursor.next()));
+    try {
+      cursor.next();
+      fail("Expected the nested document to be rejected");
+    } catch (IllegalStateException e) {
+      // like the cursors of the other stores
+    }
+    cursor.close();
+  }
+
+  private static class Cursor implements MongoCursor<RawBsonDocument> {
+
+    private final Iterator<Document> docs;
+
+    Cursor(Iterable<Document> docs) {
+
+      this.docs = docs.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+
+      return docs.hasNext();
+    }
+
+    @Override
+    public RawBsonDocument next() {
+
+      return new RawBsonDocument(docs.next(), new DocumentCodec());
+    }
+
+    @Override
+    public RawBsonDocument tryNext() {
+
+      return hasNext() ? next() : null;
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public ServerCursor getServerCursor() {
+
+      return null;
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+
+      return null;
+    }
+
+    @Override
+    public void remove() {
+
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package net.es.lookup.database.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InvertedIndexTest {
+
+  private InvertedIndex index;
+
+  @Before
+  public void createIndex() {
+
+    index = new InvertedIndex(0);
+    index.add("lookup/service/1", record("service", "owamp", 10));
+    index.add("lookup/service/2", record("service", "bwctl", 10));
+    index.add("lookup/host/3", record("host", null, 20));
+  }
+
+  @Test
+  public void answersAllQueries() {
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_TYPE, "service");
+    query.add(ReservedKeys.RECORD_SERVICE_TYPE, "owamp");
+
+    assertEquals(uris("lookup/service/1"), index.lookup(query, operators(null)));
+  }
+
+  @Test
+  public void answersAnyQueries() {
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_TYPE, "host");
+    query.add(ReservedKeys.RECORD_SERVICE_TYPE, "owamp");
+
+    assertEquals(
+        uris("lookup/service/1", "lookup/host/3"),
+        index.lookup(query, operators(ReservedValues.RECORD_OPERATOR_ANY)));
+  }
+
+  @Test
+  public void answersListQueries() {
+
+    Message query = new Message();
+    query.add("group-domains", Arrays.asList("es.net", "internet2.edu"));
+    Message operators = operators(null);
+
+    operators.add("group-domains", ReservedValues.RECORD_OPERATOR_ALL);
+    assertEquals(uris("lookup/service/1", "lookup/service/2"), index.lookup(query, operators));
+
+    query.add("group-domains", Arrays.asList("geant.org", "internet2.edu"));
+    operators.add("group-domains", ReservedValues.RECORD_OPERATOR_ANY);
+    assertEquals(uris("lookup/service/1", "lookup/service/2"), index.lookup(query, operators));
+  }
+
+  @Test
+  public void doesNotAnswerWildcardQueries() {
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_SERVICE_TYPE, "owa*");
+
+    assertNull(index.lookup(query, operators(null)));
+  }
+
+  @Test
+  public void answersPrefixAndSuffixQueries() {
+
+    index = new InvertedIndex(0, Arrays.asList(ReservedKeys.RECORD_HOST_NAME));
+    index.add("lookup/host/1", host("perfsonar1.es.net"));
+    index.add("lookup/host/2", host("ps.geant.org"));
+    index.add("lookup/host/3", host("ps-west.es.net"));
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_HOST_NAME, "*.es.net");
+    assertEquals(uris("lookup/host/1", "lookup/host/3"), index.lookup(query, operators(null)));
+
+    query.add(ReservedKeys.RECORD_HOST_NAME, "ps*");
+    assertEquals(uris("lookup/host/2", "lookup/host/3"), index.lookup(query, operators(null)));
+
+    // the wildcard is matched literally, '.' is not any character
+    query.add(ReservedKeys.RECORD_HOST_NAME, "ps.*");
+    assertEquals(uris("lookup/host/2"), index.lookup(query, operators(null)));
+
+    query.add(ReservedKeys.RECORD_HOST_NAME, "ps*net");
+    assertNull(index.lookup(query, operators(null)));
+
+    index.remove("lookup/host/3");
+    query.add(ReservedKeys.RECORD_HOST_NAME, "*.es.net");
+    assertEquals(uris("lookup/host/1"), index.lookup(query, operators(null)));
+  }
+
+  @Test
+  public void updatesAndRemovesRecords() {
+
+    Map<String, Object> renew = new HashMap<String, Object>();
+    renew.put(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
+    index.update("lookup/service/2", renew);
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_RENEW);
+    assertEquals(uris("lookup/service/2"), index.lookup(query, operators(null)));
+
+    query = new Message();
+    query.add(ReservedKeys.RECORD_SERVICE_TYPE, "bwctl");
+    assertEquals(uris("lookup/service/2"), index.lookup(query, operators(null)));
+
+    index.remove("lookup/service/2");
+    assertTrue(index.lookup(query, operators(null)).isEmpty());
+  }
+
+  @Test
+  public void removesExpiredRecords() {
+
+    assertEquals(2, index.removeExpired(new Date(15)));
+    assertEquals(1, index.size());
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_TYPE, "service");
+    assertTrue(index.lookup(query, operators(null)).isEmpty());
+  }
+
+  @Test
+  public void limitsCandidates() {
+
+    index = new InvertedIndex(1);
+    index.add("lookup/service/1", record("service", "owamp", 10));
+    index.add("lookup/service/2", record("service", "bwctl", 10));
+
+    Message query = new Message();
+    query.add(ReservedKeys.RECORD_TYPE, "service");
+    assertNull(index.lookup(query, operators(null)));
+  }
+
+  private static Map<String, Object> record(String type, String serviceType, long expires) {
+
+    Map<String, Object> record = new HashMap<String, Object>();
+    record.put(ReservedKeys.RECORD_TYPE, type);
+    record.put(ReservedKeys.RECORD_STATE, ReservedValues.RECORD_VALUE_STATE_REGISTER);
+    record.put("_timestamp", new Date(expires));
+    if (serviceType != null) {
+      record.put(ReservedKeys.RECORD_SERVICE_TYPE, serviceType);
+      record.put("group-domains", Arrays.asList("es.net", "internet2.edu"));
+    }
+    return record;
+  }
+
+  private static Map<String, Object> host(String hostName) {
+
+    Map<String, Object> record = record("host", null, 10);
+    record.put(ReservedKeys.RECORD_HOST_NAME, hostName);
+    return record;
+  }
+
+  private static Message operators(String op) {
+
+    Message operators = new Message();
+    if (op != null) {
+      operators.add(ReservedKeys.RECORD_OPERATOR, op);
+    }
+    return operators;
+  }
+
+  private static Set<String> uris(String... uris) {
+
+    return new HashSet<String>(Arrays.asList(uris));
+  }
+}
@@ -204,6 +204,52 @@ public class DatabaseIT {
     System.out.println("Query and Publish test - \tPASS\t");
   }
 
+  @Test
+  public void rejectsDuplicateContentButNotDuplicateUri() {
+
+    database.ensureIndexes(null);
+
+    Message message = new Message();
+    message.add("type", "test");
+    message.add("uri", UUID.randomUUID().toString());
+    message.add("test-id", String.valueOf(2));
+    message.add("ttl", "PT10M");
+    leaseManager.requestLease(message);
+
+    try {
+      database.publishServiceIfAbsent(message);
+    } catch (DatabaseException e) {
+      fail("Database exception: " + e.getMessage());
+    } catch (DuplicateEntryException e) {
+      fail("Invalid duplicate entry exception");
+    }
+
+    Message sameContent = new Message();
+    sameContent.getMap().putAll(message.getMap());
+    sameContent.add("uri", UUID.randomUUID().toString());
+    try {
+      database.publishServiceIfAbsent(sameContent);
+      fail("Duplicate Entry not detected");
+    } catch (DatabaseException e) {
+      fail("Database exception: " + e.getMessage());
+    } catch (DuplicateEntryException e) {
+      // expected
+    }
+
+    // a uri collision is not a duplicate registration
+    Message sameUri = new Message();
+    sameUri.getMap().putAll(message.getMap());
+    sameUri.add("test-id", String.valueOf(3));
+    try {
+      database.publishServiceIfAbsent(sameUri);
+      fail("Uri collision not detected");
+    } catch (DatabaseException e) {
+      // expected
+    } catch (DuplicateEntryException e) {
+      fail("Uri collision reported as a duplicate entry");
+    }
+  }
+
   @Test
   public void updatesRecord() {
     Message message = new Message();
@@ -5,15 +5,20 @@ import net.es.lookup.common.LeaseManager;
 import net.es.lookup.common.Message;
 import net.es.lookup.common.exception.ParserException;
 import net.es.lookup.common.exception.internal.DatabaseException;
+import net.es.lookup.database.QueryOptions;
 import net.es.lookup.database.ServiceDaoMongoDb;
 import net.es.lookup.protocol.json.JSONParser;
 import net.es.lookup.records.Record;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -68,8 +73,7 @@ public class QueryServiceIT {
 
     try {
       long count = database.getCount();
-      QueryServices queryServices = new QueryServices();
-      String jsonResult = queryServices.query(new Message(), 0);
+      String jsonResult = query(new Message());
       List<Record> records = JSONParser.toRecords(jsonResult);
       assertEquals(records.size(), count);
     } catch (DatabaseException e) {
@@ -120,10 +124,9 @@ public class QueryServiceIT {
 
     try {
       long count = 50;
-      QueryServices queryServices = new QueryServices();
       Message query = new Message();
       query.add("test-organization", "ES*");
-      String jsonResult = queryServices.query(query, 0);
+      String jsonResult = query(query);
       List<Record> records = JSONParser.toRecords(jsonResult);
       assertEquals(count, records.size());
     } catch (ParserException e) {
@@ -172,12 +175,11 @@ public class QueryServiceIT {
 
     try {
       long count = 0;
-      QueryServices queryServices = new QueryServices();
       Message query = new Message();
       query.add("test-organization", "ESnet");
       query.add("test-name", "bwctl");
       query.add("operator", "ALL");
-      String jsonResult = queryServices.query(query, 0);
+      String jsonResult = query(query);
       List<Record> records = JSONParser.toRecords(jsonResult);
       assertEquals(count, records.size());
     } catch (ParserException e) {
@@ -226,12 +228,11 @@ public class QueryServiceIT {
 
     try {
       long count = 100;
-      QueryServices queryServices = new QueryServices();
       Message query = new Message();
       query.add("test-organization", "ESnet");
       query.add("test-name", "bwctl");
       query.add("operator", "ANY");
-      String jsonResult = queryServices.query(query, 0);
+      String jsonResult = query(query);
       List<Record> records = JSONParser.toRecords(jsonResult);
       assertEquals(count, records.size());
     } catch (ParserException e) {
@@ -280,14 +281,13 @@ public class QueryServiceIT {
 
     try {
       long count = 100;
-      QueryServices queryServices = new QueryServices();
       Message query = new Message();
       List<String> values = new ArrayList<String>();
       values.add("ESnet");
       values.add("LBL");
       query.add("test-organization", values);
       query.add("test-organization-operator", "ANY");
-      String jsonResult = queryServices.query(query, 0);
+      String jsonResult = query(query);
       List<Record> records = JSONParser.toRecords(jsonResult);
       assertEquals(count, records.size());
     } catch (ParserException e) {
@@ -296,4 +296,17 @@ public class QueryServiceIT {
 
     System.out.println("Query using wildcard - \tPASS\t");
   }
+
+  /** Runs a query and returns the JSON array it streams. */
+  private static String query(Message request) {
+
+    try {
+      Response response = new QueryServices().streamQuery(request, new QueryOptions(), false);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ((StreamingOutput) response.getEntity()).write(out);
+      return out.toString("UTF-8");
+    } catch (IOException e) {
+      throw new AssertionError("Error streaming results: " + e.getMessage());
+    }
+  }
 }
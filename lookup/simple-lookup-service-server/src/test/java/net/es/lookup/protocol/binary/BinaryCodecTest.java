@@ -0,0 +1,85 @@
+package net.es.lookup.protocol.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.protocol.json.JsonCodec;
+import org.junit.Test;
+
+public class BinaryCodecTest {
+
+  private static final BinaryCodec[] CODECS = {BinaryCodec.CBOR, BinaryCodec.MSGPACK};
+
+  @Test
+  public void testMediaTypes() {
+    System.out.println("Testing Binary Codec - media types");
+    assertSame(BinaryCodec.CBOR, BinaryCodec.forMediaType("application/cbor"));
+    assertSame(BinaryCodec.MSGPACK, BinaryCodec.forMediaType("Application/X-MsgPack; q=0.5"));
+    assertNull(BinaryCodec.forMediaType("application/json"));
+    assertNull(BinaryCodec.forMediaType(null));
+  }
+
+  @Test
+  public void testRoundTripsRecords() throws Exception {
+    System.out.println("Testing Binary Codec - records");
+    StringBuilder longValue = new StringBuilder();
+    for (int i = 0; i < 70000; i++) {
+      longValue.append((char) ('a' + i % 26));
+    }
+
+    Map<String, Object> record = new LinkedHashMap<String, Object>();
+    record.put("type", Arrays.asList("host"));
+    record.put("host-name", Arrays.asList("ps1.es.net", "h\u00f4te", ""));
+    record.put("ttl", "PT2H");
+    record.put("long", longValue.toString());
+    record.put("counts", Arrays.asList(0L, 23L, 24L, 255L, 65536L, -1L, -33L, -129L,
+        Long.MAX_VALUE, Long.MIN_VALUE));
+    record.put("ratio", 0.25);
+    record.put("flag", Boolean.TRUE);
+    record.put("none", null);
+    for (int i = 0; i < 20; i++) {
+      record.put("key-" + i, String.valueOf(i));
+    }
+
+    for (BinaryCodec codec : CODECS) {
+      assertEquals(codec.getMediaType(), record, codec.decode(codec.encode(record)));
+    }
+  }
+
+  @Test
+  public void testStreamsArrays() throws Exception {
+    System.out.println("Testing Binary Codec - streamed arrays");
+    String json = "[{\"type\":[\"host\"],\"uri\":\"lookup/host/1\"},{\"type\":[\"service\"]}]";
+    List<?> records = (List<?>) JsonCodec.decodeValue(json);
+
+    for (BinaryCodec codec : CODECS) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      BinaryCodec.ArrayEncoder array = codec.startArray(out);
+      for (Object record : records) {
+        array.write(record);
+      }
+      array.close();
+      assertEquals(codec.getMediaType(), records, codec.decode(out.toByteArray()));
+      assertEquals(codec.getMediaType(), records, codec.decodeArray(codec.encode(records)));
+    }
+
+    // CBOR streams an indefinite-length array, MessagePack buffers an array with its length
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryCodec.CBOR.startArray(out).close();
+    assertArrayEquals(new byte[] {(byte) 0x9f, (byte) 0xff}, out.toByteArray());
+    assertTrue(BinaryCodec.CBOR.streamsArrays());
+    out.reset();
+    BinaryCodec.MSGPACK.startArray(out).close();
+    assertArrayEquals(new byte[] {(byte) 0x90}, out.toByteArray());
+    assertFalse(BinaryCodec.MSGPACK.streamsArrays());
+  }
+}
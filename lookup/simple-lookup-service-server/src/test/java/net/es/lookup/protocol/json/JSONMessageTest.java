@@ -0,0 +1,77 @@
+package net.es.lookup.protocol.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+public class JSONMessageTest {
+
+  @Test
+  public void testStoredJsonMatchesSerializedRecord() throws Exception {
+    System.out.println("Testing JSON Message - stored JSON");
+    Message record = record();
+    String expected = JSONMessage.toString(record);
+
+    Message stored = record();
+    stored.setJson(JSONMessage.toStoredJson(record.getMap()));
+    assertEquals(
+        JSONObject.fromObject(expected), JSONObject.fromObject(JSONMessage.toString(stored)));
+
+    // renewals only change the lease keys, which are serialized from the map
+    stored.getMap().put(ReservedKeys.RECORD_TTL, new ArrayList<String>());
+    stored.getMap().put(ReservedKeys.RECORD_EXPIRES, "2030-01-01T00:00:00.000Z");
+    JSONObject renewed = JSONObject.fromObject(JSONMessage.toString(stored));
+    assertEquals("2030-01-01T00:00:00.000Z", renewed.getString(ReservedKeys.RECORD_EXPIRES));
+    assertEquals(0, renewed.getJSONArray(ReservedKeys.RECORD_TTL).size());
+    assertEquals("ps.es.net", renewed.getJSONArray("host-name").getString(1));
+
+    StringWriter writer = new StringWriter();
+    List<Message> records = Arrays.asList(stored, record());
+    JSONMessage.write(records.iterator(), writer);
+    JSONArray array = JSONArray.fromObject(writer.toString());
+    assertEquals(renewed, array.getJSONObject(0));
+    assertEquals(JSONArray.fromObject(JSONMessage.toString(records)), array);
+
+    stored.add("host-name", "other.es.net");
+    assertNull(stored.getJson());
+  }
+
+  @Test
+  public void testStoredJsonChanges() {
+    System.out.println("Testing JSON Message - stored JSON changes");
+    Map<String, Object> renewal = new HashMap<String, Object>();
+    renewal.put(ReservedKeys.RECORD_EXPIRES, "2030-01-01T00:00:00.000Z");
+    renewal.put(ReservedKeys.RECORD_STATE, "renewed");
+    renewal.put("_timestamp", "2030-01-01T00:00:00.000Z");
+    assertFalse(JSONMessage.isStoredJsonChangedBy(renewal));
+
+    renewal.put("host-name", "other.es.net");
+    assertTrue(JSONMessage.isStoredJsonChangedBy(renewal));
+  }
+
+  private static Message record() {
+
+    Message record = new Message();
+    record.add(ReservedKeys.RECORD_URI, "lookup/host/1");
+    record.add(ReservedKeys.RECORD_TYPE, "host");
+    record.add(ReservedKeys.RECORD_TTL, "PT2H");
+    record.add(ReservedKeys.RECORD_EXPIRES, "2029-01-01T00:00:00.000Z");
+    record.add(ReservedKeys.RECORD_STATE, "registered");
+    record.add("host-name", Arrays.asList("perfsonar1.es.net", "ps.es.net"));
+    record.add("host-os", "Linux \"CentOS\"\n");
+    return record;
+  }
+}
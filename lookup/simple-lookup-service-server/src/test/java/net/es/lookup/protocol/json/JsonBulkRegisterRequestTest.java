@@ -0,0 +1,70 @@
+package net.es.lookup.protocol.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.RegisterRequest;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ReservedValues;
+import net.es.lookup.common.ResponseCodes;
+import org.junit.Test;
+
+public class JsonBulkRegisterRequestTest {
+
+  @Test
+  public void testBulkRegisterRequestParser() {
+    System.out.println("Testing JSON Bulk Register Request Parser - Base Test");
+    String bulkRegistration =
+        "[{'type':'host', 'host-name':['ps1.es.net','ps2.es.net'], 'ttl':'PT2H'},"
+            + " {'type':'service', 'service-type':'owamp'}, 'not-a-record']";
+
+    JsonBulkRegisterRequest request = new JsonBulkRegisterRequest(bulkRegistration);
+    assertEquals(JsonBulkRegisterRequest.VALID, request.getStatus());
+
+    List<RegisterRequest> records = request.getRecords();
+    assertEquals(3, records.size());
+    assertEquals("host", records.get(0).getRecordType());
+    assertEquals(2, ((List) records.get(0).getKey("host-name")).size());
+    assertEquals("PT2H", records.get(0).getTTL());
+    assertEquals("service", records.get(1).getRecordType());
+    assertEquals(null, records.get(2).getRecordType());
+  }
+
+  @Test
+  public void testBulkRegisterRequestRejectsObject() {
+    System.out.println("Testing JSON Bulk Register Request Parser - not an array");
+    String bulkRegistration = "{'type':'host', 'host-name':'ps1.es.net'}";
+
+    JsonBulkRegisterRequest request = new JsonBulkRegisterRequest(bulkRegistration);
+    assertEquals(JsonBulkRegisterRequest.INCORRECT_FORMAT, request.getStatus());
+  }
+
+  @Test
+  public void testBulkRegisterResponse() {
+    System.out.println("Testing JSON Bulk Register Response Creation");
+    Message duplicate = new Message();
+    duplicate.add(ReservedKeys.ERROR_CODE, ResponseCodes.ERROR_BULK_DUPLICATE);
+    duplicate.add(
+        ReservedKeys.ERROR_MESSAGE, ReservedValues.RECORD_BULKREGISTER_DUPLICATE_ERRORMESSAGE);
+    Map<Integer, Message> failures = new HashMap<Integer, Message>();
+    failures.put(1, duplicate);
+
+    JsonBulkRegisterResponse response = new JsonBulkRegisterResponse();
+    response.addTotalRecordsCount(2);
+    response.updateRegistered(Arrays.asList("lookup/host/1", ""));
+    response.updateFailures(failures);
+
+    assertEquals("2", response.getKey(ReservedKeys.RECORD_BULKRENEW_TOTALRECORDS));
+    assertEquals("1", response.getKey(ReservedKeys.RECORD_BULKREGISTER_REGISTEREDCOUNT));
+    assertEquals("1", response.getKey(ReservedKeys.RECORD_BULKRENEW_FAILURECOUNT));
+    assertEquals(
+        "1", ((List) response.getKey(ReservedKeys.RECORD_BULKREGISTER_FAILURERECORDS)).get(0));
+    assertEquals(
+        String.valueOf(ResponseCodes.ERROR_BULK_DUPLICATE),
+        ((List) response.getKey(ReservedKeys.ERROR_CODE)).get(0));
+  }
+}
@@ -0,0 +1,110 @@
+package net.es.lookup.protocol.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import net.es.lookup.common.Message;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONStringer;
+import org.junit.Test;
+
+public class JsonCodecTest {
+
+  @Test
+  public void testDecodesLenientJson() {
+    System.out.println("Testing JSON Codec - lenient syntax");
+    String json =
+        "{'type':'host', \"host-name\":[\"ps1.es.net\", 'ps2.es.net', 7,],"
+            + " host-os: Linux, 'ttl':7200, 'group':{'a':['b']}, 'note':'it\\'s \\u00e9\\n',}";
+
+    Map<String, Object> record = JsonCodec.decodeObject(json, false);
+    assertEquals("host", record.get("type"));
+    assertEquals(Arrays.asList("ps1.es.net", "ps2.es.net", ""), record.get("host-name"));
+    assertEquals("Linux", record.get("host-os"));
+    assertEquals("it's \u00e9\n", record.get("note"));
+    assertEquals(4, record.size());
+
+    record = JsonCodec.decodeObject(json, true);
+    assertEquals(Arrays.asList("host"), record.get("type"));
+
+    // values spanning several reads of the buffer
+    StringBuilder longValue = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      longValue.append("a\\\"b");
+    }
+    record = JsonCodec.decodeObject("{'long':\"" + longValue + "\"}", false);
+    assertEquals(longValue.toString().replace("\\", ""), record.get("long"));
+  }
+
+  @Test
+  public void testDecodesArraysOfObjects() {
+    System.out.println("Testing JSON Codec - arrays of objects");
+    List<Map<String, Object>> records =
+        JsonCodec.decodeObjects("[{'type':'host'}, 'not-a-record', {}]", true);
+    assertEquals(3, records.size());
+    assertEquals(Arrays.asList("host"), records.get(0).get("type"));
+    assertNull(records.get(1));
+    assertEquals(0, records.get(2).size());
+  }
+
+  @Test
+  public void testRejectsInvalidJson() {
+    System.out.println("Testing JSON Codec - invalid syntax");
+    String[] invalid = {"", "['a']", "{'a':'b'", "{'a' 'b'}", "{'a':'b\n'}", "{'a':['b' 'c']}"};
+    for (String json : invalid) {
+      try {
+        JsonCodec.decodeObject(json, false);
+        throw new AssertionError("Accepted " + json);
+      } catch (JsonFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testEncodesLikeJsonLib() throws Exception {
+    System.out.println("Testing JSON Codec - encoding");
+    String value = "quote \" backslash \\ tag </a> tab \t control \u0001";
+
+    StringWriter out = new StringWriter();
+    new JsonWriter(out).beginObject().name("key").value(value).endObject();
+    assertEquals(new JSONStringer().object().key("key").value(value).endObject().toString(),
+        out.toString());
+
+    Message record = new Message();
+    record.add("type", "host");
+    record.add("host-name", Arrays.asList("ps1.es.net", "ps2.es.net"));
+    record.setJson("\"host-os\":\"Linux\"");
+    out = new StringWriter();
+    JsonCodec.writeMessage(new JsonWriter(out), record);
+    JSONObject json = JSONObject.fromObject(out.toString());
+    assertEquals("Linux", json.getString("host-os"));
+    assertEquals(1, json.size());
+  }
+
+  @Test
+  public void testEncodesLiterals() throws Exception {
+    System.out.println("Testing JSON Codec - numbers and booleans");
+    Message record = new Message();
+    record.add("ttl", 7200);
+    record.add("enabled", Boolean.TRUE);
+    record.add("ports", Arrays.asList(80, 443));
+    StringWriter out = new StringWriter();
+    JsonCodec.writeMessage(new JsonWriter(out), record);
+    JSONObject json = JSONObject.fromObject(out.toString());
+    assertEquals(JSONObject.fromObject(record.getMap()), json);
+
+    record.add("created", new Date());
+    try {
+      JsonCodec.writeMessage(new JsonWriter(new StringWriter()), record);
+      throw new AssertionError("Wrote a date");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
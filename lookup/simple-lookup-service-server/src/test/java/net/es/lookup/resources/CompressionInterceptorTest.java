@@ -0,0 +1,114 @@
+package net.es.lookup.resources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import net.es.lookup.common.exception.api.RequestEntityTooLargeException;
+import org.junit.Test;
+
+public class CompressionInterceptorTest {
+
+  @Test
+  public void testNegotiatesEncoding() {
+    System.out.println("Testing Compression - Accept-Encoding negotiation");
+    assertEquals("gzip", CompressionInterceptor.negotiate("gzip, deflate"));
+    assertEquals("gzip", CompressionInterceptor.negotiate("deflate, GZIP"));
+    assertEquals("deflate", CompressionInterceptor.negotiate("gzip;q=0.5, deflate"));
+    assertEquals("deflate", CompressionInterceptor.negotiate("gzip;q=0, *"));
+    assertEquals("gzip", CompressionInterceptor.negotiate("*;q=0.1"));
+    assertNull(CompressionInterceptor.negotiate("identity"));
+    assertNull(CompressionInterceptor.negotiate("br, *;q=0"));
+    assertNull(CompressionInterceptor.negotiate(null));
+  }
+
+  @Test
+  public void testCompressesLargeBodies() throws Exception {
+    System.out.println("Testing Compression - large bodies");
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 500; i++) {
+      json.append("{\"type\":[\"host\"],\"host-name\":[\"ps").append(i).append(".es.net\"]},");
+    }
+    byte[] body = json.append("{}]").toString().getBytes("UTF-8");
+
+    for (String encoding : new String[] {"gzip", "deflate"}) {
+      MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
+      headers.putSingle(HttpHeaders.CONTENT_LENGTH, body.length);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      CompressingOutputStream stream = new CompressingOutputStream(out, headers, encoding, 1024, 6);
+      stream.write(body, 0, 100);
+      stream.write(body, 100, body.length - 100);
+      stream.close();
+
+      assertEquals(encoding, headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+      assertNull(headers.get(HttpHeaders.CONTENT_LENGTH));
+      assertEquals(true, out.size() * 5 < body.length);
+
+      InputStream in = new ByteArrayInputStream(out.toByteArray());
+      in = encoding.equals("gzip") ? new GZIPInputStream(in) : new InflaterInputStream(in);
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int count = in.read(buffer); count > 0; count = in.read(buffer)) {
+        decoded.write(buffer, 0, count);
+      }
+      assertArrayEquals(body, decoded.toByteArray());
+    }
+  }
+
+  @Test
+  public void testLeavesSmallBodies() throws Exception {
+    System.out.println("Testing Compression - small bodies");
+    byte[] body = "[{\"type\":[\"host\"]}]".getBytes("UTF-8");
+    MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CompressingOutputStream stream = new CompressingOutputStream(out, headers, "gzip", 1024, 6);
+    stream.write(body);
+    stream.close();
+
+    assertNull(headers.get(HttpHeaders.CONTENT_ENCODING));
+    assertArrayEquals(body, out.toByteArray());
+  }
+
+  @Test
+  public void testLimitsDecompressedBodies() throws Exception {
+    System.out.println("Testing Compression - decompressed size limit");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    gzip.write(new byte[1 << 20]);
+    gzip.close();
+    byte[] body = out.toByteArray();
+
+    // the whole body fits in the limit
+    InputStream in =
+        new DecompressionInterceptor.LimitedInputStream(
+            new GZIPInputStream(new ByteArrayInputStream(body)), 1 << 20);
+    byte[] buffer = new byte[4096];
+    int total = 0;
+    for (int count = in.read(buffer); count > 0; count = in.read(buffer)) {
+      total += count;
+    }
+    assertEquals(1 << 20, total);
+
+    // a few KB of gzip do not expand past the limit
+    in =
+        new DecompressionInterceptor.LimitedInputStream(
+            new GZIPInputStream(new ByteArrayInputStream(body)), 1000);
+    try {
+      while (in.read(buffer) > 0) {
+        // reading
+      }
+      throw new AssertionError("Read past the limit");
+    } catch (RequestEntityTooLargeException e) {
+      assertEquals(413, e.getResponse().getStatus());
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package net.es.lookup.resources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import net.es.lookup.api.AccessService;
+import net.es.lookup.api.QueryServices;
+import net.es.lookup.common.Message;
+import net.es.lookup.common.ReservedKeys;
+import net.es.lookup.common.ResponseCodes;
+import net.es.lookup.common.exception.api.BadRequestException;
+import net.es.lookup.database.InMemoryRecordStore;
+import net.es.lookup.database.QueryOptions;
+import net.es.lookup.database.RecordStoreManager;
+import net.es.lookup.protocol.binary.BinaryCodec;
+import net.sf.json.JSONArray;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+public class MainResourceTest {
+
+  private static final int RECORDS = 250;
+  private static final int LIMIT = 100;
+
+  @Test
+  public void testPagesUnboundedMessagePack() throws Exception {
+    System.out.println("Testing Main Resource - unbounded MessagePack queries");
+    InMemoryRecordStore store = new InMemoryRecordStore();
+    RecordStoreManager.setInstance(store);
+    MainResource.setMaxResultsLimit(LIMIT);
+    try {
+      // an empty result is still an array
+      assertArrayEquals(new byte[] {(byte) 0x90}, query(new QueryOptions()));
+
+      String expires = new DateTime().plusHours(2).toString(ISODateTimeFormat.dateTime());
+      for (int i = 0; i < RECORDS; i++) {
+        Message record = new Message();
+        record.add(ReservedKeys.RECORD_URI, String.format("lookup/host/%05d", i));
+        record.add(ReservedKeys.RECORD_TYPE, Arrays.asList("host"));
+        record.add(ReservedKeys.RECORD_EXPIRES, expires);
+        store.publishService(record);
+      }
+
+      // the records come as one array, in pages of the configured limit
+      QueryOptions options = new QueryOptions();
+      int read = 0;
+      while (read < RECORDS) {
+        MainResource.boundPage(options, BinaryCodec.MSGPACK);
+        assertEquals(LIMIT, options.getMaxResults());
+        Response response =
+            new QueryServices().streamQuery(new Message(), options, false, BinaryCodec.MSGPACK);
+        List<?> page = (List<?>) BinaryCodec.MSGPACK.decode(body(response));
+        read += page.size();
+        String continuation = response.getHeaderString(ReservedKeys.RECORD_CONTINUATION_HEADER);
+        if (read < RECORDS) {
+          assertEquals(LIMIT, page.size());
+          assertNotNull(continuation);
+        }
+        options = new QueryOptions();
+        options.setContinuation(continuation);
+      }
+      assertEquals(RECORDS, read);
+
+      // CBOR streams arrays of any length
+      options = new QueryOptions();
+      MainResource.boundPage(options, BinaryCodec.CBOR);
+      assertEquals(0, options.getMaxResults());
+    } finally {
+      MainResource.setMaxResultsLimit(10000);
+      RecordStoreManager.setInstance(null);
+    }
+  }
+
+  @Test
+  public void testBoundsMultiGet() throws Exception {
+    System.out.println("Testing Main Resource - _mget bounds");
+    RecordStoreManager.setInstance(new InMemoryRecordStore());
+    try {
+      String request = "{\"record-uris\": [\"lookup/host/1\", \"lookup/host/2\"]}";
+      try {
+        new AccessService().getServices(request, null, null, 1);
+        fail("Accepted more uris than the limit");
+      } catch (BadRequestException e) {
+        // expected
+      }
+
+      // misses have a numeric error code, as in the bulk renew response
+      JSONArray records =
+          JSONArray.fromObject(
+              new String(body(new AccessService().getServices(request, null, null, 2)), "UTF-8"));
+      assertEquals(2, records.size());
+      assertEquals(
+          ResponseCodes.ERROR_BULK_NOTFOUND,
+          records.getJSONObject(0).get(ReservedKeys.ERROR_CODE));
+    } finally {
+      RecordStoreManager.setInstance(null);
+    }
+  }
+
+  private static byte[] query(QueryOptions options) throws Exception {
+
+    MainResource.boundPage(options, BinaryCodec.MSGPACK);
+    Response response =
+        new QueryServices().streamQuery(new Message(), options, false, BinaryCodec.MSGPACK);
+    return body(response);
+  }
+
+  private static byte[] body(Response response) throws Exception {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((StreamingOutput) response.getEntity()).write(out);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,273 @@
+package net.es.lookup.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import net.es.lookup.common.exception.api.ServiceUnavailableTemporarilyException;
+import org.junit.Test;
+
+public class RequestExecutorTest {
+
+  @Test
+  public void testResumesWithResult() throws Exception {
+    System.out.println("Testing Request Executor - results and errors");
+    RequestExecutor executor = new RequestExecutor(2, 10, 0);
+
+    TestResponse response = new TestResponse();
+    executor.submit(response, constant("ok"));
+    assertEquals("ok", response.await());
+
+    response = new TestResponse();
+    executor.submit(
+        response,
+        new Callable<String>() {
+
+          @Override
+          public String call() {
+
+            throw new ServiceUnavailableTemporarilyException("down");
+          }
+        });
+    assertTrue(response.await() instanceof ServiceUnavailableTemporarilyException);
+  }
+
+  @Test
+  public void testRejectsWhenFull() throws Exception {
+    System.out.println("Testing Request Executor - bounded queue");
+    RequestExecutor executor = new RequestExecutor(1, 1, 0);
+    final CountDownLatch release = new CountDownLatch(1);
+    Callable<String> blocked =
+        new Callable<String>() {
+
+          @Override
+          public String call() throws Exception {
+
+            release.await();
+            return "done";
+          }
+        };
+
+    TestResponse running = new TestResponse();
+    TestResponse queued = new TestResponse();
+    executor.submit(running, blocked);
+    executor.submit(queued, blocked);
+    try {
+      executor.submit(new TestResponse(), blocked);
+      throw new AssertionError("Accepted a request beyond the queue");
+    } catch (ServiceUnavailableTemporarilyException e) {
+      // expected
+    }
+    release.countDown();
+    assertEquals("done", running.await());
+    assertEquals("done", queued.await());
+  }
+
+  @Test
+  public void testBoundsThreadPerTask() throws Exception {
+    System.out.println("Testing Request Executor - thread per task");
+    // stands for the virtual thread per task executor of Java 21
+    ExecutorService threadPerTask = Executors.newCachedThreadPool();
+    RequestExecutor executor = new RequestExecutor(threadPerTask, 1, 1, 0);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger maxActive = new AtomicInteger();
+    Callable<String> blocked =
+        new Callable<String>() {
+
+          @Override
+          public String call() throws Exception {
+
+            int count = active.incrementAndGet();
+            if (count > maxActive.get()) {
+              maxActive.set(count);
+            }
+            release.await();
+            active.decrementAndGet();
+            return "done";
+          }
+        };
+
+    TestResponse running = new TestResponse();
+    TestResponse queued = new TestResponse();
+    executor.submit(running, blocked);
+    executor.submit(queued, blocked);
+    try {
+      executor.submit(new TestResponse(), blocked);
+      throw new AssertionError("Accepted a request beyond the queue");
+    } catch (ServiceUnavailableTemporarilyException e) {
+      // expected
+    }
+    release.countDown();
+    assertEquals("done", running.await());
+    assertEquals("done", queued.await());
+    assertEquals(1, maxActive.get());
+
+    // the permits are given back
+    TestResponse again = new TestResponse();
+    executor.submit(again, constant("ok"));
+    assertEquals("ok", again.await());
+    threadPerTask.shutdown();
+  }
+
+  @Test
+  public void testCancelsOnTimeout() throws Exception {
+    System.out.println("Testing Request Executor - timeout");
+    RequestExecutor executor = new RequestExecutor(1, 1, 30);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+
+    TestResponse response = new TestResponse();
+    executor.submit(
+        response,
+        new Callable<String>() {
+
+          @Override
+          public String call() {
+
+            started.countDown();
+            try {
+              Thread.sleep(60000);
+            } catch (InterruptedException e) {
+              interrupted.countDown();
+            }
+            return "late";
+          }
+        });
+    assertEquals(30, response.timeout);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    response.timeoutHandler.handleTimeout(response);
+
+    assertTrue(response.await() instanceof WebApplicationException);
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  private static Callable<String> constant(final String value) {
+
+    return new Callable<String>() {
+
+      @Override
+      public String call() {
+
+        return value;
+      }
+    };
+  }
+
+  /** Records the first value the request is resumed with, like Jersey does. */
+  private static class TestResponse implements AsyncResponse {
+
+    private final CountDownLatch resumed = new CountDownLatch(1);
+    private volatile Object value;
+    private long timeout;
+    private TimeoutHandler timeoutHandler;
+
+    Object await() throws InterruptedException {
+
+      assertTrue(resumed.await(5, TimeUnit.SECONDS));
+      return value;
+    }
+
+    @Override
+    public synchronized boolean resume(Object response) {
+
+      if (resumed.getCount() == 0) {
+        return false;
+      }
+      value = response;
+      resumed.countDown();
+      return true;
+    }
+
+    @Override
+    public boolean resume(Throwable response) {
+
+      return resume((Object) response);
+    }
+
+    @Override
+    public boolean cancel() {
+
+      return false;
+    }
+
+    @Override
+    public boolean cancel(int retryAfter) {
+
+      return false;
+    }
+
+    @Override
+    public boolean cancel(Date retryAfter) {
+
+      return false;
+    }
+
+    @Override
+    public boolean isSuspended() {
+
+      return resumed.getCount() > 0;
+    }
+
+    @Override
+    public boolean isCancelled() {
+
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+
+      return !isSuspended();
+    }
+
+    @Override
+    public boolean setTimeout(long time, TimeUnit unit) {
+
+      timeout = unit.toSeconds(time);
+      return isSuspended();
+    }
+
+    @Override
+    public void setTimeoutHandler(TimeoutHandler handler) {
+
+      timeoutHandler = handler;
+    }
+
+    @Override
+    public Collection<Class<?>> register(Class<?> callback) {
+
+      return null;
+    }
+
+    @Override
+    public Map<Class<?>, Collection<Class<?>>> register(
+        Class<?> callback, Class<?>... callbacks) {
+
+      return null;
+    }
+
+    @Override
+    public Collection<Class<?>> register(Object callback) {
+
+      return null;
+    }
+
+    @Override
+    public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+
+      return null;
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package net.es.lookup.testsuites;
+
+import net.es.lookup.protocol.json.JsonBulkRegisterRequestTest;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+  JsonBulkRegisterRequestTest.class
+})
+public class BulkRegisterSuite {}